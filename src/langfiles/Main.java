@@ -27,9 +27,12 @@ import javax.swing.SwingUtilities;
 import javax.swing.event.ChangeEvent;
 import langfiles.gui.MainWindow;
 import langfiles.project.Project;
+import langfiles.project.StringLiteralIndex;
+import langfiles.project.StringLiteralTracker;
 import langfiles.util.Config;
 import langfiles.util.ConfigTool;
 import langfiles.util.Splash;
+import langfiles.util.SyncFileSnapshotStore;
 
 /**
  * The main class.
@@ -81,6 +84,12 @@ public class Main {
    * It is used to remove the MainWindow from {@link #mainWindowList}.
    */
   protected MainWindowEventListener mainWindowEventListener;
+  /**
+   * The saved SyncFile trees, to show the projects before the disk is
+   * scanned.
+   */
+  protected SyncFileSnapshotStore snapshotStore;
+  protected StringLiteralIndex literalIndex;
 
   /**
    * Constructor. Should invoke {@link #initialize} after construction.
@@ -150,12 +159,13 @@ public class Main {
 
       @Override
       public void run() {
-        if (config.isChanged()) {
-          try {
+        try {
+          if (config.isChanged()) {
             config.save();
-          } catch (IOException ex) {
-            LOG.log(Level.SEVERE, null, ex);
           }
+          config.close();
+        } catch (IOException ex) {
+          LOG.log(Level.SEVERE, null, ex);
         }
       }
     });
@@ -172,12 +182,48 @@ public class Main {
 
       @Override
       public void run() {
-        if (preference.isChanged()) {
-          try {
+        try {
+          if (preference.isChanged()) {
             preference.save();
-          } catch (IOException ex) {
-            LOG.log(Level.SEVERE, null, ex);
           }
+          preference.close();
+        } catch (IOException ex) {
+          LOG.log(Level.SEVERE, null, ex);
+        }
+      }
+    });
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="snapshot">
+    snapshotStore = new SyncFileSnapshotStore(new File(storageDirectoryPath + "/snapshot.dat"));
+    snapshotStore.load();
+    SyncFileSnapshotStore.setDefault(snapshotStore);
+    addShutdownEvent(100, new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          snapshotStore.save();
+        } catch (IOException ex) {
+          LOG.log(Level.SEVERE, null, ex);
+        }
+      }
+    });
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="string literal index">
+    literalIndex = new StringLiteralIndex(new File(storageDirectoryPath + "/literals.dat"), new StringLiteralTracker());
+    literalIndex.load();
+    StringLiteralIndex.setDefault(literalIndex);
+    addShutdownEvent(100, new Runnable() {
+
+      @Override
+      public void run() {
+        literalIndex.close();
+        try {
+          literalIndex.save();
+        } catch (IOException ex) {
+          LOG.log(Level.SEVERE, null, ex);
         }
       }
     });
@@ -25,7 +25,9 @@ import langfiles.project.CodeViewer;
 import langfiles.project.Project;
 import langfiles.project.ProjectListener;
 import langfiles.util.Config;
+import langfiles.util.FileContentCache;
 import langfiles.util.SyncFile;
+import langfiles.util.SyncFileChangeBatch;
 import langfiles.util.SyncFileListener;
 
 /**
@@ -218,6 +220,7 @@ public class CodePanel {
 
             @Override
             public void fileDeleted(SyncFile fileDeleted, String rootPath, String name) {
+                FileContentCache.getDefault().invalidate(fileDeleted.getFile());
                 CodePanelTab codePanelTab = (CodePanelTab) fileDeleted.getUserObject("codePanelTab");
                 if (codePanelTab != null) {
                     tabbedPane.remove(codePanelTab);
@@ -243,6 +246,15 @@ public class CodePanel {
                     tabbedPane.setTitleAt(tabbedPane.indexOfComponent(codePanelTab), fileRenamed.getFileName());
                 }
             }
+
+            @Override
+            public void filesChanged(SyncFileChangeBatch batch) {
+                if (batch.isDeleted(syncFile)) {
+                    fileDeleted(syncFile, syncFile.getAbsolutePath(), "");
+                } else if (batch.isModified(syncFile)) {
+                    fileModified(syncFile, syncFile.getAbsolutePath(), "");
+                }
+            }
         };
         syncFile.addListener(syncFileListener);
         //</editor-fold>
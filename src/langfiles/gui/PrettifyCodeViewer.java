@@ -13,6 +13,7 @@ import javax.swing.JCheckBox;
 import javax.swing.JComponent;
 import javax.swing.text.BadLocationException;
 import langfiles.project.CodeViewer;
+import langfiles.util.FileContentCache;
 import langfiles.util.SyncFile;
 import prettify.SyntaxHighlighter;
 import prettify.gui.SyntaxHighlighterPane;
@@ -32,8 +33,13 @@ public class PrettifyCodeViewer implements CodeViewer {
 
     @Override
     public void setCode(SyncFile syncFile) {
+        if (syncFile.isBinary()) {
+            highlighter.setContent("");
+            return;
+        }
         try {
-            highlighter.setContent(syncFile.getFile());
+            // the content is only read and decoded again if the file changed
+            highlighter.setContent(FileContentCache.getDefault().get(syncFile).getContent());
         } catch (IOException ex) {
             Logger.getLogger(SyntaxHighlightedCodeViewer.class.getName()).log(Level.SEVERE, null, ex);
         }
@@ -11,8 +11,10 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 import javax.swing.BorderFactory;
 import javax.swing.Icon;
@@ -38,6 +40,7 @@ import langfiles.project.ProjectListener;
 import langfiles.util.Config;
 import langfiles.util.SortedArrayList;
 import langfiles.util.SyncFile;
+import langfiles.util.SyncFileChangeBatch;
 import langfiles.util.SyncFileListener;
 
 /**
@@ -221,6 +224,7 @@ public class ProjectPanel {
                         SyncFile syncFile = (SyncFile) userObject;
                         Project project = (Project) syncFile.getInheritUserObject("project");
                         String filePath = syncFile.getFile().getAbsolutePath();
+                        syncFile.setWatchVisible(true);
 
                         synchronized (projectExpandCollapseRecordList) {
                             boolean recordExist = false;
@@ -261,6 +265,7 @@ public class ProjectPanel {
                         }
                         Project project = (Project) syncFile.getInheritUserObject("project");
                         String filePath = syncFile.getFile().getAbsolutePath();
+                        syncFile.setWatchVisible(false);
 
                         synchronized (projectExpandCollapseRecordList) {
                             List<String> projectExpandCollapseRecord = projectExpandCollapseRecordList.get(project);
@@ -377,6 +382,37 @@ public class ProjectPanel {
                 DefaultTreeModel treeModel = (DefaultTreeModel) tree.getModel();
                 treeModel.reload(parentTreeNode);
             }
+
+            @Override
+            public void filesChanged(SyncFileChangeBatch batch) {
+                // reload every affected directory node once, instead of once per file
+                Set<DefaultMutableTreeNode> nodesToReload = new LinkedHashSet<DefaultMutableTreeNode>();
+
+                for (SyncFile fileDeleted : batch.getDeletedFiles()) {
+                    DefaultMutableTreeNode fileTreeNode = (DefaultMutableTreeNode) fileDeleted.getUserObject("treeNode");
+                    if (fileTreeNode == null || fileTreeNode.getParent() == null) {
+                        continue;
+                    }
+                    nodesToReload.add((DefaultMutableTreeNode) fileTreeNode.getParent());
+                    fileTreeNode.removeFromParent();
+                }
+                for (SyncFile fileCreated : batch.getCreatedFiles()) {
+                    DefaultMutableTreeNode fileTreeNode = (DefaultMutableTreeNode) fileCreated.getParent().getUserObject("treeNode");
+                    if (fileTreeNode == null) {
+                        continue;
+                    }
+                    addChildNodes(new ArrayList<String>(), new ArrayList<TreePath>(), fileTreeNode, fileCreated);
+                    nodesToReload.add(fileTreeNode);
+                }
+
+                DefaultTreeModel treeModel = (DefaultTreeModel) tree.getModel();
+                for (DefaultMutableTreeNode treeNode : nodesToReload) {
+                    // skip the nodes removed together with their deleted ancestor
+                    if (treeNode.getRoot() == treeModel.getRoot()) {
+                        treeModel.reload(treeNode);
+                    }
+                }
+            }
         };
     }
 
@@ -45,6 +45,7 @@ import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import langfiles.util.CommonUtil;
 import langfiles.util.InterruptibleCharSequence;
+import langfiles.util.ResourceCleaner;
 
 /**
  * The regular expression tester panel.
@@ -63,6 +64,10 @@ public class RegularExpressionTester {
     protected ButtonPanel buttonPanel;
     //
     protected ExecutorService threadExecutor;
+    /**
+     * Shut down the executor if this is collected without {@link #close()}.
+     */
+    protected ResourceCleaner.Cleanable threadExecutorCleanable;
     protected Future<?> currentTask;
     protected final Object lock = new Object();
 
@@ -229,6 +234,8 @@ public class RegularExpressionTester {
     public void close() {
         synchronized (lock) {
             if (threadExecutor != null) {
+                threadExecutorCleanable.unregister();
+                threadExecutorCleanable = null;
                 threadExecutor.shutdownNow();
                 threadExecutor = null;
             }
@@ -434,6 +441,7 @@ public class RegularExpressionTester {
         synchronized (lock) {
             if (threadExecutor == null) {
                 threadExecutor = Executors.newSingleThreadExecutor();
+                threadExecutorCleanable = ResourceCleaner.getDefault().register(this, newShutdownAction(threadExecutor));
             }
             if (currentTask != null) {
                 currentTask.cancel(true);
@@ -658,13 +666,19 @@ public class RegularExpressionTester {
         }
     }
 
-    @Override
-    protected void finalize() throws Throwable {
-        super.finalize();
-        if (threadExecutor != null) {
-            threadExecutor.shutdownNow();
-            Logger.getLogger(RegularExpressionTester.class.getName()).log(Level.SEVERE, "Regular Expression Tester not closed (invoke close()) properly.");
-        }
+    /**
+     * The action for {@link ResourceCleaner} to shut down the executor if the tester is collected without
+     * {@link #close()}, it must not refer to the tester.
+     */
+    protected static Runnable newShutdownAction(final ExecutorService executor) {
+        return new Runnable() {
+
+            @Override
+            public void run() {
+                executor.shutdownNow();
+                Logger.getLogger(RegularExpressionTester.class.getName()).log(Level.SEVERE, "Regular Expression Tester not closed (invoke close()) properly.");
+            }
+        };
     }
 
     /**
@@ -15,6 +15,7 @@ import javax.swing.JCheckBox;
 import javax.swing.JComponent;
 import javax.swing.text.BadLocationException;
 import langfiles.project.CodeViewer;
+import langfiles.util.FileContentCache;
 import langfiles.util.SyncFile;
 import syntaxhighlighter.SyntaxHighlighter;
 import syntaxhighlighter.brush.BrushJava;
@@ -36,8 +37,13 @@ public class SyntaxHighlightedCodeViewer implements CodeViewer {
 
     @Override
     public void setCode(final SyncFile syncFile) {
+        if (syncFile.isBinary()) {
+            highlighter.setContent("");
+            return;
+        }
         try {
-            highlighter.setContent(syncFile.getFile());
+            // the content is only read and decoded again if the file changed
+            highlighter.setContent(FileContentCache.getDefault().get(syncFile).getContent());
         } catch (IOException ex) {
             Logger.getLogger(SyntaxHighlightedCodeViewer.class.getName()).log(Level.SEVERE, null, ex);
         }
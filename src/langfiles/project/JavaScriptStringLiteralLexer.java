@@ -0,0 +1,405 @@
+package langfiles.project;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The string literal lexer of JavaScript, including the template literals.
+ * <p>
+ * A template literal with substitutions is interpolated, the source of the
+ * substitutions is kept in the value as is, the literals inside the
+ * substitutions are found too. A '/' is taken as the beginning of a regular
+ * expression when the previous token is not an identifier, a number, ')' or
+ * ']', except the keywords like return and typeof and the ')' closing the
+ * condition of if, while, for and with. The text of JSX is not a literal.
+ * </p>
+ * <p>
+ * The lexer does not stop inside a substitution or a condition, where its
+ * state depends on the content before.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class JavaScriptStringLiteralLexer extends StringLiteralLexer {
+
+  /**
+   * The keywords after which a '/' begins a regular expression.
+   */
+  protected static final String[] EXPRESSION_KEYWORDS = {"return", "typeof", "instanceof", "in", "of", "new", "delete",
+    "void", "throw", "case", "do", "else", "yield", "await"};
+  /**
+   * The keywords whose parenthesized condition is followed by a statement, a
+   * '/' after the ')' begins a regular expression.
+   */
+  protected static final String[] CONDITION_KEYWORDS = {"if", "while", "for", "with"};
+
+  /**
+   * Constructor.
+   */
+  public JavaScriptStringLiteralLexer() {
+  }
+
+  @Override
+  public int lex(CharSequence content, int start, int stop, boolean resume, List<StringLiteral> literalList) {
+    if (content == null) {
+      throw new NullPointerException("argument 'content' cannot be null");
+    }
+    if (literalList == null) {
+      throw new NullPointerException("argument 'literalList' cannot be null");
+    }
+    int length = content.length();
+    StringBuilder sb = new StringBuilder();
+    // the template literals whose substitution is being lexed, the innermost last
+    List<Template> templateStack = null;
+    int braceDepth = 0;
+    // for every open '(', true if it is the condition of if, while, for or with
+    boolean[] parenStack = new boolean[16];
+    int parenDepth = 0;
+    int conditionCount = 0;
+    boolean afterConditionKeyword = false;
+    // a '/' after a literal is a division
+    boolean regexAllowed = !resume;
+    int i = start;
+    while (i < length) {
+      char c = content.charAt(i);
+      if (c != '(' && !Character.isWhitespace(c) && !Character.isJavaIdentifierStart(c)) {
+        afterConditionKeyword = false;
+      }
+      switch (c) {
+        case '/':
+          if (i + 1 < length) {
+            char next = content.charAt(i + 1);
+            if (next == '/') {
+              i = skipLine(content, i + 2, length);
+              continue;
+            }
+            if (next == '*') {
+              i = skipBlockComment(content, i + 2, length);
+              continue;
+            }
+          }
+          if (regexAllowed) {
+            int regexEnd = skipRegex(content, i + 1, length);
+            if (regexEnd != -1) {
+              i = regexEnd;
+              regexAllowed = false;
+              continue;
+            }
+          }
+          i++;
+          regexAllowed = true;
+          break;
+        case '\'':
+        case '"': {
+          int literalStart = i;
+          int literalCount = literalList.size();
+          i = readString(content, i, length, c, sb, literalList);
+          regexAllowed = false;
+          if (literalStart >= stop && literalList.size() > literalCount && conditionCount == 0 && (templateStack == null || templateStack.isEmpty())) {
+            return i;
+          }
+          break;
+        }
+        case '`': {
+          Template template = new Template(i, literalList.size(), braceDepth);
+          i = readTemplate(content, i + 1, length, template, literalList);
+          if (template.closed && template.offset >= stop && conditionCount == 0 && (templateStack == null || templateStack.isEmpty())) {
+            return i;
+          }
+          if (template.expressionStart != -1) {
+            if (templateStack == null) {
+              templateStack = new ArrayList<Template>();
+            }
+            templateStack.add(template);
+          }
+          regexAllowed = template.expressionStart != -1;
+          break;
+        }
+        case '{':
+          braceDepth++;
+          i++;
+          regexAllowed = true;
+          break;
+        case '}':
+          if (templateStack != null && !templateStack.isEmpty() && templateStack.get(templateStack.size() - 1).braceDepth == braceDepth) {
+            // the end of a substitution
+            Template template = templateStack.remove(templateStack.size() - 1);
+            template.value.append(content, template.expressionStart, i + 1);
+            template.expressionStart = -1;
+            i = readTemplate(content, i + 1, length, template, literalList);
+            if (template.closed && template.offset >= stop && conditionCount == 0 && templateStack.isEmpty()) {
+              return i;
+            }
+            if (template.expressionStart != -1) {
+              templateStack.add(template);
+            }
+            regexAllowed = template.expressionStart != -1;
+            break;
+          }
+          braceDepth--;
+          i++;
+          regexAllowed = true;
+          break;
+        case '(':
+          if (parenDepth == parenStack.length) {
+            parenStack = Arrays.copyOf(parenStack, parenDepth * 2);
+          }
+          parenStack[parenDepth++] = afterConditionKeyword;
+          if (afterConditionKeyword) {
+            conditionCount++;
+          }
+          afterConditionKeyword = false;
+          i++;
+          regexAllowed = true;
+          break;
+        case ')':
+          regexAllowed = parenDepth > 0 && parenStack[--parenDepth];
+          if (regexAllowed) {
+            conditionCount--;
+          }
+          i++;
+          break;
+        case ']':
+          i++;
+          regexAllowed = false;
+          break;
+        default:
+          if (Character.isJavaIdentifierStart(c)) {
+            int wordEnd = i + 1;
+            while (wordEnd < length && Character.isJavaIdentifierPart(content.charAt(wordEnd))) {
+              wordEnd++;
+            }
+            regexAllowed = isKeyword(content, i, wordEnd, EXPRESSION_KEYWORDS);
+            afterConditionKeyword = isKeyword(content, i, wordEnd, CONDITION_KEYWORDS);
+            i = wordEnd;
+          } else if (c >= '0' && c <= '9') {
+            i++;
+            while (i < length && (Character.isJavaIdentifierPart(content.charAt(i)) || content.charAt(i) == '.')) {
+              i++;
+            }
+            regexAllowed = false;
+          } else {
+            if (!Character.isWhitespace(c)) {
+              regexAllowed = true;
+            }
+            i++;
+          }
+      }
+    }
+    return length;
+  }
+
+  protected static boolean isKeyword(CharSequence content, int start, int end, String[] keywords) {
+    for (String keyword : keywords) {
+      if (regionEquals(content, start, end, keyword)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param offset the offset after the opening '/'
+   * @return the offset after the flags, -1 if it is not a regular expression
+   */
+  protected static int skipRegex(CharSequence content, int offset, int length) {
+    boolean inClass = false;
+    int i = offset;
+    while (i < length) {
+      char c = content.charAt(i);
+      if (c == '\n' || c == '\r') {
+        return -1;
+      }
+      if (c == '\\') {
+        i += 2;
+        continue;
+      }
+      if (c == '[') {
+        inClass = true;
+      } else if (c == ']') {
+        inClass = false;
+      } else if (c == '/' && !inClass) {
+        i++;
+        while (i < length && Character.isJavaIdentifierPart(content.charAt(i))) {
+          i++;
+        }
+        return i;
+      }
+      i++;
+    }
+    return -1;
+  }
+
+  /**
+   * @param offset the offset of the opening quote
+   * @return the offset after the closing quote, or the line terminator if not
+   * closed
+   */
+  protected static int readString(CharSequence content, int offset, int length, char quote, StringBuilder sb, List<StringLiteral> literalList) {
+    sb.setLength(0);
+    int i = offset + 1;
+    while (i < length) {
+      char c = content.charAt(i);
+      if (c == quote) {
+        literalList.add(new StringLiteral(offset, i + 1 - offset, sb, false));
+        return i + 1;
+      }
+      if (c == '\n' || c == '\r') {
+        return i;
+      }
+      if (c == '\\') {
+        i = readEscape(content, i + 1, length, sb);
+        continue;
+      }
+      sb.append(c);
+      i++;
+    }
+    return length;
+  }
+
+  /**
+   * Read the template literal until the closing backtick or the beginning of
+   * a substitution. The literal is added to the list when closed.
+   * @param offset the offset after the opening backtick or the end of the
+   * substitution
+   * @return the offset after the closing backtick, or after the '${' with
+   * {@link Template#expressionStart} set
+   */
+  protected static int readTemplate(CharSequence content, int offset, int length, Template template, List<StringLiteral> literalList) {
+    int i = offset;
+    while (i < length) {
+      char c = content.charAt(i);
+      if (c == '`') {
+        // the literals in the substitutions were added after it began
+        literalList.add(template.listIndex, new StringLiteral(template.offset, i + 1 - template.offset, template.value,
+                template.interpolated));
+        template.closed = true;
+        return i + 1;
+      }
+      if (c == '$' && i + 1 < length && content.charAt(i + 1) == '{') {
+        template.interpolated = true;
+        template.expressionStart = i;
+        return i + 2;
+      }
+      if (c == '\\') {
+        i = readEscape(content, i + 1, length, template.value);
+        continue;
+      }
+      if (c == '\r') {
+        template.value.append('\n');
+        i = skipLineTerminator(content, i, length);
+        continue;
+      }
+      template.value.append(c);
+      i++;
+    }
+    return length;
+  }
+
+  /**
+   * @param offset the offset after the backslash
+   * @return the offset after the escape sequence
+   */
+  protected static int readEscape(CharSequence content, int offset, int length, StringBuilder sb) {
+    if (offset >= length) {
+      return length;
+    }
+    char c = content.charAt(offset);
+    switch (c) {
+      case 'b':
+        sb.append('\b');
+        break;
+      case 't':
+        sb.append('\t');
+        break;
+      case 'n':
+        sb.append('\n');
+        break;
+      case 'v':
+        sb.append('\013');
+        break;
+      case 'f':
+        sb.append('\f');
+        break;
+      case 'r':
+        sb.append('\r');
+        break;
+      case 'x': {
+        int value = parseHex(content, offset + 1, 2, length);
+        if (value == -1) {
+          sb.append(c);
+          break;
+        }
+        sb.append((char) value);
+        return offset + 3;
+      }
+      case 'u': {
+        if (offset + 1 < length && content.charAt(offset + 1) == '{') {
+          int escapeEnd = readCodePointEscape(content, offset + 1, length, sb);
+          if (escapeEnd != -1) {
+            return escapeEnd;
+          }
+          sb.append(c);
+          break;
+        }
+        int value = parseHex(content, offset + 1, 4, length);
+        if (value == -1) {
+          sb.append(c);
+          break;
+        }
+        sb.append((char) value);
+        return offset + 5;
+      }
+      case '\n':
+      case '\r':
+      case (char) 0x2028:
+      case (char) 0x2029: {
+        // line continuation
+        int lineEnd = skipLineTerminator(content, offset, length);
+        return lineEnd > offset ? lineEnd : offset + 1;
+      }
+      default:
+        if (c >= '0' && c <= '7') {
+          return readOctalEscape(content, offset, length, sb);
+        }
+        sb.append(c);
+    }
+    return offset + 1;
+  }
+
+  /**
+   * A template literal being read.
+   */
+  protected static class Template {
+
+    protected final int offset;
+    /**
+     * The index in the literal list to insert the literal at, the literals in
+     * the substitutions come after it.
+     */
+    protected final int listIndex;
+    /**
+     * The brace depth outside the template literal, a '}' at this depth ends
+     * the substitution.
+     */
+    protected final int braceDepth;
+    protected final StringBuilder value;
+    protected boolean interpolated;
+    protected boolean closed;
+    /**
+     * The offset of the '${' of the substitution being lexed, -1 if not in a
+     * substitution.
+     */
+    protected int expressionStart;
+
+    protected Template(int offset, int listIndex, int braceDepth) {
+      this.offset = offset;
+      this.listIndex = listIndex;
+      this.braceDepth = braceDepth;
+      value = new StringBuilder();
+      interpolated = false;
+      closed = false;
+      expressionStart = -1;
+    }
+  }
+}
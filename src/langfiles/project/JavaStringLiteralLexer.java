@@ -0,0 +1,251 @@
+package langfiles.project;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The string literal lexer of Java, including the text blocks. Char literals
+ * are not string literals.
+ * <p>
+ * The unicode escapes are decoded inside the literals only, a quote written
+ * as a unicode escape outside a literal is not taken as a quote.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class JavaStringLiteralLexer extends StringLiteralLexer {
+
+  /**
+   * Constructor.
+   */
+  public JavaStringLiteralLexer() {
+  }
+
+  @Override
+  public int lex(CharSequence content, int start, int stop, boolean resume, List<StringLiteral> literalList) {
+    if (content == null) {
+      throw new NullPointerException("argument 'content' cannot be null");
+    }
+    if (literalList == null) {
+      throw new NullPointerException("argument 'literalList' cannot be null");
+    }
+    int length = content.length();
+    StringBuilder sb = new StringBuilder();
+    int i = start;
+    while (i < length) {
+      char c = content.charAt(i);
+      switch (c) {
+        case '/':
+          if (i + 1 < length) {
+            char next = content.charAt(i + 1);
+            if (next == '/') {
+              i = skipLine(content, i + 2, length);
+              continue;
+            }
+            if (next == '*') {
+              i = skipBlockComment(content, i + 2, length);
+              continue;
+            }
+          }
+          i++;
+          break;
+        case '\'':
+          i = skipQuoted(content, i + 1, length, '\'', false);
+          break;
+        case '"': {
+          int literalStart = i;
+          int literalCount = literalList.size();
+          if (i + 2 < length && content.charAt(i + 1) == '"' && content.charAt(i + 2) == '"') {
+            i = readTextBlock(content, i, length, sb, literalList);
+          } else {
+            i = readString(content, i, length, sb, literalList);
+          }
+          if (literalStart >= stop && literalList.size() > literalCount) {
+            return i;
+          }
+          break;
+        }
+        default:
+          i++;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * @param offset the offset of the opening quote
+   * @return the offset after the closing quote, or the line terminator if not
+   * closed
+   */
+  protected static int readString(CharSequence content, int offset, int length, StringBuilder sb, List<StringLiteral> literalList) {
+    sb.setLength(0);
+    int i = offset + 1;
+    while (i < length) {
+      char c = content.charAt(i);
+      if (c == '"') {
+        literalList.add(new StringLiteral(offset, i + 1 - offset, sb, false));
+        return i + 1;
+      }
+      if (c == '\n' || c == '\r') {
+        return i;
+      }
+      if (c == '\\') {
+        i = readEscape(content, i + 1, length, sb);
+        continue;
+      }
+      sb.append(c);
+      i++;
+    }
+    return length;
+  }
+
+  /**
+   * @param offset the offset of the opening delimiter
+   * @return the offset after the closing delimiter
+   */
+  protected static int readTextBlock(CharSequence content, int offset, int length, StringBuilder sb, List<StringLiteral> literalList) {
+    // the opening delimiter is followed by white spaces and a line terminator
+    int i = offset + 3;
+    while (i < length && (content.charAt(i) == ' ' || content.charAt(i) == '\t' || content.charAt(i) == '\f')) {
+      i++;
+    }
+    int contentStart = skipLineTerminator(content, i, length);
+    if (contentStart == i) {
+      return offset + 3;
+    }
+
+    i = contentStart;
+    while (i < length) {
+      char c = content.charAt(i);
+      if (c == '\\') {
+        i += 2;
+        continue;
+      }
+      if (c == '"' && i + 2 < length && content.charAt(i + 1) == '"' && content.charAt(i + 2) == '"') {
+        break;
+      }
+      i++;
+    }
+    if (i >= length) {
+      return length;
+    }
+
+    CharSequence stripped = stripIndent(content, contentStart, i);
+    sb.setLength(0);
+    int j = 0;
+    int strippedLength = stripped.length();
+    while (j < strippedLength) {
+      char c = stripped.charAt(j);
+      if (c == '\\') {
+        j = readEscape(stripped, j + 1, strippedLength, sb);
+        continue;
+      }
+      sb.append(c);
+      j++;
+    }
+    literalList.add(new StringLiteral(offset, i + 3 - offset, sb, false));
+    return i + 3;
+  }
+
+  /**
+   * Remove the incidental white spaces of the text block content like
+   * String.stripIndent() of Java 15, the line terminators are normalized to
+   * '\n'.
+   * @param start the offset after the line terminator of the opening
+   * delimiter
+   * @param end the offset of the closing delimiter
+   */
+  protected static CharSequence stripIndent(CharSequence content, int start, int end) {
+    List<int[]> lineList = new ArrayList<int[]>();
+    int lineStart = start;
+    while (true) {
+      int lineEnd = skipLine(content, lineStart, end);
+      lineList.add(new int[]{lineStart, lineEnd});
+      if (lineEnd >= end) {
+        break;
+      }
+      lineStart = skipLineTerminator(content, lineEnd, end);
+    }
+
+    // the last line, where the closing delimiter is, counts even if blank
+    int minIndent = Integer.MAX_VALUE;
+    for (int k = 0, kEnd = lineList.size(); k < kEnd; k++) {
+      int[] line = lineList.get(k);
+      int indent = line[0];
+      while (indent < line[1] && Character.isWhitespace(content.charAt(indent))) {
+        indent++;
+      }
+      if (indent < line[1] || k == kEnd - 1) {
+        minIndent = Math.min(minIndent, indent - line[0]);
+      }
+    }
+
+    StringBuilder sb = new StringBuilder(end - start);
+    for (int k = 0, kEnd = lineList.size(); k < kEnd; k++) {
+      int[] line = lineList.get(k);
+      int lineEnd = line[1];
+      while (lineEnd > line[0] && Character.isWhitespace(content.charAt(lineEnd - 1))) {
+        lineEnd--;
+      }
+      if (k > 0) {
+        sb.append('\n');
+      }
+      if (lineEnd - line[0] > minIndent) {
+        sb.append(content, line[0] + minIndent, lineEnd);
+      }
+    }
+    return sb;
+  }
+
+  /**
+   * @param offset the offset after the backslash
+   * @return the offset after the escape sequence
+   */
+  protected static int readEscape(CharSequence content, int offset, int length, StringBuilder sb) {
+    if (offset >= length) {
+      return length;
+    }
+    char c = content.charAt(offset);
+    switch (c) {
+      case 'b':
+        sb.append('\b');
+        break;
+      case 't':
+        sb.append('\t');
+        break;
+      case 'n':
+        sb.append('\n');
+        break;
+      case 'f':
+        sb.append('\f');
+        break;
+      case 'r':
+        sb.append('\r');
+        break;
+      case 's':
+        sb.append(' ');
+        break;
+      case 'u':
+        int i = offset;
+        while (i < length && content.charAt(i) == 'u') {
+          i++;
+        }
+        int value = parseHex(content, i, 4, length);
+        if (value == -1) {
+          sb.append(c);
+          break;
+        }
+        sb.append((char) value);
+        return i + 4;
+      case '\n':
+      case '\r':
+        // line continuation in text blocks
+        return skipLineTerminator(content, offset, length);
+      default:
+        if (c >= '0' && c <= '7') {
+          return readOctalEscape(content, offset, length, sb);
+        }
+        sb.append(c);
+    }
+    return offset + 1;
+  }
+}
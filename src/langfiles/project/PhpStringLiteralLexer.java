@@ -0,0 +1,462 @@
+package langfiles.project;
+
+import java.util.List;
+
+/**
+ * The string literal lexer of PHP, including the heredoc and nowdoc. Only the
+ * code between the open tags and '?&gt;' is lexed, the HTML outside is not.
+ * <p>
+ * A double-quoted string or heredoc with variables is interpolated, the
+ * source of the variables is kept in the value as is. The closing identifier
+ * of a heredoc may be indented, the indentation is removed from every line as
+ * PHP 7.3. The backtick shell commands are not literals.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class PhpStringLiteralLexer extends StringLiteralLexer {
+
+  /**
+   * Constructor.
+   */
+  public PhpStringLiteralLexer() {
+  }
+
+  @Override
+  public int lex(CharSequence content, int start, int stop, boolean resume, List<StringLiteral> literalList) {
+    if (content == null) {
+      throw new NullPointerException("argument 'content' cannot be null");
+    }
+    if (literalList == null) {
+      throw new NullPointerException("argument 'literalList' cannot be null");
+    }
+    int length = content.length();
+    StringBuilder sb = new StringBuilder();
+    boolean inCode = resume;
+    int i = start;
+    while (i < length) {
+      if (!inCode) {
+        i = skipHtml(content, i, length);
+        inCode = true;
+        continue;
+      }
+      char c = content.charAt(i);
+      switch (c) {
+        case '?':
+          if (i + 1 < length && content.charAt(i + 1) == '>') {
+            inCode = false;
+            i += 2;
+            continue;
+          }
+          i++;
+          break;
+        case '#':
+          if (i + 1 < length && content.charAt(i + 1) == '[') {
+            // attribute
+            i += 2;
+            continue;
+          }
+          i = skipLineComment(content, i + 1, length);
+          break;
+        case '/':
+          if (i + 1 < length) {
+            char next = content.charAt(i + 1);
+            if (next == '/') {
+              i = skipLineComment(content, i + 2, length);
+              continue;
+            }
+            if (next == '*') {
+              i = skipBlockComment(content, i + 2, length);
+              continue;
+            }
+          }
+          i++;
+          break;
+        case '\'':
+        case '"': {
+          int literalStart = i;
+          int literalCount = literalList.size();
+          if (c == '\'') {
+            i = readSingleQuoted(content, i, length, sb, literalList);
+          } else {
+            i = readDoubleQuoted(content, i, length, sb, literalList);
+          }
+          if (literalStart >= stop && literalList.size() > literalCount) {
+            return i;
+          }
+          break;
+        }
+        case '`':
+          i = skipQuoted(content, i + 1, length, '`', true);
+          break;
+        case '<':
+          if (i + 2 < length && content.charAt(i + 1) == '<' && content.charAt(i + 2) == '<') {
+            int literalStart = i;
+            int literalCount = literalList.size();
+            i = readHeredoc(content, i, length, sb, literalList);
+            if (literalStart >= stop && literalList.size() > literalCount) {
+              return i;
+            }
+            continue;
+          }
+          i++;
+          break;
+        default:
+          i++;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Skip to the code after the next open tag, '&lt;?php', '&lt;?=' or the
+   * short open tag '&lt;?' not followed by 'xml'.
+   * @return the offset after the open tag, or end if none
+   */
+  protected static int skipHtml(CharSequence content, int offset, int end) {
+    int length = content.length();
+    int i = offset;
+    while (i + 1 < end) {
+      if (content.charAt(i) != '<' || content.charAt(i + 1) != '?') {
+        i++;
+        continue;
+      }
+      int tagEnd = i + 2;
+      if (tagEnd < length && content.charAt(tagEnd) == '=') {
+        return tagEnd + 1;
+      }
+      if (regionEqualsIgnoreCase(content, tagEnd, "php")) {
+        return tagEnd + 3;
+      }
+      if (regionEqualsIgnoreCase(content, tagEnd, "xml")) {
+        i = tagEnd;
+        continue;
+      }
+      return tagEnd;
+    }
+    return end;
+  }
+
+  protected static boolean regionEqualsIgnoreCase(CharSequence content, int offset, String word) {
+    if (offset + word.length() > content.length()) {
+      return false;
+    }
+    for (int i = 0, iEnd = word.length(); i < iEnd; i++) {
+      if (Character.toLowerCase(content.charAt(offset + i)) != word.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Skip to the end of the line or the '?&gt;', which ends the comment too.
+   * @return the offset of the line terminator or the '?&gt;'
+   */
+  protected static int skipLineComment(CharSequence content, int offset, int length) {
+    int i = offset;
+    while (i < length) {
+      char c = content.charAt(i);
+      if (c == '\n' || c == '\r' || (c == '?' && i + 1 < length && content.charAt(i + 1) == '>')) {
+        break;
+      }
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * @param offset the offset of the opening quote
+   * @return the offset after the closing quote
+   */
+  protected static int readSingleQuoted(CharSequence content, int offset, int length, StringBuilder sb, List<StringLiteral> literalList) {
+    sb.setLength(0);
+    int i = offset + 1;
+    while (i < length) {
+      char c = content.charAt(i);
+      if (c == '\'') {
+        literalList.add(new StringLiteral(offset, i + 1 - offset, sb, false));
+        return i + 1;
+      }
+      if (c == '\\' && i + 1 < length) {
+        char next = content.charAt(i + 1);
+        if (next == '\\' || next == '\'') {
+          sb.append(next);
+          i += 2;
+          continue;
+        }
+      }
+      sb.append(c);
+      i++;
+    }
+    return length;
+  }
+
+  /**
+   * @param offset the offset of the opening quote
+   * @return the offset after the closing quote
+   */
+  protected static int readDoubleQuoted(CharSequence content, int offset, int length, StringBuilder sb, List<StringLiteral> literalList) {
+    int i = offset + 1;
+    while (i < length) {
+      char c = content.charAt(i);
+      if (c == '"') {
+        break;
+      }
+      if (c == '\\') {
+        i += 2;
+        continue;
+      }
+      if (c == '{' && i + 1 < length && content.charAt(i + 1) == '$') {
+        i = skipBraces(content, i, length);
+        continue;
+      }
+      if (c == '$' && i + 1 < length && content.charAt(i + 1) == '{') {
+        i = skipBraces(content, i + 1, length);
+        continue;
+      }
+      i++;
+    }
+    if (i >= length) {
+      return length;
+    }
+    sb.setLength(0);
+    boolean interpolated = decode(content, offset + 1, i, '"', sb);
+    literalList.add(new StringLiteral(offset, i + 1 - offset, sb, interpolated));
+    return i + 1;
+  }
+
+  /**
+   * @param offset the offset of the '&lt;&lt;&lt;'
+   * @return the offset after the closing identifier
+   */
+  protected static int readHeredoc(CharSequence content, int offset, int length, StringBuilder sb, List<StringLiteral> literalList) {
+    int i = offset + 3;
+    while (i < length && (content.charAt(i) == ' ' || content.charAt(i) == '\t')) {
+      i++;
+    }
+    char quote = i < length ? content.charAt(i) : 0;
+    if (quote == '\'' || quote == '"') {
+      i++;
+    } else {
+      quote = 0;
+    }
+    int identifierStart = i;
+    while (i < length && isIdentifierPart(content.charAt(i)) && (i > identifierStart || !Character.isDigit(content.charAt(i)))) {
+      i++;
+    }
+    int identifierEnd = i;
+    if (identifierEnd == identifierStart) {
+      return offset + 3;
+    }
+    if (quote != 0) {
+      if (i >= length || content.charAt(i) != quote) {
+        return offset + 3;
+      }
+      i++;
+    }
+    int bodyStart = skipLineTerminator(content, i, length);
+    if (bodyStart == i) {
+      return offset + 3;
+    }
+
+    // find the closing identifier at the beginning of a line, after the indentation
+    int lineStart = bodyStart;
+    while (lineStart < length) {
+      int identifierOffset = lineStart;
+      while (identifierOffset < length && (content.charAt(identifierOffset) == ' ' || content.charAt(identifierOffset) == '\t')) {
+        identifierOffset++;
+      }
+      int closingEnd = identifierOffset + identifierEnd - identifierStart;
+      if (closingEnd <= length && regionEquals(content, identifierOffset, closingEnd, content, identifierStart)
+              && (closingEnd == length || !isIdentifierPart(content.charAt(closingEnd)))) {
+        // the line terminator before the closing identifier is not a part of the string
+        int bodyEnd = lineStart == bodyStart ? bodyStart : lineStart - 1;
+        if (bodyEnd > bodyStart && content.charAt(bodyEnd) == '\n' && content.charAt(bodyEnd - 1) == '\r') {
+          bodyEnd--;
+        }
+        CharSequence body = removeIndent(content, bodyStart, bodyEnd, identifierOffset - lineStart);
+        sb.setLength(0);
+        boolean interpolated = false;
+        if (quote == '\'') {
+          sb.append(body);
+        } else {
+          interpolated = decode(body, 0, body.length(), (char) 0, sb);
+        }
+        literalList.add(new StringLiteral(offset, closingEnd - offset, sb, interpolated));
+        return closingEnd;
+      }
+      lineStart = skipLineTerminator(content, skipLine(content, lineStart, length), length);
+    }
+    return length;
+  }
+
+  protected static boolean isIdentifierPart(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c >= 0x80;
+  }
+
+  protected static boolean regionEquals(CharSequence content, int start, int end, CharSequence word, int wordStart) {
+    for (int i = start; i < end; i++) {
+      if (content.charAt(i) != word.charAt(wordStart + i - start)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Remove at most indent spaces and tabs from the beginning of every line.
+   */
+  protected static CharSequence removeIndent(CharSequence content, int start, int end, int indent) {
+    if (indent == 0) {
+      return content.subSequence(start, end);
+    }
+    StringBuilder sb = new StringBuilder(end - start);
+    int lineStart = start;
+    while (lineStart < end) {
+      int i = lineStart;
+      while (i < end && i - lineStart < indent && (content.charAt(i) == ' ' || content.charAt(i) == '\t')) {
+        i++;
+      }
+      int lineEnd = skipLineTerminator(content, skipLine(content, i, end), end);
+      sb.append(content, i, lineEnd);
+      lineStart = lineEnd;
+    }
+    return sb;
+  }
+
+  /**
+   * Skip the braces, the quoted strings inside are skipped too.
+   * @param offset the offset of the opening brace
+   * @return the offset after the closing brace
+   */
+  protected static int skipBraces(CharSequence content, int offset, int length) {
+    int depth = 0;
+    int i = offset;
+    while (i < length) {
+      char c = content.charAt(i);
+      if (c == '{') {
+        depth++;
+      } else if (c == '}') {
+        if (--depth == 0) {
+          return i + 1;
+        }
+      } else if (c == '\'' || c == '"') {
+        i = skipQuoted(content, i + 1, length, c, true);
+        continue;
+      }
+      i++;
+    }
+    return length;
+  }
+
+  /**
+   * Decode the escape sequences of a double-quoted string or heredoc, the
+   * variables are kept as is.
+   * @param quote '"' for a double-quoted string, 0 for heredoc
+   * @return true if there is any variable
+   */
+  protected static boolean decode(CharSequence content, int start, int end, char quote, StringBuilder sb) {
+    boolean interpolated = false;
+    int i = start;
+    while (i < end) {
+      char c = content.charAt(i);
+      if (c == '\\' && i + 1 < end) {
+        i = readEscape(content, i + 1, end, quote, sb);
+        continue;
+      }
+      if (c == '$' && i + 1 < end) {
+        char next = content.charAt(i + 1);
+        if (next == '{') {
+          int variableEnd = Math.min(skipBraces(content, i + 1, end), end);
+          sb.append(content, i, variableEnd);
+          i = variableEnd;
+          interpolated = true;
+          continue;
+        }
+        if (next == '_' || Character.isLetter(next)) {
+          interpolated = true;
+        }
+      }
+      if (c == '{' && i + 1 < end && content.charAt(i + 1) == '$') {
+        int variableEnd = Math.min(skipBraces(content, i, end), end);
+        sb.append(content, i, variableEnd);
+        i = variableEnd;
+        interpolated = true;
+        continue;
+      }
+      sb.append(c);
+      i++;
+    }
+    return interpolated;
+  }
+
+  /**
+   * The unknown escape sequences are kept as is.
+   * @param offset the offset after the backslash
+   * @return the offset after the escape sequence
+   */
+  protected static int readEscape(CharSequence content, int offset, int length, char quote, StringBuilder sb) {
+    char c = content.charAt(offset);
+    switch (c) {
+      case 'n':
+        sb.append('\n');
+        break;
+      case 't':
+        sb.append('\t');
+        break;
+      case 'r':
+        sb.append('\r');
+        break;
+      case 'v':
+        sb.append('\013');
+        break;
+      case 'e':
+        sb.append('\033');
+        break;
+      case 'f':
+        sb.append('\f');
+        break;
+      case '\\':
+      case '$':
+        sb.append(c);
+        break;
+      case '"':
+        if (quote != '"') {
+          sb.append('\\');
+        }
+        sb.append(c);
+        break;
+      case 'x': {
+        int value = parseHex(content, offset + 1, 2, length);
+        if (value != -1) {
+          sb.append((char) value);
+          return offset + 3;
+        }
+        value = parseHex(content, offset + 1, 1, length);
+        if (value != -1) {
+          sb.append((char) value);
+          return offset + 2;
+        }
+        sb.append('\\');
+        return offset;
+      }
+      case 'u': {
+        if (offset + 1 < length && content.charAt(offset + 1) == '{') {
+          int escapeEnd = readCodePointEscape(content, offset + 1, length, sb);
+          if (escapeEnd != -1) {
+            return escapeEnd;
+          }
+        }
+        sb.append('\\');
+        return offset;
+      }
+      default:
+        if (c >= '0' && c <= '7') {
+          return readOctalEscape(content, offset, length, sb);
+        }
+        sb.append('\\');
+        return offset;
+    }
+    return offset + 1;
+  }
+}
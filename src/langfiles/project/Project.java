@@ -10,6 +10,9 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import langfiles.util.SortedArrayList;
 import langfiles.util.SyncFile;
+import langfiles.util.SyncFileFilter;
+import langfiles.util.SyncFileSnapshot;
+import langfiles.util.SyncFileSnapshotStore;
 
 /**
  * The project handler.
@@ -33,11 +36,19 @@ public class Project implements Comparable<Object> {
      * The list of ignored files.
      */
     private final List<String> ignoreFileList;
+    /**
+     * The list of ignore patterns, in .gitignore syntax.
+     */
+    private final List<String> ignorePatternList;
     /**
      * The list of syncFiles. It is a sorted ArrayList.
      */
     private final List<SyncFile> syncFileList;
     private final List<ProjectFileListener> projectFileListenerList;
+    /**
+     * The depth of {@link #beginFilterUpdate()}, guarded by syncFileList.
+     */
+    private int filterUpdateDepth;
 
     /**
      * Constructor.
@@ -47,8 +58,10 @@ public class Project implements Comparable<Object> {
         allowedExtensionList = Collections.synchronizedList(new ArrayList<String>());
         disallowedExtensionList = Collections.synchronizedList(new ArrayList<String>());
         ignoreFileList = Collections.synchronizedList(new ArrayList<String>());
+        ignorePatternList = Collections.synchronizedList(new ArrayList<String>());
         syncFileList = Collections.synchronizedList(new SortedArrayList<SyncFile>());
         projectFileListenerList = Collections.synchronizedList(new ArrayList<ProjectFileListener>());
+        filterUpdateDepth = 0;
     }
 
     /**
@@ -105,9 +118,7 @@ public class Project implements Comparable<Object> {
             }
 
             // remove files with extension not within the allowed extension list and add back those within the allowed extension list
-            for (SyncFile syncFile : syncFileList) {
-                syncFile.setAllowedFileExtensionList(extensionList, true);
-            }
+            applyFilter();
         }
     }
 
@@ -143,9 +154,7 @@ public class Project implements Comparable<Object> {
                 disallowedExtensionList.addAll(extensionList);
             }
 
-            for (SyncFile syncFile : syncFileList) {
-                syncFile.setDisallowedFileExtensionList(extensionList, true);
-            }
+            applyFilter();
         }
     }
 
@@ -175,9 +184,7 @@ public class Project implements Comparable<Object> {
                 }
             }
 
-            for (SyncFile syncFile : syncFileList) {
-                syncFile.setIgnoreFileList(ignoreFileList, true);
-            }
+            applyFilter();
         }
     }
 
@@ -190,13 +197,84 @@ public class Project implements Comparable<Object> {
             boolean itemExistBeforeRemove = ignoreFileList.remove(file.getAbsolutePath());
 
             if (itemExistBeforeRemove) {
-                for (SyncFile syncFile : syncFileList) {
-                    syncFile.setIgnoreFileList(ignoreFileList, true);
-                }
+                applyFilter();
+            }
+        }
+    }
+
+    /**
+     * Get the list of ignore patterns.
+     * @return the list
+     */
+    public List<String> getIgnorePatterns() {
+        List<String> returnList;
+        synchronized (ignorePatternList) {
+            returnList = new ArrayList<String>(ignorePatternList);
+        }
+        return returnList;
+    }
+
+    /**
+     * Set the list of ignore patterns, in .gitignore syntax and relative to each file/folder added. The .gitignore
+     * and .ignore files inside are always honored and take precedence.
+     * @param patternList the ignore pattern list
+     */
+    public void setIgnorePatterns(List<String> patternList) {
+        synchronized (syncFileList) {
+            synchronized (ignorePatternList) {
+                ignorePatternList.clear();
+                ignorePatternList.addAll(patternList);
+            }
+
+            applyFilter();
+        }
+    }
+
+    /**
+     * Start a batch of filter changes. The extension lists, ignore file list and ignore patterns set after this are
+     * applied to the files only when the matching {@link #endFilterUpdate()} is called, all in one go. Can be nested.
+     */
+    public void beginFilterUpdate() {
+        synchronized (syncFileList) {
+            filterUpdateDepth++;
+        }
+    }
+
+    /**
+     * End a batch of filter changes started by {@link #beginFilterUpdate()}, apply the changes if it is the
+     * outermost one.
+     */
+    public void endFilterUpdate() {
+        synchronized (syncFileList) {
+            if (filterUpdateDepth == 0) {
+                throw new IllegalStateException("endFilterUpdate() without beginFilterUpdate()");
             }
+            filterUpdateDepth--;
+            applyFilter();
         }
     }
 
+    /**
+     * Apply the filter lists to all the files/folders, unless inside {@link #beginFilterUpdate()}. Only the files
+     * affected by the difference from the current filter are checked, see
+     * {@link SyncFile#setFilter(langfiles.util.SyncFileFilter, boolean)}.
+     */
+    private void applyFilter() {
+        synchronized (syncFileList) {
+            if (filterUpdateDepth > 0) {
+                return;
+            }
+            SyncFileFilter filter = createFilter();
+            for (SyncFile syncFile : syncFileList) {
+                syncFile.setFilter(filter, true);
+            }
+        }
+    }
+
+    private SyncFileFilter createFilter() {
+        return new SyncFileFilter(getAllowedExtensions(), getDisallowedExtensions(), getIgnoreFileList(), getIgnorePatterns());
+    }
+
     /**
      * Get the list of SyncFiles.
      * @return the list of SyncFiles
@@ -209,6 +287,17 @@ public class Project implements Comparable<Object> {
         return returnList;
     }
 
+    /**
+     * Get the snapshots of the file/folder trees of the project, all taken at the same moment. They are immutable,
+     * so they give a stable view of the whole project, e.g. for a build or commit.
+     * @return the list of snapshots, in the same order as {@link #getSyncFileList()}
+     */
+    public List<SyncFileSnapshot> getSnapshot() {
+        synchronized (syncFileList) {
+            return SyncFile.getSnapshots(new ArrayList<SyncFile>(syncFileList));
+        }
+    }
+
     /**
      * Add file/folder and all files inside recursively to the project.
      * @param file the file/folder
@@ -224,13 +313,33 @@ public class Project implements Comparable<Object> {
             }
 
             SyncFile syncFile = null;
+            SyncFileSnapshotStore snapshotStore = SyncFileSnapshotStore.getDefault();
             try {
-                syncFile = new SyncFile(null, file);
+                // restore from the snapshot saved last time if any, it will be verified against the disk later
+                syncFile = snapshotStore != null ? snapshotStore.restore(file) : null;
+                boolean restored = syncFile != null;
+                if (!restored) {
+                    // filtered while scanning, the ignored directories are never listed
+                    syncFile = new SyncFile(null, file, createFilter());
+                }
                 syncFile.setInheritUserObject("project", this);
                 syncFile.addWatch();
-                syncFile.setAllowedFileExtensionList(allowedExtensionList, false);
-                syncFile.setDisallowedFileExtensionList(disallowedExtensionList, false);
-                syncFile.setIgnoreFileList(ignoreFileList, true);
+                if (restored) {
+                    // only what the filter changed since the snapshot was saved is filtered again
+                    syncFile.setFilter(createFilter(), true);
+                }
+                // indexed from the index saved last time if not modified, the others are extracted in background, before
+                // the verification to get the files it finds created
+                StringLiteralIndex literalIndex = StringLiteralIndex.getDefault();
+                if (literalIndex != null) {
+                    literalIndex.add(syncFile);
+                }
+                if (snapshotStore != null) {
+                    snapshotStore.add(syncFile);
+                    if (restored) {
+                        snapshotStore.verifyLater(syncFile);
+                    }
+                }
             } catch (IOException ex) {
                 Logger.getLogger(Project.class.getName()).log(Level.SEVERE, null, ex);
                 return false;
@@ -251,12 +360,24 @@ public class Project implements Comparable<Object> {
 
     public void remove(SyncFile syncFile) {
         synchronized (syncFileList) {
-            syncFileList.remove(syncFile);
+            if (!syncFileList.remove(syncFile)) {
+                return;
+            }
+            SyncFileSnapshotStore snapshotStore = SyncFileSnapshotStore.getDefault();
+            if (snapshotStore != null) {
+                snapshotStore.remove(syncFile);
+            }
+            StringLiteralIndex literalIndex = StringLiteralIndex.getDefault();
+            if (literalIndex != null) {
+                literalIndex.remove(syncFile);
+            }
             synchronized (projectFileListenerList) {
                 for (ProjectFileListener listener : projectFileListenerList) {
                     listener.projectFileRemoved(syncFile);
                 }
             }
+            // remove the watch of the tree
+            syncFile.close();
         }
     }
 
@@ -266,12 +387,7 @@ public class Project implements Comparable<Object> {
         SyncFile returnSyncFile = null;
         synchronized (syncFileList) {
             for (SyncFile _syncFile : syncFileList) {
-                String replacedString = absolutePath.replace(_syncFile.getAbsolutePath(), "");
-                if (replacedString.isEmpty()) {
-                    return _syncFile;
-                }
-                replacedString = replacedString.substring(1);
-                if ((returnSyncFile = _syncFile.findSyncFile(replacedString)) != null) {
+                if ((returnSyncFile = _syncFile.findSyncFileByAbsolutePath(absolutePath)) != null) {
                     return returnSyncFile;
                 }
             }
@@ -0,0 +1,137 @@
+package langfiles.project;
+
+import langfiles.util.StringPool;
+
+/**
+ * A string literal found in the source code by a {@link StringLiteralLexer}.
+ * <p>
+ * The value is kept in a {@link StringPool} and referenced by id, the same
+ * value found many times is stored once and out of the heap.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class StringLiteral {
+
+  /**
+   * The offset of the opening quote in the content.
+   */
+  protected final int offset;
+  /**
+   * The length in the content, including the quotes.
+   */
+  protected final int length;
+  /**
+   * The pool of the value.
+   */
+  protected final StringPool pool;
+  /**
+   * The id in the pool of the value with the escape sequences decoded.
+   */
+  protected final int valueId;
+  /**
+   * True if the literal contains variables or expressions, e.g. "$name" in
+   * PHP, their source is kept in the value as is.
+   */
+  protected final boolean interpolated;
+
+  /**
+   * Constructor. The value is added to the default {@link StringPool}.
+   * @param offset the offset of the opening quote in the content
+   * @param length the length in the content, including the quotes
+   * @param value the decoded value
+   * @param interpolated true if the literal contains variables or expressions
+   */
+  public StringLiteral(int offset, int length, CharSequence value, boolean interpolated) {
+    if (value == null) {
+      throw new NullPointerException("argument 'value' cannot be null");
+    }
+    this.offset = offset;
+    this.length = length;
+    pool = StringPool.getDefault();
+    valueId = pool.intern(value);
+    this.interpolated = interpolated;
+  }
+
+  /**
+   * Constructor.
+   * @param offset the offset of the opening quote in the content
+   * @param length the length in the content, including the quotes
+   * @param pool the pool of the value
+   * @param valueId the id of the decoded value in the pool
+   * @param interpolated true if the literal contains variables or expressions
+   */
+  public StringLiteral(int offset, int length, StringPool pool, int valueId, boolean interpolated) {
+    if (pool == null) {
+      throw new NullPointerException("argument 'pool' cannot be null");
+    }
+    this.offset = offset;
+    this.length = length;
+    this.pool = pool;
+    this.valueId = valueId;
+    this.interpolated = interpolated;
+  }
+
+  public int getOffset() {
+    return offset;
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * Get the offset after the closing quote.
+   * @return the offset
+   */
+  public int getEnd() {
+    return offset + length;
+  }
+
+  /**
+   * Get the value, read from the pool as a new String every time. Compare
+   * {@link #getValueId()} instead if the pool is the same.
+   * @return the value
+   */
+  public String getValue() {
+    return pool.get(valueId);
+  }
+
+  public StringPool getPool() {
+    return pool;
+  }
+
+  public int getValueId() {
+    return valueId;
+  }
+
+  public boolean isInterpolated() {
+    return interpolated;
+  }
+
+  @Override
+  public boolean equals(Object compareTo) {
+    if (compareTo == this) {
+      return true;
+    }
+    if (!(compareTo instanceof StringLiteral)) {
+      return false;
+    }
+    StringLiteral literal = (StringLiteral) compareTo;
+    return offset == literal.offset && length == literal.length && interpolated == literal.interpolated
+            && (pool == literal.pool ? valueId == literal.valueId : getValue().equals(literal.getValue()));
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = 7;
+    hash = 31 * hash + offset;
+    hash = 31 * hash + length;
+    hash = 31 * hash + pool.hashCode(valueId);
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getName() + "[" + offset + "," + length + (interpolated ? ",interpolated" : "") + "]: " + getValue();
+  }
+}
@@ -0,0 +1,108 @@
+package langfiles.project;
+
+import java.util.Collections;
+import java.util.List;
+import langfiles.util.SyncFile;
+
+/**
+ * The change of the string literals of a file from one version to the next,
+ * published by {@link StringLiteralTracker}.
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class StringLiteralDelta {
+
+  protected final SyncFile syncFile;
+  protected final long version;
+  protected final List<StringLiteral> addedList;
+  protected final List<StringLiteral> removedList;
+  protected final List<Move> movedList;
+  protected final boolean rescanned;
+
+  /**
+   * Constructor.
+   * @param syncFile the file
+   * @param version the version of the file after the change
+   * @param addedList the literals added
+   * @param removedList the literals removed
+   * @param movedList the literals with the same value at another offset
+   * @param rescanned true if the whole file was lexed again
+   */
+  public StringLiteralDelta(SyncFile syncFile, long version, List<StringLiteral> addedList, List<StringLiteral> removedList,
+          List<Move> movedList, boolean rescanned) {
+    if (syncFile == null) {
+      throw new NullPointerException("argument 'syncFile' cannot be null");
+    }
+    this.syncFile = syncFile;
+    this.version = version;
+    this.addedList = Collections.unmodifiableList(addedList);
+    this.removedList = Collections.unmodifiableList(removedList);
+    this.movedList = Collections.unmodifiableList(movedList);
+    this.rescanned = rescanned;
+  }
+
+  public SyncFile getSyncFile() {
+    return syncFile;
+  }
+
+  /**
+   * Get the version of the file after the change, starting from 1 when the
+   * file is tracked, 0 if the file is deleted or no longer tracked.
+   * @return the version
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  public List<StringLiteral> getAddedList() {
+    return addedList;
+  }
+
+  public List<StringLiteral> getRemovedList() {
+    return removedList;
+  }
+
+  public List<Move> getMovedList() {
+    return movedList;
+  }
+
+  /**
+   * Check if the whole file was lexed again, rather than the changed region
+   * only.
+   * @return true if rescanned
+   */
+  public boolean isRescanned() {
+    return rescanned;
+  }
+
+  public boolean isEmpty() {
+    return addedList.isEmpty() && removedList.isEmpty() && movedList.isEmpty();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getName() + "[" + syncFile.getAbsolutePath() + ", version " + version + "]: " + addedList.size() + " added, "
+            + removedList.size() + " removed, " + movedList.size() + " moved" + (rescanned ? ", rescanned" : "");
+  }
+
+  /**
+   * A literal with the same value found at another offset.
+   */
+  public static class Move {
+
+    protected final StringLiteral oldLiteral;
+    protected final StringLiteral newLiteral;
+
+    public Move(StringLiteral oldLiteral, StringLiteral newLiteral) {
+      this.oldLiteral = oldLiteral;
+      this.newLiteral = newLiteral;
+    }
+
+    public StringLiteral getOldLiteral() {
+      return oldLiteral;
+    }
+
+    public StringLiteral getNewLiteral() {
+      return newLiteral;
+    }
+  }
+}
@@ -0,0 +1,9 @@
+package langfiles.project;
+
+/**
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public interface StringLiteralDeltaListener {
+
+  void literalsChanged(StringLiteralDelta delta);
+}
@@ -0,0 +1,17 @@
+package langfiles.project;
+
+import java.io.IOException;
+import java.util.List;
+import langfiles.util.SyncFile;
+
+/**
+ * Receive the results of a {@link StringLiteralExtractionPipeline} run. All
+ * calls of a run are from the same thread, in the order the files complete.
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public interface StringLiteralExtractionListener {
+
+  void fileExtracted(SyncFile syncFile, List<StringLiteral> literalList);
+
+  void fileFailed(SyncFile syncFile, IOException ex);
+}
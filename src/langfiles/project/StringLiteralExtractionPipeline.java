@@ -0,0 +1,588 @@
+package langfiles.project;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import langfiles.util.CancellationToken;
+import langfiles.util.SyncFile;
+
+/**
+ * Extract the string literals from all the files of a project, on all cores.
+ * <p>
+ * A run is a pipeline of four stages connected by bounded queues: listing the
+ * files, reading and decoding them, lexing, and aggregating the results to
+ * the listener on the calling thread. A stage waits when the queue after it
+ * is full, so however large the project is, at most the capacity of the
+ * queues of files are in memory. The time a stage waits for the next one is
+ * its backpressure, the time it waits for the previous one is its idle time,
+ * see {@link Stage}.
+ * </p>
+ * <p>
+ * The waits check the {@link CancellationToken} every
+ * {@link #POLL_INTERVAL} ms, a cancelled run stops after the files being
+ * processed.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class StringLiteralExtractionPipeline {
+
+  private static final Logger LOG = Logger.getLogger(StringLiteralExtractionPipeline.class.getName());
+  public static final int STAGE_LIST = 0;
+  public static final int STAGE_READ = 1;
+  public static final int STAGE_LEX = 2;
+  public static final int STAGE_AGGREGATE = 3;
+  protected static final String[] STAGE_NAMES = {"list", "read", "lex", "aggregate"};
+  public static final int DEFAULT_QUEUE_CAPACITY = 64;
+  /**
+   * The interval in milli second to check for cancellation while waiting on
+   * a queue.
+   */
+  protected static final long POLL_INTERVAL = 50;
+  /**
+   * The end of the queue.
+   */
+  protected static final Item END = new Item(null, null);
+  protected final StringLiteralExtractor extractor;
+  protected final int readerCount;
+  protected final int lexerCount;
+  protected final int queueCapacity;
+  /**
+   * Statistics of the last run.
+   */
+  protected final Stage[] stages;
+  protected final AtomicLong literalCount;
+  protected long elapsedTime;
+  // the run in progress
+  protected volatile CancellationToken token;
+  protected volatile boolean stopped;
+  protected volatile boolean failed;
+
+  /**
+   * Constructor. One reader and one lexer per core.
+   */
+  public StringLiteralExtractionPipeline() {
+    this(StringLiteralExtractor.getDefault(), Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY);
+  }
+
+  /**
+   * Constructor.
+   * @param extractor the extractor to choose the lexers
+   * @param readerCount the number of threads reading the files
+   * @param lexerCount the number of threads lexing
+   * @param queueCapacity the capacity of every queue between the stages
+   */
+  public StringLiteralExtractionPipeline(StringLiteralExtractor extractor, int readerCount, int lexerCount, int queueCapacity) {
+    if (extractor == null) {
+      throw new NullPointerException("argument 'extractor' cannot be null");
+    }
+    if (readerCount <= 0 || lexerCount <= 0 || queueCapacity <= 0) {
+      throw new IllegalArgumentException("argument 'readerCount', 'lexerCount' and 'queueCapacity' should be positive");
+    }
+    this.extractor = extractor;
+    this.readerCount = readerCount;
+    this.lexerCount = lexerCount;
+    this.queueCapacity = queueCapacity;
+    stages = new Stage[STAGE_NAMES.length];
+    for (int i = 0; i < stages.length; i++) {
+      stages[i] = new Stage(STAGE_NAMES[i]);
+    }
+    literalCount = new AtomicLong();
+    elapsedTime = 0;
+    stopped = false;
+    failed = false;
+  }
+
+  /**
+   * Extract the string literals from all the files of the project, block
+   * until completed or cancelled.
+   * @param project the project
+   * @param listener the listener to receive the results, called on this
+   * thread
+   * @param token the token to cancel the run
+   * @return true if completed, false if cancelled or failed
+   */
+  public boolean run(Project project, StringLiteralExtractionListener listener, CancellationToken token) {
+    if (project == null) {
+      throw new NullPointerException("argument 'project' cannot be null");
+    }
+    return run(project.getSyncFileList(), listener, token);
+  }
+
+  /**
+   * Extract the string literals from the files and all the files in the
+   * directories, block until completed or cancelled. Only one run at a time.
+   * @param syncFileList the files and directories
+   * @param listener the listener to receive the results, called on this
+   * thread
+   * @param token the token to cancel the run
+   * @return true if completed, false if cancelled or failed
+   */
+  public synchronized boolean run(List<SyncFile> syncFileList, StringLiteralExtractionListener listener, CancellationToken token) {
+    if (syncFileList == null) {
+      throw new NullPointerException("argument 'syncFileList' cannot be null");
+    }
+    if (listener == null) {
+      throw new NullPointerException("argument 'listener' cannot be null");
+    }
+    if (token == null) {
+      throw new NullPointerException("argument 'token' cannot be null");
+    }
+    for (Stage stage : stages) {
+      stage.reset();
+    }
+    literalCount.set(0);
+    this.token = token;
+    stopped = false;
+    failed = false;
+
+    BlockingQueue<Item> fileQueue = new ArrayBlockingQueue<Item>(queueCapacity);
+    BlockingQueue<Item> contentQueue = new ArrayBlockingQueue<Item>(queueCapacity);
+    BlockingQueue<Item> resultQueue = new ArrayBlockingQueue<Item>(queueCapacity);
+    ExecutorService executor = Executors.newFixedThreadPool(1 + readerCount + lexerCount, new ThreadFactory() {
+
+      protected final AtomicInteger threadCounter = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "StringLiteralExtraction-" + threadCounter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    long startTime = System.nanoTime();
+    try {
+      executor.execute(new ListTask(new ArrayList<SyncFile>(syncFileList), fileQueue));
+      AtomicInteger remainingReaders = new AtomicInteger(readerCount);
+      for (int i = 0; i < readerCount; i++) {
+        executor.execute(new ReadTask(fileQueue, contentQueue, remainingReaders));
+      }
+      AtomicInteger remainingLexers = new AtomicInteger(lexerCount);
+      for (int i = 0; i < lexerCount; i++) {
+        executor.execute(new LexTask(contentQueue, resultQueue, remainingLexers));
+      }
+      aggregate(resultQueue, listener);
+    } finally {
+      // the workers waiting on the queues see it and exit
+      stopped = true;
+      executor.shutdown();
+      try {
+        while (!executor.awaitTermination(POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      elapsedTime = (System.nanoTime() - startTime) / 1000000L;
+    }
+
+    boolean completed = !token.isCancelled() && !failed;
+    LOG.log(Level.INFO, String.format("Extracted %1$d literals from %2$d files in %3$d ms, %4$.1f files/sec%5$s",
+            getLiteralCount(), stages[STAGE_LEX].getItemCount(), elapsedTime, getFilesPerSecond(),
+            completed ? "" : token.isCancelled() ? ", cancelled" : ", failed"));
+    return completed;
+  }
+
+  protected boolean isStopped() {
+    return stopped || token.isCancelled();
+  }
+
+  protected void aggregate(BlockingQueue<Item> resultQueue, StringLiteralExtractionListener listener) {
+    Stage stage = stages[STAGE_AGGREGATE];
+    try {
+      while (true) {
+        Item item = take(resultQueue, stage);
+        if (item == null || item == END) {
+          return;
+        }
+        long startTime = System.nanoTime();
+        if (item.exception != null) {
+          listener.fileFailed(item.syncFile, item.exception);
+        } else {
+          listener.fileExtracted(item.syncFile, item.literalList);
+        }
+        stage.addItem(System.nanoTime() - startTime);
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Take an item, wait if the queue is empty.
+   * @return the item, null if stopped
+   */
+  protected Item take(BlockingQueue<Item> queue, Stage stage) throws InterruptedException {
+    Item item = queue.poll();
+    if (item != null) {
+      return item;
+    }
+    long startTime = System.nanoTime();
+    try {
+      while (!isStopped()) {
+        item = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+        if (item != null) {
+          return item;
+        }
+      }
+      return null;
+    } finally {
+      stage.idleTime.addAndGet(System.nanoTime() - startTime);
+    }
+  }
+
+  /**
+   * Put an item, wait if the queue is full.
+   * @return true if put, false if stopped
+   */
+  protected boolean put(BlockingQueue<Item> queue, Item item, Stage stage) throws InterruptedException {
+    if (queue.offer(item)) {
+      return true;
+    }
+    stage.blockedCount.incrementAndGet();
+    long startTime = System.nanoTime();
+    try {
+      while (!isStopped()) {
+        if (queue.offer(item, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+          return true;
+        }
+      }
+      return false;
+    } finally {
+      stage.blockedTime.addAndGet(System.nanoTime() - startTime);
+    }
+  }
+
+  protected void fail(Throwable ex) {
+    // stopped before logging, which may fail too on OutOfMemoryError
+    failed = true;
+    stopped = true;
+    LOG.log(Level.SEVERE, null, ex);
+  }
+
+  /**
+   * Get the statistics of a stage in the last run.
+   * @param stage one of the STAGE_* constants
+   * @return the statistics
+   */
+  public Stage getStage(int stage) {
+    return stages[stage];
+  }
+
+  /**
+   * Get the number of literals extracted in the last run.
+   * @return the count
+   */
+  public long getLiteralCount() {
+    return literalCount.get();
+  }
+
+  /**
+   * Get the time used in the last run.
+   * @return the time in milli second
+   */
+  public long getElapsedTime() {
+    return elapsedTime;
+  }
+
+  /**
+   * Get the rate of the last run.
+   * @return the number of files extracted per second
+   */
+  public double getFilesPerSecond() {
+    long count = stages[STAGE_LEX].getItemCount();
+    return elapsedTime == 0 ? count * 1000D : count * 1000D / elapsedTime;
+  }
+
+  /**
+   * List the files depth first.
+   */
+  protected class ListTask implements Runnable {
+
+    protected final List<SyncFile> syncFileList;
+    protected final BlockingQueue<Item> output;
+
+    protected ListTask(List<SyncFile> syncFileList, BlockingQueue<Item> output) {
+      this.syncFileList = syncFileList;
+      this.output = output;
+    }
+
+    @Override
+    public void run() {
+      Stage stage = stages[STAGE_LIST];
+      try {
+        Deque<SyncFile> stack = new ArrayDeque<SyncFile>();
+        for (int i = syncFileList.size() - 1; i >= 0; i--) {
+          stack.push(syncFileList.get(i));
+        }
+        while (!stack.isEmpty()) {
+          long startTime = System.nanoTime();
+          SyncFile syncFile = stack.pop();
+          if (syncFile.isDirectory()) {
+            List<SyncFile> childList = syncFile.getChildSyncFileList();
+            for (int i = childList.size() - 1; i >= 0; i--) {
+              stack.push(childList.get(i));
+            }
+            continue;
+          }
+          StringLiteralLexer lexer = extractor.getLexer(syncFile.getFileName());
+          if (lexer == null) {
+            stage.skippedCount.incrementAndGet();
+            continue;
+          }
+          stage.addItem(System.nanoTime() - startTime);
+          if (!put(output, new Item(syncFile, lexer), stage)) {
+            return;
+          }
+        }
+        for (int i = 0; i < readerCount; i++) {
+          if (!put(output, END, stage)) {
+            return;
+          }
+        }
+      } catch (InterruptedException ex) {
+      } catch (Throwable ex) {
+        // e.g. InternalError of a mapped file truncated, the run is stopped rather than waiting for the END forever
+        fail(ex);
+      }
+    }
+  }
+
+  /**
+   * Take the items from the input, process and put them to the output. The
+   * last task of the stage to end puts the end of the queue for every task of
+   * the next stage.
+   */
+  protected abstract class StageTask implements Runnable {
+
+    protected final Stage stage;
+    protected final BlockingQueue<Item> input;
+    protected final BlockingQueue<Item> output;
+    protected final AtomicInteger remainingTaskCount;
+    protected final int nextTaskCount;
+
+    protected StageTask(Stage stage, BlockingQueue<Item> input, BlockingQueue<Item> output, AtomicInteger remainingTaskCount, int nextTaskCount) {
+      this.stage = stage;
+      this.input = input;
+      this.output = output;
+      this.remainingTaskCount = remainingTaskCount;
+      this.nextTaskCount = nextTaskCount;
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          Item item = take(input, stage);
+          if (item == null) {
+            return;
+          }
+          if (item == END) {
+            if (remainingTaskCount.decrementAndGet() == 0) {
+              for (int i = 0; i < nextTaskCount; i++) {
+                if (!put(output, END, stage)) {
+                  return;
+                }
+              }
+            }
+            return;
+          }
+          long startTime = System.nanoTime();
+          boolean passOn = process(item);
+          stage.addItem(System.nanoTime() - startTime);
+          if (passOn && !put(output, item, stage)) {
+            return;
+          }
+        }
+      } catch (InterruptedException ex) {
+      } catch (Throwable ex) {
+        // e.g. InternalError of a mapped file truncated, the run is stopped rather than waiting for the END forever
+        fail(ex);
+      }
+    }
+
+    /**
+     * @return true to put the item to the output
+     */
+    protected abstract boolean process(Item item);
+  }
+
+  /**
+   * Read and decode the files, the binary files are skipped.
+   */
+  protected class ReadTask extends StageTask {
+
+    protected ReadTask(BlockingQueue<Item> input, BlockingQueue<Item> output, AtomicInteger remainingTaskCount) {
+      super(stages[STAGE_READ], input, output, remainingTaskCount, lexerCount);
+    }
+
+    @Override
+    protected boolean process(Item item) {
+      if (item.syncFile.isBinary()) {
+        stage.skippedCount.incrementAndGet();
+        return false;
+      }
+      try {
+        item.content = item.syncFile.getFileContent().getCharSequence();
+      } catch (IOException ex) {
+        item.exception = ex;
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Lex the contents read.
+   */
+  protected class LexTask extends StageTask {
+
+    protected LexTask(BlockingQueue<Item> input, BlockingQueue<Item> output, AtomicInteger remainingTaskCount) {
+      super(stages[STAGE_LEX], input, output, remainingTaskCount, 1);
+    }
+
+    @Override
+    protected boolean process(Item item) {
+      if (item.exception == null) {
+        item.literalList = extractor.extract(item.content, item.lexer);
+        item.content = null;
+        literalCount.addAndGet(item.literalList.size());
+      }
+      return true;
+    }
+  }
+
+  /**
+   * A file passing through the stages.
+   */
+  protected static class Item {
+
+    protected final SyncFile syncFile;
+    protected final StringLiteralLexer lexer;
+    protected CharSequence content;
+    protected List<StringLiteral> literalList;
+    protected IOException exception;
+
+    protected Item(SyncFile syncFile, StringLiteralLexer lexer) {
+      this.syncFile = syncFile;
+      this.lexer = lexer;
+    }
+  }
+
+  /**
+   * The statistics of a stage, summed over its threads.
+   */
+  public static class Stage {
+
+    protected final String name;
+    protected final AtomicLong itemCount;
+    protected final AtomicLong skippedCount;
+    protected final AtomicLong busyTime;
+    protected final AtomicLong idleTime;
+    protected final AtomicLong blockedCount;
+    protected final AtomicLong blockedTime;
+
+    protected Stage(String name) {
+      this.name = name;
+      itemCount = new AtomicLong();
+      skippedCount = new AtomicLong();
+      busyTime = new AtomicLong();
+      idleTime = new AtomicLong();
+      blockedCount = new AtomicLong();
+      blockedTime = new AtomicLong();
+    }
+
+    protected void reset() {
+      itemCount.set(0);
+      skippedCount.set(0);
+      busyTime.set(0);
+      idleTime.set(0);
+      blockedCount.set(0);
+      blockedTime.set(0);
+    }
+
+    protected void addItem(long time) {
+      itemCount.incrementAndGet();
+      busyTime.addAndGet(time);
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Get the number of files processed.
+     * @return the count
+     */
+    public long getItemCount() {
+      return itemCount.get();
+    }
+
+    /**
+     * Get the number of files dropped by the stage, e.g. binary.
+     * @return the count
+     */
+    public long getSkippedCount() {
+      return skippedCount.get();
+    }
+
+    /**
+     * Get the time spent processing the files.
+     * @return the time in nano second
+     */
+    public long getBusyTime() {
+      return busyTime.get();
+    }
+
+    /**
+     * Get the time spent waiting for the previous stage.
+     * @return the time in nano second
+     */
+    public long getIdleTime() {
+      return idleTime.get();
+    }
+
+    /**
+     * Get the number of times the next stage was full, the backpressure.
+     * @return the count
+     */
+    public long getBlockedCount() {
+      return blockedCount.get();
+    }
+
+    /**
+     * Get the time spent waiting for the next stage, the backpressure.
+     * @return the time in nano second
+     */
+    public long getBlockedTime() {
+      return blockedTime.get();
+    }
+
+    /**
+     * Get the number of files processed per second of busy time of one
+     * thread.
+     * @return the rate
+     */
+    public double getItemsPerSecond() {
+      long time = busyTime.get();
+      return time == 0 ? 0 : itemCount.get() * 1000000000D / time;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%1$s: %2$d files (%3$d skipped), busy %4$d ms, idle %5$d ms, blocked %6$d times %7$d ms",
+              name, getItemCount(), getSkippedCount(), busyTime.get() / 1000000L, idleTime.get() / 1000000L,
+              getBlockedCount(), blockedTime.get() / 1000000L);
+    }
+  }
+}
@@ -0,0 +1,184 @@
+package langfiles.project;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import langfiles.util.FileContent;
+import langfiles.util.SyncFile;
+
+/**
+ * Extract the string literals from the files, without any code viewer.
+ * <p>
+ * The lexer is chosen by the file extension, the part after the last '.'.
+ * Java, PHP and JavaScript are registered by default. The directories, the
+ * binary files and the files without a lexer are skipped. The content is read
+ * by {@link SyncFile#getFileContent()}, a mapped file is lexed chunk by chunk
+ * without being copied to the heap as a whole.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class StringLiteralExtractor {
+
+  protected static volatile StringLiteralExtractor defaultExtractor = new StringLiteralExtractor();
+  /**
+   * The lexers keyed by the file extension in lower case.
+   */
+  protected final Map<String, StringLiteralLexer> lexerMap;
+  // metrics
+  protected final AtomicLong extractedFileCount;
+  protected final AtomicLong skippedFileCount;
+  protected final AtomicLong literalCount;
+  protected final AtomicLong charCount;
+
+  /**
+   * Constructor.
+   */
+  public StringLiteralExtractor() {
+    lexerMap = new ConcurrentHashMap<String, StringLiteralLexer>();
+    extractedFileCount = new AtomicLong();
+    skippedFileCount = new AtomicLong();
+    literalCount = new AtomicLong();
+    charCount = new AtomicLong();
+
+    StringLiteralLexer javaLexer = new JavaStringLiteralLexer();
+    lexerMap.put("java", javaLexer);
+    StringLiteralLexer phpLexer = new PhpStringLiteralLexer();
+    for (String extension : new String[]{"php", "php3", "php4", "php5", "phtml"}) {
+      lexerMap.put(extension, phpLexer);
+    }
+    StringLiteralLexer javaScriptLexer = new JavaScriptStringLiteralLexer();
+    for (String extension : new String[]{"js", "jsx", "mjs", "cjs"}) {
+      lexerMap.put(extension, javaScriptLexer);
+    }
+  }
+
+  public static StringLiteralExtractor getDefault() {
+    return defaultExtractor;
+  }
+
+  public static void setDefault(StringLiteralExtractor extractor) {
+    if (extractor == null) {
+      throw new NullPointerException("argument 'extractor' cannot be null");
+    }
+    defaultExtractor = extractor;
+  }
+
+  /**
+   * Set the lexer of the file extension.
+   * @param extension the extension without '.', case insensitive
+   * @param lexer the lexer, null to remove
+   */
+  public void setLexer(String extension, StringLiteralLexer lexer) {
+    if (extension == null) {
+      throw new NullPointerException("argument 'extension' cannot be null");
+    }
+    if (lexer == null) {
+      lexerMap.remove(extension.toLowerCase(Locale.ENGLISH));
+    } else {
+      lexerMap.put(extension.toLowerCase(Locale.ENGLISH), lexer);
+    }
+  }
+
+  /**
+   * Get the lexer of the file.
+   * @param fileName the file name
+   * @return the lexer, null if there is not any
+   */
+  public StringLiteralLexer getLexer(String fileName) {
+    if (fileName == null) {
+      throw new NullPointerException("argument 'fileName' cannot be null");
+    }
+    int pos = fileName.lastIndexOf('.');
+    if (pos == -1) {
+      return null;
+    }
+    return lexerMap.get(fileName.substring(pos + 1).toLowerCase(Locale.ENGLISH));
+  }
+
+  /**
+   * Check if the file would be extracted, without reading it.
+   * @param syncFile the SyncFile
+   * @return true if it is a file and there is a lexer for it
+   */
+  public boolean isExtractable(SyncFile syncFile) {
+    return !syncFile.isDirectory() && getLexer(syncFile.getFileName()) != null;
+  }
+
+  /**
+   * Extract the string literals from the file.
+   * @param syncFile the SyncFile
+   * @return the literals in the order of offset, empty if skipped
+   * @throws IOException error occurred when reading the file
+   */
+  public List<StringLiteral> extract(SyncFile syncFile) throws IOException {
+    if (syncFile == null) {
+      throw new NullPointerException("argument 'syncFile' cannot be null");
+    }
+    StringLiteralLexer lexer = syncFile.isDirectory() ? null : getLexer(syncFile.getFileName());
+    if (lexer == null || syncFile.isBinary()) {
+      skippedFileCount.incrementAndGet();
+      return Collections.emptyList();
+    }
+    FileContent fileContent = syncFile.getFileContent();
+    return extract(fileContent.getCharSequence(), lexer);
+  }
+
+  /**
+   * Extract the string literals from the content.
+   * @param content the content
+   * @param lexer the lexer
+   * @return the literals in the order of offset
+   */
+  public List<StringLiteral> extract(CharSequence content, StringLiteralLexer lexer) {
+    if (content == null) {
+      throw new NullPointerException("argument 'content' cannot be null");
+    }
+    if (lexer == null) {
+      throw new NullPointerException("argument 'lexer' cannot be null");
+    }
+    int length = content.length();
+    List<StringLiteral> literalList = new ArrayList<StringLiteral>();
+    lexer.lex(content, literalList);
+    extractedFileCount.incrementAndGet();
+    literalCount.addAndGet(literalList.size());
+    charCount.addAndGet(length);
+    return literalList;
+  }
+
+  /**
+   * Get the number of files or contents extracted.
+   * @return the count
+   */
+  public long getExtractedFileCount() {
+    return extractedFileCount.get();
+  }
+
+  /**
+   * Get the number of files skipped, binary or without a lexer.
+   * @return the count
+   */
+  public long getSkippedFileCount() {
+    return skippedFileCount.get();
+  }
+
+  /**
+   * Get the total number of literals found.
+   * @return the count
+   */
+  public long getLiteralCount() {
+    return literalCount.get();
+  }
+
+  /**
+   * Get the total number of chars lexed.
+   * @return the count
+   */
+  public long getCharCount() {
+    return charCount.get();
+  }
+}
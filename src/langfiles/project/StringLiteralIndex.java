@@ -0,0 +1,1050 @@
+package langfiles.project;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import langfiles.util.CancellationToken;
+import langfiles.util.CommonUtil;
+import langfiles.util.StringPool;
+import langfiles.util.SyncFile;
+import langfiles.util.SyncFileChangeBatch;
+import langfiles.util.SyncFileListener;
+
+/**
+ * An inverted index of the string literals of the project files, from each
+ * distinct value to where it is used, with exact, prefix and substring lookup.
+ * <p>
+ * The index is kept from the deltas of a {@link StringLiteralTracker}, which
+ * follows the modify and delete events of the files. The directories are
+ * listened for the files created.
+ * </p>
+ * <p>
+ * The index is saved to a binary file and mapped into memory on next start.
+ * The files not modified since, by last modified time and size, are restored
+ * from it without reading them nor decoding their literals, the lookups read
+ * the occurrences of them from the mapping. Their literals are decoded only
+ * when the tracker needs them, on the first change of the file, after which
+ * the file is indexed in memory like the others. The files not in the saved
+ * index are extracted in background by {@link StringLiteralExtractionPipeline}.
+ * </p>
+ * <p>
+ * The loaded file stays mapped for the whole session and a mapped file cannot
+ * be replaced on some platforms, so the index is saved to a pending file
+ * beside it, which replaces the file on next {@link #load()} before mapping.
+ * </p>
+ * <p>
+ * The values and the paths are kept in the default {@link StringPool} and
+ * referenced by id, not as String objects. The pool only grows, every value
+ * ever extracted stays in it, so when it holds more than twice the strings
+ * in use plus {@link #COMPACT_THRESHOLD}, the strings in use are moved to a
+ * new pool in background, which becomes the default, and the old pool is
+ * closed.
+ * </p>
+ * <p>
+ * File format (big-endian):
+ * <pre>
+ * file:       int magic, int format version, int file count, file...,
+ *             int value count, value...
+ * file:       string absolute path, long last modified, long size,
+ *             int literal count, literal...
+ * literal:    int value index, int offset, int length, byte flags
+ * value:      string value, int occurrence count, occurrence...
+ * occurrence: int file index, int literal index
+ * string:     int byte length, UTF-8 bytes
+ * </pre>
+ * The values are sorted.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class StringLiteralIndex {
+
+  private static final Logger LOG = Logger.getLogger(StringLiteralIndex.class.getName());
+  protected static final int MAGIC = 0x4C46534C;
+  protected static final int FORMAT_VERSION = 1;
+  protected static final byte FLAG_INTERPOLATED = 1;
+  protected static final int LITERAL_BYTE_LENGTH = 13;
+  protected static final int OCCURRENCE_BYTE_LENGTH = 8;
+  protected static final Charset UTF8 = Charset.forName("UTF-8");
+  /**
+   * The number of strings not in use allowed in the pool besides as many as
+   * the strings in use.
+   */
+  public static final int COMPACT_THRESHOLD = 65536;
+  /**
+   * The index used by {@link Project}, set by {@link langfiles.Main}.
+   */
+  protected static volatile StringLiteralIndex defaultIndex;
+  /**
+   * The thread that extract the files not in the saved index, shared by all
+   * indexes.
+   */
+  protected static final ExecutorService extractExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "StringLiteralIndex");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+  protected final File file;
+  protected final StringLiteralTracker tracker;
+  protected final StringLiteralExtractionPipeline pipeline;
+  /**
+   * The pool of the value ids, replaced when compacted. Guarded by the
+   * valueMap.
+   */
+  protected StringPool pool;
+  protected boolean compactScheduled;
+  /**
+   * The occurrences of each value of the files indexed in memory, keyed by the
+   * value id. It is also the lock of the restored files.
+   */
+  protected final Map<Integer, List<Occurrence>> valueMap;
+  /**
+   * The value ids sorted by value for the prefix lookup, null if the values
+   * are changed since sorted.
+   */
+  protected int[] sortedValueIds;
+  protected int occurrenceCount;
+  /**
+   * The index loaded, null if there is not any.
+   */
+  protected LoadedIndex loadedIndex;
+  /**
+   * The files restored from the loaded index by file index, null if not
+   * restored or changed since restored.
+   */
+  protected SyncFile[] restoredFiles;
+  protected final Map<SyncFile, Integer> restoredFileMap;
+  protected int restoredOccurrenceCount;
+  /**
+   * The trees indexed, keyed by identity.
+   */
+  protected final Map<SyncFile, Boolean> rootMap;
+  protected final SyncFileListener directoryListener;
+  protected final CancellationToken token;
+  // metrics
+  protected final AtomicLong restoredFileCount;
+  protected final AtomicLong extractedFileCount;
+  protected final AtomicLong compactCount;
+
+  /**
+   * Constructor.
+   * @param file the file to load from and save to
+   * @param tracker the tracker to keep the literals of the files
+   */
+  public StringLiteralIndex(File file, StringLiteralTracker tracker) {
+    if (file == null) {
+      throw new NullPointerException("argument 'file' cannot be null");
+    }
+    if (tracker == null) {
+      throw new NullPointerException("argument 'tracker' cannot be null");
+    }
+    this.file = file;
+    this.tracker = tracker;
+    pipeline = new StringLiteralExtractionPipeline(tracker.getExtractor(), Runtime.getRuntime().availableProcessors(),
+            Runtime.getRuntime().availableProcessors(), StringLiteralExtractionPipeline.DEFAULT_QUEUE_CAPACITY);
+    pool = StringPool.getDefault();
+    compactScheduled = false;
+    valueMap = new HashMap<Integer, List<Occurrence>>();
+    sortedValueIds = null;
+    occurrenceCount = 0;
+    loadedIndex = null;
+    restoredFiles = new SyncFile[0];
+    restoredFileMap = new IdentityHashMap<SyncFile, Integer>();
+    restoredOccurrenceCount = 0;
+    rootMap = new IdentityHashMap<SyncFile, Boolean>();
+    token = new CancellationToken();
+    restoredFileCount = new AtomicLong();
+    extractedFileCount = new AtomicLong();
+    compactCount = new AtomicLong();
+
+    tracker.addListener(new StringLiteralDeltaListener() {
+
+      @Override
+      public void literalsChanged(StringLiteralDelta delta) {
+        apply(delta);
+      }
+    });
+    directoryListener = new SyncFileListener() {
+
+      @Override
+      public void fileCreated(SyncFile directory, SyncFile fileCreated, String rootPath, String name) {
+        List<SyncFile> syncFileList = new ArrayList<SyncFile>();
+        register(fileCreated, syncFileList);
+        extractLater(syncFileList);
+      }
+
+      @Override
+      public void fileDeleted(SyncFile fileDeleted, String rootPath, String name) {
+        // the files deleted are removed by the tracker
+      }
+
+      @Override
+      public void fileModified(SyncFile fileModified, String rootPath, String name) {
+      }
+
+      @Override
+      public void fileRenamed(SyncFile fileRenamed, String rootPath, String oldName, String newName) {
+      }
+
+      @Override
+      public void filesChanged(SyncFileChangeBatch batch) {
+        List<SyncFile> syncFileList = new ArrayList<SyncFile>();
+        for (SyncFile _syncFile : batch.getCreatedFiles()) {
+          register(_syncFile, syncFileList);
+        }
+        extractLater(syncFileList);
+      }
+    };
+  }
+
+  public static StringLiteralIndex getDefault() {
+    return defaultIndex;
+  }
+
+  public static void setDefault(StringLiteralIndex index) {
+    defaultIndex = index;
+  }
+
+  public StringLiteralTracker getTracker() {
+    return tracker;
+  }
+
+  /**
+   * Map the file into memory and read the paths and the values in it, the
+   * literals and the occurrences are read when used. It should be called
+   * before any tree is added. The pending file saved last time replaces the
+   * file first. Nothing is loaded if the file not exist or is not valid.
+   */
+  public void load() {
+    File pendingFile = getPendingFile();
+    if (pendingFile.isFile()) {
+      try {
+        Files.move(pendingFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      } catch (IOException ex) {
+        LOG.log(Level.INFO, "Failed to replace the literal index file with the one saved last time: " + file.getAbsolutePath(), ex);
+      }
+    }
+    if (!file.isFile()) {
+      return;
+    }
+
+    long startTime = System.nanoTime();
+    LoadedIndex _loadedIndex = null;
+    RandomAccessFile randomAccessFile = null;
+    try {
+      randomAccessFile = new RandomAccessFile(file, "r");
+      FileChannel channel = randomAccessFile.getChannel();
+      MappedByteBuffer mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+      if (mappedBuffer.getInt() != MAGIC || mappedBuffer.getInt() != FORMAT_VERSION) {
+        LOG.log(Level.INFO, "Literal index file is not valid or of another version, ignored: {0}", file.getAbsolutePath());
+        return;
+      }
+      _loadedIndex = new LoadedIndex(mappedBuffer, pool);
+      int fileCount = mappedBuffer.getInt();
+      _loadedIndex.lastModifiedTimes = new long[fileCount];
+      _loadedIndex.sizes = new long[fileCount];
+      _loadedIndex.literalPositions = new int[fileCount];
+      _loadedIndex.literalCounts = new int[fileCount];
+      for (int i = 0; i < fileCount; i++) {
+        _loadedIndex.fileIndexMap.put(pool.intern(readString(mappedBuffer)), i);
+        _loadedIndex.lastModifiedTimes[i] = mappedBuffer.getLong();
+        _loadedIndex.sizes[i] = mappedBuffer.getLong();
+        int literalCount = mappedBuffer.getInt();
+        _loadedIndex.literalPositions[i] = mappedBuffer.position();
+        _loadedIndex.literalCounts[i] = literalCount;
+        mappedBuffer.position(mappedBuffer.position() + literalCount * LITERAL_BYTE_LENGTH);
+      }
+      int valueCount = mappedBuffer.getInt();
+      _loadedIndex.valueIds = new int[valueCount];
+      _loadedIndex.occurrencePositions = new int[valueCount];
+      for (int i = 0; i < valueCount; i++) {
+        _loadedIndex.valueIds[i] = pool.intern(readString(mappedBuffer));
+        _loadedIndex.occurrencePositions[i] = mappedBuffer.position();
+        int occurrenceCount = mappedBuffer.getInt();
+        mappedBuffer.position(mappedBuffer.position() + occurrenceCount * OCCURRENCE_BYTE_LENGTH);
+      }
+    } catch (IOException ex) {
+      LOG.log(Level.INFO, null, ex);
+      return;
+    } catch (RuntimeException ex) {
+      // BufferUnderflowException, IllegalArgumentException from corrupted file
+      LOG.log(Level.INFO, "Literal index file is corrupted, ignored: " + file.getAbsolutePath(), ex);
+      return;
+    } finally {
+      // the mapping stays valid after the channel is closed
+      CommonUtil.closeQuietly(randomAccessFile);
+    }
+
+    synchronized (valueMap) {
+      loadedIndex = _loadedIndex;
+      restoredFiles = new SyncFile[_loadedIndex.literalCounts.length];
+    }
+    LOG.log(Level.INFO, String.format("Loaded %1$d files, %2$d values in %3$d ms, path: %4$s",
+            _loadedIndex.literalCounts.length, _loadedIndex.valueIds.length, (System.nanoTime() - startTime) / 1000000L,
+            file.getAbsolutePath()));
+  }
+
+  /**
+   * Index all the files of the tree. The files in the loaded index are
+   * restored from it, the others are extracted in background.
+   * @param syncFile the root SyncFile
+   */
+  public void add(SyncFile syncFile) {
+    if (syncFile == null) {
+      throw new NullPointerException("argument 'syncFile' cannot be null");
+    }
+    synchronized (rootMap) {
+      if (rootMap.put(syncFile, Boolean.TRUE) != null) {
+        return;
+      }
+    }
+    long startTime = System.nanoTime();
+    long restoredCount = restoredFileCount.get();
+    List<SyncFile> syncFileList = new ArrayList<SyncFile>();
+    register(syncFile, syncFileList);
+    LOG.log(Level.INFO, String.format("Restored %1$d files in %2$d ms, %3$d files to extract, path: %4$s",
+            restoredFileCount.get() - restoredCount, (System.nanoTime() - startTime) / 1000000L, syncFileList.size(),
+            syncFile.getAbsolutePath()));
+    extractLater(syncFileList);
+  }
+
+  /**
+   * Remove the tree from the index.
+   * @param syncFile the root SyncFile
+   */
+  public void remove(SyncFile syncFile) {
+    synchronized (rootMap) {
+      if (rootMap.remove(syncFile) == null) {
+        return;
+      }
+    }
+    Deque<SyncFile> stack = new ArrayDeque<SyncFile>();
+    stack.push(syncFile);
+    while (!stack.isEmpty()) {
+      SyncFile _syncFile = stack.pop();
+      if (_syncFile.isDirectory()) {
+        _syncFile.removeListener(directoryListener);
+        for (SyncFile child : _syncFile.getChildSyncFileList()) {
+          stack.push(child);
+        }
+      } else {
+        tracker.untrack(_syncFile);
+      }
+    }
+  }
+
+  /**
+   * Listen the directories and restore the files in the loaded index under
+   * the SyncFile, the other files to extract are added to syncFileList.
+   */
+  protected void register(SyncFile syncFile, List<SyncFile> syncFileList) {
+    StringLiteralExtractor extractor = tracker.getExtractor();
+    Deque<SyncFile> stack = new ArrayDeque<SyncFile>();
+    stack.push(syncFile);
+    while (!stack.isEmpty()) {
+      SyncFile _syncFile = stack.pop();
+      if (_syncFile.isDirectory()) {
+        _syncFile.addListener(directoryListener);
+        for (SyncFile child : _syncFile.getChildSyncFileList()) {
+          stack.push(child);
+        }
+        continue;
+      }
+      if (!extractor.isExtractable(_syncFile) || _syncFile.isBinary() || tracker.isTracked(_syncFile)) {
+        continue;
+      }
+      List<StringLiteral> literalList = restore(_syncFile);
+      if (literalList != null) {
+        // the delta of tracking is skipped as restored already
+        tracker.track(_syncFile, literalList);
+        restoredFileCount.incrementAndGet();
+      } else {
+        syncFileList.add(_syncFile);
+      }
+    }
+  }
+
+  /**
+   * Restore the file from the loaded index.
+   * @return the literals decoded when used, null if the file is not in the
+   * loaded index or is modified since
+   */
+  protected List<StringLiteral> restore(SyncFile syncFile) {
+    synchronized (valueMap) {
+      if (loadedIndex == null) {
+        return null;
+      }
+      int pathId = pool.find(syncFile.getAbsolutePath());
+      Integer fileIndex = pathId != -1 ? loadedIndex.fileIndexMap.get(pathId) : null;
+      if (fileIndex == null || restoredFiles[fileIndex] != null
+              || loadedIndex.lastModifiedTimes[fileIndex] != syncFile.getLastModified() || loadedIndex.sizes[fileIndex] != syncFile.getSize()) {
+        return null;
+      }
+      restoredFiles[fileIndex] = syncFile;
+      restoredFileMap.put(syncFile, fileIndex);
+      restoredOccurrenceCount += loadedIndex.literalCounts[fileIndex];
+      return new LoadedLiteralList(loadedIndex, fileIndex);
+    }
+  }
+
+  /**
+   * Extract the files in background and track them.
+   */
+  protected void extractLater(List<SyncFile> syncFileList) {
+    if (syncFileList.isEmpty()) {
+      return;
+    }
+    final Map<SyncFile, long[]> attributeMap = new IdentityHashMap<SyncFile, long[]>();
+    for (SyncFile _syncFile : syncFileList) {
+      attributeMap.put(_syncFile, new long[]{_syncFile.getLastModified(), _syncFile.getSize()});
+    }
+    final List<SyncFile> _syncFileList = new ArrayList<SyncFile>(syncFileList);
+    extractExecutor.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        pipeline.run(_syncFileList, new StringLiteralExtractionListener() {
+
+          @Override
+          public void fileExtracted(SyncFile syncFile, List<StringLiteral> literalList) {
+            if (!isIndexed(syncFile) || tracker.isTracked(syncFile)) {
+              return;
+            }
+            tracker.track(syncFile, literalList);
+            extractedFileCount.incrementAndGet();
+            // modified while extracting, the tracker listens to the file from now on
+            long[] attributes = attributeMap.get(syncFile);
+            if (attributes[0] != syncFile.getLastModified() || attributes[1] != syncFile.getSize()) {
+              try {
+                tracker.update(syncFile);
+              } catch (IOException ex) {
+                LOG.log(Level.INFO, null, ex);
+              }
+            }
+          }
+
+          @Override
+          public void fileFailed(SyncFile syncFile, IOException ex) {
+            LOG.log(Level.INFO, null, ex);
+          }
+        }, token);
+      }
+    });
+  }
+
+  /**
+   * Check if the file is in one of the trees indexed.
+   */
+  protected boolean isIndexed(SyncFile syncFile) {
+    SyncFile root = syncFile;
+    while (root.getParent() != null) {
+      root = root.getParent();
+    }
+    synchronized (rootMap) {
+      return rootMap.containsKey(root);
+    }
+  }
+
+  protected void apply(StringLiteralDelta delta) {
+    SyncFile syncFile = delta.getSyncFile();
+    synchronized (valueMap) {
+      compactLaterIfGrown();
+      Integer fileIndex = restoredFileMap.get(syncFile);
+      if (fileIndex != null) {
+        if (delta.getVersion() == 1) {
+          // tracked after restored
+          return;
+        }
+        // the loaded index is outdated for the file, index the current literals in memory
+        restoredFileMap.remove(syncFile);
+        restoredFiles[fileIndex] = null;
+        restoredOccurrenceCount -= loadedIndex.literalCounts[fileIndex];
+        List<StringLiteral> literalList = delta.getVersion() != 0 ? tracker.getLiterals(syncFile) : null;
+        if (literalList != null) {
+          for (StringLiteral literal : literalList) {
+            addOccurrence(syncFile, literal);
+          }
+        }
+        return;
+      }
+
+      for (StringLiteral literal : delta.getRemovedList()) {
+        removeOccurrence(syncFile, literal);
+      }
+      for (StringLiteralDelta.Move move : delta.getMovedList()) {
+        removeOccurrence(syncFile, move.getOldLiteral());
+        addOccurrence(syncFile, move.getNewLiteral());
+      }
+      for (StringLiteral literal : delta.getAddedList()) {
+        addOccurrence(syncFile, literal);
+      }
+    }
+  }
+
+  /**
+   * Compact the pool in background if it holds too many strings not in use,
+   * hold the valueMap when calling.
+   */
+  protected void compactLaterIfGrown() {
+    int usedCount = valueMap.size();
+    if (loadedIndex != null) {
+      usedCount += loadedIndex.valueIds.length + loadedIndex.fileIndexMap.size();
+    }
+    if (compactScheduled || pool.size() - usedCount * 2 <= COMPACT_THRESHOLD) {
+      return;
+    }
+    compactScheduled = true;
+    extractExecutor.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        compact();
+      }
+    });
+  }
+
+  /**
+   * Move the values and the paths in use to a new pool and close the old
+   * one. The new pool becomes the default, the literals of the tracker are
+   * moved to it too, except those of the restored files, which are read from
+   * the loaded index. The literals extracted in the old pool meanwhile are
+   * still taken by value.
+   */
+  protected synchronized void compact() {
+    long startTime = System.nanoTime();
+    StringPool newPool = new StringPool();
+    StringPool oldPool;
+    List<SyncFile> syncFileList = new ArrayList<SyncFile>();
+    synchronized (valueMap) {
+      compactScheduled = false;
+      oldPool = pool;
+      if (StringPool.getDefault() == oldPool) {
+        StringPool.setDefault(newPool);
+      }
+
+      Map<Integer, List<Occurrence>> newValueMap = new HashMap<Integer, List<Occurrence>>(valueMap.size() * 2);
+      for (Map.Entry<Integer, List<Occurrence>> entry : valueMap.entrySet()) {
+        int valueId = newPool.intern(oldPool.get(entry.getKey()));
+        List<Occurrence> occurrenceList = new ArrayList<Occurrence>(entry.getValue().size());
+        for (Occurrence occurrence : entry.getValue()) {
+          StringLiteral literal = occurrence.literal;
+          occurrenceList.add(new Occurrence(occurrence.syncFile, new StringLiteral(literal.getOffset(), literal.getLength(), newPool, valueId,
+                  literal.isInterpolated())));
+        }
+        newValueMap.put(valueId, occurrenceList);
+      }
+      valueMap.clear();
+      valueMap.putAll(newValueMap);
+      sortedValueIds = null;
+      if (loadedIndex != null) {
+        loadedIndex.migrate(newPool);
+      }
+      pool = newPool;
+
+      for (SyncFile _syncFile : tracker.getTrackedFiles()) {
+        if (!restoredFileMap.containsKey(_syncFile)) {
+          syncFileList.add(_syncFile);
+        }
+      }
+    }
+    // outside the valueMap, the tracker publishes the deltas to it while holding the record
+    for (SyncFile _syncFile : syncFileList) {
+      tracker.migrate(_syncFile, newPool);
+    }
+    oldPool.close();
+    compactCount.incrementAndGet();
+
+    LOG.log(Level.INFO, String.format("Compacted the string pool from %1$d to %2$d strings in %3$d ms",
+            oldPool.size(), newPool.size(), (System.nanoTime() - startTime) / 1000000L));
+  }
+
+  /**
+   * Get the id of the value of the literal in the pool of this index.
+   */
+  protected int getValueId(StringLiteral literal) {
+    return literal.getPool() == pool ? literal.getValueId() : pool.intern(literal.getValue());
+  }
+
+  protected void addOccurrence(SyncFile syncFile, StringLiteral literal) {
+    int valueId = getValueId(literal);
+    List<Occurrence> occurrenceList = valueMap.get(valueId);
+    if (occurrenceList == null) {
+      occurrenceList = new ArrayList<Occurrence>(1);
+      valueMap.put(valueId, occurrenceList);
+      sortedValueIds = null;
+    }
+    occurrenceList.add(new Occurrence(syncFile, literal));
+    occurrenceCount++;
+  }
+
+  protected void removeOccurrence(SyncFile syncFile, StringLiteral literal) {
+    int valueId = getValueId(literal);
+    List<Occurrence> occurrenceList = valueMap.get(valueId);
+    if (occurrenceList == null) {
+      return;
+    }
+    for (int i = occurrenceList.size() - 1; i >= 0; i--) {
+      Occurrence occurrence = occurrenceList.get(i);
+      if (occurrence.syncFile == syncFile && occurrence.literal.getOffset() == literal.getOffset()) {
+        occurrenceList.remove(i);
+        occurrenceCount--;
+        break;
+      }
+    }
+    if (occurrenceList.isEmpty()) {
+      valueMap.remove(valueId);
+      sortedValueIds = null;
+    }
+  }
+
+  /**
+   * Add the occurrences of the value in the restored files, hold the valueMap
+   * when calling.
+   */
+  protected void addRestoredOccurrences(int valueIndex, List<Occurrence> occurrenceList) {
+    ByteBuffer _buffer = loadedIndex.buffer.duplicate();
+    _buffer.position(loadedIndex.occurrencePositions[valueIndex]);
+    for (int i = 0, iEnd = _buffer.getInt(); i < iEnd; i++) {
+      int fileIndex = _buffer.getInt();
+      int literalIndex = _buffer.getInt();
+      SyncFile syncFile = restoredFiles[fileIndex];
+      if (syncFile != null) {
+        occurrenceList.add(new Occurrence(syncFile, loadedIndex.readLiteral(fileIndex, literalIndex)));
+      }
+    }
+  }
+
+  /**
+   * Find the occurrences of the value.
+   * @param value the value
+   * @return the occurrences, empty if not found
+   */
+  public List<Occurrence> findExact(String value) {
+    if (value == null) {
+      throw new NullPointerException("argument 'value' cannot be null");
+    }
+    List<Occurrence> returnList = new ArrayList<Occurrence>();
+    synchronized (valueMap) {
+      int valueId = pool.find(value);
+      if (valueId == -1) {
+        return returnList;
+      }
+      List<Occurrence> occurrenceList = valueMap.get(valueId);
+      if (occurrenceList != null) {
+        returnList.addAll(occurrenceList);
+      }
+      if (!restoredFileMap.isEmpty()) {
+        int valueIndex = lowerBound(loadedIndex.valueIds, value);
+        if (valueIndex < loadedIndex.valueIds.length && loadedIndex.valueIds[valueIndex] == valueId) {
+          addRestoredOccurrences(valueIndex, returnList);
+        }
+      }
+    }
+    return returnList;
+  }
+
+  /**
+   * Find the occurrences of the values starting with the prefix.
+   * @param prefix the prefix
+   * @return the occurrences, grouped by value
+   */
+  public List<Occurrence> findPrefix(String prefix) {
+    if (prefix == null) {
+      throw new NullPointerException("argument 'prefix' cannot be null");
+    }
+    List<Occurrence> returnList = new ArrayList<Occurrence>();
+    synchronized (valueMap) {
+      int[] _sortedValueIds = getSortedValueIds();
+      for (int i = lowerBound(_sortedValueIds, prefix); i < _sortedValueIds.length && pool.startsWith(_sortedValueIds[i], prefix); i++) {
+        returnList.addAll(valueMap.get(_sortedValueIds[i]));
+      }
+      if (!restoredFileMap.isEmpty()) {
+        int[] valueIds = loadedIndex.valueIds;
+        for (int i = lowerBound(valueIds, prefix); i < valueIds.length && pool.startsWith(valueIds[i], prefix); i++) {
+          addRestoredOccurrences(i, returnList);
+        }
+      }
+    }
+    return returnList;
+  }
+
+  /**
+   * Find the occurrences of the values containing the string. Every distinct
+   * value is compared.
+   * @param substring the string
+   * @return the occurrences, grouped by value
+   */
+  public List<Occurrence> findSubstring(String substring) {
+    if (substring == null) {
+      throw new NullPointerException("argument 'substring' cannot be null");
+    }
+    List<Occurrence> returnList = new ArrayList<Occurrence>();
+    synchronized (valueMap) {
+      for (Map.Entry<Integer, List<Occurrence>> entry : valueMap.entrySet()) {
+        if (pool.contains(entry.getKey(), substring)) {
+          returnList.addAll(entry.getValue());
+        }
+      }
+      if (!restoredFileMap.isEmpty()) {
+        int[] valueIds = loadedIndex.valueIds;
+        for (int i = 0; i < valueIds.length; i++) {
+          if (pool.contains(valueIds[i], substring)) {
+            addRestoredOccurrences(i, returnList);
+          }
+        }
+      }
+    }
+    return returnList;
+  }
+
+  /**
+   * Sort the value ids by value if changed since last sorted, hold the
+   * valueMap when calling.
+   */
+  protected int[] getSortedValueIds() {
+    if (sortedValueIds == null) {
+      Integer[] valueIds = valueMap.keySet().toArray(new Integer[valueMap.size()]);
+      sortValueIds(valueIds);
+      sortedValueIds = new int[valueIds.length];
+      for (int i = 0; i < valueIds.length; i++) {
+        sortedValueIds[i] = valueIds[i];
+      }
+    }
+    return sortedValueIds;
+  }
+
+  protected void sortValueIds(Integer[] valueIds) {
+    Arrays.sort(valueIds, new Comparator<Integer>() {
+
+      @Override
+      public int compare(Integer id1, Integer id2) {
+        return pool.compare(id1, id2);
+      }
+    });
+  }
+
+  /**
+   * Get the index of the first value id not less than the string.
+   * @param valueIds the value ids sorted by value
+   * @param s the string
+   * @return the index, valueIds.length if all are less
+   */
+  protected int lowerBound(int[] valueIds, String s) {
+    int low = 0;
+    int high = valueIds.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (pool.compare(valueIds[middle], s) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Get the number of occurrences of all values.
+   * @return the count
+   */
+  public int getOccurrenceCount() {
+    synchronized (valueMap) {
+      return occurrenceCount + restoredOccurrenceCount;
+    }
+  }
+
+  /**
+   * Get the number of files restored from the loaded index.
+   * @return the count
+   */
+  public long getRestoredFileCount() {
+    return restoredFileCount.get();
+  }
+
+  /**
+   * Get the number of files indexed by extracting.
+   * @return the count
+   */
+  public long getExtractedFileCount() {
+    return extractedFileCount.get();
+  }
+
+  /**
+   * Get the number of times the pool compacted.
+   * @return the count
+   */
+  public long getCompactCount() {
+    return compactCount.get();
+  }
+
+  /**
+   * Stop the extraction in progress, the index is still updated by the
+   * tracker.
+   */
+  public void close() {
+    token.cancel();
+  }
+
+  /**
+   * Get the file saved to, it replaces the file on next {@link #load()}.
+   * @return the file
+   */
+  protected File getPendingFile() {
+    return new File(file.getAbsolutePath() + ".new");
+  }
+
+  /**
+   * Save the literals of the files tracked. The file is written to a
+   * temporary file first and then moved to replace the pending file, the file
+   * mapped by {@link #load()} is not touched.
+   * @throws IOException error occurred when writing the file
+   */
+  public synchronized void save() throws IOException {
+    long startTime = System.nanoTime();
+
+    List<SyncFile> syncFileList = new ArrayList<SyncFile>();
+    List<long[]> attributeList = new ArrayList<long[]>();
+    List<List<StringLiteral>> literalListList = new ArrayList<List<StringLiteral>>();
+    // the occurrences of each value id, the length used followed by the file index and literal index pairs
+    Map<Integer, int[]> occurrenceMap = new HashMap<Integer, int[]>();
+    for (SyncFile _syncFile : tracker.getTrackedFiles()) {
+      // the attributes are taken first, a modification meanwhile makes the entry outdated rather than wrong
+      long[] attributes = new long[]{_syncFile.getLastModified(), _syncFile.getSize()};
+      List<StringLiteral> literalList = tracker.getLiterals(_syncFile);
+      if (literalList == null) {
+        continue;
+      }
+      int fileIndex = syncFileList.size();
+      for (int i = 0, iEnd = literalList.size(); i < iEnd; i++) {
+        int valueId = getValueId(literalList.get(i));
+        int[] occurrences = occurrenceMap.get(valueId);
+        if (occurrences == null) {
+          occurrences = new int[3];
+          occurrenceMap.put(valueId, occurrences);
+        } else if (occurrences[0] + 2 >= occurrences.length) {
+          occurrences = Arrays.copyOf(occurrences, occurrences.length * 2 + 1);
+          occurrenceMap.put(valueId, occurrences);
+        }
+        occurrences[++occurrences[0]] = fileIndex;
+        occurrences[++occurrences[0]] = i;
+      }
+      syncFileList.add(_syncFile);
+      attributeList.add(attributes);
+      literalListList.add(literalList);
+    }
+    Integer[] valueIds = occurrenceMap.keySet().toArray(new Integer[occurrenceMap.size()]);
+    sortValueIds(valueIds);
+    Map<Integer, Integer> valueIndexMap = new HashMap<Integer, Integer>(valueIds.length * 2);
+    for (int i = 0; i < valueIds.length; i++) {
+      valueIndexMap.put(valueIds[i], i);
+    }
+
+    File tempFile = new File(file.getAbsolutePath() + ".tmp");
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 65536));
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(syncFileList.size());
+      for (int i = 0, iEnd = syncFileList.size(); i < iEnd; i++) {
+        writeString(out, syncFileList.get(i).getAbsolutePath());
+        long[] attributes = attributeList.get(i);
+        out.writeLong(attributes[0]);
+        out.writeLong(attributes[1]);
+        List<StringLiteral> literalList = literalListList.get(i);
+        out.writeInt(literalList.size());
+        for (StringLiteral literal : literalList) {
+          out.writeInt(valueIndexMap.get(getValueId(literal)));
+          out.writeInt(literal.getOffset());
+          out.writeInt(literal.getLength());
+          out.writeByte(literal.isInterpolated() ? FLAG_INTERPOLATED : 0);
+        }
+      }
+      out.writeInt(valueIds.length);
+      for (Integer valueId : valueIds) {
+        writeString(out, pool.get(valueId));
+        int[] occurrences = occurrenceMap.get(valueId);
+        out.writeInt(occurrences[0] / 2);
+        for (int i = 1; i <= occurrences[0]; i++) {
+          out.writeInt(occurrences[i]);
+        }
+      }
+    } finally {
+      CommonUtil.closeQuietly(out);
+    }
+
+    File pendingFile = getPendingFile();
+    Files.move(tempFile.toPath(), pendingFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+    LOG.log(Level.INFO, String.format("Saved %1$d files, %2$d values in %3$d ms, path: %4$s",
+            syncFileList.size(), valueIds.length, (System.nanoTime() - startTime) / 1000000L, pendingFile.getAbsolutePath()));
+  }
+
+  protected static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(UTF8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  protected static String readString(ByteBuffer _buffer) throws IOException {
+    int length = _buffer.getInt();
+    if (length < 0 || length > _buffer.remaining()) {
+      throw new IOException("invalid string length: " + length);
+    }
+    byte[] bytes = new byte[length];
+    _buffer.get(bytes);
+    return new String(bytes, UTF8);
+  }
+
+  /**
+   * A literal in a file.
+   */
+  public static class Occurrence {
+
+    protected final SyncFile syncFile;
+    protected final StringLiteral literal;
+
+    public Occurrence(SyncFile syncFile, StringLiteral literal) {
+      this.syncFile = syncFile;
+      this.literal = literal;
+    }
+
+    public SyncFile getSyncFile() {
+      return syncFile;
+    }
+
+    public StringLiteral getLiteral() {
+      return literal;
+    }
+
+    public int getOffset() {
+      return literal.getOffset();
+    }
+
+    public String getValue() {
+      return literal.getValue();
+    }
+  }
+
+  /**
+   * The index file loaded, only the pool is changed after loaded.
+   */
+  protected static class LoadedIndex {
+
+    protected final ByteBuffer buffer;
+    protected StringPool pool;
+    /**
+     * The file index keyed by the id of the path.
+     */
+    protected final Map<Integer, Integer> fileIndexMap;
+    protected long[] lastModifiedTimes;
+    protected long[] sizes;
+    /**
+     * The position of the first literal of each file in the buffer.
+     */
+    protected int[] literalPositions;
+    protected int[] literalCounts;
+    /**
+     * The ids of the values, sorted by value.
+     */
+    protected int[] valueIds;
+    /**
+     * The position of the occurrence count of each value in the buffer.
+     */
+    protected int[] occurrencePositions;
+
+    protected LoadedIndex(ByteBuffer buffer, StringPool pool) {
+      this.buffer = buffer;
+      this.pool = pool;
+      fileIndexMap = new HashMap<Integer, Integer>();
+    }
+
+    /**
+     * Move the paths and the values to another pool, hold the valueMap when
+     * calling. The order of the values is not changed.
+     */
+    protected synchronized void migrate(StringPool newPool) {
+      Map<Integer, Integer> newFileIndexMap = new HashMap<Integer, Integer>(fileIndexMap.size() * 2);
+      for (Map.Entry<Integer, Integer> entry : fileIndexMap.entrySet()) {
+        newFileIndexMap.put(newPool.intern(pool.get(entry.getKey())), entry.getValue());
+      }
+      fileIndexMap.clear();
+      fileIndexMap.putAll(newFileIndexMap);
+      int[] newValueIds = new int[valueIds.length];
+      for (int i = 0; i < valueIds.length; i++) {
+        newValueIds[i] = newPool.intern(pool.get(valueIds[i]));
+      }
+      valueIds = newValueIds;
+      pool = newPool;
+    }
+
+    protected synchronized StringLiteral readLiteral(int fileIndex, int literalIndex) {
+      int position = literalPositions[fileIndex] + literalIndex * LITERAL_BYTE_LENGTH;
+      return new StringLiteral(buffer.getInt(position + 4), buffer.getInt(position + 8), pool, valueIds[buffer.getInt(position)],
+              (buffer.get(position + 12) & FLAG_INTERPOLATED) != 0);
+    }
+  }
+
+  /**
+   * The literals of a restored file, decoded on first use.
+   */
+  protected static class LoadedLiteralList extends AbstractList<StringLiteral> implements RandomAccess {
+
+    protected final LoadedIndex loadedIndex;
+    protected final int fileIndex;
+    protected StringLiteral[] literals;
+
+    protected LoadedLiteralList(LoadedIndex loadedIndex, int fileIndex) {
+      this.loadedIndex = loadedIndex;
+      this.fileIndex = fileIndex;
+      literals = null;
+    }
+
+    @Override
+    public synchronized StringLiteral get(int index) {
+      if (literals == null) {
+        StringLiteral[] _literals = new StringLiteral[loadedIndex.literalCounts[fileIndex]];
+        for (int i = 0; i < _literals.length; i++) {
+          _literals[i] = loadedIndex.readLiteral(fileIndex, i);
+        }
+        literals = _literals;
+      }
+      return literals[index];
+    }
+
+    @Override
+    public int size() {
+      return loadedIndex.literalCounts[fileIndex];
+    }
+  }
+}
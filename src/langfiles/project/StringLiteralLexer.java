@@ -0,0 +1,223 @@
+package langfiles.project;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Find the string literals in the source code of a language, without
+ * building any token or document, only the literals found are allocated.
+ * <p>
+ * The lexers are hand-written and only tell the literals, comments and
+ * whatever may contain a quote apart, the code is not validated. They keep no
+ * state between calls and can be shared by threads.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public abstract class StringLiteralLexer {
+
+  /**
+   * Lex the whole content.
+   * @param content the content
+   * @return the literals in the order of offset
+   */
+  public List<StringLiteral> lex(CharSequence content) {
+    List<StringLiteral> literalList = new ArrayList<StringLiteral>();
+    lex(content, literalList);
+    return literalList;
+  }
+
+  /**
+   * Lex the whole content.
+   * @param content the content
+   * @param literalList the list to add the literals found to, in the order of
+   * offset
+   */
+  public void lex(CharSequence content, List<StringLiteral> literalList) {
+    lex(content, 0, Integer.MAX_VALUE, false, literalList);
+  }
+
+  /**
+   * Lex the content from the beginning, or resume from where it stopped
+   * before, until the first literal that begins at or after stop and can be
+   * resumed from.
+   * <p>
+   * The lexer only stops after a literal if its state there is always the
+   * same, e.g. not inside a substitution of a JavaScript template literal, so
+   * the content after it can be lexed again from there alone and the result
+   * is the same as lexing the whole content.
+   * </p>
+   * @param content the content
+   * @param start 0 to lex from the beginning, or the offset returned by a
+   * previous call to resume
+   * @param stop the offset to stop after the first literal that begins at or
+   * after it and can be resumed from, {@link Integer#MAX_VALUE} to lex to the
+   * end
+   * @param resume true to resume from start
+   * @param literalList the list to add the literals found to, in the order of
+   * offset
+   * @return the end of the literal stopped after, or the length of the
+   * content if lexed to the end
+   */
+  public abstract int lex(CharSequence content, int start, int stop, boolean resume, List<StringLiteral> literalList);
+
+  /**
+   * Skip to the end of the line.
+   * @return the offset of the line terminator, or length if none
+   */
+  protected static int skipLine(CharSequence content, int offset, int length) {
+    int i = offset;
+    while (i < length) {
+      char c = content.charAt(i);
+      if (c == '\n' || c == '\r') {
+        break;
+      }
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * Skip to the end of the block comment.
+   * @param offset the offset after the opening of the comment
+   * @return the offset after the end of the comment, or length if not closed
+   */
+  protected static int skipBlockComment(CharSequence content, int offset, int length) {
+    int i = offset;
+    while (i + 1 < length) {
+      if (content.charAt(i) == '*' && content.charAt(i + 1) == '/') {
+        return i + 2;
+      }
+      i++;
+    }
+    return length;
+  }
+
+  /**
+   * Skip a quoted token that is not a string literal, e.g. a char literal.
+   * @param offset the offset after the opening quote
+   * @param multiline true if the token may span lines
+   * @return the offset after the closing quote, or the line terminator or
+   * length if not closed
+   */
+  protected static int skipQuoted(CharSequence content, int offset, int length, char quote, boolean multiline) {
+    int i = offset;
+    while (i < length) {
+      char c = content.charAt(i);
+      if (c == quote) {
+        return i + 1;
+      }
+      if (c == '\\') {
+        i += 2;
+        continue;
+      }
+      if (!multiline && (c == '\n' || c == '\r')) {
+        return i;
+      }
+      i++;
+    }
+    return length;
+  }
+
+  /**
+   * Skip the line terminator at offset, "\r\n" is one.
+   * @return the offset after the line terminator, offset if there is not any
+   */
+  protected static int skipLineTerminator(CharSequence content, int offset, int length) {
+    if (offset < length) {
+      char c = content.charAt(offset);
+      if (c == '\n') {
+        return offset + 1;
+      }
+      if (c == '\r') {
+        return offset + 1 < length && content.charAt(offset + 1) == '\n' ? offset + 2 : offset + 1;
+      }
+    }
+    return offset;
+  }
+
+  /**
+   * Parse the hex digits.
+   * @param offset the offset of the first digit
+   * @param digits the number of digits
+   * @param length the length of the content
+   * @return the value, -1 if not enough hex digits
+   */
+  protected static int parseHex(CharSequence content, int offset, int digits, int length) {
+    if (offset + digits > length) {
+      return -1;
+    }
+    int value = 0;
+    for (int i = offset, iEnd = offset + digits; i < iEnd; i++) {
+      int digit = Character.digit(content.charAt(i), 16);
+      if (digit == -1) {
+        return -1;
+      }
+      value = (value << 4) | digit;
+    }
+    return value;
+  }
+
+  /**
+   * Read an octal escape sequence, at most 3 digits and not more than \377.
+   * @param offset the offset of the first digit
+   * @return the offset after the escape sequence
+   */
+  protected static int readOctalEscape(CharSequence content, int offset, int length, StringBuilder sb) {
+    int maxDigits = content.charAt(offset) <= '3' ? 3 : 2;
+    int value = 0;
+    int i = offset;
+    while (i < length && i - offset < maxDigits) {
+      char c = content.charAt(i);
+      if (c < '0' || c > '7') {
+        break;
+      }
+      value = (value << 3) | (c - '0');
+      i++;
+    }
+    sb.append((char) value);
+    return i;
+  }
+
+  /**
+   * Read the hex digits of a code point in braces, e.g. the {1F600} of a
+   * JavaScript escape sequence.
+   * @param offset the offset of the opening brace
+   * @return the offset after the closing brace, -1 if invalid
+   */
+  protected static int readCodePointEscape(CharSequence content, int offset, int length, StringBuilder sb) {
+    int value = 0;
+    int i = offset + 1;
+    while (i < length && i - offset <= 8) {
+      char c = content.charAt(i);
+      if (c == '}') {
+        if (i == offset + 1 || value > Character.MAX_CODE_POINT) {
+          return -1;
+        }
+        sb.appendCodePoint(value);
+        return i + 1;
+      }
+      int digit = Character.digit(c, 16);
+      if (digit == -1) {
+        return -1;
+      }
+      value = (value << 4) | digit;
+      i++;
+    }
+    return -1;
+  }
+
+  /**
+   * Check if the content from start to end is the word.
+   */
+  protected static boolean regionEquals(CharSequence content, int start, int end, String word) {
+    if (end - start != word.length()) {
+      return false;
+    }
+    for (int i = start; i < end; i++) {
+      if (content.charAt(i) != word.charAt(i - start)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
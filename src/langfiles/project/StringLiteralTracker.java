@@ -0,0 +1,711 @@
+package langfiles.project;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import langfiles.util.StringPool;
+import langfiles.util.SyncFile;
+import langfiles.util.SyncFileChangeBatch;
+import langfiles.util.SyncFileListener;
+
+/**
+ * Keep the string literals of the tracked files up to date when they are
+ * modified, lexing only the changed region where possible.
+ * <p>
+ * The changed region is found by comparing the new content with the previous
+ * one, it is what is between their common prefix and common suffix. The lexer
+ * resumes after the last checkpoint before the region, a checkpoint is a
+ * literal after which the lexer is always in the same state, and lexes until
+ * it stops at a checkpoint in the unchanged suffix exactly as before. The
+ * literals after that are the previous ones shifted. The checkpoints are
+ * recorded about every {@link #CHECKPOINT_INTERVAL} chars.
+ * </p>
+ * <p>
+ * The previous content is held by a soft reference. The whole file is lexed
+ * again if it has been collected, if the file was seeded by
+ * {@link #track(SyncFile, List)} or if the lexer of the file has changed
+ * after a rename.
+ * </p>
+ * <p>
+ * Every change is published to the {@link StringLiteralDeltaListener}s with
+ * the version of the file, on the thread delivering the file events. Tracking
+ * a file publishes all its literals as added in version 1, untracking or
+ * deleting it publishes them as removed in version 0, so the listeners can
+ * keep their state from the deltas only.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class StringLiteralTracker {
+
+  private static final Logger LOG = Logger.getLogger(StringLiteralTracker.class.getName());
+  /**
+   * The number of chars between two checkpoints, roughly.
+   */
+  public static final int CHECKPOINT_INTERVAL = 4096;
+  protected final StringLiteralExtractor extractor;
+  /**
+   * SyncFile has no hashCode, the records are keyed by identity.
+   */
+  protected final Map<SyncFile, Record> recordMap;
+  protected final List<StringLiteralDeltaListener> listenerList;
+  protected final SyncFileListener syncFileListener;
+  // metrics
+  protected final AtomicLong incrementalCount;
+  protected final AtomicLong rescanCount;
+  protected final AtomicLong lexedCharCount;
+  protected final AtomicLong updatedCharCount;
+
+  /**
+   * Constructor.
+   * @param extractor the extractor to choose the lexer of the files
+   */
+  public StringLiteralTracker(StringLiteralExtractor extractor) {
+    if (extractor == null) {
+      throw new NullPointerException("argument 'extractor' cannot be null");
+    }
+    this.extractor = extractor;
+    recordMap = new IdentityHashMap<SyncFile, Record>();
+    listenerList = new CopyOnWriteArrayList<StringLiteralDeltaListener>();
+    incrementalCount = new AtomicLong();
+    rescanCount = new AtomicLong();
+    lexedCharCount = new AtomicLong();
+    updatedCharCount = new AtomicLong();
+
+    syncFileListener = new SyncFileListener() {
+
+      @Override
+      public void fileCreated(SyncFile directory, SyncFile fileCreated, String rootPath, String name) {
+        // the listener is added to the files only
+      }
+
+      @Override
+      public void fileDeleted(SyncFile fileDeleted, String rootPath, String name) {
+        remove(fileDeleted);
+      }
+
+      @Override
+      public void fileModified(SyncFile fileModified, String rootPath, String name) {
+        updateQuietly(fileModified);
+      }
+
+      @Override
+      public void fileRenamed(SyncFile fileRenamed, String rootPath, String oldName, String newName) {
+        // the lexer may be changed by the extension
+        updateQuietly(fileRenamed);
+      }
+
+      @Override
+      public void filesChanged(SyncFileChangeBatch batch) {
+        for (SyncFile _syncFile : batch.getDeletedFiles()) {
+          remove(_syncFile);
+        }
+        for (SyncFile _syncFile : batch.getModifiedFiles()) {
+          updateQuietly(_syncFile);
+        }
+      }
+    };
+  }
+
+  /**
+   * Constructor with the default extractor.
+   */
+  public StringLiteralTracker() {
+    this(StringLiteralExtractor.getDefault());
+  }
+
+  public void addListener(StringLiteralDeltaListener listener) {
+    if (listener == null) {
+      throw new NullPointerException("argument 'listener' cannot be null");
+    }
+    listenerList.add(listener);
+  }
+
+  public void removeListener(StringLiteralDeltaListener listener) {
+    listenerList.remove(listener);
+  }
+
+  public StringLiteralExtractor getExtractor() {
+    return extractor;
+  }
+
+  /**
+   * Start tracking the file, its string literals are extracted.
+   * @param syncFile the file
+   * @return the literals in the order of offset, unmodifiable
+   * @throws IOException error occurred when reading the file, the file is
+   * tracked still and lexed again on the next modify event
+   */
+  public List<StringLiteral> track(SyncFile syncFile) throws IOException {
+    if (syncFile == null) {
+      throw new NullPointerException("argument 'syncFile' cannot be null");
+    }
+    Record record = new Record();
+    synchronized (record) {
+      record.literalList = Collections.emptyList();
+      record.checkpoints = new int[0];
+      register(syncFile, record);
+
+      // registered before reading, the modify events after this wait for the record
+      record.lexer = getLexer(syncFile);
+      String content = record.lexer != null ? readContent(syncFile) : null;
+      if (content != null) {
+        List<StringLiteral> literalList = new ArrayList<StringLiteral>();
+        List<Integer> checkpointList = new ArrayList<Integer>();
+        lex(record.lexer, content, 0, false, literalList, checkpointList, null, null, 0, 0);
+        record.set(content, literalList, checkpointList);
+        lexedCharCount.addAndGet(content.length());
+      }
+      fireLiteralsChanged(new StringLiteralDelta(syncFile, record.version, record.literalList, Collections.<StringLiteral>emptyList(),
+              Collections.<StringLiteralDelta.Move>emptyList(), true));
+      return record.literalList;
+    }
+  }
+
+  /**
+   * Start tracking the file with the literals extracted already, e.g. by
+   * {@link StringLiteralExtractionPipeline}, the file is not read. The whole
+   * file is lexed on the first modify event.
+   * @param syncFile the file
+   * @param literalList the literals of the current content of the file, kept
+   * without copying, it should not be modified afterward
+   */
+  public void track(SyncFile syncFile, List<StringLiteral> literalList) {
+    if (syncFile == null) {
+      throw new NullPointerException("argument 'syncFile' cannot be null");
+    }
+    if (literalList == null) {
+      throw new NullPointerException("argument 'literalList' cannot be null");
+    }
+    Record record = new Record();
+    synchronized (record) {
+      record.lexer = getLexer(syncFile);
+      record.literalList = Collections.unmodifiableList(literalList);
+      record.checkpoints = new int[0];
+      register(syncFile, record);
+      fireLiteralsChanged(new StringLiteralDelta(syncFile, record.version, record.literalList, Collections.<StringLiteral>emptyList(),
+              Collections.<StringLiteralDelta.Move>emptyList(), false));
+    }
+  }
+
+  protected void register(SyncFile syncFile, Record record) {
+    record.version = 1;
+    Record previous;
+    synchronized (recordMap) {
+      previous = recordMap.put(syncFile, record);
+    }
+    if (previous != null) {
+      release(syncFile, previous);
+    } else {
+      syncFile.addListener(syncFileListener);
+    }
+  }
+
+  /**
+   * Stop tracking the file, its literals are published as removed.
+   * @param syncFile the file
+   */
+  public void untrack(SyncFile syncFile) {
+    if (syncFile == null) {
+      throw new NullPointerException("argument 'syncFile' cannot be null");
+    }
+    Record record;
+    synchronized (recordMap) {
+      record = recordMap.remove(syncFile);
+    }
+    if (record != null) {
+      syncFile.removeListener(syncFileListener);
+      release(syncFile, record);
+    }
+  }
+
+  /**
+   * Stop tracking all the files.
+   */
+  public void untrackAll() {
+    List<SyncFile> syncFileList;
+    synchronized (recordMap) {
+      syncFileList = new ArrayList<SyncFile>(recordMap.keySet());
+    }
+    for (SyncFile _syncFile : syncFileList) {
+      untrack(_syncFile);
+    }
+  }
+
+  /**
+   * Get the files tracked.
+   * @return a copy of the list
+   */
+  public List<SyncFile> getTrackedFiles() {
+    synchronized (recordMap) {
+      return new ArrayList<SyncFile>(recordMap.keySet());
+    }
+  }
+
+  public boolean isTracked(SyncFile syncFile) {
+    synchronized (recordMap) {
+      return recordMap.containsKey(syncFile);
+    }
+  }
+
+  /**
+   * Get the current literals of the file.
+   * @param syncFile the file
+   * @return the literals in the order of offset, unmodifiable, null if the file
+   * is not tracked
+   */
+  public List<StringLiteral> getLiterals(SyncFile syncFile) {
+    Record record;
+    synchronized (recordMap) {
+      record = recordMap.get(syncFile);
+    }
+    if (record == null) {
+      return null;
+    }
+    synchronized (record) {
+      return record.literalList;
+    }
+  }
+
+  /**
+   * Get the current version of the file, it starts from 1 and increases by 1
+   * on every change of the content.
+   * @param syncFile the file
+   * @return the version, 0 if the file is not tracked
+   */
+  public long getVersion(SyncFile syncFile) {
+    Record record;
+    synchronized (recordMap) {
+      record = recordMap.get(syncFile);
+    }
+    if (record == null) {
+      return 0;
+    }
+    synchronized (record) {
+      return record.version;
+    }
+  }
+
+  /**
+   * Move the literals of the file to another pool, e.g. when the pool is
+   * compacted. The values and the offsets are the same, no delta is
+   * published.
+   * @param syncFile the file
+   * @param pool the pool
+   */
+  public void migrate(SyncFile syncFile, StringPool pool) {
+    if (pool == null) {
+      throw new NullPointerException("argument 'pool' cannot be null");
+    }
+    Record record;
+    synchronized (recordMap) {
+      record = recordMap.get(syncFile);
+    }
+    if (record == null) {
+      return;
+    }
+    synchronized (record) {
+      if (record.version == 0) {
+        return;
+      }
+      List<StringLiteral> literalList = new ArrayList<StringLiteral>(record.literalList.size());
+      boolean migrated = false;
+      for (StringLiteral literal : record.literalList) {
+        if (literal.getPool() != pool) {
+          literal = new StringLiteral(literal.getOffset(), literal.getLength(), pool, pool.intern(literal.getValue()), literal.isInterpolated());
+          migrated = true;
+        }
+        literalList.add(literal);
+      }
+      if (migrated) {
+        // same size, the checkpoints stay valid
+        record.literalList = Collections.unmodifiableList(literalList);
+      }
+    }
+  }
+
+  protected void updateQuietly(SyncFile syncFile) {
+    try {
+      update(syncFile);
+    } catch (IOException ex) {
+      LOG.log(Level.INFO, null, ex);
+    }
+  }
+
+  /**
+   * Update the literals of the file to its current content and publish the
+   * delta. It is called on the modify events of the tracked files.
+   * @param syncFile the file
+   * @return the delta, null if the file is not tracked or the content is not
+   * changed
+   * @throws IOException error occurred when reading the file, the literals
+   * are kept
+   */
+  public StringLiteralDelta update(SyncFile syncFile) throws IOException {
+    if (syncFile == null) {
+      throw new NullPointerException("argument 'syncFile' cannot be null");
+    }
+    Record record;
+    synchronized (recordMap) {
+      record = recordMap.get(syncFile);
+    }
+    if (record == null) {
+      return null;
+    }
+
+    synchronized (record) {
+      if (record.version == 0) {
+        // untracked meanwhile
+        return null;
+      }
+      StringLiteralLexer lexer = getLexer(syncFile);
+      String content = lexer != null ? readContent(syncFile) : null;
+      String oldContent = record.contentReference != null ? record.contentReference.get() : null;
+
+      List<StringLiteral> oldList = record.literalList;
+      List<StringLiteral> literalList = new ArrayList<StringLiteral>();
+      List<Integer> checkpointList = new ArrayList<Integer>();
+      List<StringLiteral> addedList = new ArrayList<StringLiteral>();
+      List<StringLiteral> removedList = new ArrayList<StringLiteral>();
+      List<StringLiteralDelta.Move> movedList = new ArrayList<StringLiteralDelta.Move>();
+      boolean rescanned;
+
+      if (content != null && oldContent != null && lexer == record.lexer) {
+        int oldLength = oldContent.length();
+        int length = content.length();
+        int minLength = Math.min(oldLength, length);
+        int prefix = 0;
+        while (prefix < minLength && oldContent.charAt(prefix) == content.charAt(prefix)) {
+          prefix++;
+        }
+        if (prefix == oldLength && prefix == length) {
+          return null;
+        }
+        int suffix = 0;
+        while (suffix < minLength - prefix && oldContent.charAt(oldLength - 1 - suffix) == content.charAt(length - 1 - suffix)) {
+          suffix++;
+        }
+        int shift = length - oldLength;
+        int[] oldCheckpoints = record.checkpoints;
+
+        // resume after the last checkpoint ending before the change, the lexer may look at the char after a literal
+        int checkpointIndex = oldCheckpoints.length - 1;
+        while (checkpointIndex >= 0 && oldList.get(oldCheckpoints[checkpointIndex]).getEnd() >= prefix) {
+          checkpointIndex--;
+        }
+        int start = 0;
+        int keepCount = 0;
+        if (checkpointIndex >= 0) {
+          start = oldList.get(oldCheckpoints[checkpointIndex]).getEnd();
+          keepCount = oldCheckpoints[checkpointIndex] + 1;
+          // the literals nested in the checkpoint literal
+          while (keepCount < oldList.size() && oldList.get(keepCount).getOffset() < start) {
+            keepCount++;
+          }
+          literalList.addAll(oldList.subList(0, keepCount));
+          for (int i = 0; i <= checkpointIndex; i++) {
+            checkpointList.add(oldCheckpoints[i]);
+          }
+        }
+
+        // converge at the checkpoints beginning in the unchanged suffix only
+        int oldChangeEnd = oldLength - suffix;
+        int convergeIndex = checkpointIndex + 1;
+        while (convergeIndex < oldCheckpoints.length && oldList.get(oldCheckpoints[convergeIndex]).getOffset() < oldChangeEnd) {
+          convergeIndex++;
+        }
+
+        int converged = lex(lexer, content, start, checkpointIndex >= 0, literalList, checkpointList, oldList, oldCheckpoints, convergeIndex,
+                shift);
+        int regionEnd = literalList.size();
+        int oldRegionEnd = oldList.size();
+        if (converged == 0) {
+          lexedCharCount.addAndGet(length - start);
+        } else {
+          convergeIndex = -converged - 1;
+          int oldConverged = oldCheckpoints[convergeIndex];
+          int oldConvergedEnd = oldList.get(oldConverged).getEnd();
+          lexedCharCount.addAndGet(oldConvergedEnd + shift - start);
+
+          oldRegionEnd = oldConverged + 1;
+          while (oldRegionEnd < oldList.size() && oldList.get(oldRegionEnd).getOffset() < oldConvergedEnd) {
+            oldRegionEnd++;
+          }
+          for (int i = oldRegionEnd, iEnd = oldList.size(); i < iEnd; i++) {
+            StringLiteral oldLiteral = oldList.get(i);
+            if (shift == 0) {
+              literalList.add(oldLiteral);
+            } else {
+              StringLiteral literal = new StringLiteral(oldLiteral.getOffset() + shift, oldLiteral.getLength(), oldLiteral.getPool(),
+                      oldLiteral.getValueId(), oldLiteral.isInterpolated());
+              literalList.add(literal);
+              movedList.add(new StringLiteralDelta.Move(oldLiteral, literal));
+            }
+          }
+          for (int i = convergeIndex + 1; i < oldCheckpoints.length; i++) {
+            checkpointList.add(oldCheckpoints[i] - oldRegionEnd + regionEnd);
+          }
+        }
+        diff(oldList, keepCount, oldRegionEnd, literalList, keepCount, regionEnd, addedList, removedList, movedList);
+        rescanned = false;
+        incrementalCount.incrementAndGet();
+      } else {
+        if (content != null) {
+          lex(lexer, content, 0, false, literalList, checkpointList, null, null, 0, 0);
+          lexedCharCount.addAndGet(content.length());
+        }
+        diff(oldList, 0, oldList.size(), literalList, 0, literalList.size(), addedList, removedList, movedList);
+        rescanned = true;
+        rescanCount.incrementAndGet();
+      }
+      if (content != null) {
+        updatedCharCount.addAndGet(content.length());
+      }
+
+      record.lexer = lexer;
+      record.set(content, literalList, checkpointList);
+      record.version++;
+      StringLiteralDelta delta = new StringLiteralDelta(syncFile, record.version, addedList, removedList, movedList, rescanned);
+      // published while holding the record, the deltas of a file are in order
+      fireLiteralsChanged(delta);
+      return delta;
+    }
+  }
+
+  /**
+   * Stop tracking the deleted file and publish all its literals as removed.
+   */
+  protected void remove(SyncFile syncFile) {
+    Record record;
+    synchronized (recordMap) {
+      record = recordMap.remove(syncFile);
+    }
+    if (record != null) {
+      release(syncFile, record);
+    }
+  }
+
+  /**
+   * Mark the record as no longer tracked and publish its literals as removed.
+   */
+  protected void release(SyncFile syncFile, Record record) {
+    synchronized (record) {
+      if (record.version == 0) {
+        return;
+      }
+      record.version = 0;
+      fireLiteralsChanged(new StringLiteralDelta(syncFile, 0, Collections.<StringLiteral>emptyList(), record.literalList,
+              Collections.<StringLiteralDelta.Move>emptyList(), false));
+    }
+  }
+
+  protected void fireLiteralsChanged(StringLiteralDelta delta) {
+    if (delta.isEmpty()) {
+      return;
+    }
+    for (StringLiteralDeltaListener listener : listenerList) {
+      try {
+        listener.literalsChanged(delta);
+      } catch (Throwable ex) {
+        LOG.log(Level.SEVERE, null, ex);
+      }
+    }
+  }
+
+  protected StringLiteralLexer getLexer(SyncFile syncFile) {
+    return syncFile.isDirectory() ? null : extractor.getLexer(syncFile.getFileName());
+  }
+
+  /**
+   * @return the content, null if the file is binary
+   */
+  protected static String readContent(SyncFile syncFile) throws IOException {
+    if (syncFile.isBinary()) {
+      return null;
+    }
+    return syncFile.getFileContent().getCharSequence().toString();
+  }
+
+  /**
+   * Lex from start to the end, or until the lexer stops at a checkpoint of the
+   * previous literals exactly as before. A checkpoint is recorded about every
+   * {@link #CHECKPOINT_INTERVAL} chars.
+   * @param oldList the previous literals, null if there is not any
+   * @param oldCheckpoints the checkpoints of oldList
+   * @param convergeIndex the index of the first checkpoint in oldCheckpoints
+   * to converge at
+   * @param shift the offset of the previous literals in the content
+   * @return -(the index in oldCheckpoints converged at) - 1, or 0 if lexed to
+   * the end
+   */
+  protected static int lex(StringLiteralLexer lexer, String content, int start, boolean resume, List<StringLiteral> literalList,
+          List<Integer> checkpointList, List<StringLiteral> oldList, int[] oldCheckpoints, int convergeIndex, int shift) {
+    int length = content.length();
+    int checkpointCount = oldCheckpoints != null ? oldCheckpoints.length : 0;
+    int i = start;
+    while (i < length) {
+      int target = convergeIndex < checkpointCount ? oldList.get(oldCheckpoints[convergeIndex]).getOffset() + shift : Integer.MAX_VALUE;
+      int stop = i < target - CHECKPOINT_INTERVAL ? i + CHECKPOINT_INTERVAL : target;
+      int end = lexer.lex(content, i, stop, resume, literalList);
+      if (end >= length) {
+        break;
+      }
+
+      // stopped after the literal ending at end, the literals nested in it are before it
+      int index = literalList.size() - 1;
+      while (literalList.get(index).getEnd() != end) {
+        index--;
+      }
+      checkpointList.add(index);
+      resume = true;
+      i = end;
+
+      if (convergeIndex < checkpointCount) {
+        StringLiteral oldLiteral = oldList.get(oldCheckpoints[convergeIndex]);
+        if (literalList.get(index).getOffset() == target && end == oldLiteral.getEnd() + shift) {
+          return -convergeIndex - 1;
+        }
+        while (convergeIndex < checkpointCount && oldList.get(oldCheckpoints[convergeIndex]).getOffset() + shift < end) {
+          convergeIndex++;
+        }
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Compare the literals in the range of the two lists, both in the order of
+   * offset. The literals equal in both are unchanged, the others with the
+   * same value are taken as moved.
+   */
+  protected static void diff(List<StringLiteral> oldList, int oldFrom, int oldTo, List<StringLiteral> newList, int newFrom, int newTo,
+          List<StringLiteral> addedList, List<StringLiteral> removedList, List<StringLiteralDelta.Move> movedList) {
+    List<StringLiteral> oldUnmatchedList = new ArrayList<StringLiteral>();
+    List<StringLiteral> newUnmatchedList = new ArrayList<StringLiteral>();
+    int i = oldFrom;
+    int j = newFrom;
+    while (i < oldTo && j < newTo) {
+      StringLiteral oldLiteral = oldList.get(i);
+      StringLiteral newLiteral = newList.get(j);
+      if (oldLiteral.equals(newLiteral)) {
+        i++;
+        j++;
+      } else if (oldLiteral.getOffset() < newLiteral.getOffset()) {
+        oldUnmatchedList.add(oldLiteral);
+        i++;
+      } else if (oldLiteral.getOffset() > newLiteral.getOffset()) {
+        newUnmatchedList.add(newLiteral);
+        j++;
+      } else {
+        oldUnmatchedList.add(oldLiteral);
+        newUnmatchedList.add(newLiteral);
+        i++;
+        j++;
+      }
+    }
+    oldUnmatchedList.addAll(oldList.subList(i, oldTo));
+    newUnmatchedList.addAll(newList.subList(j, newTo));
+    if (oldUnmatchedList.isEmpty() && newUnmatchedList.isEmpty()) {
+      return;
+    }
+
+    // keyed by the value id, the literals of different pools are not taken as moved
+    Map<Integer, Deque<StringLiteral>> valueMap = new HashMap<Integer, Deque<StringLiteral>>();
+    for (StringLiteral oldLiteral : oldUnmatchedList) {
+      Deque<StringLiteral> literalQueue = valueMap.get(oldLiteral.getValueId());
+      if (literalQueue == null) {
+        literalQueue = new ArrayDeque<StringLiteral>();
+        valueMap.put(oldLiteral.getValueId(), literalQueue);
+      }
+      literalQueue.add(oldLiteral);
+    }
+    Map<StringLiteral, Boolean> movedMap = new IdentityHashMap<StringLiteral, Boolean>();
+    for (StringLiteral newLiteral : newUnmatchedList) {
+      Deque<StringLiteral> literalQueue = valueMap.get(newLiteral.getValueId());
+      StringLiteral oldLiteral = literalQueue != null && !literalQueue.isEmpty() && literalQueue.peek().getPool() == newLiteral.getPool()
+              ? literalQueue.poll() : null;
+      if (oldLiteral != null) {
+        movedList.add(new StringLiteralDelta.Move(oldLiteral, newLiteral));
+        movedMap.put(oldLiteral, Boolean.TRUE);
+      } else {
+        addedList.add(newLiteral);
+      }
+    }
+    for (StringLiteral oldLiteral : oldUnmatchedList) {
+      if (!movedMap.containsKey(oldLiteral)) {
+        removedList.add(oldLiteral);
+      }
+    }
+  }
+
+  /**
+   * Get the number of updates done by lexing the changed region.
+   * @return the count
+   */
+  public long getIncrementalCount() {
+    return incrementalCount.get();
+  }
+
+  /**
+   * Get the number of updates done by lexing the whole file.
+   * @return the count
+   */
+  public long getRescanCount() {
+    return rescanCount.get();
+  }
+
+  /**
+   * Get the total number of chars lexed, on tracking and on updates.
+   * @return the count
+   */
+  public long getLexedCharCount() {
+    return lexedCharCount.get();
+  }
+
+  /**
+   * Get the total length of the files updated, compare with
+   * {@link #getLexedCharCount()} to see how much lexing is saved.
+   * @return the count
+   */
+  public long getUpdatedCharCount() {
+    return updatedCharCount.get();
+  }
+
+  /**
+   * The literals of a tracked file, guarded by itself.
+   */
+  protected static class Record {
+
+    protected StringLiteralLexer lexer;
+    /**
+     * 0 if no longer tracked.
+     */
+    protected long version;
+    protected List<StringLiteral> literalList;
+    /**
+     * The indexes in literalList of the literals the lexer can resume after,
+     * ascending.
+     */
+    protected int[] checkpoints;
+    protected SoftReference<String> contentReference;
+
+    protected void set(String content, List<StringLiteral> literalList, List<Integer> checkpointList) {
+      this.literalList = Collections.unmodifiableList(literalList);
+      checkpoints = new int[checkpointList.size()];
+      for (int i = 0; i < checkpoints.length; i++) {
+        checkpoints[i] = checkpointList.get(i);
+      }
+      contentReference = content != null ? new SoftReference<String>(content) : null;
+    }
+  }
+}
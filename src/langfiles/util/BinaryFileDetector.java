@@ -0,0 +1,288 @@
+package langfiles.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Detect binary files, e.g. images, archives and compiled artifacts, from the
+ * first block of the file.
+ * <p>
+ * A file is binary if it starts with a known magic number, or if the block
+ * contains a run of {@link #ZERO_RUN_LENGTH} or more zero bytes and does not
+ * start with a UTF-16/UTF-32 byte order mark. The zero bytes are searched 8
+ * bytes at a time, only the words containing a zero byte are looked into.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class BinaryFileDetector {
+
+  public static final int DEFAULT_SAMPLE_LENGTH = 8192;
+  public static final int ZERO_RUN_LENGTH = 3;
+  protected static final long LOW_BITS = 0x0101010101010101L;
+  protected static final long HIGH_BITS = 0x8080808080808080L;
+  /**
+   * The magic numbers at the beginning of the file, {offset, byte, byte...}.
+   */
+  protected static final int[][] MAGIC_NUMBERS = {
+    {0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A}, // PNG
+    {0, 0xFF, 0xD8, 0xFF}, // JPEG
+    {0, 'G', 'I', 'F', '8'}, // GIF
+    {0, 'B', 'M'}, // BMP
+    {0, 0x00, 0x00, 0x01, 0x00}, // ICO
+    {0, 'I', 'I', 0x2A, 0x00}, // TIFF little-endian
+    {0, 'M', 'M', 0x00, 0x2A}, // TIFF big-endian
+    {0, '%', 'P', 'D', 'F', '-'}, // PDF
+    {0, 'P', 'K', 0x03, 0x04}, // ZIP, JAR, DOCX...
+    {0, 'P', 'K', 0x05, 0x06}, // empty ZIP
+    {0, 0x1F, 0x8B}, // GZIP
+    {0, 'B', 'Z', 'h'}, // BZIP2
+    {0, 0xFD, '7', 'z', 'X', 'Z', 0x00}, // XZ
+    {0, '7', 'z', 0xBC, 0xAF, 0x27, 0x1C}, // 7-Zip
+    {0, 'R', 'a', 'r', '!', 0x1A, 0x07}, // RAR
+    {257, 'u', 's', 't', 'a', 'r'}, // TAR
+    {0, 0xCA, 0xFE, 0xBA, 0xBE}, // Java class, Mach-O fat binary
+    {0, 0x7F, 'E', 'L', 'F'}, // ELF
+    {0, 'M', 'Z'}, // Windows executable, DLL
+    {0, 0xFE, 0xED, 0xFA, 0xCE}, // Mach-O 32-bit
+    {0, 0xFE, 0xED, 0xFA, 0xCF}, // Mach-O 64-bit
+    {0, 0xCE, 0xFA, 0xED, 0xFE}, // Mach-O 32-bit reversed
+    {0, 0xCF, 0xFA, 0xED, 0xFE}, // Mach-O 64-bit reversed
+    {0, 0x00, 'a', 's', 'm'}, // WebAssembly
+    {0, 'S', 'Q', 'L', 'i', 't', 'e', ' ', 'f', 'o', 'r', 'm', 'a', 't', ' ', '3', 0x00}, // SQLite
+    {0, 0xD0, 0xCF, 0x11, 0xE0, 0xA1, 0xB1, 0x1A, 0xE1}, // Microsoft Office 97-2003
+    {0, 'O', 'g', 'g', 'S'}, // OGG
+    {0, 'R', 'I', 'F', 'F'}, // WAV, AVI, WEBP
+    {0, 'I', 'D', '3'}, // MP3
+    {0, 'f', 'L', 'a', 'C'}, // FLAC
+    {4, 'f', 't', 'y', 'p'}, // MP4, MOV
+    {0, 'w', 'O', 'F', 'F'}, // WOFF
+    {0, 'w', 'O', 'F', '2'}, // WOFF2
+    {0, 0x00, 0x01, 0x00, 0x00, 0x00}, // TrueType
+    {0, 'O', 'T', 'T', 'O'} // OpenType
+  };
+  protected static volatile BinaryFileDetector defaultDetector = new BinaryFileDetector(DEFAULT_SAMPLE_LENGTH);
+  protected final int sampleLength;
+  // metrics
+  protected final AtomicLong sampledCount;
+  protected final AtomicLong binaryCount;
+  protected final AtomicLong magicNumberCount;
+
+  /**
+   * Constructor.
+   * @param sampleLength the number of bytes read from the beginning of the
+   * file
+   */
+  public BinaryFileDetector(int sampleLength) {
+    if (sampleLength <= 0) {
+      throw new IllegalArgumentException("argument 'sampleLength' should be positive");
+    }
+    this.sampleLength = sampleLength;
+    sampledCount = new AtomicLong();
+    binaryCount = new AtomicLong();
+    magicNumberCount = new AtomicLong();
+  }
+
+  public static BinaryFileDetector getDefault() {
+    return defaultDetector;
+  }
+
+  public static void setDefault(BinaryFileDetector detector) {
+    if (detector == null) {
+      throw new NullPointerException("argument 'detector' cannot be null");
+    }
+    defaultDetector = detector;
+  }
+
+  /**
+   * Read the first block of the file and check if it is binary.
+   * @param file the file
+   * @return true if binary
+   * @throws IOException error occurred when reading the file
+   */
+  public boolean isBinary(File file) throws IOException {
+    if (file == null) {
+      throw new NullPointerException("argument 'file' cannot be null");
+    }
+    byte[] b;
+    int length = 0;
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      b = new byte[(int) Math.min(sampleLength, channel.size())];
+      ByteBuffer buffer = ByteBuffer.wrap(b);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) == -1) {
+          break;
+        }
+      }
+      length = buffer.position();
+    } finally {
+      CommonUtil.closeQuietly(channel);
+    }
+    return isBinary(b, 0, length);
+  }
+
+  /**
+   * Check if the bytes from the beginning of a file are binary.
+   * @param b the bytes
+   * @param offset the offset of the beginning of the file
+   * @param length the number of bytes, at most the sample length are checked
+   * @return true if binary
+   */
+  public boolean isBinary(byte[] b, int offset, int length) {
+    if (b == null) {
+      throw new NullPointerException("argument 'b' cannot be null");
+    }
+    int _length = Math.min(length, sampleLength);
+    sampledCount.incrementAndGet();
+    if (startsWithMagicNumber(b, offset, _length)) {
+      magicNumberCount.incrementAndGet();
+      binaryCount.incrementAndGet();
+      return true;
+    }
+    if (startsWithWideBom(b, offset, _length)) {
+      return false;
+    }
+    if (hasZeroRun(b, offset, _length, ZERO_RUN_LENGTH)) {
+      binaryCount.incrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  protected static boolean startsWithMagicNumber(byte[] b, int offset, int length) {
+    for (int[] magicNumber : MAGIC_NUMBERS) {
+      int start = offset + magicNumber[0];
+      if (magicNumber[0] + magicNumber.length - 1 > length) {
+        continue;
+      }
+      boolean matched = true;
+      for (int i = 1; i < magicNumber.length; i++) {
+        if ((b[start + i - 1] & 0xff) != magicNumber[i]) {
+          matched = false;
+          break;
+        }
+      }
+      // short printable ones like 'MZ' and 'ID3' may be the beginning of text, require a control char in the header
+      if (matched && magicNumber.length <= 4 && isPrintable(magicNumber)) {
+        matched = hasControlChar(b, offset, Math.min(length, 64));
+      }
+      if (matched) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  protected static boolean isPrintable(int[] magicNumber) {
+    for (int i = 1; i < magicNumber.length; i++) {
+      if (magicNumber[i] < 0x20 || magicNumber[i] >= 0x7F) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Check if there is any control char other than the white spaces and
+   * escape.
+   */
+  protected static boolean hasControlChar(byte[] b, int offset, int length) {
+    for (int i = offset, iEnd = offset + length; i < iEnd; i++) {
+      int c = b[i];
+      if (c >= 0 && c < 0x20 && c != '\t' && c != '\n' && c != '\r' && c != '\f' && c != 0x1B) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * UTF-16 and UTF-32 text is full of zero bytes.
+   */
+  protected static boolean startsWithWideBom(byte[] b, int offset, int length) {
+    if (length < 2) {
+      return false;
+    }
+    int b0 = b[offset] & 0xff;
+    int b1 = b[offset + 1] & 0xff;
+    if ((b0 == 0xFE && b1 == 0xFF) || (b0 == 0xFF && b1 == 0xFE)) {
+      return true;
+    }
+    return length >= 4 && b0 == 0 && b1 == 0 && (b[offset + 2] & 0xff) == 0xFE && (b[offset + 3] & 0xff) == 0xFF;
+  }
+
+  /**
+   * Check if the bytes contain a run of zero bytes.
+   * @param b the bytes
+   * @param offset the offset to start
+   * @param length the number of bytes
+   * @param runLength the minimum length of the run
+   * @return true if found
+   */
+  public static boolean hasZeroRun(byte[] b, int offset, int length, int runLength) {
+    ByteBuffer buffer = ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN);
+    int run = 0;
+    int i = offset;
+    int end = offset + length;
+    for (int wordEnd = end - 7; i < wordEnd; i += 8) {
+      long word = buffer.getLong(i);
+      // the high bit of a byte is set if the byte may be zero, none is set if there is no zero byte
+      if (((word - LOW_BITS) & ~word & HIGH_BITS) == 0) {
+        run = 0;
+        continue;
+      }
+      for (int j = i, jEnd = i + 8; j < jEnd; j++) {
+        if (b[j] == 0) {
+          if (++run >= runLength) {
+            return true;
+          }
+        } else {
+          run = 0;
+        }
+      }
+    }
+    for (; i < end; i++) {
+      if (b[i] == 0) {
+        if (++run >= runLength) {
+          return true;
+        }
+      } else {
+        run = 0;
+      }
+    }
+    return false;
+  }
+
+  public int getSampleLength() {
+    return sampleLength;
+  }
+
+  /**
+   * Get the number of files checked.
+   * @return the count
+   */
+  public long getSampledCount() {
+    return sampledCount.get();
+  }
+
+  /**
+   * Get the number of files found binary.
+   * @return the count
+   */
+  public long getBinaryCount() {
+    return binaryCount.get();
+  }
+
+  /**
+   * Get the number of files found binary by magic number.
+   * @return the count
+   */
+  public long getMagicNumberCount() {
+    return magicNumberCount.get();
+  }
+}
@@ -0,0 +1,33 @@
+package langfiles.util;
+
+/**
+ * Tell a long running task to stop, e.g. from the cancel button of the UI.
+ * <p>
+ * The task checks {@link #isCancelled()} between the units of its work, so it
+ * stops a little after {@link #cancel()} is called, not at once. A token
+ * cannot be reset, use a new one for every run.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class CancellationToken {
+
+  protected volatile boolean cancelled;
+
+  /**
+   * Constructor.
+   */
+  public CancellationToken() {
+    cancelled = false;
+  }
+
+  /**
+   * Request the task to stop, can be called from any thread.
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+}
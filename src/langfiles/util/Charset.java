@@ -144,7 +144,10 @@ public class Charset {
       return null;
     }
     UniversalDetector detector = new UniversalDetector(null);
-    detector.handleData(b, offset, length);
+    // feed a slice at a time, stop once the detector is sure
+    for (int i = offset, iEnd = offset + length; i < iEnd && !detector.isDone(); i += CharsetDetector.SLICE_LENGTH) {
+      detector.handleData(b, i, Math.min(CharsetDetector.SLICE_LENGTH, iEnd - i));
+    }
     detector.dataEnd();
     String charset = detector.getDetectedCharset();
     if (charset == null
@@ -0,0 +1,335 @@
+package langfiles.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import org.mozilla.universalchardet.Constants;
+import org.mozilla.universalchardet.UniversalDetector;
+
+/**
+ * Detect the charset of files from a bounded prefix, in stages from the
+ * cheapest:
+ * <ol>
+ * <li>byte order mark</li>
+ * <li>one scan of the prefix, pure ASCII takes the prior (or UTF-8), valid
+ * UTF-8 with non-ASCII bytes is UTF-8</li>
+ * <li>the prior, usually the charset of a sibling file, if the prefix decodes
+ * with it without error</li>
+ * <li>{@link UniversalDetector}, fed a slice at a time until it is sure</li>
+ * </ol>
+ * If nothing is detected, it is UTF-8. Only the prefix is examined, so a file
+ * that is ASCII in the prefix and not after may be detected wrongly.
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class CharsetDetector {
+
+  public static final int DEFAULT_PREFIX_LENGTH = 64 * 1024;
+  /**
+   * The number of bytes fed to the UniversalDetector at a time.
+   */
+  protected static final int SLICE_LENGTH = 4096;
+  protected static final String DEFAULT_CHARSET = "UTF-8";
+  public static final int STAGE_BOM = 1;
+  public static final int STAGE_SCAN = 2;
+  public static final int STAGE_PRIOR = 3;
+  public static final int STAGE_DETECTOR = 4;
+  public static final int STAGE_DEFAULT = 5;
+  protected static volatile CharsetDetector defaultDetector = new CharsetDetector(DEFAULT_PREFIX_LENGTH);
+  /**
+   * UniversalDetector is heavy to create, reuse one per thread.
+   */
+  protected static final ThreadLocal<UniversalDetector> universalDetector = new ThreadLocal<UniversalDetector>() {
+
+    @Override
+    protected UniversalDetector initialValue() {
+      return new UniversalDetector(null);
+    }
+  };
+  protected final int prefixLength;
+  // metrics
+  protected final AtomicLong[] stageCounts;
+  protected final AtomicLong bytesExamined;
+
+  /**
+   * Constructor.
+   * @param prefixLength the maximum number of bytes examined per file
+   */
+  public CharsetDetector(int prefixLength) {
+    this.prefixLength = prefixLength;
+    stageCounts = new AtomicLong[STAGE_DEFAULT + 1];
+    for (int i = 0; i < stageCounts.length; i++) {
+      stageCounts[i] = new AtomicLong();
+    }
+    bytesExamined = new AtomicLong();
+  }
+
+  public static CharsetDetector getDefault() {
+    return defaultDetector;
+  }
+
+  public static void setDefault(CharsetDetector detector) {
+    if (detector == null) {
+      throw new NullPointerException("argument 'detector' cannot be null");
+    }
+    defaultDetector = detector;
+  }
+
+  /**
+   * Detect the charset of the file, only the prefix is read.
+   * @param file the file
+   * @param prior the charset expected, e.g. of a sibling file, null if none
+   * @return the result
+   * @throws IOException error occurred when reading the file
+   */
+  public Result detect(File file, String prior) throws IOException {
+    if (file == null) {
+      throw new NullPointerException("argument 'file' cannot be null");
+    }
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(prefixLength, channel.size()));
+      while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+      }
+      buffer.flip();
+      return detect(buffer, prior);
+    } finally {
+      CommonUtil.closeQuietly(channel);
+    }
+  }
+
+  /**
+   * Detect the charset of the bytes, only the prefix is examined.
+   * @param bytes the bytes from the beginning of the file, the position is not
+   * changed
+   * @param prior the charset expected, e.g. of a sibling file, null if none
+   * @return the result
+   */
+  public Result detect(ByteBuffer bytes, String prior) {
+    if (bytes == null) {
+      throw new NullPointerException("argument 'bytes' cannot be null");
+    }
+    ByteBuffer _bytes = bytes.duplicate();
+    byte[] prefix = new byte[Math.min(prefixLength, _bytes.remaining())];
+    _bytes.get(prefix);
+    boolean complete = !_bytes.hasRemaining();
+
+    // byte order mark
+    Result result = detectBom(prefix);
+    if (result != null) {
+      return count(result, result.bomLength);
+    }
+
+    // scan
+    boolean hasNonAscii = false;
+    boolean hasZero = false;
+    for (byte b : prefix) {
+      if (b <= 0) {
+        if (b == 0) {
+          hasZero = true;
+        } else {
+          hasNonAscii = true;
+        }
+      }
+    }
+    String _prior = prior != null && java.nio.charset.Charset.isSupported(prior) ? prior : null;
+    if (!hasNonAscii && !hasZero) {
+      return count(new Result(_prior != null && isAsciiCompatible(_prior) ? _prior : DEFAULT_CHARSET, 0, STAGE_SCAN), prefix.length);
+    }
+    if (!hasZero && isValidPrefix(prefix, complete, "UTF-8")) {
+      return count(new Result("UTF-8", 0, STAGE_SCAN), prefix.length);
+    }
+
+    // prior
+    if (_prior != null && !hasZero && isAsciiCompatible(_prior) && isValidPrefix(prefix, complete, _prior)) {
+      return count(new Result(_prior, 0, STAGE_PRIOR), prefix.length);
+    }
+
+    // UniversalDetector
+    UniversalDetector detector = universalDetector.get();
+    detector.reset();
+    int offset = 0;
+    while (offset < prefix.length && !detector.isDone()) {
+      int length = Math.min(SLICE_LENGTH, prefix.length - offset);
+      detector.handleData(prefix, offset, length);
+      offset += length;
+    }
+    detector.dataEnd();
+    String charset = detector.getDetectedCharset();
+    if (charset != null && !charset.equals(Constants.CHARSET_HZ_GB_2312)
+            && !charset.equals(Constants.CHARSET_X_ISO_10646_UCS_4_3412)
+            && !charset.equals(Constants.CHARSET_X_ISO_10646_UCS_4_2143)
+            && java.nio.charset.Charset.isSupported(charset)) {
+      return count(new Result(charset, 0, STAGE_DETECTOR), offset);
+    }
+
+    return count(new Result(_prior != null ? _prior : DEFAULT_CHARSET, 0, STAGE_DEFAULT), offset);
+  }
+
+  protected Result count(Result result, int bytes) {
+    stageCounts[result.stage].incrementAndGet();
+    bytesExamined.addAndGet(bytes);
+    return result;
+  }
+
+  /**
+   * Detect the byte order mark.
+   * @return the result, null if there is not any
+   */
+  protected static Result detectBom(byte[] b) {
+    int length = b.length;
+    if (length >= 3 && (b[0] & 0xff) == 0xEF && (b[1] & 0xff) == 0xBB && (b[2] & 0xff) == 0xBF) {
+      return new Result("UTF-8", 3, STAGE_BOM);
+    }
+    if (length >= 4 && b[0] == 0 && b[1] == 0 && (b[2] & 0xff) == 0xFE && (b[3] & 0xff) == 0xFF) {
+      return new Result("UTF-32BE", 4, STAGE_BOM);
+    }
+    if (length >= 4 && (b[0] & 0xff) == 0xFF && (b[1] & 0xff) == 0xFE && b[2] == 0 && b[3] == 0) {
+      return new Result("UTF-32LE", 4, STAGE_BOM);
+    }
+    if (length >= 2 && (b[0] & 0xff) == 0xFE && (b[1] & 0xff) == 0xFF) {
+      return new Result("UTF-16BE", 2, STAGE_BOM);
+    }
+    if (length >= 2 && (b[0] & 0xff) == 0xFF && (b[1] & 0xff) == 0xFE) {
+      return new Result("UTF-16LE", 2, STAGE_BOM);
+    }
+    return null;
+  }
+
+  /**
+   * Detect the byte order mark only.
+   * @param bytes the bytes from the beginning of the file, the position is not
+   * changed
+   * @return the result, null if there is not any
+   */
+  public static Result detectBom(ByteBuffer bytes) {
+    ByteBuffer _bytes = bytes.duplicate();
+    byte[] b = new byte[Math.min(4, _bytes.remaining())];
+    _bytes.get(b);
+    return detectBom(b);
+  }
+
+  /**
+   * Get the length of the byte order mark of the charset at the beginning of
+   * the bytes.
+   * @param bytes the bytes from the beginning of the file, the position is not
+   * changed
+   * @param charset the charset
+   * @return the length, 0 if there is not any
+   */
+  public static int getBomLength(ByteBuffer bytes, java.nio.charset.Charset charset) {
+    Result result = detectBom(bytes);
+    if (result == null) {
+      return 0;
+    }
+    String name = charset.name();
+    if (name.equals(result.charsetName) || (name.equals("UTF-16") && result.charsetName.startsWith("UTF-16"))
+            || (name.equals("UTF-32") && result.charsetName.startsWith("UTF-32"))) {
+      return result.bomLength;
+    }
+    return 0;
+  }
+
+  protected static boolean isAsciiCompatible(String charset) {
+    String name = charset.toUpperCase();
+    return !name.startsWith("UTF-16") && !name.startsWith("UTF-32") && !name.startsWith("X-UTF-16") && !name.startsWith("X-UTF-32")
+            && !name.contains("2022");
+  }
+
+  /**
+   * Check if the prefix decodes without error. An incomplete char at the end
+   * of the prefix is not an error unless the prefix is the whole file.
+   */
+  protected static boolean isValidPrefix(byte[] prefix, boolean complete, String charset) {
+    CharsetDecoder decoder = java.nio.charset.Charset.forName(charset).newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT).onUnmappableCharacter(CodingErrorAction.REPORT);
+    ByteBuffer in = ByteBuffer.wrap(prefix);
+    CharBuffer out = CharBuffer.allocate(4096);
+    while (true) {
+      CoderResult result = decoder.decode(in, out, complete);
+      if (result.isError()) {
+        return false;
+      }
+      if (result.isUnderflow()) {
+        break;
+      }
+      out.clear();
+    }
+    if (complete) {
+      out.clear();
+      return !decoder.flush(out).isError();
+    }
+    return true;
+  }
+
+  public int getPrefixLength() {
+    return prefixLength;
+  }
+
+  /**
+   * Get the number of detections decided at the stage.
+   * @param stage one of the STAGE_* constants
+   * @return the count
+   */
+  public long getStageCount(int stage) {
+    return stageCounts[stage].get();
+  }
+
+  /**
+   * Get the total number of bytes examined.
+   * @return the number of bytes
+   */
+  public long getBytesExamined() {
+    return bytesExamined.get();
+  }
+
+  /**
+   * The result of a detection.
+   */
+  public static class Result {
+
+    protected final String charsetName;
+    protected final int bomLength;
+    protected final int stage;
+
+    protected Result(String charsetName, int bomLength, int stage) {
+      this.charsetName = java.nio.charset.Charset.forName(charsetName).name();
+      this.bomLength = bomLength;
+      this.stage = stage;
+    }
+
+    /**
+     * Get the canonical name of the charset.
+     * @return the name
+     */
+    public String getCharsetName() {
+      return charsetName;
+    }
+
+    public java.nio.charset.Charset getCharset() {
+      return java.nio.charset.Charset.forName(charsetName);
+    }
+
+    /**
+     * Get the length of the byte order mark, the content starts after it.
+     * @return the length, 0 if there is not any
+     */
+    public int getBomLength() {
+      return bomLength;
+    }
+
+    /**
+     * Get the stage the charset is decided.
+     * @return one of the STAGE_* constants
+     */
+    public int getStage() {
+      return stage;
+    }
+  }
+}
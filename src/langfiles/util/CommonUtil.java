@@ -52,23 +52,10 @@ public class CommonUtil {
    * @param length the length
    * 
    * @return true if it is highly likely to be a binary file
+   * @see BinaryFileDetector
    */
   public static boolean isBinaryFile(byte[] b, int offset, int length) {
-    int continuousNull = 0;
-    for (int i = offset, iEnd = offset + length; i < iEnd; i++) {
-      if (b[i] == 0) {
-        continuousNull++;
-        if (continuousNull >= 3) {
-          return true;
-        }
-      } else {
-        if (continuousNull != 0) {
-          continuousNull = 0;
-        }
-      }
-    }
-
-    return false;
+    return BinaryFileDetector.hasZeroRun(b, offset, length, 3);
   }
 
   /**
@@ -134,6 +121,10 @@ public class CommonUtil {
     }
 
     long fileLength = file.length();
+    if (fileLength > Integer.MAX_VALUE) {
+      throw new IOException(String.format("The file is too large to be read into a byte array, use FileContentReader. File size: %1$d, path: %2$s",
+              fileLength, file.getAbsolutePath()));
+    }
     byte[] content = new byte[(int) fileLength];
 
     FileInputStream fin = null;
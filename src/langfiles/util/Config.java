@@ -21,6 +21,12 @@ public interface Config {
    */
   void save() throws IOException;
 
+  /**
+   * Stop listening on the config file, it will not be reloaded when modified.
+   * @throws IOException IO error when removing the listener
+   */
+  void close() throws IOException;
+
   /**
    * Get the property from config file.
    * @param key the key of the property
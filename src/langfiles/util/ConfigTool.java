@@ -15,9 +15,6 @@ import java.util.List;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import net.contentobjects.jnotify.JNotify;
-import net.contentobjects.jnotify.JNotifyAdapter;
-import net.contentobjects.jnotify.JNotifyException;
 
 /**
  * The configuration {@link java.util.Properties} wrapper.
@@ -44,10 +41,22 @@ public class ConfigTool implements Config {
    */
   protected final List<ConfigChange> configChanges;
   /**
-   * The watch id used by JNotify to listen on config file modification event. 
-   * -1 means 'watch' removed or not added.
+   * The watch id used to listen on config file modification event. -1 means 
+   * 'watch' removed or not added.
    */
   protected int watchId;
+  /**
+   * The backend that the watch is added to.
+   */
+  protected FileWatcher fileWatcher;
+  /**
+   * The listener of the watch, the watcher only keeps it weakly.
+   */
+  protected FileWatcherListener watchListener;
+  /**
+   * Remove the watch if this is collected without {@link #close()}.
+   */
+  protected ResourceCleaner.Cleanable watchCleanable;
 
   /**
    * Constructor.
@@ -65,11 +74,12 @@ public class ConfigTool implements Config {
 
   /**
    * Listen on the config file modification event.
-   * @throws JNotifyException error occurred when setting the event listener
+   * @throws IOException error occurred when setting the event listener
    */
-  protected void addWatch() throws JNotifyException {
+  protected void addWatch() throws IOException {
     removeWatch();
-    watchId = JNotify.addWatch(new File(configPath).getParent(), JNotify.FILE_MODIFIED, false, new JNotifyAdapter() {
+    fileWatcher = FileWatcherFactory.getDefault();
+    watchListener = new FileWatcherAdapter() {
 
       @Override
       public void fileModified(int watchId, String rootPath, String name) {
@@ -81,20 +91,33 @@ public class ConfigTool implements Config {
           }
         }
       }
-    });
+    };
+    String watchPath = new File(configPath).getParent();
+    watchId = fileWatcher.addWatch(watchPath, FileWatcher.FILE_MODIFIED, false, new WeakFileWatcherListener(watchListener));
+    watchCleanable = ResourceCleaner.getDefault().register(this, WeakFileWatcherListener.newRemoveWatchAction(fileWatcher, watchId, watchPath));
   }
 
   /**
    * Remove the config file modification event listener.
-   * @throws JNotifyException error occurred when removing the event listener
+   * @throws IOException error occurred when removing the event listener
    */
-  protected void removeWatch() throws JNotifyException {
+  protected void removeWatch() throws IOException {
     if (watchId != -1) {
-      JNotify.removeWatch(watchId);
+      watchCleanable.unregister();
+      watchCleanable = null;
+      watchListener = null;
+      fileWatcher.removeWatch(watchId);
       watchId = -1;
     }
   }
 
+  @Override
+  public void close() throws IOException {
+    synchronized (configChanges) {
+      removeWatch();
+    }
+  }
+
   @Override
   public void reload() throws IOException {
     synchronized (configChanges) {
@@ -180,13 +203,4 @@ public class ConfigTool implements Config {
   public boolean isChanged() {
     return isChanged;
   }
-
-  @Override
-  protected void finalize() throws Throwable {
-    super.finalize();
-    if (watchId != -1) {
-      JNotify.removeWatch(watchId);
-      watchId = -1;
-    }
-  }
 }
\ No newline at end of file
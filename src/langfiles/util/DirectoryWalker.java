@@ -0,0 +1,153 @@
+package langfiles.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * List directories through {@link java.nio.file.Files#walkFileTree}, the
+ * {@link java.nio.file.attribute.BasicFileAttributes} of every entry is read
+ * once during the walk (and comes with the directory listing for free on
+ * Windows), so no more exists()/isDirectory()/lastModified() calls are needed
+ * for each file.
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class DirectoryWalker {
+
+  private static final Logger LOG = Logger.getLogger(DirectoryWalker.class.getName());
+
+  protected DirectoryWalker() {
+  }
+
+  /**
+   * List the entries of the directory.
+   * @param directory the directory to list
+   * @return the list of entries, empty list if failed to list the directory
+   */
+  public static List<Entry> list(final File directory) {
+    if (directory == null) {
+      throw new NullPointerException("argument 'directory' cannot be null");
+    }
+
+    final List<Entry> entryList = new ArrayList<Entry>();
+    final Path directoryPath = directory.toPath();
+    try {
+      Files.walkFileTree(directoryPath, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<Path>() {
+
+        @Override
+        public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) throws IOException {
+          if (path.equals(directoryPath)) {
+            // directory is actually a file
+            return FileVisitResult.TERMINATE;
+          }
+          Entry entry = createEntry(new File(directory, path.getFileName().toString()), attributes);
+          if (entry != null) {
+            entryList.add(entry);
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path path, IOException ex) throws IOException {
+          LOG.log(Level.FINE, null, ex);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException ex) {
+      LOG.log(Level.INFO, null, ex);
+    }
+
+    return entryList;
+  }
+
+  /**
+   * Read the entry of a single file.
+   * @param file the file
+   * @return the entry, null if the file not exist
+   * @throws IOException error occurred when reading the attributes
+   */
+  public static Entry readEntry(File file) throws IOException {
+    if (file == null) {
+      throw new NullPointerException("argument 'file' cannot be null");
+    }
+    try {
+      return createEntry(file, Files.readAttributes(file.toPath(), BasicFileAttributes.class));
+    } catch (NoSuchFileException ex) {
+      return null;
+    }
+  }
+
+  /**
+   * Links are followed like what {@link java.io.File} does.
+   * @return the entry, null if it is a broken link
+   */
+  protected static Entry createEntry(File file, BasicFileAttributes attributes) {
+    if (attributes.isSymbolicLink()) {
+      // the walker fall back to the attributes of the link itself when the target not exist
+      return null;
+    }
+
+    String fileName = file.getName();
+    boolean isHidden = attributes instanceof DosFileAttributes ? ((DosFileAttributes) attributes).isHidden() : fileName.startsWith(".");
+
+    return new Entry(file, fileName, attributes.isDirectory(), isHidden, attributes.lastModifiedTime().toMillis(), attributes.size());
+  }
+
+  /**
+   * A directory entry with its attributes.
+   */
+  public static class Entry {
+
+    protected final File file;
+    protected final String name;
+    protected final boolean isDirectory;
+    protected final boolean isHidden;
+    protected final long lastModified;
+    protected final long size;
+
+    protected Entry(File file, String name, boolean isDirectory, boolean isHidden, long lastModified, long size) {
+      this.file = file;
+      this.name = name;
+      this.isDirectory = isDirectory;
+      this.isHidden = isHidden;
+      this.lastModified = lastModified;
+      this.size = size;
+    }
+
+    public File getFile() {
+      return file;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public boolean isDirectory() {
+      return isDirectory;
+    }
+
+    public boolean isHidden() {
+      return isHidden;
+    }
+
+    public long getLastModified() {
+      return lastModified;
+    }
+
+    public long getSize() {
+      return size;
+    }
+  }
+}
@@ -0,0 +1,347 @@
+package langfiles.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+/**
+ * The content of a file read by {@link FileContentReader}, with the
+ * attributes of the file when it was read.
+ * <p>
+ * The bytes are either copied to the heap or memory-mapped, depends on the
+ * size. A mapped content reflects the later changes of the file, use
+ * {@link #isStale()} to check after use. Accessing a mapped content after the
+ * file is truncated may throw {@link InternalError}.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class FileContent {
+
+  /**
+   * The number of chars decoded at a time by {@link #getCharSequence()}.
+   */
+  protected static final int CHUNK_SIZE = 64 * 1024;
+  protected final File file;
+  protected final long lastModified;
+  protected final long size;
+  protected final Object fileKey;
+  /**
+   * The bytes, read-only, segments of {@link FileContentReader#SEGMENT_SIZE}
+   * except the last one.
+   */
+  protected final ByteBuffer[] segments;
+  protected final boolean mapped;
+  /**
+   * Should be stateless, so decoding can start at any char boundary.
+   */
+  protected final Charset charset;
+  /**
+   * The length of the byte order mark at the beginning, skipped when
+   * decoding.
+   */
+  protected final int bomLength;
+  /**
+   * The decoded content, cached on first use.
+   */
+  protected volatile String content;
+  /**
+   * The {@link XXHash64} of the bytes, computed on first use, 0 if not yet.
+   */
+  protected volatile long contentHash;
+
+  protected FileContent(File file, long lastModified, long size, Object fileKey, ByteBuffer[] segments, boolean mapped, Charset charset, int bomLength) {
+    this.file = file;
+    this.lastModified = lastModified;
+    this.size = size;
+    this.fileKey = fileKey;
+    this.segments = segments;
+    this.mapped = mapped;
+    this.charset = charset;
+    this.bomLength = bomLength;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  /**
+   * Get the key that identify the file on the file system, e.g. device and
+   * inode.
+   * @return the key, null if not available
+   */
+  public Object getFileKey() {
+    return fileKey;
+  }
+
+  public boolean isMapped() {
+    return mapped;
+  }
+
+  public Charset getCharset() {
+    return charset;
+  }
+
+  public int getBomLength() {
+    return bomLength;
+  }
+
+  /**
+   * Check if the file is changed, deleted or replaced since read.
+   * @return true if changed
+   */
+  public boolean isStale() {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+      return attributes.size() != size || attributes.lastModifiedTime().toMillis() != lastModified
+              || (fileKey != null && !fileKey.equals(attributes.fileKey()));
+    } catch (IOException ex) {
+      return true;
+    }
+  }
+
+  /**
+   * Get the bytes.
+   * @return a read-only buffer
+   * @throws IllegalStateException the file is larger than one segment, use
+   * {@link #getCharSequence()}
+   */
+  public ByteBuffer getByteBuffer() {
+    if (segments.length > 1) {
+      throw new IllegalStateException("file too large for one buffer, size: " + size + ", path: " + file.getAbsolutePath());
+    }
+    return segments[0].duplicate();
+  }
+
+  /**
+   * Get the 64-bit {@link XXHash64} of the bytes, to tell whether the content
+   * is changed. Computed on first use.
+   * @return the hash, never 0
+   */
+  public long getContentHash() {
+    long _contentHash = contentHash;
+    if (_contentHash == 0) {
+      XXHash64 hash = new XXHash64(0);
+      for (ByteBuffer segment : segments) {
+        hash.update(segment);
+      }
+      _contentHash = hash.getValue();
+      // 0 is reserved for unknown
+      if (_contentHash == 0) {
+        _contentHash = 1;
+      }
+      contentHash = _contentHash;
+    }
+    return _contentHash;
+  }
+
+  /**
+   * Get the bytes from position, copied if across segments.
+   */
+  protected ByteBuffer getBytes(long position, int length) {
+    int index = (int) (position / FileContentReader.SEGMENT_SIZE);
+    int offset = (int) (position % FileContentReader.SEGMENT_SIZE);
+    ByteBuffer segment = segments[index].duplicate();
+    if (offset + length <= segment.limit()) {
+      segment.position(offset);
+      segment.limit(offset + length);
+      return segment;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    for (long end = position + length; position < end; position += segment.remaining()) {
+      segment = segments[(int) (position / FileContentReader.SEGMENT_SIZE)].duplicate();
+      segment.position((int) (position % FileContentReader.SEGMENT_SIZE));
+      segment.limit(Math.min(segment.limit(), segment.position() + (int) (end - position)));
+      buffer.put(segment.duplicate());
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Get the whole content decoded.
+   * @return the content
+   * @throws IllegalStateException the file is larger than one segment, use
+   * {@link #getCharSequence()}
+   */
+  public String getContent() {
+    String _content = content;
+    if (_content == null) {
+      ByteBuffer buffer = getByteBuffer();
+      buffer.position(bomLength);
+      _content = charset.decode(buffer).toString();
+      content = _content;
+    }
+    return _content;
+  }
+
+  /**
+   * Get the content as a CharSequence. The content of a mapped file is
+   * decoded {@link #CHUNK_SIZE} chars at a time when accessed, so it is never
+   * copied to the heap as a whole, sequential access is the fastest.
+   * {@link CharSequence#length()} decodes the whole file once. Not thread
+   * safe.
+   * @return the content
+   */
+  public CharSequence getCharSequence() {
+    return mapped ? new ChunkedCharSequence(this) : getContent();
+  }
+
+  protected CharsetDecoder newDecoder() {
+    return charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+  }
+
+  /**
+   * The content decoded chunk by chunk, the starting position in bytes and
+   * chars of every chunk are indexed when decoded for the first time.
+   */
+  protected static class ChunkedCharSequence implements CharSequence {
+
+    protected final FileContent fileContent;
+    protected final CharsetDecoder decoder;
+    protected long[] chunkByteStarts;
+    protected long[] chunkCharStarts;
+    /**
+     * The number of chunks indexed, the start of the next chunk is at index
+     * chunkCount.
+     */
+    protected int chunkCount;
+    protected boolean indexComplete;
+    protected int cachedChunk;
+    protected final CharBuffer cachedChars;
+
+    protected ChunkedCharSequence(FileContent fileContent) {
+      this.fileContent = fileContent;
+      decoder = fileContent.newDecoder();
+      chunkByteStarts = new long[16];
+      chunkCharStarts = new long[16];
+      chunkCount = 0;
+      chunkByteStarts[0] = fileContent.bomLength;
+      indexComplete = fileContent.size <= fileContent.bomLength;
+      cachedChunk = -1;
+      cachedChars = CharBuffer.allocate(CHUNK_SIZE);
+    }
+
+    @Override
+    public int length() {
+      while (!indexComplete) {
+        indexNextChunk();
+      }
+      long length = chunkCharStarts[chunkCount];
+      if (length > Integer.MAX_VALUE) {
+        throw new IllegalStateException("content too long for CharSequence, length: " + length);
+      }
+      return (int) length;
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (index < 0) {
+        throw new IndexOutOfBoundsException("index: " + index);
+      }
+      while (!indexComplete && chunkCharStarts[chunkCount] <= index) {
+        indexNextChunk();
+      }
+      if (index >= chunkCharStarts[chunkCount]) {
+        throw new IndexOutOfBoundsException("index: " + index + ", length: " + chunkCharStarts[chunkCount]);
+      }
+      int chunk = findChunk(index);
+      loadChunk(chunk);
+      return cachedChars.get((int) (index - chunkCharStarts[chunk]));
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      if (start < 0 || start > end) {
+        throw new IndexOutOfBoundsException("start: " + start + ", end: " + end);
+      }
+      StringBuilder sb = new StringBuilder(end - start);
+      int index = start;
+      while (index < end) {
+        charAt(index);
+        long chunkStart = chunkCharStarts[cachedChunk];
+        int from = (int) (index - chunkStart);
+        int to = (int) Math.min(cachedChars.limit(), end - chunkStart);
+        sb.append(cachedChars, from, to);
+        index += to - from;
+      }
+      return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+      return subSequence(0, length()).toString();
+    }
+
+    protected int findChunk(long index) {
+      int low = 0;
+      int high = chunkCount - 1;
+      while (low < high) {
+        int middle = (low + high + 1) >>> 1;
+        if (chunkCharStarts[middle] <= index) {
+          low = middle;
+        } else {
+          high = middle - 1;
+        }
+      }
+      return low;
+    }
+
+    protected void indexNextChunk() {
+      int chunk = chunkCount;
+      if (chunk + 1 >= chunkByteStarts.length) {
+        chunkByteStarts = Arrays.copyOf(chunkByteStarts, chunkByteStarts.length * 2);
+        chunkCharStarts = Arrays.copyOf(chunkCharStarts, chunkCharStarts.length * 2);
+      }
+      long bytesConsumed = decodeChunk(chunk);
+      chunkCount++;
+      chunkByteStarts[chunkCount] = chunkByteStarts[chunk] + bytesConsumed;
+      chunkCharStarts[chunkCount] = chunkCharStarts[chunk] + cachedChars.limit();
+      indexComplete = chunkByteStarts[chunkCount] >= fileContent.size;
+    }
+
+    protected void loadChunk(int chunk) {
+      if (cachedChunk != chunk) {
+        decodeChunk(chunk);
+      }
+    }
+
+    /**
+     * Decode the chunk into cachedChars.
+     * @return the number of bytes consumed
+     */
+    protected long decodeChunk(int chunk) {
+      long byteStart = chunkByteStarts[chunk];
+      // at least one char every 4 bytes, so the chars fill up before the bytes run out
+      int length = (int) Math.min((long) CHUNK_SIZE * 4, fileContent.size - byteStart);
+      boolean endOfInput = byteStart + length == fileContent.size;
+      ByteBuffer in = fileContent.getBytes(byteStart, length);
+      int inStart = in.position();
+
+      decoder.reset();
+      cachedChars.clear();
+      CoderResult result = decoder.decode(in, cachedChars, endOfInput);
+      if (endOfInput && result.isUnderflow()) {
+        decoder.flush(cachedChars);
+      }
+      cachedChars.flip();
+      cachedChunk = chunk;
+      return in.position() - inStart;
+    }
+  }
+}
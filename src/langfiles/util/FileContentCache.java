@@ -0,0 +1,302 @@
+package langfiles.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Least-recently-used cache of the decoded content of files, shared by the
+ * code viewers, so opening a file again or a modify event that did not change
+ * the file does not read and decode it again.
+ * <p>
+ * An entry is valid while the last-modified time and the size of the file are
+ * the same as when it was read, they are checked on every get. The entries
+ * are weighted by their estimated heap size, the least recently used ones are
+ * evicted when the total exceeds the budget. A content larger than a quarter
+ * of the budget is returned without caching, so it does not flush the others.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class FileContentCache {
+
+  private static final Logger LOG = Logger.getLogger(FileContentCache.class.getName());
+  /**
+   * The system property of the default budget in bytes.
+   */
+  public static final String PROPERTY_NAME = "langfiles.contentCacheBudget";
+  protected static volatile FileContentCache defaultCache;
+  protected final FileContentReader reader;
+  protected final long budget;
+  /**
+   * Keyed by absolute path, in access order. Guarded by itself.
+   */
+  protected final LinkedHashMap<String, CachedContent> contentMap;
+  protected long weight;
+  // metrics
+  protected final AtomicLong hitCount;
+  protected final AtomicLong missCount;
+  protected final AtomicLong evictionCount;
+
+  /**
+   * Constructor.
+   * @param reader the reader to read the files
+   * @param budget the maximum total weight in bytes
+   */
+  public FileContentCache(FileContentReader reader, long budget) {
+    if (reader == null) {
+      throw new NullPointerException("argument 'reader' cannot be null");
+    }
+    this.reader = reader;
+    this.budget = budget;
+    contentMap = new LinkedHashMap<String, CachedContent>(16, 0.75F, true);
+    weight = 0;
+    hitCount = new AtomicLong();
+    missCount = new AtomicLong();
+    evictionCount = new AtomicLong();
+  }
+
+  public static FileContentCache getDefault() {
+    FileContentCache cache = defaultCache;
+    if (cache == null) {
+      synchronized (FileContentCache.class) {
+        cache = defaultCache;
+        if (cache == null) {
+          cache = new FileContentCache(FileContentReader.getDefault(), getDefaultBudget());
+          defaultCache = cache;
+        }
+      }
+    }
+    return cache;
+  }
+
+  public static void setDefault(FileContentCache cache) {
+    if (cache == null) {
+      throw new NullPointerException("argument 'cache' cannot be null");
+    }
+    defaultCache = cache;
+  }
+
+  /**
+   * Get the default budget. It is the system property {@value #PROPERTY_NAME}
+   * if set, otherwise 1/16 of the maximum heap, at most 64MB.
+   * @return the budget in bytes
+   */
+  public static long getDefaultBudget() {
+    String property = System.getProperty(PROPERTY_NAME);
+    if (property != null) {
+      try {
+        return Long.parseLong(property.trim());
+      } catch (NumberFormatException ex) {
+        LOG.log(Level.WARNING, "Invalid content cache budget: {0}", property);
+      }
+    }
+    return Math.min(Runtime.getRuntime().maxMemory() / 16, 64L * 1024 * 1024);
+  }
+
+  /**
+   * Get the decoded content of the file, read if not cached or the file is
+   * changed.
+   * @param file the file
+   * @return the content
+   * @throws IOException error occurred when reading the file, or the file is
+   * larger than one segment of {@link FileContentReader}
+   */
+  public CachedContent get(File file) throws IOException {
+    if (file == null) {
+      throw new NullPointerException("argument 'file' cannot be null");
+    }
+    return get(file, null);
+  }
+
+  /**
+   * @param syncFile the SyncFile to read the file through, null to read by
+   * the reader
+   */
+  protected CachedContent get(File file, SyncFile syncFile) throws IOException {
+    String path = file.getAbsolutePath();
+    BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+    synchronized (contentMap) {
+      CachedContent cachedContent = contentMap.get(path);
+      if (cachedContent != null) {
+        if (cachedContent.lastModified == attributes.lastModifiedTime().toMillis() && cachedContent.size == attributes.size()) {
+          hitCount.incrementAndGet();
+          return cachedContent;
+        }
+        remove(path);
+      }
+    }
+    missCount.incrementAndGet();
+
+    // read without the lock, the same file may be read twice at the same time, the later one replaces
+    FileContent fileContent = syncFile != null ? syncFile.getFileContent() : reader.read(file);
+    if (fileContent.getSize() > FileContentReader.SEGMENT_SIZE) {
+      // the size read, the file may have grown since the attributes
+      throw new IOException("file too large to decode as a whole, size: " + fileContent.getSize() + ", path: " + path);
+    }
+    CachedContent cachedContent = new CachedContent(path, fileContent.getLastModified(), fileContent.getSize(),
+            fileContent.getContent(), fileContent.getCharset());
+    if (cachedContent.weight <= budget / 4) {
+      synchronized (contentMap) {
+        remove(path);
+        contentMap.put(path, cachedContent);
+        weight += cachedContent.weight;
+        evict();
+      }
+    }
+    return cachedContent;
+  }
+
+  /**
+   * Get the decoded content of the SyncFile, read by
+   * {@link SyncFile#getFileContent()} if not cached or the file is changed,
+   * so the charset and the content hash of the SyncFile are kept.
+   * @param syncFile the SyncFile
+   * @return the content
+   * @throws IOException error occurred when reading the file, or the file is
+   * larger than one segment of {@link FileContentReader}
+   */
+  public CachedContent get(SyncFile syncFile) throws IOException {
+    if (syncFile == null) {
+      throw new NullPointerException("argument 'syncFile' cannot be null");
+    }
+    return get(syncFile.getFile(), syncFile);
+  }
+
+  /**
+   * Remove the content of the file from the cache, e.g. the file is deleted.
+   * @param file the file
+   */
+  public void invalidate(File file) {
+    synchronized (contentMap) {
+      remove(file.getAbsolutePath());
+    }
+  }
+
+  public void clear() {
+    synchronized (contentMap) {
+      contentMap.clear();
+      weight = 0;
+    }
+  }
+
+  /**
+   * Should be called with contentMap held.
+   */
+  protected void remove(String path) {
+    CachedContent cachedContent = contentMap.remove(path);
+    if (cachedContent != null) {
+      weight -= cachedContent.weight;
+    }
+  }
+
+  /**
+   * Should be called with contentMap held.
+   */
+  protected void evict() {
+    Iterator<CachedContent> iterator = contentMap.values().iterator();
+    while (weight > budget && iterator.hasNext()) {
+      weight -= iterator.next().weight;
+      iterator.remove();
+      evictionCount.incrementAndGet();
+    }
+  }
+
+  public long getBudget() {
+    return budget;
+  }
+
+  /**
+   * Get the total estimated heap size of the cached contents.
+   * @return the weight in bytes
+   */
+  public long getWeight() {
+    synchronized (contentMap) {
+      return weight;
+    }
+  }
+
+  public int getEntryCount() {
+    synchronized (contentMap) {
+      return contentMap.size();
+    }
+  }
+
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Get the ratio of gets served from the cache.
+   * @return the ratio from 0 to 1, 0 if not used yet
+   */
+  public double getHitRate() {
+    long hits = hitCount.get();
+    long total = hits + missCount.get();
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  /**
+   * The decoded content of a file and the attributes of the file when read.
+   */
+  public static class CachedContent {
+
+    protected final String path;
+    protected final long lastModified;
+    protected final long size;
+    protected final String content;
+    protected final Charset charset;
+    /**
+     * Estimated heap size in bytes.
+     */
+    protected final long weight;
+
+    protected CachedContent(String path, long lastModified, long size, String content, Charset charset) {
+      this.path = path;
+      this.lastModified = lastModified;
+      this.size = size;
+      this.content = content;
+      this.charset = charset;
+      weight = 2L * (content.length() + path.length()) + 128;
+    }
+
+    public String getPath() {
+      return path;
+    }
+
+    public long getLastModified() {
+      return lastModified;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public String getContent() {
+      return content;
+    }
+
+    public Charset getCharset() {
+      return charset;
+    }
+
+    public long getWeight() {
+      return weight;
+    }
+  }
+}
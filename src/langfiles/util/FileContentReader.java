@@ -0,0 +1,259 @@
+package langfiles.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read the content of files into {@link FileContent}.
+ * <p>
+ * The attributes of the file (size, last-modified time and file key) are read
+ * before and after reading, if they differ, the file was changed or replaced
+ * while reading and it is read again after a delay, doubled every retry, up
+ * to the maximum number of retries.
+ * </p>
+ * <p>
+ * Files smaller than the map threshold are read into the heap through a
+ * {@link FileChannel}, the larger ones are memory-mapped in segments of
+ * {@link #SEGMENT_SIZE}, so files over 2GB can be read too.
+ * </p>
+ * <p>
+ * The charset is detected from the read bytes by {@link CharsetDetector}
+ * unless given, a byte order mark overrides the given charset.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class FileContentReader {
+
+  public static final int DEFAULT_MAX_RETRIES = 3;
+  /**
+   * The delay before the first retry, in milli second.
+   */
+  public static final long DEFAULT_RETRY_DELAY = 20;
+  public static final int DEFAULT_MAP_THRESHOLD = 256 * 1024;
+  /**
+   * The size of each mapped segment, a MappedByteBuffer can map at most 2GB.
+   */
+  protected static final long SEGMENT_SIZE = 1L << 30;
+  protected static volatile FileContentReader defaultReader = new FileContentReader(DEFAULT_MAX_RETRIES, DEFAULT_RETRY_DELAY, DEFAULT_MAP_THRESHOLD);
+  protected final int maxRetries;
+  protected final long retryDelay;
+  protected final int mapThreshold;
+  // metrics
+  protected final AtomicLong readCount;
+  protected final AtomicLong mappedCount;
+  protected final AtomicLong retryCount;
+  protected final AtomicLong failedCount;
+
+  /**
+   * Constructor.
+   * @param maxRetries the maximum number of retries if the file changed while
+   * reading
+   * @param retryDelay the delay before the first retry in milli second
+   * @param mapThreshold files of this size or larger are memory-mapped
+   */
+  public FileContentReader(int maxRetries, long retryDelay, int mapThreshold) {
+    if (maxRetries < 0) {
+      throw new IllegalArgumentException("argument 'maxRetries' cannot be negative");
+    }
+    this.maxRetries = maxRetries;
+    this.retryDelay = retryDelay;
+    this.mapThreshold = mapThreshold;
+    readCount = new AtomicLong();
+    mappedCount = new AtomicLong();
+    retryCount = new AtomicLong();
+    failedCount = new AtomicLong();
+  }
+
+  public static FileContentReader getDefault() {
+    return defaultReader;
+  }
+
+  public static void setDefault(FileContentReader reader) {
+    if (reader == null) {
+      throw new NullPointerException("argument 'reader' cannot be null");
+    }
+    defaultReader = reader;
+  }
+
+  /**
+   * Read the file and detect the charset.
+   * @param file the file to read
+   * @return the content
+   * @throws IOException error occurred when reading, or the file kept
+   * changing after all retries
+   */
+  public FileContent read(File file) throws IOException {
+    return read(file, null, null);
+  }
+
+  /**
+   * Read the file.
+   * @param file the file to read
+   * @param knownCharset the charset of the file, e.g. detected before, null
+   * to detect
+   * @param prior the charset expected when detecting, e.g. of a sibling file,
+   * null if none
+   * @return the content
+   * @throws IOException error occurred when reading, or the file kept
+   * changing after all retries
+   */
+  public FileContent read(File file, String knownCharset, String prior) throws IOException {
+    if (file == null) {
+      throw new NullPointerException("argument 'file' cannot be null");
+    }
+
+    Path path = file.toPath();
+    long delay = retryDelay;
+    for (int retry = 0;; retry++) {
+      BasicFileAttributes before = Files.readAttributes(path, BasicFileAttributes.class);
+      if (!before.isRegularFile()) {
+        throw new IOException("not a regular file: " + file.getAbsolutePath());
+      }
+      boolean mapped = before.size() >= mapThreshold && before.size() > 0;
+      ByteBuffer[] segments = read(path, before.size(), mapped);
+      BasicFileAttributes after = Files.readAttributes(path, BasicFileAttributes.class);
+      if (segments != null && isSameFile(before, after)) {
+        readCount.incrementAndGet();
+        if (mapped) {
+          mappedCount.incrementAndGet();
+        }
+        Charset charset;
+        int bomLength;
+        if (knownCharset != null && Charset.isSupported(knownCharset)) {
+          // only the byte order mark is checked
+          CharsetDetector.Result result = CharsetDetector.detectBom(segments[0]);
+          charset = result != null ? result.getCharset() : Charset.forName(knownCharset);
+          bomLength = result != null ? result.getBomLength() : 0;
+        } else {
+          CharsetDetector.Result result = CharsetDetector.getDefault().detect(segments[0], prior);
+          charset = result.getCharset();
+          bomLength = result.getBomLength();
+        }
+        return new FileContent(file, before.lastModifiedTime().toMillis(), before.size(), before.fileKey(), segments, mapped,
+                getStatelessCharset(charset), bomLength);
+      }
+
+      if (retry >= maxRetries) {
+        failedCount.incrementAndGet();
+        throw new IOException(String.format("The file kept changing while being read, gave up after %1$d retries, path: %2$s",
+                maxRetries, file.getAbsolutePath()));
+      }
+      retryCount.incrementAndGet();
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("interrupted while waiting to read again: " + file.getAbsolutePath());
+      }
+      delay *= 2;
+    }
+  }
+
+  /**
+   * @return the read-only segments, null if the size changed while reading
+   */
+  protected ByteBuffer[] read(Path path, long size, boolean mapped) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      if (channel.size() != size) {
+        return null;
+      }
+      if (!mapped) {
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining()) {
+          if (channel.read(buffer) == -1) {
+            return null;
+          }
+        }
+        buffer.flip();
+        return new ByteBuffer[]{buffer.asReadOnlyBuffer()};
+      }
+
+      ByteBuffer[] segments = new ByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+      for (int i = 0; i < segments.length; i++) {
+        long position = i * SEGMENT_SIZE;
+        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SEGMENT_SIZE, size - position));
+      }
+      return segments;
+    } finally {
+      CommonUtil.closeQuietly(channel);
+    }
+  }
+
+  /**
+   * UTF-16 and UTF-32 without byte order mark are big-endian, use the
+   * explicit ones so decoding can start in the middle.
+   */
+  protected static Charset getStatelessCharset(Charset charset) {
+    String name = charset.name();
+    if (name.equals("UTF-16")) {
+      return Charset.forName("UTF-16BE");
+    }
+    if (name.equals("UTF-32")) {
+      return Charset.forName("UTF-32BE");
+    }
+    return charset;
+  }
+
+  protected static boolean isSameFile(BasicFileAttributes before, BasicFileAttributes after) {
+    if (before.size() != after.size() || !before.lastModifiedTime().equals(after.lastModifiedTime())) {
+      return false;
+    }
+    Object fileKey = before.fileKey();
+    return fileKey == null ? after.fileKey() == null : fileKey.equals(after.fileKey());
+  }
+
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  public long getRetryDelay() {
+    return retryDelay;
+  }
+
+  public int getMapThreshold() {
+    return mapThreshold;
+  }
+
+  /**
+   * Get the number of files read successfully.
+   * @return the count
+   */
+  public long getReadCount() {
+    return readCount.get();
+  }
+
+  /**
+   * Get the number of files read successfully by memory-mapping.
+   * @return the count
+   */
+  public long getMappedCount() {
+    return mappedCount.get();
+  }
+
+  /**
+   * Get the number of times a file changed while being read and was read
+   * again.
+   * @return the count
+   */
+  public long getRetryCount() {
+    return retryCount.get();
+  }
+
+  /**
+   * Get the number of files that kept changing after all retries.
+   * @return the count
+   */
+  public long getFailedCount() {
+    return failedCount.get();
+  }
+}
@@ -0,0 +1,42 @@
+package langfiles.util;
+
+import java.io.IOException;
+
+/**
+ * Watch the file system for changes. The event types and masks are the same
+ * as the ones of JNotify, so the backends are interchangeable.
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public interface FileWatcher {
+
+  int FILE_CREATED = 1;
+  int FILE_DELETED = 2;
+  int FILE_MODIFIED = 4;
+  int FILE_RENAMED = 8;
+  int FILE_ANY = FILE_CREATED | FILE_DELETED | FILE_MODIFIED | FILE_RENAMED;
+
+  /**
+   * Start watching a directory.
+   * @param path the path of the directory
+   * @param mask the events to listen to, combination of FILE_* constants
+   * @param watchSubtree true to watch all directories inside too
+   * @param listener the listener to notify
+   * @return the watch id
+   * @throws IOException failed to add the watch
+   */
+  int addWatch(String path, int mask, boolean watchSubtree, FileWatcherListener listener) throws IOException;
+
+  /**
+   * Stop watching.
+   * @param watchId the watch id returned by {@link #addWatch}
+   * @return true if the watch existed and is removed
+   * @throws IOException failed to remove the watch
+   */
+  boolean removeWatch(int watchId) throws IOException;
+
+  /**
+   * Get the name of this backend, used in logs and benchmark results.
+   * @return the name
+   */
+  String getName();
+}
@@ -0,0 +1,24 @@
+package langfiles.util;
+
+/**
+ * An empty implementation of {@link FileWatcherListener}.
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class FileWatcherAdapter implements FileWatcherListener {
+
+  @Override
+  public void fileCreated(int watchId, String rootPath, String name) {
+  }
+
+  @Override
+  public void fileDeleted(int watchId, String rootPath, String name) {
+  }
+
+  @Override
+  public void fileModified(int watchId, String rootPath, String name) {
+  }
+
+  @Override
+  public void fileRenamed(int watchId, String rootPath, String oldName, String newName) {
+  }
+}
@@ -0,0 +1,134 @@
+package langfiles.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure the event latency and throughput of the {@link FileWatcher}
+ * backends, for development purpose.
+ * <p>
+ * Usage: FileWatcherBenchmark [-files count] [backend ...]
+ * </p>
+ * Each backend watches a new temporary directory, then files are created in
+ * the sub-directories of it. The latency is the time between a file is
+ * created and its create event arrived. The mock backend fire the events
+ * itself, so its result is the overhead of the benchmark.
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class FileWatcherBenchmark {
+
+  protected FileWatcherBenchmark() {
+  }
+
+  /**
+   * Run the benchmark on one backend.
+   * @param fileWatcher the backend
+   * @param fileCount the number of files to create
+   * @return the result in one line
+   * @throws IOException error occurred when creating the files
+   * @throws InterruptedException interrupted while waiting the events
+   */
+  public static String run(FileWatcher fileWatcher, int fileCount) throws IOException, InterruptedException {
+    File directory = Files.createTempDirectory("FileWatcherBenchmark").toFile();
+    File[] subDirectories = new File[10];
+    for (int i = 0; i < subDirectories.length; i++) {
+      subDirectories[i] = new File(directory, "dir" + i);
+      subDirectories[i].mkdir();
+    }
+
+    final Map<String, Long> createTimeMap = new ConcurrentHashMap<String, Long>();
+    final List<Long> latencyList = Collections.synchronizedList(new ArrayList<Long>());
+    final CountDownLatch latch = new CountDownLatch(fileCount);
+    int watchId = fileWatcher.addWatch(directory.getAbsolutePath(), FileWatcher.FILE_ANY, true, new FileWatcherAdapter() {
+
+      @Override
+      public void fileCreated(int watchId, String rootPath, String name) {
+        long receiveTime = System.nanoTime();
+        Long createTime = createTimeMap.remove(new File(name).getName());
+        if (createTime != null) {
+          latencyList.add(receiveTime - createTime);
+          latch.countDown();
+        }
+      }
+    });
+
+    long startTime = System.nanoTime();
+    for (int i = 0; i < fileCount; i++) {
+      String fileName = "file" + i;
+      createTimeMap.put(fileName, System.nanoTime());
+      File subDirectory = subDirectories[i % subDirectories.length];
+      new File(subDirectory, fileName).createNewFile();
+      if (fileWatcher instanceof MockFileWatcher) {
+        // nothing is watched, fire the event to measure the dispatch overhead only
+        ((MockFileWatcher) fileWatcher).fire(FileWatcher.FILE_CREATED, directory.getAbsolutePath(), subDirectory.getName() + File.separator + fileName, null);
+      }
+    }
+    boolean completed = latch.await(30, TimeUnit.SECONDS);
+    long elapsedTime = System.nanoTime() - startTime;
+
+    fileWatcher.removeWatch(watchId);
+    delete(directory);
+
+    Long[] latencies = latencyList.toArray(new Long[latencyList.size()]);
+    Arrays.sort(latencies);
+    if (latencies.length == 0) {
+      return String.format("%1$-12s no event received", fileWatcher.getName());
+    }
+    return String.format("%1$-12s events: %2$d/%3$d%4$s, throughput: %5$.0f events/sec, latency avg: %6$.2f ms, p50: %7$.2f ms, p99: %8$.2f ms, max: %9$.2f ms",
+            fileWatcher.getName(), latencies.length, fileCount, completed ? "" : " (timeout)",
+            latencies.length * 1000000000D / elapsedTime, average(latencies) / 1000000D,
+            latencies[latencies.length / 2] / 1000000D, latencies[(int) (latencies.length * 0.99D)] / 1000000D,
+            latencies[latencies.length - 1] / 1000000D);
+  }
+
+  protected static void delete(File file) {
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File _file : files) {
+        delete(_file);
+      }
+    }
+    file.delete();
+  }
+
+  protected static double average(Long[] values) {
+    double sum = 0;
+    for (Long value : values) {
+      sum += value;
+    }
+    return sum / values.length;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int fileCount = 5000;
+    List<String> backendList = new ArrayList<String>();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-files") && i + 1 < args.length) {
+        fileCount = Integer.parseInt(args[++i]);
+      } else {
+        backendList.add(args[i]);
+      }
+    }
+    if (backendList.isEmpty()) {
+      backendList.addAll(Arrays.asList("watchservice", "jnotify"));
+    }
+
+    for (String backend : backendList) {
+      try {
+        System.out.println(run(FileWatcherFactory.create(backend), fileCount));
+      } catch (IOException ex) {
+        System.out.println(String.format("%1$-12s failed: %2$s", backend, ex));
+      }
+    }
+    System.exit(0);
+  }
+}
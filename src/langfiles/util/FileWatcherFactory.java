@@ -0,0 +1,90 @@
+package langfiles.util;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Create the {@link FileWatcher} backends and hold the one used by
+ * {@link SyncFile} and {@link ConfigTool}.
+ * <p>
+ * The default backend can be chosen by the system property
+ * {@value #PROPERTY_NAME}: "jnotify", "watchservice" or "mock". If not set,
+ * WatchService is used, except on Mac OS X where the WatchService of the JDK
+ * falls back to polling.
+ * </p>
+ * <p>
+ * On Linux the default backend is wrapped by {@link WatchBudgetManager}, so a
+ * large tree does not use up the inotify watches of the user.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class FileWatcherFactory {
+
+  private static final Logger LOG = Logger.getLogger(FileWatcherFactory.class.getName());
+  public static final String PROPERTY_NAME = "langfiles.fileWatcher";
+  protected static FileWatcher defaultWatcher;
+
+  protected FileWatcherFactory() {
+  }
+
+  /**
+   * Get the default backend, created on first call.
+   * @return the file watcher
+   */
+  public static synchronized FileWatcher getDefault() {
+    if (defaultWatcher == null) {
+      String name = System.getProperty(PROPERTY_NAME);
+      if (name == null) {
+        name = System.getProperty("os.name").startsWith("Mac") ? "jnotify" : "watchservice";
+      }
+      try {
+        defaultWatcher = create(name);
+      } catch (IOException ex) {
+        LOG.log(Level.WARNING, "Failed to create file watcher '" + name + "', use jnotify instead", ex);
+        defaultWatcher = new JNotifyFileWatcher();
+      } catch (IllegalArgumentException ex) {
+        LOG.log(Level.WARNING, "Unknown file watcher '" + name + "', use watchservice instead", ex);
+        try {
+          defaultWatcher = create("watchservice");
+        } catch (IOException ex2) {
+          defaultWatcher = new JNotifyFileWatcher();
+        }
+      }
+      if (System.getProperty("os.name").equals("Linux") && !(defaultWatcher instanceof MockFileWatcher)) {
+        defaultWatcher = new WatchBudgetManager(defaultWatcher, WatchBudgetManager.getDefaultBudget());
+      }
+      LOG.log(Level.CONFIG, "File watcher: {0}", defaultWatcher.getName());
+    }
+    return defaultWatcher;
+  }
+
+  /**
+   * Set the default backend, only the watches added after this use the new
+   * backend.
+   * @param fileWatcher the file watcher
+   */
+  public static synchronized void setDefault(FileWatcher fileWatcher) {
+    if (fileWatcher == null) {
+      throw new NullPointerException("argument 'fileWatcher' cannot be null");
+    }
+    defaultWatcher = fileWatcher;
+  }
+
+  /**
+   * Create a new backend.
+   * @param name "jnotify", "watchservice" or "mock"
+   * @return the file watcher
+   * @throws IOException failed to create the backend
+   */
+  public static FileWatcher create(String name) throws IOException {
+    if (name.equals("jnotify")) {
+      return new JNotifyFileWatcher();
+    } else if (name.equals("watchservice")) {
+      return new WatchServiceFileWatcher();
+    } else if (name.equals("mock")) {
+      return new MockFileWatcher();
+    }
+    throw new IllegalArgumentException("unknown file watcher: " + name);
+  }
+}
@@ -0,0 +1,17 @@
+package langfiles.util;
+
+/**
+ * Listener of {@link FileWatcher}. The name in events are relative to the
+ * root path, which is the path the watch added on.
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public interface FileWatcherListener {
+
+  void fileCreated(int watchId, String rootPath, String name);
+
+  void fileDeleted(int watchId, String rootPath, String name);
+
+  void fileModified(int watchId, String rootPath, String name);
+
+  void fileRenamed(int watchId, String rootPath, String oldName, String newName);
+}
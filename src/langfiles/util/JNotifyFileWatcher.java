@@ -0,0 +1,57 @@
+package langfiles.util;
+
+import java.io.IOException;
+import net.contentobjects.jnotify.JNotify;
+import net.contentobjects.jnotify.JNotifyListener;
+
+/**
+ * {@link FileWatcher} backed by the JNotify native library. The library is
+ * loaded when the first watch is added.
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class JNotifyFileWatcher implements FileWatcher {
+
+  @Override
+  public int addWatch(String path, int mask, boolean watchSubtree, final FileWatcherListener listener) throws IOException {
+    if (listener == null) {
+      throw new NullPointerException("argument 'listener' cannot be null");
+    }
+    try {
+      return JNotify.addWatch(path, mask, watchSubtree, new JNotifyListener() {
+
+        @Override
+        public void fileCreated(int watchId, String rootPath, String name) {
+          listener.fileCreated(watchId, rootPath, name);
+        }
+
+        @Override
+        public void fileDeleted(int watchId, String rootPath, String name) {
+          listener.fileDeleted(watchId, rootPath, name);
+        }
+
+        @Override
+        public void fileModified(int watchId, String rootPath, String name) {
+          listener.fileModified(watchId, rootPath, name);
+        }
+
+        @Override
+        public void fileRenamed(int watchId, String rootPath, String oldName, String newName) {
+          listener.fileRenamed(watchId, rootPath, oldName, newName);
+        }
+      });
+    } catch (LinkageError ex) {
+      // UnsatisfiedLinkError, or NoClassDefFoundError after the first failure
+      throw new IOException("failed to load the JNotify native library", ex);
+    }
+  }
+
+  @Override
+  public boolean removeWatch(int watchId) throws IOException {
+    return JNotify.removeWatch(watchId);
+  }
+
+  @Override
+  public String getName() {
+    return "jnotify";
+  }
+}
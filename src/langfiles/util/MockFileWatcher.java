@@ -0,0 +1,242 @@
+package langfiles.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link FileWatcher} that does not watch anything, the events are fired by
+ * calling {@link #fire} or replayed from a recording made by {@link Recorder}.
+ * <p>
+ * Recording format, one event per line, fields separated by tab:
+ * <pre>
+ * time offset in milli second, type (c, d, m or r), root path, name[, new name]
+ * </pre>
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class MockFileWatcher implements FileWatcher {
+
+  private static final Logger LOG = Logger.getLogger(MockFileWatcher.class.getName());
+  protected final AtomicInteger watchIdCounter;
+  protected final Map<Integer, Watch> watchMap;
+
+  public MockFileWatcher() {
+    watchIdCounter = new AtomicInteger();
+    watchMap = new LinkedHashMap<Integer, Watch>();
+  }
+
+  @Override
+  public int addWatch(String path, int mask, boolean watchSubtree, FileWatcherListener listener) throws IOException {
+    if (path == null) {
+      throw new NullPointerException("argument 'path' cannot be null");
+    }
+    if (listener == null) {
+      throw new NullPointerException("argument 'listener' cannot be null");
+    }
+    Watch watch = new Watch(watchIdCounter.incrementAndGet(), path, mask, listener);
+    synchronized (watchMap) {
+      watchMap.put(watch.watchId, watch);
+    }
+    return watch.watchId;
+  }
+
+  @Override
+  public boolean removeWatch(int watchId) throws IOException {
+    synchronized (watchMap) {
+      return watchMap.remove(watchId) != null;
+    }
+  }
+
+  @Override
+  public String getName() {
+    return "mock";
+  }
+
+  /**
+   * Fire an event to the watches added on the root path.
+   * @param type one of FILE_CREATED, FILE_DELETED, FILE_MODIFIED and
+   * FILE_RENAMED
+   * @param rootPath the root path
+   * @param name the name relative to the root path
+   * @param newName the new name for rename, null for others
+   * @return the number of watches notified
+   */
+  public int fire(int type, String rootPath, String name, String newName) {
+    List<Watch> watchList;
+    synchronized (watchMap) {
+      watchList = new ArrayList<Watch>(watchMap.values());
+    }
+
+    int count = 0;
+    for (Watch watch : watchList) {
+      if (!watch.rootPath.equals(rootPath) || (watch.mask & type) == 0) {
+        continue;
+      }
+      switch (type) {
+        case FILE_CREATED:
+          watch.listener.fileCreated(watch.watchId, rootPath, name);
+          break;
+        case FILE_DELETED:
+          watch.listener.fileDeleted(watch.watchId, rootPath, name);
+          break;
+        case FILE_MODIFIED:
+          watch.listener.fileModified(watch.watchId, rootPath, name);
+          break;
+        case FILE_RENAMED:
+          watch.listener.fileRenamed(watch.watchId, rootPath, name, newName);
+          break;
+        default:
+          throw new IllegalArgumentException("unknown event type: " + type);
+      }
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Replay a recording.
+   * @param reader the recording
+   * @param realTime true to keep the time between events as recorded, false
+   * to fire them as fast as possible
+   * @return the number of events fired
+   * @throws IOException error occurred when reading the recording
+   */
+  public int replay(Reader reader, boolean realTime) throws IOException {
+    BufferedReader bufferedReader = new BufferedReader(reader);
+    long startTime = System.currentTimeMillis();
+
+    int count = 0;
+    String line;
+    while ((line = bufferedReader.readLine()) != null) {
+      if (line.isEmpty()) {
+        continue;
+      }
+      String[] fields = line.split("\t");
+      if (fields.length < 4) {
+        LOG.log(Level.WARNING, "invalid line in recording: {0}", line);
+        continue;
+      }
+
+      if (realTime) {
+        long waitTime = startTime + Long.parseLong(fields[0]) - System.currentTimeMillis();
+        if (waitTime > 0) {
+          try {
+            Thread.sleep(waitTime);
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            break;
+          }
+        }
+      }
+
+      int type;
+      switch (fields[1].charAt(0)) {
+        case 'c':
+          type = FILE_CREATED;
+          break;
+        case 'd':
+          type = FILE_DELETED;
+          break;
+        case 'm':
+          type = FILE_MODIFIED;
+          break;
+        case 'r':
+          type = FILE_RENAMED;
+          break;
+        default:
+          LOG.log(Level.WARNING, "invalid line in recording: {0}", line);
+          continue;
+      }
+      fire(type, fields[2], fields[3], fields.length > 4 ? fields[4] : null);
+      count++;
+    }
+
+    return count;
+  }
+
+  protected static class Watch {
+
+    protected final int watchId;
+    protected final String rootPath;
+    protected final int mask;
+    protected final FileWatcherListener listener;
+
+    protected Watch(int watchId, String rootPath, int mask, FileWatcherListener listener) {
+      this.watchId = watchId;
+      this.rootPath = rootPath;
+      this.mask = mask;
+      this.listener = listener;
+    }
+  }
+
+  /**
+   * Record the events received into the format of
+   * {@link MockFileWatcher#replay(java.io.Reader, boolean)}, add it as the
+   * listener of a real watch.
+   */
+  public static class Recorder implements FileWatcherListener {
+
+    protected final Writer writer;
+    protected final long startTime;
+
+    /**
+     * Constructor.
+     * @param writer the writer to write the recording to, flushed after every
+     * event
+     */
+    public Recorder(Writer writer) {
+      if (writer == null) {
+        throw new NullPointerException("argument 'writer' cannot be null");
+      }
+      this.writer = writer;
+      startTime = System.currentTimeMillis();
+    }
+
+    @Override
+    public void fileCreated(int watchId, String rootPath, String name) {
+      record('c', rootPath, name, null);
+    }
+
+    @Override
+    public void fileDeleted(int watchId, String rootPath, String name) {
+      record('d', rootPath, name, null);
+    }
+
+    @Override
+    public void fileModified(int watchId, String rootPath, String name) {
+      record('m', rootPath, name, null);
+    }
+
+    @Override
+    public void fileRenamed(int watchId, String rootPath, String oldName, String newName) {
+      record('r', rootPath, oldName, newName);
+    }
+
+    protected synchronized void record(char type, String rootPath, String name, String newName) {
+      StringBuilder sb = new StringBuilder();
+      sb.append(System.currentTimeMillis() - startTime).append('\t');
+      sb.append(type).append('\t');
+      sb.append(rootPath).append('\t');
+      sb.append(name);
+      if (newName != null) {
+        sb.append('\t').append(newName);
+      }
+      sb.append('\n');
+      try {
+        writer.write(sb.toString());
+        writer.flush();
+      } catch (IOException ex) {
+        LOG.log(Level.SEVERE, null, ex);
+      }
+    }
+  }
+}
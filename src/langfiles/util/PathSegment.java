@@ -0,0 +1,107 @@
+package langfiles.util;
+
+/**
+ * A segment of a path, used as a reusable look-up key of the file-name-keyed
+ * maps in {@link SyncFile}, so walking down a path does not need to create a
+ * substring for every segment.
+ * <p>
+ * The hash code is the same as the {@link java.lang.String} of the segment
+ * and {@link #equals(java.lang.Object)} compare the content with a
+ * {@link java.lang.CharSequence}. Only use it as the argument of
+ * {@link java.util.Map#get(java.lang.Object)} and alike,
+ * {@link java.lang.String#equals(java.lang.Object)} is not symmetric with
+ * this.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+class PathSegment implements CharSequence {
+
+  protected String path;
+  protected int start;
+  protected int end;
+  protected int hash;
+
+  PathSegment() {
+    path = "";
+    start = 0;
+    end = 0;
+    hash = 0;
+  }
+
+  /**
+   * Point this segment to another part of a path.
+   * @param path the path
+   * @param start the start index, inclusive
+   * @param end the end index, exclusive
+   * @return this object
+   */
+  PathSegment set(String path, int start, int end) {
+    this.path = path;
+    this.start = start;
+    this.end = end;
+
+    int h = 0;
+    for (int i = start; i < end; i++) {
+      h = 31 * h + path.charAt(i);
+    }
+    hash = h;
+
+    return this;
+  }
+
+  /**
+   * Check if the character is a file separator. Both '/' and the platform
+   * file separator are accepted.
+   * @param c the character
+   * @return true if it is a file separator
+   */
+  static boolean isSeparator(char c) {
+    return c == '/' || c == SyncFile.fileSeperatorChar;
+  }
+
+  @Override
+  public int length() {
+    return end - start;
+  }
+
+  @Override
+  public char charAt(int index) {
+    return path.charAt(start + index);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return path.subSequence(this.start + start, this.start + end);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o instanceof String) {
+      String s = (String) o;
+      return s.length() == end - start && path.regionMatches(start, s, 0, end - start);
+    }
+    if (!(o instanceof CharSequence)) {
+      return false;
+    }
+    CharSequence cs = (CharSequence) o;
+    if (cs.length() != end - start) {
+      return false;
+    }
+    for (int i = 0, iEnd = end - start; i < iEnd; i++) {
+      if (cs.charAt(i) != path.charAt(start + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return path.substring(start, end);
+  }
+}
@@ -0,0 +1,153 @@
+package langfiles.util;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Run a clean up action when its owner is garbage collected without being
+ * closed, the safety net of the objects with an explicit close(), like
+ * java.lang.ref.Cleaner of Java 9.
+ * <p>
+ * Only the owners that actually hold a resource should be registered, and the
+ * action must not refer to its owner, or the owner will never be collected.
+ * The actions are run on one daemon thread.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class ResourceCleaner {
+
+  private static final Logger LOG = Logger.getLogger(ResourceCleaner.class.getName());
+  protected static final ResourceCleaner defaultCleaner = new ResourceCleaner();
+  protected final ReferenceQueue<Object> referenceQueue;
+  /**
+   * Keep the registered references reachable until cleaned.
+   */
+  protected final Set<Cleanable> cleanableSet;
+  protected final Thread cleanerThread;
+  // metrics
+  protected final AtomicLong registeredCount;
+  protected final AtomicLong collectedCount;
+
+  /**
+   * Constructor.
+   */
+  public ResourceCleaner() {
+    referenceQueue = new ReferenceQueue<Object>();
+    cleanableSet = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Cleanable, Boolean>()));
+    registeredCount = new AtomicLong();
+    collectedCount = new AtomicLong();
+
+    cleanerThread = new Thread(new Runnable() {
+
+      @Override
+      public void run() {
+        while (true) {
+          try {
+            Cleanable cleanable = (Cleanable) referenceQueue.remove();
+            if (cleanable.clean()) {
+              collectedCount.incrementAndGet();
+            }
+          } catch (InterruptedException ex) {
+            return;
+          }
+        }
+      }
+    }, "ResourceCleaner");
+    cleanerThread.setDaemon(true);
+    cleanerThread.start();
+  }
+
+  public static ResourceCleaner getDefault() {
+    return defaultCleaner;
+  }
+
+  /**
+   * Register the action to run when the owner is garbage collected.
+   * @param owner the owner
+   * @param action the clean up action, must not refer to the owner
+   * @return the handle to run the action explicitly when the owner is closed
+   */
+  public Cleanable register(Object owner, Runnable action) {
+    if (owner == null) {
+      throw new NullPointerException("argument 'owner' cannot be null");
+    }
+    if (action == null) {
+      throw new NullPointerException("argument 'action' cannot be null");
+    }
+    Cleanable cleanable = new Cleanable(owner, referenceQueue, action);
+    registeredCount.incrementAndGet();
+    return cleanable;
+  }
+
+  /**
+   * Get the number of actions registered.
+   * @return the count
+   */
+  public long getRegisteredCount() {
+    return registeredCount.get();
+  }
+
+  /**
+   * Get the number of actions run because the owner was garbage collected
+   * without being closed, i.e. leaked.
+   * @return the count
+   */
+  public long getCollectedCount() {
+    return collectedCount.get();
+  }
+
+  /**
+   * The handle of a registered action.
+   */
+  public class Cleanable extends PhantomReference<Object> {
+
+    protected Runnable action;
+
+    protected Cleanable(Object owner, ReferenceQueue<Object> queue, Runnable action) {
+      super(owner, queue);
+      this.action = action;
+      cleanableSet.add(this);
+    }
+
+    /**
+     * Unregister the action without running it, the owner released the
+     * resource itself.
+     */
+    public void unregister() {
+      synchronized (this) {
+        action = null;
+      }
+      cleanableSet.remove(this);
+      clear();
+    }
+
+    /**
+     * Run the action if not run yet, and unregister it.
+     * @return true if run by this call
+     */
+    public boolean clean() {
+      Runnable _action;
+      synchronized (this) {
+        _action = action;
+        action = null;
+      }
+      if (_action == null) {
+        return false;
+      }
+      cleanableSet.remove(this);
+      clear();
+      try {
+        _action.run();
+      } catch (RuntimeException ex) {
+        LOG.log(Level.WARNING, null, ex);
+      }
+      return true;
+    }
+  }
+}
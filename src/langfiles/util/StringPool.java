@@ -0,0 +1,501 @@
+package langfiles.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A pool of distinct strings kept out of the Java heap, each identified by an
+ * int id that is stable as long as the pool lives.
+ * <p>
+ * The strings are stored as UTF-16 chars in native byte order in regions of a
+ * memory-mapped file, the position of each string by id and the hash table
+ * from content to id are in direct buffers, so millions of strings cost the
+ * garbage collector nothing. {@link #intern(java.lang.CharSequence)} returns
+ * the same id for the same content. The regions are allocated as direct
+ * buffers if the file cannot be mapped.
+ * </p>
+ * <p>
+ * The strings are never removed, the pool only grows. The owner of the ids
+ * compacts it by interning the strings still used into a new pool and
+ * dropping the old one, {@link #size()} and {@link #getCharCount()} tell how
+ * much it has grown.
+ * </p>
+ * <p>
+ * Interning is synchronized, reading is not. An id read by another thread
+ * should be passed to it safely, like any other object.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class StringPool {
+
+  private static final Logger LOG = Logger.getLogger(StringPool.class.getName());
+  protected static final int REGION_SIZE = 1 << 24;
+  /**
+   * int hash, int length, followed by the chars.
+   */
+  protected static final int RECORD_HEADER_LENGTH = 8;
+  protected static final int INITIAL_CAPACITY = 1024;
+  protected static StringPool defaultPool;
+  /**
+   * The file mapped, null if the regions are direct buffers.
+   */
+  protected File file;
+  protected RandomAccessFile randomAccessFile;
+  protected long fileLength;
+  /**
+   * The regions the strings are stored in, replaced when a region is added.
+   */
+  protected volatile ByteBuffer[] regions;
+  protected int regionPosition;
+  /**
+   * The position of each string by id, the region index in the high 32 bits
+   * and the offset in the region in the low 32 bits. Replaced when full.
+   */
+  protected volatile ByteBuffer positions;
+  protected volatile int size;
+  /**
+   * The open addressing hash table of id + 1, 0 for an empty slot.
+   */
+  protected ByteBuffer table;
+  protected int tableMask;
+  // metrics
+  protected final AtomicLong internCount;
+  protected final AtomicLong hitCount;
+  protected final AtomicLong charCount;
+
+  /**
+   * Constructor. The strings are stored in a temporary file, deleted on
+   * {@link #close()} or on exit.
+   */
+  public StringPool() {
+    this(null);
+  }
+
+  /**
+   * Constructor.
+   * @param file the file to map the strings to, the content is discarded; null
+   * to create a temporary file
+   */
+  public StringPool(File file) {
+    internCount = new AtomicLong();
+    hitCount = new AtomicLong();
+    charCount = new AtomicLong();
+    regions = new ByteBuffer[0];
+    regionPosition = 0;
+    positions = ByteBuffer.allocateDirect(INITIAL_CAPACITY * 8).order(ByteOrder.nativeOrder());
+    size = 0;
+    table = ByteBuffer.allocateDirect(INITIAL_CAPACITY * 2 * 4).order(ByteOrder.nativeOrder());
+    tableMask = INITIAL_CAPACITY * 2 - 1;
+
+    try {
+      if (file == null) {
+        file = File.createTempFile("strings", ".pool");
+      }
+      file.deleteOnExit();
+      randomAccessFile = new RandomAccessFile(file, "rw");
+      randomAccessFile.setLength(0);
+      this.file = file;
+    } catch (IOException ex) {
+      LOG.log(Level.INFO, "Failed to create the file of the string pool, use direct buffers instead", ex);
+      CommonUtil.closeQuietly(randomAccessFile);
+      randomAccessFile = null;
+      this.file = null;
+    }
+    fileLength = 0;
+  }
+
+  /**
+   * Get the pool shared by the string literals and the index of them, created
+   * on first use.
+   * @return the pool
+   */
+  public static synchronized StringPool getDefault() {
+    if (defaultPool == null) {
+      defaultPool = new StringPool();
+    }
+    return defaultPool;
+  }
+
+  /**
+   * Set the pool shared by the string literals, e.g. after compacted. The
+   * strings already interned stay in the previous pool.
+   * @param pool the pool
+   */
+  public static synchronized void setDefault(StringPool pool) {
+    if (pool == null) {
+      throw new NullPointerException("argument 'pool' cannot be null");
+    }
+    defaultPool = pool;
+  }
+
+  /**
+   * Get the id of the string, add it to the pool if not exist.
+   * @param s the string
+   * @return the id
+   */
+  public synchronized int intern(CharSequence s) {
+    if (s == null) {
+      throw new NullPointerException("argument 's' cannot be null");
+    }
+    internCount.incrementAndGet();
+    int hash = hash(s);
+    int slot = findSlot(s, hash);
+    int entry = table.getInt(slot * 4);
+    if (entry != 0) {
+      hitCount.incrementAndGet();
+      return entry - 1;
+    }
+
+    int id = add(s, hash);
+    table.putInt(slot * 4, id + 1);
+    if (size * 2 > tableMask) {
+      rehash();
+    }
+    return id;
+  }
+
+  /**
+   * Get the id of the string without adding it.
+   * @param s the string
+   * @return the id, -1 if not in the pool
+   */
+  public synchronized int find(CharSequence s) {
+    if (s == null) {
+      throw new NullPointerException("argument 's' cannot be null");
+    }
+    return table.getInt(findSlot(s, hash(s)) * 4) - 1;
+  }
+
+  /**
+   * Get the string of the id, a new String is created every time.
+   * @param id the id
+   * @return the string
+   */
+  public String get(int id) {
+    long position = getPosition(id);
+    ByteBuffer region = regions[(int) (position >>> 32)];
+    int offset = (int) position;
+    char[] chars = new char[region.getInt(offset + 4)];
+    offset += RECORD_HEADER_LENGTH;
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = region.getChar(offset + i * 2);
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Get the length of the string of the id.
+   * @param id the id
+   * @return the length
+   */
+  public int length(int id) {
+    long position = getPosition(id);
+    return regions[(int) (position >>> 32)].getInt((int) position + 4);
+  }
+
+  /**
+   * Get the hash code of the string of the id, the same as
+   * {@link java.lang.String#hashCode()}.
+   * @param id the id
+   * @return the hash code
+   */
+  public int hashCode(int id) {
+    long position = getPosition(id);
+    return regions[(int) (position >>> 32)].getInt((int) position);
+  }
+
+  /**
+   * Compare the string of the id with another string lexicographically, as
+   * {@link java.lang.String#compareTo(java.lang.String)}.
+   * @param id the id
+   * @param s the string
+   * @return negative, zero or positive if the string of the id is less than,
+   * equal to or greater than s
+   */
+  public int compare(int id, CharSequence s) {
+    long position = getPosition(id);
+    ByteBuffer region = regions[(int) (position >>> 32)];
+    int offset = (int) position;
+    int length = region.getInt(offset + 4);
+    offset += RECORD_HEADER_LENGTH;
+    for (int i = 0, iEnd = Math.min(length, s.length()); i < iEnd; i++) {
+      int diff = region.getChar(offset + i * 2) - s.charAt(i);
+      if (diff != 0) {
+        return diff;
+      }
+    }
+    return length - s.length();
+  }
+
+  /**
+   * Compare the strings of two ids lexicographically.
+   * @param id1 the id of the first string
+   * @param id2 the id of the second string
+   * @return negative, zero or positive if the first string is less than,
+   * equal to or greater than the second
+   */
+  public int compare(int id1, int id2) {
+    if (id1 == id2) {
+      return 0;
+    }
+    long position1 = getPosition(id1);
+    ByteBuffer region1 = regions[(int) (position1 >>> 32)];
+    int offset1 = (int) position1;
+    int length1 = region1.getInt(offset1 + 4);
+    offset1 += RECORD_HEADER_LENGTH;
+    long position2 = getPosition(id2);
+    ByteBuffer region2 = regions[(int) (position2 >>> 32)];
+    int offset2 = (int) position2;
+    int length2 = region2.getInt(offset2 + 4);
+    offset2 += RECORD_HEADER_LENGTH;
+    for (int i = 0, iEnd = Math.min(length1, length2); i < iEnd; i++) {
+      int diff = region1.getChar(offset1 + i * 2) - region2.getChar(offset2 + i * 2);
+      if (diff != 0) {
+        return diff;
+      }
+    }
+    return length1 - length2;
+  }
+
+  /**
+   * Check if the string of the id starts with the prefix.
+   * @param id the id
+   * @param prefix the prefix
+   * @return true if starts with
+   */
+  public boolean startsWith(int id, CharSequence prefix) {
+    long position = getPosition(id);
+    ByteBuffer region = regions[(int) (position >>> 32)];
+    int offset = (int) position;
+    if (region.getInt(offset + 4) < prefix.length()) {
+      return false;
+    }
+    return regionMatches(region, offset + RECORD_HEADER_LENGTH, prefix);
+  }
+
+  /**
+   * Check if the string of the id contains the other string.
+   * @param id the id
+   * @param s the other string
+   * @return true if contains
+   */
+  public boolean contains(int id, CharSequence s) {
+    long position = getPosition(id);
+    ByteBuffer region = regions[(int) (position >>> 32)];
+    int offset = (int) position + RECORD_HEADER_LENGTH;
+    int sLength = s.length();
+    if (sLength == 0) {
+      return true;
+    }
+    char first = s.charAt(0);
+    for (int i = 0, iEnd = region.getInt(offset - RECORD_HEADER_LENGTH + 4) - sLength; i <= iEnd; i++) {
+      if (region.getChar(offset + i * 2) == first && regionMatches(region, offset + i * 2, s)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  protected static boolean regionMatches(ByteBuffer region, int offset, CharSequence s) {
+    for (int i = 0, iEnd = s.length(); i < iEnd; i++) {
+      if (region.getChar(offset + i * 2) != s.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  protected long getPosition(int id) {
+    if (id < 0 || id >= size) {
+      throw new IndexOutOfBoundsException("id: " + id + ", size: " + size);
+    }
+    return positions.getLong(id * 8);
+  }
+
+  protected static int hash(CharSequence s) {
+    int h = 0;
+    for (int i = 0, iEnd = s.length(); i < iEnd; i++) {
+      h = 31 * h + s.charAt(i);
+    }
+    return h;
+  }
+
+  /**
+   * Spread the bits of the String hash code over the table.
+   */
+  protected static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    return h;
+  }
+
+  /**
+   * Find the slot of the string in the table, or the empty slot to put it.
+   */
+  protected int findSlot(CharSequence s, int hash) {
+    int slot = mix(hash) & tableMask;
+    while (true) {
+      int entry = table.getInt(slot * 4);
+      if (entry == 0) {
+        return slot;
+      }
+      long position = positions.getLong((entry - 1) * 8);
+      ByteBuffer region = regions[(int) (position >>> 32)];
+      int offset = (int) position;
+      if (region.getInt(offset) == hash && region.getInt(offset + 4) == s.length()
+              && regionMatches(region, offset + RECORD_HEADER_LENGTH, s)) {
+        return slot;
+      }
+      slot = (slot + 1) & tableMask;
+    }
+  }
+
+  /**
+   * Write the string to the regions, hold the lock when calling.
+   * @return the id
+   */
+  protected int add(CharSequence s, int hash) {
+    int length = s.length();
+    if (length > (Integer.MAX_VALUE - RECORD_HEADER_LENGTH) / 2) {
+      throw new IllegalArgumentException("string too long: " + length);
+    }
+    int recordLength = RECORD_HEADER_LENGTH + length * 2;
+    ByteBuffer[] _regions = regions;
+    if (_regions.length == 0 || regionPosition + recordLength > _regions[_regions.length - 1].capacity()) {
+      _regions = addRegion(Math.max(REGION_SIZE, recordLength));
+    }
+    int regionIndex = _regions.length - 1;
+    ByteBuffer region = _regions[regionIndex];
+    int offset = regionPosition;
+    region.putInt(offset, hash);
+    region.putInt(offset + 4, length);
+    for (int i = 0; i < length; i++) {
+      region.putChar(offset + RECORD_HEADER_LENGTH + i * 2, s.charAt(i));
+    }
+    regionPosition += recordLength;
+
+    int id = size;
+    ByteBuffer _positions = positions;
+    if ((id + 1) * 8 > _positions.capacity()) {
+      ByteBuffer newPositions = ByteBuffer.allocateDirect(_positions.capacity() * 2).order(ByteOrder.nativeOrder());
+      ByteBuffer source = _positions.duplicate();
+      source.clear();
+      newPositions.put(source);
+      newPositions.clear();
+      positions = newPositions;
+      _positions = newPositions;
+    }
+    _positions.putLong(id * 8, ((long) regionIndex << 32) | offset);
+    // publish the id after the string is written
+    size = id + 1;
+    charCount.addAndGet(length);
+    return id;
+  }
+
+  /**
+   * Map a new region at the end of the file, or allocate a direct buffer if
+   * the file is not available.
+   */
+  protected ByteBuffer[] addRegion(int regionSize) {
+    ByteBuffer region = null;
+    if (randomAccessFile != null) {
+      try {
+        region = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, fileLength, regionSize).order(ByteOrder.nativeOrder());
+        fileLength += regionSize;
+      } catch (IOException ex) {
+        LOG.log(Level.INFO, "Failed to map the file of the string pool, use direct buffers instead", ex);
+        closeFile();
+      }
+    }
+    if (region == null) {
+      region = ByteBuffer.allocateDirect(regionSize).order(ByteOrder.nativeOrder());
+    }
+
+    ByteBuffer[] _regions = new ByteBuffer[regions.length + 1];
+    System.arraycopy(regions, 0, _regions, 0, regions.length);
+    _regions[regions.length] = region;
+    regions = _regions;
+    regionPosition = 0;
+    return _regions;
+  }
+
+  /**
+   * Double the table, hold the lock when calling.
+   */
+  protected void rehash() {
+    int capacity = (tableMask + 1) * 2;
+    ByteBuffer newTable = ByteBuffer.allocateDirect(capacity * 4).order(ByteOrder.nativeOrder());
+    int newMask = capacity - 1;
+    for (int id = 0; id < size; id++) {
+      int slot = mix(hashCode(id)) & newMask;
+      while (newTable.getInt(slot * 4) != 0) {
+        slot = (slot + 1) & newMask;
+      }
+      newTable.putInt(slot * 4, id + 1);
+    }
+    table = newTable;
+    tableMask = newMask;
+  }
+
+  /**
+   * Get the number of strings in the pool.
+   * @return the count
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the number of times {@link #intern(java.lang.CharSequence)} called.
+   * @return the count
+   */
+  public long getInternCount() {
+    return internCount.get();
+  }
+
+  /**
+   * Get the number of times {@link #intern(java.lang.CharSequence)} found the
+   * string already in the pool.
+   * @return the count
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * Get the total number of chars of the strings in the pool.
+   * @return the count
+   */
+  public long getCharCount() {
+    return charCount.get();
+  }
+
+  /**
+   * Close and delete the file. The strings stay readable as the mapped
+   * regions are released when garbage collected, the strings added afterward
+   * are stored in direct buffers.
+   */
+  public synchronized void close() {
+    closeFile();
+  }
+
+  protected void closeFile() {
+    if (randomAccessFile == null) {
+      return;
+    }
+    CommonUtil.closeQuietly(randomAccessFile);
+    randomAccessFile = null;
+    if (!file.delete()) {
+      LOG.log(Level.INFO, "Failed to delete the file of the string pool, it will be deleted on exit: {0}", file.getAbsolutePath());
+    }
+    file = null;
+  }
+}
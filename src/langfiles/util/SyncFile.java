@@ -7,17 +7,19 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JFrame;
 import javax.swing.SwingUtilities;
-import net.contentobjects.jnotify.JNotify;
-import net.contentobjects.jnotify.JNotifyAdapter;
-import net.contentobjects.jnotify.JNotifyException;
 
 /**
  * @author Chan Wai Shing <cws1989@gmail.com>
@@ -25,135 +27,320 @@ import net.contentobjects.jnotify.JNotifyException;
 public class SyncFile implements Comparable<Object> {
 
     protected static final String fileSeperator = System.getProperty("file.separator");
+    protected static final char fileSeperatorChar = File.separatorChar;
     /**
      * The parent SyncFile of this SyncFile.
      */
-    private SyncFile parent;
+    private volatile SyncFile parent;
     /**
-     * Information about the {@link java.io.File} of this SyncFile.
+     * The absolute path of the root SyncFile, null for the others. The path of the others is derived from the names
+     * in the snapshots up the parent chain on demand, so no {@link java.io.File} nor path string is kept per node.
      */
-    protected File file;
-    protected boolean fileIsDirectory;
-    protected String fileAbsolutePath;
-    protected String fileName;
-    protected long fileLastModified;
+    protected volatile String rootPath;
     /**
-     * The watch id of this file. If this is a file instead a directory, it will listen to the directory that contain the file.
+     * The immutable metadata of this SyncFile and everything inside it. Replaced with snapshotLock held, read without
+     * any lock.
      */
-    protected int watchId;
+    protected volatile SyncFileSnapshot snapshot;
+    /**
+     * Lock for replacing the snapshots, shared by all trees. No other lock should be acquired while holding it.
+     */
+    protected static final Object snapshotLock = new Object();
+    /**
+     * The watch added by {@link #addWatch()}, null if not added.
+     */
+    protected Watch watch;
     //
-    protected List<File> childFileList;
-    protected List<SyncFile> childSyncFileList;
+    /**
+     * The names of the listed child files, and the child SyncFiles keyed by file name in listing order. Both are null
+     * until the first child, most nodes are files.
+     */
+    protected Set<String> childFileNameSet;
     protected Map<String, SyncFile> childSyncFileMap;
     /**
-     * Conditions that determine whether the child file has a SyncFile or not.
+     * The kind of the listed child files that have no SyncFile, {@link #EXCLUDED_DIRECTORY} and
+     * {@link #EXCLUDED_HIDDEN}, so they can be filtered again without reading the disk. Null if none, the files not
+     * in it are read from the disk when needed.
+     */
+    protected Map<String, Byte> excludedChildMap;
+    protected static final byte EXCLUDED_DIRECTORY = 1;
+    protected static final byte EXCLUDED_HIDDEN = 2;
+    /**
+     * Conditions that determine whether the child file has a SyncFile or not, shared by the whole tree.
+     */
+    protected volatile SyncFileFilter filter;
+    /**
+     * The rules of the ignore files in this directory, read when the directory is listed. Null if not listed yet.
+     */
+    protected volatile SyncFileFilter.IgnoreRules ignoreRules;
+    /**
+     * The canonical name of the charset. For a file, it is the detected charset, cleared when the file is modified.
+     * For a directory, it is the charset last detected among its files, used as the prior when detecting the others.
+     * Null if not detected yet.
+     */
+    protected volatile String charset;
+    /**
+     * Whether the file is binary, {@link #CONTENT_TEXT} or {@link #CONTENT_BINARY}, sampled by
+     * {@link BinaryFileDetector} once and cleared when the file is modified. {@link #CONTENT_UNKNOWN} if not sampled
+     * yet.
+     */
+    protected volatile byte contentType;
+    protected static final byte CONTENT_UNKNOWN = 0;
+    protected static final byte CONTENT_TEXT = 1;
+    protected static final byte CONTENT_BINARY = 2;
+    /**
+     * The {@link XXHash64} of the content when last read by {@link #getFileContent()}, cleared when the file is
+     * modified. A modification that does not change it is not forwarded. 0 if unknown.
      */
-    protected List<String> allowedFileExtensionList;
-    protected List<String> disallowedFileExtensionList;
-    protected List<String> ignoreFileList;
+    protected volatile long contentHash;
     /**
-     * User defined objects.
+     * The number of modifications not forwarded because the content was not changed.
      */
-    protected final Map<String, Object> userObjectList;
+    protected static final AtomicLong suppressedModifyCount = new AtomicLong();
     /**
-     * User defined objects. This will be inherited when creating child.
+     * User defined objects, stored as key, value, key, value... Null if none. Replaced with syncFileLock held, read
+     * without any lock.
      */
-    protected final Map<String, Object> inheritUserObjectList;
+    protected volatile Object[] userObjects;
     /**
-     * SyncFileListener list.
+     * User defined objects that are inherited by the SyncFiles inside, resolved up the parent chain when read.
      */
-    protected final List<SyncFileListener> listenerList;
+    protected volatile Object[] inheritUserObjects;
+    /**
+     * SyncFileListener list, null until the first listener is added.
+     */
+    protected volatile List<SyncFileListener> listenerList;
     /**
      * Mutex lock.
      */
     protected final Object syncFileLock = new Object();
     //
-    private boolean debugMode = false;
+    private static boolean debugMode = false;
 
     public SyncFile(SyncFile parent, File file) throws IOException {
-        this(parent, file, new ArrayList<String>(), new ArrayList<String>(), new ArrayList<String>(), true);
+        this(parent, file, parent != null ? parent.filter : SyncFileFilter.DEFAULT, true);
     }
 
-    protected SyncFile(SyncFile parent, File file, List<String> allowedFileExtensionList, List<String> disallowedFileExtensionList, List<String> ignoreFileList, boolean checkAndCreateChildren) throws IOException {
+    /**
+     * Create the SyncFile and the SyncFiles inside, the filter is applied while scanning so the filtered directories
+     * are never listed.
+     * @param parent the parent SyncFile, null if it is a root
+     * @param file the file/directory
+     * @param filter the filter of the tree
+     * @throws IOException the file not exist
+     */
+    public SyncFile(SyncFile parent, File file, SyncFileFilter filter) throws IOException {
+        this(parent, file, filter, true);
+    }
+
+    protected SyncFile(SyncFile parent, File file, SyncFileFilter filter, boolean checkAndCreateChildren) throws IOException {
+        this(parent, readEntry(file), filter, checkAndCreateChildren);
+    }
+
+    /**
+     * @param entry the entry read by {@link DirectoryWalker}, its attributes will be used directly
+     */
+    protected SyncFile(SyncFile parent, DirectoryWalker.Entry entry, SyncFileFilter filter, boolean checkAndCreateChildren) throws IOException {
         this.parent = parent;
+        this.filter = filter;
 
-        watchId = -1;
+        setFile(entry, false);
+        if (checkAndCreateChildren) {
+            new SyncFileScanner().scan(this);
+        }
+    }
 
-        childFileList = new ArrayList<File>();
-        childSyncFileList = new ArrayList<SyncFile>();
-        childSyncFileMap = new HashMap<String, SyncFile>();
+    /**
+     * @throws IOException the file not exist
+     */
+    protected static DirectoryWalker.Entry readEntry(File file) throws IOException {
+        DirectoryWalker.Entry entry = DirectoryWalker.readEntry(file);
+        if (entry == null) {
+            throw new IOException("file not exist: " + file.getAbsolutePath());
+        }
+        return entry;
+    }
 
-        this.allowedFileExtensionList = allowedFileExtensionList;
-        this.disallowedFileExtensionList = disallowedFileExtensionList;
-        this.ignoreFileList = ignoreFileList;
+    protected void setFile(File file) throws IOException {
+        setFile(readEntry(file));
+    }
 
-        userObjectList = Collections.synchronizedMap(new HashMap<String, Object>());
-        inheritUserObjectList = Collections.synchronizedMap(new HashMap<String, Object>());
-        listenerList = Collections.synchronizedList(new ArrayList<SyncFileListener>());
+    protected void setFile(DirectoryWalker.Entry entry) {
+        setFile(entry, true);
+    }
 
-        setFile(file);
-        if (checkAndCreateChildren) {
-            updateChildFileList();
-            updateChildSyncFileList(true);
+    /**
+     * @param publish true to publish the new snapshot up to the root, false if the caller will rebuild the snapshot
+     * of the parent later
+     */
+    protected void setFile(DirectoryWalker.Entry entry, boolean publish) {
+        synchronized (syncFileLock) {
+            if (parent == null) {
+                rootPath = entry.getFile().getAbsolutePath();
+            }
+
+            synchronized (snapshotLock) {
+                SyncFileSnapshot _snapshot = snapshot;
+                if (_snapshot != null && !entry.isDirectory() && (entry.getLastModified() != _snapshot.getLastModified() || entry.getSize() != _snapshot.getSize())) {
+                    charset = null;
+                    contentType = CONTENT_UNKNOWN;
+                    contentHash = 0;
+                }
+                snapshot = _snapshot == null ? SyncFileSnapshot.create(entry) : _snapshot.withAttributes(entry.getName(), entry.isDirectory(), entry.getLastModified(), entry.getSize());
+                if (publish) {
+                    publishSnapshot();
+                }
+            }
         }
     }
 
-    protected void setFile(File file) throws IOException {
-        if (!file.exists()) {
-            throw new IOException();
+    /**
+     * Get the metadata of this SyncFile and everything inside it. The snapshot is immutable, so it is a consistent
+     * view even when the tree is changing.
+     * @return the snapshot
+     */
+    public SyncFileSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Get the snapshots of several trees, taken at the same moment.
+     * @param syncFileList the SyncFiles
+     * @return the snapshots, in the same order
+     */
+    public static List<SyncFileSnapshot> getSnapshots(List<SyncFile> syncFileList) {
+        List<SyncFileSnapshot> snapshotList = new ArrayList<SyncFileSnapshot>(syncFileList.size());
+        synchronized (snapshotLock) {
+            for (SyncFile syncFile : syncFileList) {
+                snapshotList.add(syncFile.snapshot);
+            }
         }
+        return snapshotList;
+    }
+
+    /**
+     * Copy the snapshot of this SyncFile into the snapshot of the parent, and so on up to the root. Stop at the
+     * parent that does not have this SyncFile yet, which will put the snapshot in when attaching this SyncFile.
+     */
+    protected void publishSnapshot() {
+        synchronized (snapshotLock) {
+            SyncFile child = this;
+            for (SyncFile _parent = parent; _parent != null; child = _parent, _parent = _parent.parent) {
+                SyncFileSnapshot childSnapshot = child.snapshot;
+                SyncFileSnapshot parentSnapshot = _parent.snapshot;
+                if (parentSnapshot.getChild(childSnapshot.getName()) == null) {
+                    return;
+                }
+                _parent.snapshot = parentSnapshot.withChild(childSnapshot);
+            }
+        }
+    }
+
+    /**
+     * Rebuild the children of the snapshot from the snapshots of the child SyncFiles, used after many children
+     * changed at once.
+     * @param publish true to publish the new snapshot up to the root
+     */
+    protected void rebuildSnapshot(boolean publish) {
         synchronized (syncFileLock) {
-            this.file = file;
-            fileIsDirectory = file.isDirectory();
-            fileAbsolutePath = file.getAbsolutePath();
-            fileName = file.getName();
-            fileLastModified = file.lastModified();
+            synchronized (snapshotLock) {
+                SyncFile[] _childSyncFileList = getChildSyncFileArray();
+                SyncFileSnapshot[] childSnapshots = new SyncFileSnapshot[_childSyncFileList.length];
+                for (int i = 0; i < _childSyncFileList.length; i++) {
+                    childSnapshots[i] = _childSyncFileList[i].snapshot;
+                }
+                snapshot = snapshot.withChildren(childSnapshots);
+                if (publish) {
+                    publishSnapshot();
+                }
+            }
         }
     }
 
-    protected void updateChildFileList() {
+    /**
+     * @return the entries listed, with their attributes
+     */
+    protected List<DirectoryWalker.Entry> updateChildFileList() {
         if (!isDirectory()) {
-            return;
+            return new ArrayList<DirectoryWalker.Entry>();
         }
         synchronized (syncFileLock) {
-            childFileList.clear();
+            List<DirectoryWalker.Entry> entryList = DirectoryWalker.list(getFile());
+
+            excludedChildMap = null;
+            if (entryList.isEmpty()) {
+                childFileNameSet = null;
+            } else {
+                childFileNameSet = new HashSet<String>(entryList.size() * 4 / 3 + 1);
+                for (DirectoryWalker.Entry entry : entryList) {
+                    childFileNameSet.add(entry.getName());
+                }
+            }
+            readIgnoreRules();
+
+            return entryList;
+        }
+    }
 
-            File[] _files = file.listFiles();
-            if (_files != null) {
-                childFileList.addAll(Arrays.asList(_files));
+    /**
+     * List the directory and create the SyncFile of the children that fufil the filter, without creating their
+     * children. The new children are attached to this SyncFile in one step. Used by {@link SyncFileScanner}, this
+     * SyncFile should not have any child SyncFile yet.
+     * @return the list of newly created child SyncFile
+     */
+    protected List<SyncFile> scanChildSyncFileList() {
+        List<SyncFile> newChildSyncFileList = new ArrayList<SyncFile>();
+        if (!isDirectory()) {
+            return newChildSyncFileList;
+        }
+
+        List<DirectoryWalker.Entry> entryList = updateChildFileList();
+        List<DirectoryWalker.Entry> excludedEntryList = new ArrayList<DirectoryWalker.Entry>();
+        for (DirectoryWalker.Entry entry : entryList) {
+            if (entry.isHidden() || !isFileFufilFilter(entry.getName(), entry.isDirectory())) {
+                excludedEntryList.add(entry);
+                continue;
+            }
+            try {
+                newChildSyncFileList.add(new SyncFile(this, entry, filter, false));
+            } catch (IOException ex) {
+                Logger.getLogger(SyncFile.class.getName()).log(Level.INFO, null, ex);
+            }
+        }
+
+        synchronized (syncFileLock) {
+            for (SyncFile newSyncFile : newChildSyncFileList) {
+                putChildSyncFile(newSyncFile);
+            }
+            for (DirectoryWalker.Entry entry : excludedEntryList) {
+                putExcludedChild(entry.getName(), entry.isDirectory(), entry.isHidden());
             }
         }
+
+        return newChildSyncFileList;
     }
 
     /**
-     * childFileList is assumed to be updated
+     * childFileNameSet is assumed to be updated. The child SyncFiles are matched with the child files by name, so this
+     * run in linear time.
      */
     protected void updateChildSyncFileList(boolean updateChild) {
         if (!isDirectory()) {
             return;
         }
         synchronized (syncFileLock) {
-            List<File> _childFileList = new ArrayList<File>(childFileList);
-            SyncFile[] _childSyncFileList = childSyncFileList.toArray(new SyncFile[childSyncFileList.size()]);
+            Set<String> _childFileNameSet = new HashSet<String>(getChildFileNameList());
+            SyncFile[] _childSyncFileList = getChildSyncFileArray();
 
             for (SyncFile _childSyncFile : _childSyncFileList) {
-                // remove _childSyncFile's File from _childFileList
-                boolean syncFileExistInChildFileList = false;
-                Iterator<File> iterator2 = _childFileList.iterator();
-                while (iterator2.hasNext()) {
-                    File _file = iterator2.next();
-                    if (_file.getAbsolutePath().equals(_childSyncFile.getAbsolutePath())) {
-                        syncFileExistInChildFileList = true;
-                        iterator2.remove();
-                        break;
-                    }
-                }
+                // remove _childSyncFile's name from _childFileNameSet
+                boolean syncFileExistInChildFileList = _childFileNameSet.remove(_childSyncFile.getFileName());
 
-                if (!syncFileExistInChildFileList || !isFileFufilFilter(_childSyncFile.getFile())) {
-                    // SyncFile not exist in _childFileList or not fufil filter
+                if (!syncFileExistInChildFileList || !isFileFufilFilter(_childSyncFile.getFileName(), _childSyncFile.isDirectory())) {
+                    // SyncFile not exist in _childFileNameSet or not fufil filter
                     _childSyncFile.fireDeleteEvent(_childSyncFile.getAbsolutePath(), "", true, true);
                 } else {
-                    // SyncFile exist in _childFileList
+                    // SyncFile exist in _childFileNameSet
                     // if it is a directory, validate its child SyncFile list
                     if (_childSyncFile.isDirectory() && updateChild) {
                         _childSyncFile.updateChildSyncFileList(updateChild);
@@ -161,78 +348,300 @@ public class SyncFile implements Comparable<Object> {
                 }
             }
 
-            // check the remaining File in _childFileList that do not have a SyncFile coresponding to it yet
-            for (File _file : _childFileList) {
-                if (_file.isHidden()) {
+            // check the remaining files in _childFileNameSet that do not have a SyncFile coresponding to it yet
+            File directory = getFile();
+            for (String _fileName : _childFileNameSet) {
+                int flags = getExcludedChildFlags(directory, _fileName);
+                if ((flags & EXCLUDED_HIDDEN) != 0) {
                     continue;
                 }
                 // if File fufil the filter, add it to SyncFile list
-                if (isFileFufilFilter(_file)) {
-                    fireCreateEvent(_file.getAbsolutePath(), "", true);
+                if (isFileFufilFilter(_fileName, (flags & EXCLUDED_DIRECTORY) != 0)) {
+                    fireCreateEvent(directory.getAbsolutePath() + fileSeperator + _fileName, "", true);
                 }
             }
         }
     }
 
+    /**
+     * Attach the children restored from a saved snapshot, used by {@link SyncFileSnapshotStore}. This SyncFile
+     * should not have any child yet.
+     * @param restoredChildFileNameList the names of all listed child files
+     * @param restoredChildSyncFileList the child SyncFiles
+     * @param restoredExcludedChildMap the kind of the child files without SyncFile, see {@link #excludedChildMap}
+     */
+    protected void restoreChildren(List<String> restoredChildFileNameList, List<SyncFile> restoredChildSyncFileList,
+            Map<String, Byte> restoredExcludedChildMap) {
+        synchronized (syncFileLock) {
+            if (!restoredChildFileNameList.isEmpty()) {
+                childFileNameSet = new HashSet<String>(restoredChildFileNameList);
+            }
+            readIgnoreRules();
+            for (SyncFile _childSyncFile : restoredChildSyncFileList) {
+                putChildSyncFile(_childSyncFile);
+            }
+            if (!restoredExcludedChildMap.isEmpty()) {
+                excludedChildMap = new HashMap<String, Byte>(restoredExcludedChildMap);
+            }
+            rebuildSnapshot(false);
+        }
+    }
+
     /**
      * Rename a file that do not have a SyncFile relate to it.
-     * update childFileList
+     * update childFileNameSet
      */
     protected void renameFile(File oldFile, File newFile) {
         synchronized (syncFileLock) {
-            String oldFileAbsolutePath = oldFile.getAbsolutePath();
-
-            ListIterator<File> iterator = childFileList.listIterator();
-            while (iterator.hasNext()) {
-                File _file = iterator.next();
-                if (_file.getAbsolutePath().equals(oldFileAbsolutePath)) {
-                    iterator.set(newFile);
-                    break;
-                }
+            if (removeChildFileName(oldFile.getName())) {
+                addChildFileName(newFile.getName());
             }
         }
     }
 
     /**
      * Rename a file that have a SyncFile related to it.
-     * update childFileList, childSyncFileList, childSyncFileMap
+     * update childFileNameSet, childSyncFileMap
      */
     protected void renameFile(File oldFile, File newFile, SyncFile child) {
         synchronized (syncFileLock) {
-            String oldFileAbsPath = oldFile.getAbsolutePath();
+            renameFile(oldFile, newFile);
 
-            ListIterator<File> iterator = childFileList.listIterator();
-            while (iterator.hasNext()) {
-                File _file = iterator.next();
-                if (_file.getAbsolutePath().equals(oldFileAbsPath)) {
-                    iterator.set(newFile);
-                    break;
-                }
-            }
+            removeChildSyncFile(oldFile.getName());
+            putChildSyncFile(child);
 
-            childSyncFileMap.remove(oldFile.getName());
-            childSyncFileMap.put(newFile.getName(), child);
+            synchronized (snapshotLock) {
+                snapshot = snapshot.withoutChild(oldFile.getName()).withChild(child.snapshot);
+                publishSnapshot();
+            }
         }
     }
 
     /**
-     * update childFileList, childSyncFileList, childSyncFileMap
+     * update childFileNameSet, childSyncFileMap
      */
     protected void removeFile(final SyncFile child, boolean deleteSyncFileOnly) {
         synchronized (syncFileLock) {
+            String childFileName = child.getFileName();
             if (!deleteSyncFileOnly) {
-                Iterator<File> iterator = childFileList.iterator();
-                while (iterator.hasNext()) {
-                    File _file = iterator.next();
-                    if (_file.getAbsolutePath().equals(child.getAbsolutePath())) {
-                        iterator.remove();
+                removeChildFileName(childFileName);
+            }
+            if (getChildSyncFile(childFileName) == child) {
+                removeChildSyncFile(childFileName);
+                if (deleteSyncFileOnly) {
+                    putExcludedChild(childFileName, child.isDirectory(), false);
+                }
+
+                synchronized (snapshotLock) {
+                    snapshot = snapshot.withoutChild(childFileName);
+                    publishSnapshot();
+                }
+            }
+        }
+    }
+
+    /**
+     * Resync the directories touched by an event storm. The directories are resolved to the deepest SyncFile
+     * directories that still exist and the ones inside another are dropped, then each one is diffed against the
+     * disk. No event is fired, the changes are collected into the returned batch.
+     * @param rootPath the root path reported by the watcher
+     * @param directoryNames the directories relative to the root path, "" means the root itself
+     * @return the changes found
+     */
+    protected SyncFileChangeBatch resync(String rootPath, Set<String> directoryNames) {
+        SyncFileChangeBatch batch = new SyncFileChangeBatch();
+
+        synchronized (syncFileLock) {
+            if (!isDirectory()) {
+                // the watch is on the directory that contain this file
+                resyncSyncFile(batch, true);
+                checkContents(batch);
+                return batch;
+            }
+
+            Set<SyncFile> directorySet = Collections.newSetFromMap(new IdentityHashMap<SyncFile, Boolean>());
+            for (String directoryName : directoryNames) {
+                int end = directoryName.length();
+                SyncFile directory = findSyncFile(rootPath, directoryName, end);
+                while ((directory == null || !directory.isDirectory()) && end > 0) {
+                    end = Math.max(lastSeparatorIndex(directoryName, end), 0);
+                    directory = findSyncFile(rootPath, directoryName, end);
+                }
+                if (directory != null && directory.isDirectory()) {
+                    directorySet.add(directory);
+                }
+            }
+
+            for (SyncFile directory : directorySet) {
+                boolean covered = false;
+                for (SyncFile ancestor = directory.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+                    if (directorySet.contains(ancestor)) {
+                        covered = true;
                         break;
                     }
                 }
+                if (!covered) {
+                    directory.resyncSyncFile(batch, true);
+                    directory.publishSnapshot();
+                }
             }
-            childSyncFileList.remove(child);
-            childSyncFileMap.remove(child.getFileName());
         }
+        checkContents(batch);
+
+        return batch;
+    }
+
+    /**
+     * Check the tree against the disk, used after the tree is restored from a saved snapshot. Only the directories
+     * whose last-modified time changed are listed again, the files in the others only have their attributes checked.
+     * No event is fired, the changes are collected into the returned batch.
+     * @return the changes found
+     */
+    public SyncFileChangeBatch verify() {
+        SyncFileChangeBatch batch = new SyncFileChangeBatch();
+        synchronized (syncFileLock) {
+            resyncSyncFile(batch, false);
+            publishSnapshot();
+        }
+        checkContents(batch);
+        return batch;
+    }
+
+    /**
+     * Diff the child SyncFiles with the directory listing recursively, changes are added to the batch without
+     * firing any event.
+     * @param relistAll true to list every directory inside, false to list only the directories whose last-modified
+     * time changed
+     */
+    protected void resyncChildren(SyncFileChangeBatch batch, boolean relistAll) {
+        synchronized (syncFileLock) {
+            Map<String, DirectoryWalker.Entry> entryMap = new LinkedHashMap<String, DirectoryWalker.Entry>();
+            for (DirectoryWalker.Entry entry : updateChildFileList()) {
+                entryMap.put(entry.getName(), entry);
+            }
+
+            SyncFile[] _childSyncFileList = getChildSyncFileArray();
+            for (SyncFile _childSyncFile : _childSyncFileList) {
+                DirectoryWalker.Entry entry = entryMap.remove(_childSyncFile.getFileName());
+                if (entry != null && !entry.isHidden() && entry.isDirectory() == _childSyncFile.isDirectory()
+                        && isFileFufilFilter(entry.getName(), entry.isDirectory())) {
+                    _childSyncFile.resyncSyncFile(entry, batch, relistAll);
+                    continue;
+                }
+
+                // the snapshot is rebuilt below
+                removeChildSyncFile(_childSyncFile.getFileName());
+                _childSyncFile.addDeletedSyncFiles(batch);
+                if (entry != null) {
+                    // file replaced by directory or vice versa, create it again below
+                    entryMap.put(entry.getName(), entry);
+                }
+            }
+
+            for (DirectoryWalker.Entry entry : entryMap.values()) {
+                if (entry.isHidden() || !isFileFufilFilter(entry.getName(), entry.isDirectory())) {
+                    putExcludedChild(entry.getName(), entry.isDirectory(), entry.isHidden());
+                    continue;
+                }
+                try {
+                    SyncFile newSyncFile = new SyncFile(this, entry, filter, true);
+                    putChildSyncFile(newSyncFile);
+                    batch.addCreatedFile(newSyncFile);
+                } catch (IOException ex) {
+                    Logger.getLogger(SyncFile.class.getName()).log(Level.INFO, null, ex);
+                }
+            }
+
+            rebuildSnapshot(false);
+        }
+    }
+
+    /**
+     * Check the attributes of the child SyncFiles without listing this directory, recursively. If any child is
+     * missing, the directory changed within the precision of its last-modified time, it is listed instead.
+     */
+    protected void verifyChildren(SyncFileChangeBatch batch) {
+        synchronized (syncFileLock) {
+            SyncFile[] _childSyncFileList = getChildSyncFileArray();
+            DirectoryWalker.Entry[] entries = new DirectoryWalker.Entry[_childSyncFileList.length];
+            for (int i = 0; i < _childSyncFileList.length; i++) {
+                try {
+                    entries[i] = DirectoryWalker.readEntry(_childSyncFileList[i].getFile());
+                } catch (IOException ex) {
+                    Logger.getLogger(SyncFile.class.getName()).log(Level.INFO, null, ex);
+                }
+                if (entries[i] == null || entries[i].isDirectory() != _childSyncFileList[i].isDirectory()) {
+                    resyncChildren(batch, false);
+                    return;
+                }
+            }
+
+            for (int i = 0; i < _childSyncFileList.length; i++) {
+                _childSyncFileList[i].resyncSyncFile(entries[i], batch, false);
+            }
+
+            rebuildSnapshot(false);
+        }
+    }
+
+    /**
+     * Resync this SyncFile itself, then its children if it is a directory.
+     * @param relistAll true to list every directory inside, false to list only the directories whose last-modified
+     * time changed
+     */
+    protected void resyncSyncFile(SyncFileChangeBatch batch, boolean relistAll) {
+        DirectoryWalker.Entry entry = null;
+        try {
+            entry = DirectoryWalker.readEntry(getFile());
+        } catch (IOException ex) {
+            Logger.getLogger(SyncFile.class.getName()).log(Level.INFO, null, ex);
+        }
+        if (entry == null || entry.isDirectory() != isDirectory()) {
+            SyncFile _parent = getParent();
+            if (_parent != null) {
+                _parent.removeFile(this, false);
+            }
+            addDeletedSyncFiles(batch);
+            return;
+        }
+        resyncSyncFile(entry, batch, relistAll);
+    }
+
+    /**
+     * @param entry the entry just read from the disk
+     */
+    protected void resyncSyncFile(DirectoryWalker.Entry entry, SyncFileChangeBatch batch, boolean relistAll) {
+        boolean lastModifiedChanged = entry.getLastModified() != getLastModified();
+        if (lastModifiedChanged || entry.getSize() != getSize()) {
+            ContentCheck contentCheck = newContentCheck(entry);
+            if (contentCheck != null) {
+                // the content is hashed after the lock of the tree is released
+                batch.addContentCheck(contentCheck);
+            } else {
+                setFile(entry, false);
+                batch.addModifiedFile(this);
+            }
+        }
+        if (isDirectory()) {
+            if (relistAll || lastModifiedChanged) {
+                resyncChildren(batch, relistAll);
+            } else {
+                verifyChildren(batch);
+            }
+        }
+    }
+
+    /**
+     * Add this SyncFile and all SyncFiles inside it to the deleted list of the batch, children first, the same
+     * order as {@link #fireDeleteEvent(java.lang.String, java.lang.String, boolean, boolean)}.
+     */
+    protected void addDeletedSyncFiles(SyncFileChangeBatch batch) {
+        if (isDirectory()) {
+            for (SyncFile _syncFile : getChildSyncFileList()) {
+                _syncFile.addDeletedSyncFiles(batch);
+            }
+        }
+        batch.addDeletedFile(this);
     }
 
     public void refresh() {
@@ -243,8 +652,7 @@ public class SyncFile implements Comparable<Object> {
             updateChildFileList();
             updateChildSyncFileList(false);
 
-            SyncFile[] _childSyncFileList = childSyncFileList.toArray(new SyncFile[childSyncFileList.size()]);
-            for (SyncFile _syncFile : _childSyncFileList) {
+            for (SyncFile _syncFile : getChildSyncFileArray()) {
                 _syncFile.refresh();
             }
         }
@@ -254,27 +662,104 @@ public class SyncFile implements Comparable<Object> {
      * @param path should remove the first part and the first file separator
      */
     public SyncFile findSyncFile(String path) {
-        if (path.isEmpty()) {
-            return this;
+        return findSyncFile(path, 0, path.length());
+    }
+
+    /**
+     * Walk down the tree along the relative path segment by segment. The child maps are probed with a reusable
+     * {@link PathSegment}, so no substring is created for the segments.
+     * @param path the string that contain the relative path
+     * @param start the start index of the relative path, inclusive
+     * @param end the end index of the relative path, exclusive
+     * @return the SyncFile, null if not found
+     */
+    public SyncFile findSyncFile(String path, int start, int end) {
+        PathSegment segment = new PathSegment();
+        SyncFile target = this;
+
+        int segmentStart = start;
+        while (segmentStart < end) {
+            int segmentEnd = segmentStart;
+            while (segmentEnd < end && !PathSegment.isSeparator(path.charAt(segmentEnd))) {
+                segmentEnd++;
+            }
+            if (segmentEnd != segmentStart) {
+                target = target.getChildSyncFile(segment.set(path, segmentStart, segmentEnd));
+                if (target == null) {
+                    return null;
+                }
+            }
+            segmentStart = segmentEnd + 1;
         }
 
-        int pos = path.indexOf(fileSeperator);
-        String _fileName = pos != -1 ? path.substring(0, pos) : path;
+        return target;
+    }
 
-        SyncFile target = childSyncFileMap.get(_fileName);
-        if (target == null) {
+    /**
+     * Find the SyncFile by absolute path.
+     * @param absolutePath the absolute path
+     * @return the SyncFile, null if the path is not within this SyncFile
+     */
+    public SyncFile findSyncFileByAbsolutePath(String absolutePath) {
+        String _absolutePath = getAbsolutePath();
+        int length = _absolutePath.length();
+        if (!absolutePath.startsWith(_absolutePath)) {
             return null;
         }
+        if (absolutePath.length() == length) {
+            return this;
+        }
+        if (!PathSegment.isSeparator(absolutePath.charAt(length)) && !PathSegment.isSeparator(absolutePath.charAt(length - 1))) {
+            // e.g. /dir/abc and /dir/ab
+            return null;
+        }
+        return findSyncFile(absolutePath, length, absolutePath.length());
+    }
+
+    /**
+     * Find the SyncFile of a watch event.
+     * @param rootPath the root path reported by the watcher
+     * @param name the name reported by the watcher, relative to the root path
+     * @param nameEnd the end index of the part of name to use
+     * @return the SyncFile, null if not found
+     */
+    protected SyncFile findSyncFile(String rootPath, String name, int nameEnd) {
+        if (!isDirectory()) {
+            // the watch is on the directory that contain this file
+            return name.length() == nameEnd && name.equals(getFileName()) ? this : null;
+        }
+        if (rootPath.equals(getAbsolutePath())) {
+            return findSyncFile(name, 0, nameEnd);
+        }
+        return findSyncFileByAbsolutePath(new File(rootPath + fileSeperator + name.substring(0, nameEnd)).getAbsolutePath());
+    }
 
-        return pos == -1 ? target : target.findSyncFile(path.substring(pos + 1));
+    /**
+     * @return the index of the last file separator in the path, -1 if not found
+     */
+    protected static int lastSeparatorIndex(String path) {
+        return lastSeparatorIndex(path, path.length());
+    }
+
+    /**
+     * @param end the end index of the part of path to search, exclusive
+     * @return the index of the last file separator before end, -1 if not found
+     */
+    protected static int lastSeparatorIndex(String path, int end) {
+        for (int i = end - 1; i >= 0; i--) {
+            if (PathSegment.isSeparator(path.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
     }
 
-    public void addWatch() throws JNotifyException {
+    public void addWatch() throws IOException {
         synchronized (syncFileLock) {
             removeWatch();
 
-            String watchPath = isDirectory() ? getAbsolutePath() : CommonUtil.getFileDirectory(file);
-            watchId = JNotify.addWatch(watchPath, JNotify.FILE_ANY, true, new JNotifyAdapter() {
+            String watchPath = isDirectory() ? getAbsolutePath() : CommonUtil.getFileDirectory(getFile());
+            SyncFileEventCoalescer eventCoalescer = new SyncFileEventCoalescer(new FileWatcherAdapter() {
 
                 @Override
                 public void fileCreated(int watchId, String rootPath, String name) {
@@ -293,23 +778,14 @@ public class SyncFile implements Comparable<Object> {
                     }
 
                     synchronized (syncFileLock) {
-                        for (File _file : childFileList) {
-                            if (_file.getAbsolutePath().equals(file.getAbsolutePath())) {
-                                return;
-                            }
-                        }
-
-                        String replacePath = file.getParentFile().getAbsolutePath().replace(getAbsolutePath(), "");
-                        if (!replacePath.isEmpty()) {
-                            replacePath = replacePath.substring(1);
-                        }
-
-                        SyncFile parentOfnewSyncFile = findSyncFile(replacePath);
-                        if (parentOfnewSyncFile == null) {
+                        int pos = lastSeparatorIndex(name);
+                        SyncFile parentOfnewSyncFile = findSyncFile(rootPath, name, pos != -1 ? pos : 0);
+                        if (parentOfnewSyncFile == null || !parentOfnewSyncFile.addChildFileName(file.getName())) {
                             return;
                         }
-                        parentOfnewSyncFile.childFileList.add(file);
-                        if (!file.isHidden()) {
+                        if (SyncFileFilter.isIgnoreFileName(file.getName())) {
+                            parentOfnewSyncFile.ignoreFileChanged();
+                        } else if (!file.isHidden()) {
                             parentOfnewSyncFile.fireCreateEvent(rootPath, name, false);
                         }
                     }
@@ -325,10 +801,11 @@ public class SyncFile implements Comparable<Object> {
                         System.out.println("d: " + rootPath + "/" + name);
                     }
 
-                    File file = new File(rootPath + "/" + name);
-
                     synchronized (syncFileLock) {
-                        SyncFile fileDeleted = findSyncFile(file.getAbsolutePath().replace(getAbsolutePath(), "").substring(1));
+                        if (ignoreFileChanged(rootPath, name)) {
+                            return;
+                        }
+                        SyncFile fileDeleted = findSyncFile(rootPath, name, name.length());
                         if (fileDeleted == null) {
                             return;
                         }
@@ -352,13 +829,18 @@ public class SyncFile implements Comparable<Object> {
                         return;
                     }
 
+                    SyncFile fileModified;
                     synchronized (syncFileLock) {
-                        SyncFile fileModified = findSyncFile(file.getAbsolutePath().replace(getAbsolutePath(), "").substring(1));
-                        if (fileModified == null) {
+                        if (ignoreFileChanged(rootPath, name)) {
                             return;
                         }
-                        fileModified.fireModifyEvent(rootPath, name);
+                        fileModified = findSyncFile(rootPath, name, name.length());
                     }
+                    if (fileModified == null) {
+                        return;
+                    }
+                    // without the lock of the tree, the file may be read to compare the content
+                    fileModified.fireModifyEvent(rootPath, name);
 
                     if (debugMode) {
                         System.out.println(SyncFile.this);
@@ -379,19 +861,20 @@ public class SyncFile implements Comparable<Object> {
                     }
 
                     synchronized (syncFileLock) {
-                        String oldFileRelativePath = oldFile.getAbsolutePath().replace(getAbsolutePath(), "").substring(1);
-
-                        SyncFile fileRenamed = findSyncFile(oldFileRelativePath);
+                        SyncFile fileRenamed = findSyncFile(rootPath, oldName, oldName.length());
                         if (fileRenamed != null) {
                             fileRenamed.fireRenameEvent(rootPath, oldName, newName);
                         }
 
-                        int pos = oldFileRelativePath.lastIndexOf(fileSeperator);
-                        String parentPath = pos != -1 ? oldFileRelativePath.substring(0, pos) : "";
-                        SyncFile fileRenamedParent = findSyncFile(parentPath);
+                        int pos = lastSeparatorIndex(oldName);
+                        SyncFile fileRenamedParent = isDirectory() ? findSyncFile(rootPath, oldName, pos != -1 ? pos : 0) : null;
                         if (fileRenamedParent != null) {
                             fileRenamedParent.renameFile(oldFile, newFile);
-                            fileRenamedParent.updateChildSyncFileList(false);
+                            if (SyncFileFilter.isIgnoreFileName(oldFile.getName()) || SyncFileFilter.isIgnoreFileName(newFile.getName())) {
+                                fileRenamedParent.ignoreFileChanged();
+                            } else {
+                                fileRenamedParent.updateChildSyncFileList(false);
+                            }
                         }
                     }
 
@@ -399,184 +882,851 @@ public class SyncFile implements Comparable<Object> {
                         System.out.println(SyncFile.this);
                     }
                 }
-            });
-        }
-    }
+            }, SyncFileEventCoalescer.getDefaultWindow(), new SyncFileEventCoalescer.StormListener() {
+
+                @Override
+                public void stormEnded(String rootPath, Set<String> directoryNames) {
+                    fireChangeBatchEvent(resync(rootPath, directoryNames));
+                }
+            }, SyncFileEventCoalescer.getDefaultStormThreshold());
+            FileWatcher fileWatcher = FileWatcherFactory.getDefault();
+            int watchId;
+            try {
+                // the watcher should not keep this tree reachable, this SyncFile keeps the coalescer through the watch
+                watchId = fileWatcher.addWatch(watchPath, FileWatcher.FILE_ANY, true, new WeakFileWatcherListener(eventCoalescer));
+            } catch (IOException ex) {
+                eventCoalescer.close();
+                throw ex;
+            }
+            watch = new Watch(fileWatcher, watchId, eventCoalescer, ResourceCleaner.getDefault().register(this,
+                    WeakFileWatcherListener.newRemoveWatchAction(fileWatcher, watchId, watchPath)));
+        }
+    }
+
+    public void removeWatch() throws IOException {
+        synchronized (syncFileLock) {
+            Watch _watch = watch;
+            if (_watch != null) {
+                watch = null;
+                _watch.eventCoalescer.close();
+                _watch.cleanable.unregister();
+                _watch.fileWatcher.removeWatch(_watch.watchId);
+            }
+        }
+    }
+
+    /**
+     * Get the event coalescing stage of the watch, for its counters.
+     * @return the coalescer, null if no watch is added on this SyncFile
+     */
+    public SyncFileEventCoalescer getEventCoalescer() {
+        synchronized (syncFileLock) {
+            return watch != null ? watch.eventCoalescer : null;
+        }
+    }
+
+    /**
+     * Tell the watch of the tree whether this directory is shown to the user,
+     * a visible directory is kept on a live watch by {@link WatchBudgetManager}.
+     * @param visible true if visible, false if not
+     */
+    public void setWatchVisible(boolean visible) {
+        if (!isDirectory()) {
+            return;
+        }
+        SyncFile root = this;
+        while (root.parent != null) {
+            root = root.parent;
+        }
+        FileWatcher _fileWatcher;
+        synchronized (root.syncFileLock) {
+            _fileWatcher = root.watch != null ? root.watch.fileWatcher : null;
+        }
+        if (_fileWatcher instanceof WatchBudgetManager) {
+            ((WatchBudgetManager) _fileWatcher).setVisible(getAbsolutePath(), visible);
+        }
+    }
+
+    /**
+     * Read the content by {@link FileContentReader}, the lock is not held while reading nor hashing. The charset
+     * detected before is used if the file is not modified since, otherwise it is detected with the charset of the
+     * sibling files as the prior. The charset and the content hash are kept only if the file read has the attributes
+     * of this SyncFile, the attributes are updated by the modify event only, so the event is not taken as a rewrite
+     * of the same content.
+     */
+    public FileContent getFileContent() throws IOException {
+        if (isDirectory()) {
+            return null;
+        }
+        String _charset = charset;
+        long lastModified = getLastModified();
+        long size = getSize();
+        FileContent fileContent = FileContentReader.getDefault().read(getFile(), _charset, getPriorCharset());
+        if (_charset != null && (fileContent.getLastModified() != lastModified || fileContent.getSize() != size)) {
+            // modified since the charset was detected
+            fileContent = FileContentReader.getDefault().read(getFile(), null, getPriorCharset());
+        }
+        if (fileContent.getLastModified() != lastModified || fileContent.getSize() != size) {
+            return fileContent;
+        }
+        // the file may be mapped and large, hashed before taking the lock
+        long _contentHash = contentHash != 0 ? 0 : fileContent.getContentHash();
+        synchronized (syncFileLock) {
+            if (lastModified == getLastModified() && size == getSize()) {
+                setDetectedCharset(fileContent.getCharset().name());
+                if (_contentHash != 0 && contentHash == 0) {
+                    contentHash = _contentHash;
+                }
+            }
+        }
+        return fileContent;
+    }
+
+    /**
+     * Get the charset of the file, detected from the beginning of the file by {@link CharsetDetector} on first use
+     * and cached until the file is modified.
+     * @return the canonical name of the charset, for a directory, the charset last detected among its files or null
+     * @throws IOException error occurred when reading the file
+     */
+    public String getCharset() throws IOException {
+        String _charset = charset;
+        if (_charset != null || isDirectory()) {
+            return _charset;
+        }
+        long lastModified = getLastModified();
+        long size = getSize();
+        _charset = CharsetDetector.getDefault().detect(getFile(), getPriorCharset()).getCharsetName();
+        synchronized (syncFileLock) {
+            // the file may be modified while detecting, do not cache it then
+            if (lastModified == getLastModified() && size == getSize()) {
+                setDetectedCharset(_charset);
+            }
+        }
+        return _charset;
+    }
+
+    /**
+     * Check if the file is binary, e.g. images, archives and compiled artifacts. The first block of the file is
+     * sampled by {@link BinaryFileDetector} on first use, usually when scanned, and the result is kept until the file
+     * is modified.
+     * @return true if binary, false if text, a directory or failed to read
+     */
+    public boolean isBinary() {
+        byte _contentType = contentType;
+        if (_contentType != CONTENT_UNKNOWN || isDirectory()) {
+            return _contentType == CONTENT_BINARY;
+        }
+        long lastModified = getLastModified();
+        long size = getSize();
+        try {
+            _contentType = size == 0 || !BinaryFileDetector.getDefault().isBinary(getFile()) ? CONTENT_TEXT : CONTENT_BINARY;
+        } catch (IOException ex) {
+            // deleted or not readable, the watcher will tell
+            return false;
+        }
+        synchronized (syncFileLock) {
+            // the file may be modified while sampling, do not keep it then
+            if (lastModified == getLastModified() && size == getSize()) {
+                contentType = _contentType;
+            }
+        }
+        return _contentType == CONTENT_BINARY;
+    }
+
+    /**
+     * The charset last detected among the sibling files.
+     */
+    protected String getPriorCharset() {
+        SyncFile _parent = parent;
+        return _parent != null ? _parent.charset : null;
+    }
+
+    protected void setDetectedCharset(String charset) {
+        this.charset = charset;
+        SyncFile _parent = parent;
+        if (_parent != null) {
+            _parent.charset = charset;
+        }
+    }
+
+    /**
+     * Get the listed child files, the {@link java.io.File}s are created on every call.
+     */
+    public List<File> getChildFileList() {
+        List<String> childFileNameList = getChildFileNameList();
+        List<File> childFileList = new ArrayList<File>(childFileNameList.size());
+        File directory = getFile();
+        for (String childFileName : childFileNameList) {
+            childFileList.add(new File(directory, childFileName));
+        }
+        return childFileList;
+    }
+
+    public List<String> getChildFileNameList() {
+        synchronized (syncFileLock) {
+            return childFileNameSet != null ? new ArrayList<String>(childFileNameSet) : new ArrayList<String>(0);
+        }
+    }
+
+    public List<SyncFile> getChildSyncFileList() {
+        return new ArrayList<SyncFile>(Arrays.asList(getChildSyncFileArray()));
+    }
+
+    protected SyncFile[] getChildSyncFileArray() {
+        synchronized (syncFileLock) {
+            return childSyncFileMap != null ? childSyncFileMap.values().toArray(new SyncFile[childSyncFileMap.size()]) : new SyncFile[0];
+        }
+    }
+
+    /**
+     * @param name the file name, or a {@link PathSegment} of it
+     * @return the child SyncFile, null if not found
+     */
+    protected SyncFile getChildSyncFile(Object name) {
+        Map<String, SyncFile> _childSyncFileMap = childSyncFileMap;
+        return _childSyncFileMap != null ? _childSyncFileMap.get(name) : null;
+    }
+
+    /**
+     * Should be called with syncFileLock held.
+     */
+    protected void putChildSyncFile(SyncFile child) {
+        if (childSyncFileMap == null) {
+            childSyncFileMap = new LinkedHashMap<String, SyncFile>(4);
+        }
+        childSyncFileMap.put(child.getFileName(), child);
+        removeExcludedChild(child.getFileName());
+    }
+
+    /**
+     * Should be called with syncFileLock held.
+     */
+    protected SyncFile removeChildSyncFile(String name) {
+        if (childSyncFileMap == null) {
+            return null;
+        }
+        SyncFile child = childSyncFileMap.remove(name);
+        if (childSyncFileMap.isEmpty()) {
+            childSyncFileMap = null;
+        }
+        return child;
+    }
+
+    /**
+     * Should be called with syncFileLock held.
+     */
+    protected void putExcludedChild(String name, boolean isDirectory, boolean isHidden) {
+        if (excludedChildMap == null) {
+            excludedChildMap = new HashMap<String, Byte>(4);
+        }
+        excludedChildMap.put(name, (byte) ((isDirectory ? EXCLUDED_DIRECTORY : 0) | (isHidden ? EXCLUDED_HIDDEN : 0)));
+    }
+
+    /**
+     * Should be called with syncFileLock held.
+     */
+    protected void removeExcludedChild(String name) {
+        if (excludedChildMap != null && excludedChildMap.remove(name) != null && excludedChildMap.isEmpty()) {
+            excludedChildMap = null;
+        }
+    }
+
+    /**
+     * Get the kind of the child file without SyncFile, read from the disk and kept if not known yet. Should be
+     * called with syncFileLock held.
+     * @param directory the file of this directory
+     * @return {@link #EXCLUDED_DIRECTORY} and {@link #EXCLUDED_HIDDEN}
+     */
+    protected int getExcludedChildFlags(File directory, String name) {
+        Byte flags = excludedChildMap != null ? excludedChildMap.get(name) : null;
+        if (flags == null) {
+            File file = new File(directory, name);
+            putExcludedChild(name, file.isDirectory(), file.isHidden());
+            flags = excludedChildMap.get(name);
+        }
+        return flags;
+    }
+
+    /**
+     * Get the kind of the child file without SyncFile, used by {@link SyncFileSnapshotStore}.
+     * @return {@link #EXCLUDED_DIRECTORY} and {@link #EXCLUDED_HIDDEN}, -1 if not known
+     */
+    protected int getExcludedChildFlags(String name) {
+        synchronized (syncFileLock) {
+            Byte flags = excludedChildMap != null ? excludedChildMap.get(name) : null;
+            return flags != null ? flags : -1;
+        }
+    }
+
+    /**
+     * Should be called with syncFileLock held.
+     * @return true if added, false if already exist
+     */
+    protected boolean addChildFileName(String name) {
+        if (childFileNameSet == null) {
+            childFileNameSet = new HashSet<String>(4);
+        }
+        return childFileNameSet.add(name);
+    }
+
+    /**
+     * Should be called with syncFileLock held.
+     * @return true if removed, false if not exist
+     */
+    protected boolean removeChildFileName(String name) {
+        if (childFileNameSet == null || !childFileNameSet.remove(name)) {
+            return false;
+        }
+        removeExcludedChild(name);
+        if (childFileNameSet.isEmpty()) {
+            childFileNameSet = null;
+        }
+        return true;
+    }
+
+    public SyncFileFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Set the filter of the whole tree, should be called on the root.
+     * <p>
+     * The tree is filtered again from the listing kept in memory, only the files that may be affected by the
+     * difference between the old and the new filter are checked, and only the files that become accepted are read
+     * from the disk. All the changes are delivered in one
+     * {@link SyncFileListener#filesChanged(langfiles.util.SyncFileChangeBatch)}.
+     * </p>
+     * @param validate true to remove the SyncFiles that no longer fufil the filter and create those that fufil now
+     */
+    public void setFilter(SyncFileFilter filter, boolean validate) {
+        if (filter == null) {
+            throw new NullPointerException("argument 'filter' cannot be null");
+        }
+        SyncFileChangeBatch batch = new SyncFileChangeBatch();
+        synchronized (syncFileLock) {
+            SyncFileFilter oldFilter = this.filter;
+            assignFilter(filter);
+            if (validate) {
+                refilter(filter.diff(oldFilter), batch);
+            }
+        }
+        fireChangeBatchEvent(batch);
+    }
+
+    protected void refilter(SyncFileFilter.Change change, SyncFileChangeBatch batch) {
+        if (!isDirectory() || (!change.mayReject() && !change.mayAccept())) {
+            return;
+        }
+        synchronized (syncFileLock) {
+            if (!change.isIgnoredPathsOnly()) {
+                if (refilterChildren(change, batch)) {
+                    publishSnapshot();
+                }
+                return;
+            }
+
+            // only the files of the paths added or removed
+            List<String> pathList = new ArrayList<String>(change.getAddedIgnoredPaths());
+            pathList.addAll(change.getRemovedIgnoredPaths());
+            for (String path : pathList) {
+                File file = new File(path);
+                String parentPath = file.getParent();
+                SyncFile directory = parentPath != null ? findSyncFileByAbsolutePath(parentPath) : null;
+                if (directory != null && directory.isDirectory() && directory.refilterChild(file.getName(), batch)) {
+                    directory.rebuildSnapshot(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Filter the children again recursively, see {@link #setFilter(langfiles.util.SyncFileFilter, boolean)}.
+     * @return true if anything inside changed, then the snapshot of this directory is rebuilt but not published
+     */
+    protected boolean refilterChildren(SyncFileFilter.Change change, SyncFileChangeBatch batch) {
+        synchronized (syncFileLock) {
+            boolean changed = false;
+            boolean checkDirectory = change.isDirectoryAffected();
+
+            for (SyncFile _childSyncFile : getChildSyncFileArray()) {
+                boolean isDirectory = _childSyncFile.isDirectory();
+                if (change.mayReject() && (checkDirectory || !isDirectory)
+                        && !isFileFufilFilter(_childSyncFile.getFileName(), isDirectory)) {
+                    rejectChild(_childSyncFile, batch);
+                    changed = true;
+                } else if (isDirectory && _childSyncFile.refilterChildren(change, batch)) {
+                    changed = true;
+                }
+            }
+
+            if (change.mayAccept() && childFileNameSet != null && childFileNameSet.size() > (childSyncFileMap != null ? childSyncFileMap.size() : 0)) {
+                File directory = getFile();
+                for (String _fileName : getChildFileNameList()) {
+                    if (getChildSyncFile(_fileName) != null) {
+                        continue;
+                    }
+                    int flags = getExcludedChildFlags(directory, _fileName);
+                    boolean isDirectory = (flags & EXCLUDED_DIRECTORY) != 0;
+                    if ((flags & EXCLUDED_HIDDEN) == 0 && (checkDirectory || !isDirectory)
+                            && isFileFufilFilter(_fileName, isDirectory) && acceptChild(directory, _fileName, batch)) {
+                        changed = true;
+                    }
+                }
+            }
 
-    public void removeWatch() throws JNotifyException {
-        synchronized (syncFileLock) {
-            if (watchId != -1) {
-                JNotify.removeWatch(watchId);
-                watchId = -1;
+            if (changed) {
+                rebuildSnapshot(false);
             }
+            return changed;
         }
     }
 
     /**
-     * @todo detect charset, do not use UTF-8
+     * Filter one child again.
+     * @return true if changed, the snapshot is not rebuilt
      */
-    public FileContent getFileContent() throws IOException {
-        if (isDirectory()) {
-            return null;
-        }
+    protected boolean refilterChild(String name, SyncFileChangeBatch batch) {
         synchronized (syncFileLock) {
-            FileContent returnObject = null;
-            while (true) {
-                fileLastModified = file.lastModified();
-                String _content = new String(CommonUtil.readFile(getFile()), "UTF-8");
-                long _fileLastModified = file.lastModified();
-                if (fileLastModified == _fileLastModified) {
-                    returnObject = new FileContent(fileLastModified, _content);
-                    break;
+            SyncFile _childSyncFile = getChildSyncFile(name);
+            if (_childSyncFile != null) {
+                if (isFileFufilFilter(name, _childSyncFile.isDirectory())) {
+                    return false;
                 }
+                rejectChild(_childSyncFile, batch);
+                return true;
+            }
+            if (childFileNameSet == null || !childFileNameSet.contains(name)) {
+                return false;
             }
-            return returnObject;
+            File directory = getFile();
+            int flags = getExcludedChildFlags(directory, name);
+            return (flags & EXCLUDED_HIDDEN) == 0 && isFileFufilFilter(name, (flags & EXCLUDED_DIRECTORY) != 0)
+                    && acceptChild(directory, name, batch);
         }
     }
 
-    public List<File> getChildFileList() {
-        return new ArrayList<File>(childFileList);
+    /**
+     * Should be called with syncFileLock held, the snapshot is not rebuilt.
+     */
+    protected void rejectChild(SyncFile child, SyncFileChangeBatch batch) {
+        removeChildSyncFile(child.getFileName());
+        putExcludedChild(child.getFileName(), child.isDirectory(), false);
+        child.addDeletedSyncFiles(batch);
     }
 
-    public List<SyncFile> getChildSyncFileList() {
-        return new ArrayList<SyncFile>(childSyncFileList);
+    /**
+     * Create the SyncFile of the child file and the files inside, should be called with syncFileLock held, the
+     * snapshot is not rebuilt.
+     * @return true if created, false if the file is gone
+     */
+    protected boolean acceptChild(File directory, String name, SyncFileChangeBatch batch) {
+        try {
+            DirectoryWalker.Entry entry = DirectoryWalker.readEntry(new File(directory, name));
+            if (entry == null) {
+                return false;
+            }
+            SyncFile newSyncFile = new SyncFile(this, entry, filter, true);
+            putChildSyncFile(newSyncFile);
+            batch.addCreatedFile(newSyncFile);
+            return true;
+        } catch (IOException ex) {
+            Logger.getLogger(SyncFile.class.getName()).log(Level.INFO, null, ex);
+            return false;
+        }
+    }
+
+    protected void assignFilter(SyncFileFilter filter) {
+        this.filter = filter;
+        for (SyncFile _syncFile : getChildSyncFileArray()) {
+            _syncFile.assignFilter(filter);
+        }
     }
 
     public void setAllowedFileExtensionList(List<String> allowedFileExtensionList, boolean validate) {
         synchronized (syncFileLock) {
-            this.allowedFileExtensionList.clear();
-            this.allowedFileExtensionList.addAll(allowedFileExtensionList);
-            if (validate) {
-                updateChildSyncFileList(true);
-            }
+            setFilter(filter.withAllowedExtensions(allowedFileExtensionList), validate);
         }
     }
 
     public void setDisallowedFileExtensionList(List<String> disallowedFileExtensionList, boolean validate) {
         synchronized (syncFileLock) {
-            this.disallowedFileExtensionList.clear();
-            this.disallowedFileExtensionList.addAll(disallowedFileExtensionList);
-            if (validate) {
-                updateChildSyncFileList(true);
-            }
+            setFilter(filter.withDisallowedExtensions(disallowedFileExtensionList), validate);
         }
     }
 
     public void setIgnoreFileList(List<String> ignoreFileList, boolean validate) {
         synchronized (syncFileLock) {
-            this.ignoreFileList.clear();
-            this.ignoreFileList.addAll(ignoreFileList);
-            if (validate) {
-                updateChildSyncFileList(true);
-            }
+            setFilter(filter.withIgnoredPaths(ignoreFileList), validate);
         }
     }
 
-    protected boolean isFileFufilFilter(File file) {
+    /**
+     * @param ignorePatternList the patterns in .gitignore syntax, relative to the root
+     */
+    public void setIgnorePatternList(List<String> ignorePatternList, boolean validate) {
         synchronized (syncFileLock) {
-            if (ignoreFileList.indexOf(file.getAbsolutePath()) != -1) {
+            setFilter(filter.withIgnorePatterns(ignorePatternList), validate);
+        }
+    }
+
+    /**
+     * Check the child file of this directory against the filter, including the ignore files of this directory and
+     * the directories above.
+     * @param name the file name of the child
+     */
+    protected boolean isFileFufilFilter(String name, boolean isDirectory) {
+        SyncFileFilter _filter = filter;
+        if (!_filter.acceptExtension(name, isDirectory)) {
+            return false;
+        }
+        if (_filter.mayBeIgnoredPath(name)) {
+            StringBuilder sb = new StringBuilder();
+            appendAbsolutePath(sb);
+            if (_filter.isIgnoredPath(sb.append(File.separatorChar).append(name).toString())) {
                 return false;
             }
-            if (file.isDirectory()) {
-            } else {
-                String _fileName = file.getName();
-                if (!allowedFileExtensionList.isEmpty() && allowedFileExtensionList.indexOf(CommonUtil.getFileExtension(_fileName)) == -1) {
-                    return false;
-                }
-                if (!disallowedFileExtensionList.isEmpty() && disallowedFileExtensionList.indexOf(CommonUtil.getFileExtension(_fileName)) != -1) {
-                    return false;
+        }
+
+        // the nearest ignore file decide, the ignore patterns of the filter apply last
+        SyncFile directory = this;
+        while (true) {
+            SyncFileFilter.IgnoreRules rules = directory.getIgnoreRules();
+            if (!rules.isEmpty()) {
+                int result = rules.match(getRelativePath(directory, name), name, isDirectory);
+                if (result != SyncFileFilter.IgnoreRules.NOT_MATCHED) {
+                    return result == SyncFileFilter.IgnoreRules.INCLUDED;
                 }
             }
-            return true;
+            SyncFile _parent = directory.parent;
+            if (_parent == null) {
+                break;
+            }
+            directory = _parent;
+        }
+        SyncFileFilter.IgnoreRules rules = _filter.getIgnorePatternRules();
+        return rules.isEmpty() || rules.match(getRelativePath(directory, name), name, isDirectory) != SyncFileFilter.IgnoreRules.IGNORED;
+    }
+
+    /**
+     * Get the path of the child file relative to the directory, separated by '/'. Only built when the directory has
+     * any ignore rule, most do not.
+     * @param directory this SyncFile or one of its parents
+     * @param name the file name of the child
+     */
+    protected String getRelativePath(SyncFile directory, String name) {
+        if (directory == this) {
+            return name;
+        }
+        StringBuilder sb = new StringBuilder(name);
+        for (SyncFile _syncFile = this; _syncFile != directory; _syncFile = _syncFile.parent) {
+            sb.insert(0, '/').insert(0, _syncFile.getFileName());
+        }
+        return sb.toString();
+    }
+
+    protected SyncFileFilter.IgnoreRules getIgnoreRules() {
+        SyncFileFilter.IgnoreRules _ignoreRules = ignoreRules;
+        return _ignoreRules != null ? _ignoreRules : SyncFileFilter.IgnoreRules.NONE;
+    }
+
+    /**
+     * Should be called with syncFileLock held, after childFileNameSet is updated. The files are read only if the
+     * directory has any ignore file, so the lock of the parents is never needed when filtering.
+     */
+    protected void readIgnoreRules() {
+        ignoreRules = SyncFileFilter.IgnoreRules.read(getFile(),
+                childFileNameSet != null ? childFileNameSet : Collections.<String>emptySet());
+    }
+
+    /**
+     * If the file of the watch event is an ignore file, filter the SyncFiles in its directory again. Ignore files
+     * are hidden and have no SyncFile, so this is checked before looking up the SyncFile of the event.
+     * @return true if it is an ignore file
+     */
+    protected boolean ignoreFileChanged(String rootPath, String name) {
+        int pos = lastSeparatorIndex(name);
+        if (!SyncFileFilter.isIgnoreFileName(pos != -1 ? name.substring(pos + 1) : name)) {
+            return false;
+        }
+        if (isDirectory()) {
+            SyncFile directory = findSyncFile(rootPath, name, pos != -1 ? pos : 0);
+            if (directory != null) {
+                directory.ignoreFileChanged();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * An ignore file in this directory is created, modified or deleted, filter the SyncFiles inside again.
+     */
+    protected void ignoreFileChanged() {
+        synchronized (syncFileLock) {
+            updateChildFileList();
+            updateChildSyncFileList(true);
         }
     }
 
     protected void setParent(SyncFile parent) {
         synchronized (syncFileLock) {
+            rootPath = parent == null ? getAbsolutePath() : null;
             this.parent = parent;
         }
     }
 
     public SyncFile getParent() {
-        synchronized (syncFileLock) {
-            return parent;
-        }
+        return parent;
     }
 
+    /**
+     * Get the file, created on every call.
+     */
     public File getFile() {
-        synchronized (syncFileLock) {
-            return file;
-        }
+        return new File(getAbsolutePath());
     }
 
     public boolean isDirectory() {
-        synchronized (syncFileLock) {
-            return fileIsDirectory;
-        }
+        return snapshot.isDirectory();
     }
 
+    /**
+     * Get the absolute path, built from the names up the parent chain on every call. Use
+     * {@link #compareTo(java.lang.Object)} and {@link #equals(java.lang.Object)} to compare paths, they do not build
+     * it.
+     */
     public String getAbsolutePath() {
-        synchronized (syncFileLock) {
-            return fileAbsolutePath;
+        SyncFile _parent = parent;
+        if (_parent == null) {
+            return rootPath;
+        }
+        // sized for the path so the builder does not grow
+        int length = 0;
+        SyncFile _syncFile = this;
+        for (SyncFile __parent = _parent; __parent != null; __parent = __parent.parent) {
+            length += _syncFile.snapshot.getName().length() + 1;
+            _syncFile = __parent;
         }
+        return appendAbsolutePath(new StringBuilder(length + _syncFile.rootPath.length())).toString();
     }
 
-    public String getFileName() {
-        synchronized (syncFileLock) {
-            return fileName;
+    /**
+     * Get the number of parents up to the root.
+     */
+    protected int getDepth() {
+        int depth = 0;
+        for (SyncFile _parent = parent; _parent != null; _parent = _parent.parent) {
+            depth++;
         }
+        return depth;
     }
 
-    public long getLastModified() {
-        synchronized (syncFileLock) {
-            return fileLastModified;
+    /**
+     * Compare the absolute paths as {@link String#compareTo(java.lang.String)} does, by walking up the parent chains
+     * to the first different names, without building the paths.
+     * @return negative, zero or positive if the path of this is less than, equal to or greater than the other one
+     */
+    protected int comparePath(SyncFile syncFile) {
+        if (syncFile == this) {
+            return 0;
+        }
+        int depth = getDepth();
+        int otherDepth = syncFile.getDepth();
+        SyncFile node = this;
+        SyncFile otherNode = syncFile;
+        for (int i = depth; i > otherDepth; i--) {
+            node = node.parent;
+        }
+        for (int i = otherDepth; i > depth; i--) {
+            otherNode = otherNode.parent;
+        }
+        if (node == otherNode) {
+            // one is inside the other, the path of the outer one is a prefix
+            return depth - otherDepth;
+        }
+        SyncFile _parent = node.parent;
+        SyncFile otherParent = otherNode.parent;
+        while (_parent != otherParent) {
+            node = _parent;
+            otherNode = otherParent;
+            _parent = node.parent;
+            otherParent = otherNode.parent;
+        }
+        if (_parent == null) {
+            // different trees
+            return getAbsolutePath().compareTo(syncFile.getAbsolutePath());
+        }
+
+        String name = node.snapshot.getName();
+        String otherName = otherNode.snapshot.getName();
+        int length = Math.min(name.length(), otherName.length());
+        for (int i = 0; i < length; i++) {
+            int diff = name.charAt(i) - otherName.charAt(i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        // the path goes on with the separator after the name, or ends
+        int c = name.length() > length ? name.charAt(length) : node != this ? fileSeperatorChar : -1;
+        int otherC = otherName.length() > length ? otherName.charAt(length) : otherNode != syncFile ? fileSeperatorChar : -1;
+        return c - otherC;
+    }
+
+    protected StringBuilder appendAbsolutePath(StringBuilder sb) {
+        SyncFile _parent = parent;
+        if (_parent == null) {
+            return sb.append(rootPath);
+        }
+        _parent.appendAbsolutePath(sb);
+        if (sb.length() == 0 || sb.charAt(sb.length() - 1) != fileSeperatorChar) {
+            sb.append(fileSeperatorChar);
         }
+        return sb.append(snapshot.getName());
+    }
+
+    public String getFileName() {
+        return snapshot.getName();
+    }
+
+    public long getLastModified() {
+        return snapshot.getLastModified();
     }
 
+    public long getSize() {
+        return snapshot.getSize();
+    }
+
+    /**
+     * Add a listener, the events are delivered asynchronously by {@link SyncFileEventBus}.
+     */
     public void addListener(SyncFileListener listener) {
-        synchronized (listenerList) {
+        synchronized (syncFileLock) {
+            if (listenerList == null) {
+                listenerList = new CopyOnWriteArrayList<SyncFileListener>();
+            }
             listenerList.add(listener);
         }
     }
 
     public void removeListener(SyncFileListener listener) {
-        synchronized (listenerList) {
-            listenerList.remove(listener);
+        List<SyncFileListener> _listenerList = listenerList;
+        if (_listenerList != null) {
+            _listenerList.remove(listener);
         }
     }
 
+    protected List<SyncFileListener> getListeners() {
+        List<SyncFileListener> _listenerList = listenerList;
+        return _listenerList != null ? _listenerList : Collections.<SyncFileListener>emptyList();
+    }
+
+    /**
+     * Set the object on this SyncFile, the SyncFiles inside get it from this one unless they set their own later.
+     * The object set on the SyncFiles inside before is removed.
+     */
     public void setInheritUserObject(String key, Object object) {
-        inheritUserObjectList.put(key, object);
         synchronized (syncFileLock) {
-            for (SyncFile syncFile : childSyncFileList) {
-                syncFile.setInheritUserObject(key, object);
+            inheritUserObjects = putObject(inheritUserObjects, key, object);
+            for (SyncFile syncFile : getChildSyncFileArray()) {
+                syncFile.removeInheritUserObject(key);
             }
         }
     }
 
+    /**
+     * Get the object set on this SyncFile or the nearest parent.
+     */
     public Object getInheritUserObject(String key) {
-        return inheritUserObjectList.get(key);
+        for (SyncFile syncFile = this; syncFile != null; syncFile = syncFile.parent) {
+            Object[] objects = syncFile.inheritUserObjects;
+            int index = indexOfKey(objects, key);
+            if (index != -1) {
+                return objects[index + 1];
+            }
+        }
+        return null;
     }
 
+    /**
+     * Remove the object set on this SyncFile and the SyncFiles inside.
+     */
     public void removeInheritUserObject(String key) {
-        inheritUserObjectList.remove(key);
         synchronized (syncFileLock) {
-            for (SyncFile syncFile : childSyncFileList) {
+            if (inheritUserObjects != null) {
+                inheritUserObjects = removeObject(inheritUserObjects, key);
+            }
+            for (SyncFile syncFile : getChildSyncFileArray()) {
                 syncFile.removeInheritUserObject(key);
             }
         }
     }
 
     public void setUserObject(String key, Object object) {
-        userObjectList.put(key, object);
+        synchronized (syncFileLock) {
+            userObjects = putObject(userObjects, key, object);
+        }
     }
 
     public Object getUserObject(String key) {
-        return userObjectList.get(key);
+        Object[] objects = userObjects;
+        int index = indexOfKey(objects, key);
+        return index != -1 ? objects[index + 1] : null;
     }
 
     public void removeUserObject(String key) {
-        userObjectList.remove(key);
+        synchronized (syncFileLock) {
+            if (userObjects != null) {
+                userObjects = removeObject(userObjects, key);
+            }
+        }
+    }
+
+    /**
+     * @param objects key, value, key, value..., can be null
+     * @return the index of the key, -1 if not found
+     */
+    protected static int indexOfKey(Object[] objects, String key) {
+        if (objects != null) {
+            for (int i = 0; i < objects.length; i += 2) {
+                if (objects[i].equals(key)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return a new array with the key set to the object
+     */
+    protected static Object[] putObject(Object[] objects, String key, Object object) {
+        int index = indexOfKey(objects, key);
+        Object[] newObjects;
+        if (index != -1) {
+            newObjects = objects.clone();
+        } else {
+            index = objects != null ? objects.length : 0;
+            newObjects = objects != null ? Arrays.copyOf(objects, index + 2) : new Object[2];
+            newObjects[index] = key;
+        }
+        newObjects[index + 1] = object;
+        return newObjects;
+    }
+
+    /**
+     * @return a new array without the key, null if empty
+     */
+    protected static Object[] removeObject(Object[] objects, String key) {
+        int index = indexOfKey(objects, key);
+        if (index == -1) {
+            return objects;
+        }
+        if (objects.length == 2) {
+            return null;
+        }
+        Object[] newObjects = new Object[objects.length - 2];
+        System.arraycopy(objects, 0, newObjects, 0, index);
+        System.arraycopy(objects, index + 2, newObjects, index, objects.length - index - 2);
+        return newObjects;
     }
 
     /**
@@ -593,7 +1743,13 @@ public class SyncFile implements Comparable<Object> {
         }
 
         File newFile = new File(rootPath + "/" + name);
-        if (!newFile.exists()) {
+        DirectoryWalker.Entry newEntry = null;
+        try {
+            newEntry = DirectoryWalker.readEntry(newFile);
+        } catch (IOException ex) {
+            Logger.getLogger(SyncFile.class.getName()).log(Level.INFO, null, ex);
+        }
+        if (newEntry == null) {
             // should not reach here
             System.out.println("SyncFile:fireCreateEvent(): file not exist: " + newFile.getAbsolutePath());
             return null;
@@ -601,28 +1757,25 @@ public class SyncFile implements Comparable<Object> {
 
         SyncFile newSyncFile = null;
         synchronized (syncFileLock) {
-            if (isFileFufilFilter(newFile)) {
+            if (isFileFufilFilter(newEntry.getName(), newEntry.isDirectory())) {
                 try {
-                    newSyncFile = new SyncFile(this, newFile, allowedFileExtensionList, disallowedFileExtensionList, ignoreFileList, checkAndCreateChildren);
-                    synchronized (inheritUserObjectList) {
-                        for (String _key : inheritUserObjectList.keySet()) {
-                            Object _object = inheritUserObjectList.get(_key);
-                            newSyncFile.setInheritUserObject(_key, _object);
-                        }
-                    }
-                    childSyncFileList.add(newSyncFile);
-                    childSyncFileMap.put(newSyncFile.getFileName(), newSyncFile);
-                    synchronized (listenerList) {
-                        for (SyncFileListener listener : listenerList) {
-                            listener.fileCreated(this, newSyncFile, rootPath, name);
-                        }
+                    newSyncFile = new SyncFile(this, newEntry, filter, checkAndCreateChildren);
+                    putChildSyncFile(newSyncFile);
+                    synchronized (snapshotLock) {
+                        snapshot = snapshot.withChild(newSyncFile.snapshot);
+                        publishSnapshot();
                     }
                 } catch (IOException ex) {
                     Logger.getLogger(SyncFile.class.getName()).log(Level.INFO, null, ex);
                 }
+            } else {
+                putExcludedChild(newEntry.getName(), newEntry.isDirectory(), newEntry.isHidden());
             }
         }
 
+        if (newSyncFile != null) {
+            SyncFileEventBus.getDefault().fireCreated(getListeners(), this, newSyncFile, rootPath, name);
+        }
         return newSyncFile;
     }
 
@@ -642,16 +1795,14 @@ public class SyncFile implements Comparable<Object> {
         }
 
         if (isDirectory()) {
-            for (SyncFile _syncFile : childSyncFileList) {
+            for (SyncFile _syncFile : getChildSyncFileList()) {
                 _syncFile.fireDeleteEvent(rootPath, name, false, false);
             }
         }
 
-        synchronized (listenerList) {
-            for (SyncFileListener listener : listenerList) {
-                listener.fileDeleted(this, rootPath, name);
-            }
-        }
+        SyncFileEventBus.getDefault().fireDeleted(getListeners(), this, rootPath, name);
+        // the listeners are taken by the bus already
+        release();
     }
 
     /**
@@ -662,14 +1813,114 @@ public class SyncFile implements Comparable<Object> {
             System.out.println("fm: " + rootPath + (name.isEmpty() ? "" : "/") + name + " " + isDirectory());
         }
 
-        synchronized (syncFileLock) {
-            fileLastModified = new File(rootPath + "/" + name).lastModified();
-            synchronized (listenerList) {
-                for (SyncFileListener listener : listenerList) {
-                    listener.fileModified(this, rootPath, name);
+        DirectoryWalker.Entry entry = null;
+        try {
+            entry = DirectoryWalker.readEntry(new File(rootPath + "/" + name));
+        } catch (IOException ex) {
+            Logger.getLogger(SyncFile.class.getName()).log(Level.INFO, null, ex);
+        }
+        if (entry != null) {
+            ContentCheck contentCheck;
+            synchronized (syncFileLock) {
+                contentCheck = newContentCheck(entry);
+                if (contentCheck == null) {
+                    setFile(entry);
                 }
             }
+            // rewritten with the same content, e.g. by a formatter, or changed by a resync meanwhile that reported it
+            if (contentCheck != null && !applyContentCheck(contentCheck, isContentUnchanged(contentCheck), true)) {
+                return;
+            }
+        }
+        SyncFileEventBus.getDefault().fireModified(getListeners(), this, rootPath, name);
+    }
+
+    /**
+     * Take the content hash to compare the file with, should be called with syncFileLock held. Only the files read
+     * by {@link #getFileContent()} and not resized are compared, the others are considered changed.
+     * @param entry the entry just read from the disk
+     * @return the check, null if the file is considered changed
+     */
+    protected ContentCheck newContentCheck(DirectoryWalker.Entry entry) {
+        long _contentHash = contentHash;
+        if (_contentHash == 0 || entry.isDirectory() || entry.getSize() != getSize()) {
+            return null;
+        }
+        return new ContentCheck(this, entry, getLastModified(), getSize(), _contentHash);
+    }
+
+    /**
+     * Check if the content is the same as when last read, by comparing the {@link XXHash64} of the file. The file is
+     * read and hashed without any lock.
+     */
+    protected static boolean isContentUnchanged(ContentCheck contentCheck) {
+        DirectoryWalker.Entry entry = contentCheck.entry;
+        try {
+            FileContent fileContent = FileContentReader.getDefault().read(entry.getFile(), contentCheck.syncFile.charset, null);
+            return fileContent.getLastModified() == entry.getLastModified() && fileContent.getSize() == entry.getSize()
+                    && fileContent.getContentHash() == contentCheck.contentHash;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Apply the result of the content check, if the attributes and the content hash of this SyncFile are still those
+     * the check was taken with.
+     * @param unchanged true if the content is the same as when last read
+     * @param publish true to publish the new snapshot up to the root
+     * @return true if the file is changed and the listeners should be notified, false if the content is the same or
+     * this SyncFile is changed since the check was taken
+     */
+    protected boolean applyContentCheck(ContentCheck contentCheck, boolean unchanged, boolean publish) {
+        synchronized (syncFileLock) {
+            if (getLastModified() != contentCheck.lastModified || getSize() != contentCheck.size || contentHash != contentCheck.contentHash) {
+                return false;
+            }
+            if (unchanged) {
+                setFileContentUnchanged(contentCheck.entry, publish);
+                return false;
+            }
+            setFile(contentCheck.entry, publish);
+            return true;
+        }
+    }
+
+    /**
+     * Compare the content of the files collected in the batch by the resync, called after the lock of the tree is
+     * released. The files changed are added to the batch as modified.
+     */
+    protected static void checkContents(SyncFileChangeBatch batch) {
+        for (ContentCheck contentCheck : batch.takeContentChecks()) {
+            if (contentCheck.syncFile.applyContentCheck(contentCheck, isContentUnchanged(contentCheck), true)) {
+                batch.addModifiedFile(contentCheck.syncFile);
+            }
+        }
+    }
+
+    /**
+     * Update the attributes only, the charset, content type and content hash are kept.
+     */
+    protected void setFileContentUnchanged(DirectoryWalker.Entry entry, boolean publish) {
+        synchronized (syncFileLock) {
+            String _charset = charset;
+            byte _contentType = contentType;
+            long _contentHash = contentHash;
+            setFile(entry, publish);
+            charset = _charset;
+            contentType = _contentType;
+            contentHash = _contentHash;
         }
+        suppressedModifyCount.incrementAndGet();
+    }
+
+    /**
+     * Get the number of modifications not forwarded to the listeners because the content was not changed, of all
+     * trees.
+     * @return the count
+     */
+    public static long getSuppressedModifyCount() {
+        return suppressedModifyCount.get();
     }
 
     /**
@@ -694,27 +1945,70 @@ public class SyncFile implements Comparable<Object> {
                 if (getParent() != null) {
                     getParent().renameFile(oldFile, newFile, this);
                 }
-                synchronized (listenerList) {
-                    for (SyncFileListener listener : listenerList) {
-                        listener.fileRenamed(this, rootPath, oldName, newName);
-                    }
-                }
             } catch (IOException ex) {
                 Logger.getLogger(SyncFile.class.getName()).log(Level.SEVERE, null, ex);
+                return;
             }
         }
+        SyncFileEventBus.getDefault().fireRenamed(getListeners(), this, rootPath, oldName, newName);
     }
 
-    @Override
-    protected void finalize() throws Throwable {
-        super.finalize();
-        try {
-            if (watchId != -1) {
-                JNotify.removeWatch(watchId);
-                watchId = -1;
+    /**
+     * Fire one batched event to every listener that would have received an event of the changes one by one, that
+     * is the listeners of the directories that files created in and of the SyncFiles deleted or modified. Each
+     * listener is notified once.
+     */
+    protected void fireChangeBatchEvent(SyncFileChangeBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        Set<SyncFileListener> listenerSet = new LinkedHashSet<SyncFileListener>();
+        for (SyncFile _syncFile : batch.getCreatedFiles()) {
+            _syncFile.getParent().addListenersTo(listenerSet);
+        }
+        for (SyncFile _syncFile : batch.getDeletedFiles()) {
+            _syncFile.addListenersTo(listenerSet);
+        }
+        for (SyncFile _syncFile : batch.getModifiedFiles()) {
+            _syncFile.addListenersTo(listenerSet);
+        }
+
+        SyncFileEventBus.getDefault().fireFilesChanged(listenerSet, batch);
+        for (SyncFile _syncFile : batch.getDeletedFiles()) {
+            _syncFile.release();
+        }
+    }
+
+    protected void addListenersTo(Set<SyncFileListener> listenerSet) {
+        listenerSet.addAll(getListeners());
+    }
+
+    /**
+     * Release the resources of this SyncFile and all SyncFiles inside, i.e. the watch and the listeners. Called when
+     * the tree is removed from the project, the deleted SyncFiles are released after their delete events are fired.
+     * The user objects are kept for the listeners handling the delete events.
+     */
+    public void close() {
+        release();
+        if (isDirectory()) {
+            for (SyncFile _syncFile : getChildSyncFileList()) {
+                _syncFile.close();
+            }
+        }
+    }
+
+    /**
+     * Release the resources of this SyncFile only.
+     */
+    protected void release() {
+        synchronized (syncFileLock) {
+            try {
+                removeWatch();
+            } catch (IOException ex) {
+                Logger.getLogger(SyncFile.class.getName()).log(Level.WARNING, null, ex);
             }
-        } catch (JNotifyException ex) {
-            Logger.getLogger(SyncFile.class.getName()).log(Level.WARNING, null, ex);
+            listenerList = null;
         }
     }
 
@@ -736,11 +2030,7 @@ public class SyncFile implements Comparable<Object> {
                 }
             }
 
-            if (this.equals(syncFile)) {
-                return 0;
-            } else {
-                return getAbsolutePath().compareTo(syncFile.getAbsolutePath());
-            }
+            return comparePath(syncFile);
         } else {
             throw new ClassCastException();
         }
@@ -759,7 +2049,7 @@ public class SyncFile implements Comparable<Object> {
         }
         SyncFile _object = (SyncFile) compareTo;
 
-        return _object.getAbsolutePath().equals(getAbsolutePath());
+        return comparePath(_object) == 0;
     }
 
     public String toString(String indent) {
@@ -775,20 +2065,22 @@ public class SyncFile implements Comparable<Object> {
         sb.append(", ");
 
         if (isDirectory()) {
+            List<String> childFileNameList = getChildFileNameList();
+            SyncFile[] _childSyncFileList = getChildSyncFileArray();
             sb.append("\tchild file: ");
-            sb.append(childFileList.size());
+            sb.append(childFileNameList.size());
             sb.append(", ");
             sb.append("\tchild SyncFile: ");
-            sb.append(childSyncFileList.size());
+            sb.append(_childSyncFileList.length);
 
-            if (!childFileList.isEmpty()) {
+            if (!childFileNameList.isEmpty()) {
                 sb.append("\n***");
-                for (File _file : childFileList) {
-                    sb.append(_file.getAbsolutePath().replace(file.getAbsolutePath(), ""));
+                for (String childFileName : childFileNameList) {
+                    sb.append(fileSeperator).append(childFileName);
                     sb.append(", ");
                 }
             }
-            for (SyncFile _file : childSyncFileList) {
+            for (SyncFile _file : _childSyncFileList) {
                 sb.append("\n");
                 sb.append(_file.toString(indent.replaceAll("└", " ") + "└"));
             }
@@ -802,22 +2094,54 @@ public class SyncFile implements Comparable<Object> {
         return toString("");
     }
 
-    public static class FileContent {
-
-        protected long lastModified;
-        protected String content;
-
-        protected FileContent(long lastModified, String content) {
-            this.lastModified = lastModified;
-            this.content = content;
-        }
-
-        public long getLastModified() {
-            return this.lastModified;
+    /**
+     * The watch of a tree, kept on the SyncFile that {@link #addWatch()} called on only.
+     */
+    protected static class Watch {
+
+        protected final FileWatcher fileWatcher;
+        protected final int watchId;
+        /**
+         * The stage that merge the bursts of watch events before they reach the fire*Event methods.
+         */
+        protected final SyncFileEventCoalescer eventCoalescer;
+        /**
+         * Remove the watch if the tree is collected without {@link SyncFile#close()}.
+         */
+        protected final ResourceCleaner.Cleanable cleanable;
+
+        protected Watch(FileWatcher fileWatcher, int watchId, SyncFileEventCoalescer eventCoalescer, ResourceCleaner.Cleanable cleanable) {
+            this.fileWatcher = fileWatcher;
+            this.watchId = watchId;
+            this.eventCoalescer = eventCoalescer;
+            this.cleanable = cleanable;
         }
+    }
 
-        public String getContent() {
-            return this.content;
+    /**
+     * A file whose attributes changed while its content hash is known, taken with the tree lock held and compared
+     * after the lock is released.
+     */
+    protected static class ContentCheck {
+
+        protected final SyncFile syncFile;
+        /**
+         * The entry just read from the disk.
+         */
+        protected final DirectoryWalker.Entry entry;
+        /**
+         * The attributes and the content hash of the SyncFile when the check was taken.
+         */
+        protected final long lastModified;
+        protected final long size;
+        protected final long contentHash;
+
+        protected ContentCheck(SyncFile syncFile, DirectoryWalker.Entry entry, long lastModified, long size, long contentHash) {
+            this.syncFile = syncFile;
+            this.entry = entry;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.contentHash = contentHash;
         }
     }
 
@@ -0,0 +1,111 @@
+package langfiles.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A batch of changes found in one resync, delivered to every interested
+ * listener in one {@link SyncFileListener#filesChanged(SyncFileChangeBatch)}
+ * call instead of one event per file.
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class SyncFileChangeBatch {
+
+  /**
+   * The SyncFiles created, only the top one of a created subtree is listed,
+   * use {@link SyncFile#getParent()} to get the directory it created in.
+   */
+  protected final List<SyncFile> createdFileList;
+  /**
+   * The SyncFiles deleted, including every SyncFile inside a deleted
+   * directory.
+   */
+  protected final List<SyncFile> deletedFileList;
+  protected final List<SyncFile> modifiedFileList;
+  /**
+   * The deleted and modified SyncFiles by identity, for
+   * {@link #isDeleted(langfiles.util.SyncFile)} and
+   * {@link #isModified(langfiles.util.SyncFile)} called per node.
+   */
+  protected final Set<SyncFile> deletedFileSet;
+  protected final Set<SyncFile> modifiedFileSet;
+  /**
+   * The files to compare the content of before the batch is delivered, not
+   * part of the changes.
+   */
+  protected final List<SyncFile.ContentCheck> contentCheckList;
+
+  public SyncFileChangeBatch() {
+    createdFileList = new ArrayList<SyncFile>();
+    deletedFileList = new ArrayList<SyncFile>();
+    modifiedFileList = new ArrayList<SyncFile>();
+    deletedFileSet = Collections.newSetFromMap(new IdentityHashMap<SyncFile, Boolean>());
+    modifiedFileSet = Collections.newSetFromMap(new IdentityHashMap<SyncFile, Boolean>());
+    contentCheckList = new ArrayList<SyncFile.ContentCheck>();
+  }
+
+  protected void addCreatedFile(SyncFile syncFile) {
+    createdFileList.add(syncFile);
+  }
+
+  protected void addDeletedFile(SyncFile syncFile) {
+    deletedFileList.add(syncFile);
+    deletedFileSet.add(syncFile);
+  }
+
+  protected void addModifiedFile(SyncFile syncFile) {
+    modifiedFileList.add(syncFile);
+    modifiedFileSet.add(syncFile);
+  }
+
+  protected void addContentCheck(SyncFile.ContentCheck contentCheck) {
+    contentCheckList.add(contentCheck);
+  }
+
+  /**
+   * Get and clear the files to compare the content of.
+   * @return the checks
+   */
+  protected List<SyncFile.ContentCheck> takeContentChecks() {
+    List<SyncFile.ContentCheck> returnList = new ArrayList<SyncFile.ContentCheck>(contentCheckList);
+    contentCheckList.clear();
+    return returnList;
+  }
+
+  public List<SyncFile> getCreatedFiles() {
+    return Collections.unmodifiableList(createdFileList);
+  }
+
+  public List<SyncFile> getDeletedFiles() {
+    return Collections.unmodifiableList(deletedFileList);
+  }
+
+  public List<SyncFile> getModifiedFiles() {
+    return Collections.unmodifiableList(modifiedFileList);
+  }
+
+  public boolean isEmpty() {
+    return createdFileList.isEmpty() && deletedFileList.isEmpty() && modifiedFileList.isEmpty();
+  }
+
+  /**
+   * Check if the SyncFile is deleted in this batch.
+   * @param syncFile the SyncFile
+   * @return true if deleted
+   */
+  public boolean isDeleted(SyncFile syncFile) {
+    return deletedFileSet.contains(syncFile);
+  }
+
+  /**
+   * Check if the SyncFile is modified in this batch.
+   * @param syncFile the SyncFile
+   * @return true if modified
+   */
+  public boolean isModified(SyncFile syncFile) {
+    return modifiedFileSet.contains(syncFile);
+  }
+}
@@ -0,0 +1,305 @@
+package langfiles.util;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Deliver the {@link SyncFileListener} events of {@link SyncFile}
+ * asynchronously, so a slow listener does not hold the tree lock nor the
+ * thread of the file watcher.
+ * <p>
+ * Every listener has its own queue. Posting an event only adds it to the
+ * queues, a pooled thread then delivers all events queued for the listener
+ * in one batch. The events of one listener are delivered one at a time in the
+ * order they were posted, different listeners run in parallel.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class SyncFileEventBus {
+
+  private static final Logger LOG = Logger.getLogger(SyncFileEventBus.class.getName());
+  protected static final int FILE_CREATED = 1;
+  protected static final int FILE_DELETED = 2;
+  protected static final int FILE_MODIFIED = 3;
+  protected static final int FILE_RENAMED = 4;
+  protected static final int FILES_CHANGED = 5;
+  protected static SyncFileEventBus defaultBus = new SyncFileEventBus();
+  protected final ExecutorService deliverExecutor;
+  /**
+   * The queue of each listener, removed when emptied. Keyed by identity, the
+   * listeners are not required to implement equals.
+   */
+  protected final Map<SyncFileListener, Mailbox> mailboxMap;
+  // metrics
+  protected final AtomicInteger queueDepth;
+  protected final AtomicInteger maxQueueDepth;
+  protected final AtomicLong deliveredEventCount;
+  protected final AtomicLong batchCount;
+  protected final AtomicLong totalLatency;
+  protected final AtomicLong maxLatency;
+
+  public SyncFileEventBus() {
+    deliverExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+      protected final AtomicInteger threadCounter = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "SyncFileEventBus-" + threadCounter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    mailboxMap = new IdentityHashMap<SyncFileListener, Mailbox>();
+    queueDepth = new AtomicInteger();
+    maxQueueDepth = new AtomicInteger();
+    deliveredEventCount = new AtomicLong();
+    batchCount = new AtomicLong();
+    totalLatency = new AtomicLong();
+    maxLatency = new AtomicLong();
+  }
+
+  public static SyncFileEventBus getDefault() {
+    return defaultBus;
+  }
+
+  public static void setDefault(SyncFileEventBus bus) {
+    if (bus == null) {
+      throw new NullPointerException("argument 'bus' cannot be null");
+    }
+    defaultBus = bus;
+  }
+
+  public void fireCreated(Iterable<SyncFileListener> listeners, SyncFile directory, SyncFile fileCreated, String rootPath, String name) {
+    post(listeners, new Event(FILE_CREATED, directory, fileCreated, rootPath, name, null, null));
+  }
+
+  public void fireDeleted(Iterable<SyncFileListener> listeners, SyncFile fileDeleted, String rootPath, String name) {
+    post(listeners, new Event(FILE_DELETED, fileDeleted, null, rootPath, name, null, null));
+  }
+
+  public void fireModified(Iterable<SyncFileListener> listeners, SyncFile fileModified, String rootPath, String name) {
+    post(listeners, new Event(FILE_MODIFIED, fileModified, null, rootPath, name, null, null));
+  }
+
+  public void fireRenamed(Iterable<SyncFileListener> listeners, SyncFile fileRenamed, String rootPath, String oldName, String newName) {
+    post(listeners, new Event(FILE_RENAMED, fileRenamed, null, rootPath, oldName, newName, null));
+  }
+
+  public void fireFilesChanged(Iterable<SyncFileListener> listeners, SyncFileChangeBatch batch) {
+    post(listeners, new Event(FILES_CHANGED, null, null, null, null, null, batch));
+  }
+
+  /**
+   * Queue the event to every listener.
+   * @param listeners the listeners, should be a snapshot that is not changed
+   * while iterating, e.g. a CopyOnWriteArrayList
+   * @param event the event
+   */
+  protected void post(Iterable<SyncFileListener> listeners, Event event) {
+    if (!listeners.iterator().hasNext()) {
+      return;
+    }
+    List<Mailbox> scheduleList = null;
+    synchronized (mailboxMap) {
+      for (SyncFileListener listener : listeners) {
+        Mailbox mailbox = mailboxMap.get(listener);
+        if (mailbox == null) {
+          mailbox = new Mailbox(listener);
+          mailboxMap.put(listener, mailbox);
+        }
+        mailbox.eventQueue.add(event);
+        // increments are all done with mailboxMap held
+        int depth = queueDepth.incrementAndGet();
+        if (depth > maxQueueDepth.get()) {
+          maxQueueDepth.set(depth);
+        }
+        if (!mailbox.scheduled) {
+          mailbox.scheduled = true;
+          if (scheduleList == null) {
+            scheduleList = new ArrayList<Mailbox>(2);
+          }
+          scheduleList.add(mailbox);
+        }
+      }
+    }
+    if (scheduleList != null) {
+      for (Mailbox mailbox : scheduleList) {
+        deliverExecutor.execute(mailbox);
+      }
+    }
+  }
+
+  /**
+   * Wait until all queued events are delivered.
+   * @param timeout the maximum time to wait in milli second
+   * @return true if the queues are empty, false if timeout
+   * @throws InterruptedException interrupted while waiting
+   */
+  public boolean flush(long timeout) throws InterruptedException {
+    long endTime = System.currentTimeMillis() + timeout;
+    while (queueDepth.get() > 0) {
+      if (System.currentTimeMillis() >= endTime) {
+        return false;
+      }
+      Thread.sleep(5);
+    }
+    return true;
+  }
+
+  /**
+   * Get the number of events queued and not delivered yet, an event posted to
+   * n listeners counts n.
+   * @return the queue depth
+   */
+  public int getQueueDepth() {
+    return queueDepth.get();
+  }
+
+  public int getMaxQueueDepth() {
+    return maxQueueDepth.get();
+  }
+
+  public long getDeliveredEventCount() {
+    return deliveredEventCount.get();
+  }
+
+  /**
+   * Get the number of batches delivered, the events delivered to one listener
+   * in one run count one.
+   * @return the batch count
+   */
+  public long getBatchCount() {
+    return batchCount.get();
+  }
+
+  /**
+   * Get the average time between an event posted and delivered.
+   * @return the latency in nano second
+   */
+  public long getAverageLatency() {
+    long count = deliveredEventCount.get();
+    return count == 0 ? 0 : totalLatency.get() / count;
+  }
+
+  /**
+   * Get the maximum time between an event posted and delivered.
+   * @return the latency in nano second
+   */
+  public long getMaxLatency() {
+    return maxLatency.get();
+  }
+
+  protected void deliver(SyncFileListener listener, Event event) {
+    long latency = System.nanoTime() - event.postTime;
+    totalLatency.addAndGet(latency);
+    long _maxLatency;
+    while (latency > (_maxLatency = maxLatency.get())) {
+      if (maxLatency.compareAndSet(_maxLatency, latency)) {
+        break;
+      }
+    }
+
+    try {
+      switch (event.type) {
+        case FILE_CREATED:
+          listener.fileCreated(event.syncFile, event.childSyncFile, event.rootPath, event.name);
+          break;
+        case FILE_DELETED:
+          listener.fileDeleted(event.syncFile, event.rootPath, event.name);
+          break;
+        case FILE_MODIFIED:
+          listener.fileModified(event.syncFile, event.rootPath, event.name);
+          break;
+        case FILE_RENAMED:
+          listener.fileRenamed(event.syncFile, event.rootPath, event.name, event.newName);
+          break;
+        case FILES_CHANGED:
+          listener.filesChanged(event.batch);
+          break;
+      }
+    } catch (Exception ex) {
+      // keep delivering the rest
+      LOG.log(Level.SEVERE, null, ex);
+    }
+    deliveredEventCount.incrementAndGet();
+  }
+
+  protected static class Event {
+
+    protected final int type;
+    protected final SyncFile syncFile;
+    /**
+     * The file created, syncFile is the directory it created in.
+     */
+    protected final SyncFile childSyncFile;
+    protected final String rootPath;
+    protected final String name;
+    protected final String newName;
+    protected final SyncFileChangeBatch batch;
+    protected final long postTime;
+
+    protected Event(int type, SyncFile syncFile, SyncFile childSyncFile, String rootPath, String name, String newName, SyncFileChangeBatch batch) {
+      this.type = type;
+      this.syncFile = syncFile;
+      this.childSyncFile = childSyncFile;
+      this.rootPath = rootPath;
+      this.name = name;
+      this.newName = newName;
+      this.batch = batch;
+      postTime = System.nanoTime();
+    }
+  }
+
+  /**
+   * The queue of one listener, run on deliverExecutor when there are events
+   * queued, at most one run at a time.
+   */
+  protected class Mailbox implements Runnable {
+
+    protected final SyncFileListener listener;
+    protected final LinkedList<Event> eventQueue;
+    /**
+     * True if it is submitted to deliverExecutor and not finished yet.
+     */
+    protected boolean scheduled;
+
+    protected Mailbox(SyncFileListener listener) {
+      this.listener = listener;
+      eventQueue = new LinkedList<Event>();
+      scheduled = false;
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        List<Event> batch;
+        synchronized (mailboxMap) {
+          if (eventQueue.isEmpty()) {
+            scheduled = false;
+            mailboxMap.remove(listener);
+            return;
+          }
+          batch = new ArrayList<Event>(eventQueue);
+          eventQueue.clear();
+        }
+
+        for (Event event : batch) {
+          deliver(listener, event);
+          queueDepth.decrementAndGet();
+        }
+        batchCount.incrementAndGet();
+      }
+    }
+  }
+}
@@ -0,0 +1,580 @@
+package langfiles.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Merge the bursts of file events of the same path before passing them to
+ * the target listener.
+ * <p>
+ * Events are held for a window after the first event of a burst arrived,
+ * then delivered in the original order. Within the window:
+ * create + modify become create, modify + modify become one modify, create +
+ * delete cancel each other and modify + delete become delete. Rename is never
+ * merged and events before and after a rename of a path are not merged
+ * together.
+ * </p>
+ * <p>
+ * When a {@link StormListener} is set and more than the storm threshold of
+ * events arrive within a second (e.g. a checkout or a package install), the
+ * coalescer stop delivering events one by one and only record the directories
+ * they touched. After a whole second passed with fewer events than the
+ * threshold, the directories are passed to the storm listener once, so the
+ * tree can be resynced in one go. The storm listener is called on a thread of
+ * its own, a long resync does not hold up the delivery of the other
+ * coalescers.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class SyncFileEventCoalescer implements FileWatcherListener {
+
+  private static final Logger LOG = Logger.getLogger(SyncFileEventCoalescer.class.getName());
+  /**
+   * The window used by new coalescers, in milli second.
+   */
+  protected static volatile long defaultWindow = 100;
+  /**
+   * The number of events per second that start a storm, used by new
+   * coalescers.
+   */
+  protected static volatile int defaultStormThreshold = 1000;
+  /**
+   * When a storm touched more directories than this, the whole root is
+   * resynced instead.
+   */
+  protected static final int MAX_STORM_DIRECTORY = 1024;
+  /**
+   * The thread that deliver the merged events, shared by all coalescers.
+   */
+  protected static final ScheduledExecutorService deliveryExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "SyncFileEventCoalescer");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+  /**
+   * The thread that call the storm listeners, shared by all coalescers. The
+   * resyncs are run one by one.
+   */
+  protected static final ExecutorService stormExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "SyncFileEventCoalescer-storm");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+  protected final FileWatcherListener target;
+  protected final long window;
+  protected final StormListener stormListener;
+  protected final int stormThreshold;
+  /**
+   * The pending events in arrival order and the last mergeable event of each
+   * path.
+   */
+  protected List<Event> pendingEventList;
+  protected final Map<String, Event> pendingEventMap;
+  protected boolean flushScheduled;
+  protected boolean closed;
+  /**
+   * The number of events arrived in the current one-second rate window.
+   */
+  protected long rateWindowStart;
+  protected int rateWindowCount;
+  /**
+   * The storm state, the directories touched are relative to stormRootPath,
+   * "" means the root itself.
+   */
+  protected boolean inStorm;
+  protected String stormRootPath;
+  protected Set<String> stormDirectorySet;
+  protected int stormCheckCount;
+  protected final Object coalescerLock = new Object();
+  /**
+   * Counters.
+   */
+  protected final AtomicLong rawEventCount;
+  protected final AtomicLong deliveredEventCount;
+  protected final AtomicLong foldedEventCount;
+  protected final AtomicLong stormCount;
+  protected final AtomicLong stormEventCount;
+
+  /**
+   * Constructor. Storm detection is disabled.
+   * @param target the listener to deliver the merged events to
+   * @param window the time to wait for more events of the same burst, in
+   * milli second, 0 to deliver every event immediately
+   */
+  public SyncFileEventCoalescer(FileWatcherListener target, long window) {
+    this(target, window, null, defaultStormThreshold);
+  }
+
+  /**
+   * Constructor.
+   * @param target the listener to deliver the merged events to
+   * @param window the time to wait for more events of the same burst, in
+   * milli second, 0 to deliver every event immediately
+   * @param stormListener the listener to notify when a storm ended, null to
+   * disable storm detection
+   * @param stormThreshold the number of events per second that start a storm
+   */
+  public SyncFileEventCoalescer(FileWatcherListener target, long window, StormListener stormListener, int stormThreshold) {
+    if (target == null) {
+      throw new NullPointerException("argument 'target' cannot be null");
+    }
+    if (window < 0) {
+      throw new IllegalArgumentException("argument 'window' cannot be negative");
+    }
+    if (stormThreshold <= 0) {
+      throw new IllegalArgumentException("argument 'stormThreshold' should be positive");
+    }
+    this.target = target;
+    this.window = window;
+    this.stormListener = stormListener;
+    this.stormThreshold = stormThreshold;
+
+    pendingEventList = new ArrayList<Event>();
+    pendingEventMap = new HashMap<String, Event>();
+    flushScheduled = false;
+    closed = false;
+
+    rateWindowStart = 0;
+    rateWindowCount = 0;
+    inStorm = false;
+    stormRootPath = null;
+    stormDirectorySet = new LinkedHashSet<String>();
+    stormCheckCount = 0;
+
+    rawEventCount = new AtomicLong();
+    deliveredEventCount = new AtomicLong();
+    foldedEventCount = new AtomicLong();
+    stormCount = new AtomicLong();
+    stormEventCount = new AtomicLong();
+  }
+
+  /**
+   * Get the window used by new coalescers.
+   * @return the window in milli second
+   */
+  public static long getDefaultWindow() {
+    return defaultWindow;
+  }
+
+  /**
+   * Set the window used by new coalescers.
+   * @param window the window in milli second, 0 to disable coalescing
+   */
+  public static void setDefaultWindow(long window) {
+    if (window < 0) {
+      throw new IllegalArgumentException("argument 'window' cannot be negative");
+    }
+    defaultWindow = window;
+  }
+
+  /**
+   * Get the storm threshold used by new coalescers.
+   * @return the number of events per second
+   */
+  public static int getDefaultStormThreshold() {
+    return defaultStormThreshold;
+  }
+
+  /**
+   * Set the storm threshold used by new coalescers.
+   * @param stormThreshold the number of events per second
+   */
+  public static void setDefaultStormThreshold(int stormThreshold) {
+    if (stormThreshold <= 0) {
+      throw new IllegalArgumentException("argument 'stormThreshold' should be positive");
+    }
+    defaultStormThreshold = stormThreshold;
+  }
+
+  public long getWindow() {
+    return window;
+  }
+
+  public int getStormThreshold() {
+    return stormThreshold;
+  }
+
+  /**
+   * Check if a storm is in progress.
+   * @return true if in storm
+   */
+  public boolean isInStorm() {
+    synchronized (coalescerLock) {
+      return inStorm;
+    }
+  }
+
+  /**
+   * Get the number of events received from the watcher.
+   * @return the count
+   */
+  public long getRawEventCount() {
+    return rawEventCount.get();
+  }
+
+  /**
+   * Get the number of events delivered to the target listener.
+   * @return the count
+   */
+  public long getDeliveredEventCount() {
+    return deliveredEventCount.get();
+  }
+
+  /**
+   * Get the number of raw events folded into other events or cancelled.
+   * @return the count
+   */
+  public long getFoldedEventCount() {
+    return foldedEventCount.get();
+  }
+
+  /**
+   * Get the number of storms detected.
+   * @return the count
+   */
+  public long getStormCount() {
+    return stormCount.get();
+  }
+
+  /**
+   * Get the number of raw events absorbed by storms, they are not delivered
+   * to the target listener.
+   * @return the count
+   */
+  public long getStormEventCount() {
+    return stormEventCount.get();
+  }
+
+  @Override
+  public void fileCreated(int watchId, String rootPath, String name) {
+    add(new Event(Event.CREATED, watchId, rootPath, name, null));
+  }
+
+  @Override
+  public void fileDeleted(int watchId, String rootPath, String name) {
+    add(new Event(Event.DELETED, watchId, rootPath, name, null));
+  }
+
+  @Override
+  public void fileModified(int watchId, String rootPath, String name) {
+    add(new Event(Event.MODIFIED, watchId, rootPath, name, null));
+  }
+
+  @Override
+  public void fileRenamed(int watchId, String rootPath, String oldName, String newName) {
+    add(new Event(Event.RENAMED, watchId, rootPath, oldName, newName));
+  }
+
+  protected void add(Event event) {
+    rawEventCount.incrementAndGet();
+
+    synchronized (coalescerLock) {
+      if (closed) {
+        return;
+      }
+
+      if (stormListener != null) {
+        long now = System.currentTimeMillis();
+        if (now - rateWindowStart >= 1000) {
+          rateWindowStart = now;
+          rateWindowCount = 0;
+        }
+        rateWindowCount++;
+        stormCheckCount++;
+
+        if (!inStorm && rateWindowCount > stormThreshold) {
+          startStorm();
+        }
+        if (inStorm) {
+          addStormEvent(event);
+          return;
+        }
+      }
+
+      if (window != 0) {
+        addPendingEvent(event);
+        return;
+      }
+    }
+
+    deliver(event);
+  }
+
+  /**
+   * Merge the event into the pending events.
+   */
+  protected void addPendingEvent(Event event) {
+    String path = event.getPath();
+    Event previous = pendingEventMap.get(path);
+
+    if (event.type == Event.RENAMED) {
+      // rename is a barrier of both paths
+      pendingEventMap.remove(path);
+      pendingEventMap.remove(event.rootPath + '/' + event.newName);
+      pendingEventList.add(event);
+    } else if (previous == null) {
+      pendingEventMap.put(path, event);
+      pendingEventList.add(event);
+    } else if (event.type == Event.MODIFIED && (previous.type == Event.CREATED || previous.type == Event.MODIFIED)) {
+      foldedEventCount.incrementAndGet();
+    } else if (event.type == Event.DELETED && previous.type == Event.CREATED) {
+      previous.cancelled = true;
+      pendingEventMap.remove(path);
+      foldedEventCount.addAndGet(2);
+    } else if (event.type == Event.DELETED && previous.type == Event.MODIFIED) {
+      previous.cancelled = true;
+      pendingEventMap.put(path, event);
+      pendingEventList.add(event);
+      foldedEventCount.incrementAndGet();
+    } else {
+      pendingEventMap.put(path, event);
+      pendingEventList.add(event);
+    }
+
+    if (!flushScheduled) {
+      flushScheduled = true;
+      deliveryExecutor.schedule(new Runnable() {
+
+        @Override
+        public void run() {
+          flush();
+        }
+      }, window, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Enter storm mode, the pending events are absorbed into the storm too.
+   * Should be called with coalescerLock held.
+   */
+  protected void startStorm() {
+    inStorm = true;
+    stormCount.incrementAndGet();
+    stormCheckCount = 0;
+    LOG.log(Level.INFO, "Event storm detected, more than {0} events per second", stormThreshold);
+
+    for (Event pendingEvent : pendingEventList) {
+      if (!pendingEvent.cancelled) {
+        addStormEvent(pendingEvent);
+      }
+    }
+    pendingEventList = new ArrayList<Event>();
+    pendingEventMap.clear();
+
+    deliveryExecutor.schedule(new Runnable() {
+
+      @Override
+      public void run() {
+        checkStorm();
+      }
+    }, 1000, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Record the directories that contain the path(s) of the event. Should be
+   * called with coalescerLock held.
+   */
+  protected void addStormEvent(Event event) {
+    stormEventCount.incrementAndGet();
+    if (stormRootPath != null && !stormRootPath.equals(event.rootPath)) {
+      // should not happen for a single watch, resync the whole root
+      stormDirectorySet.clear();
+      stormDirectorySet.add("");
+      return;
+    }
+    stormRootPath = event.rootPath;
+
+    if (stormDirectorySet.contains("")) {
+      return;
+    }
+    stormDirectorySet.add(getDirectoryName(event.name));
+    if (event.newName != null) {
+      stormDirectorySet.add(getDirectoryName(event.newName));
+    }
+    if (stormDirectorySet.size() > MAX_STORM_DIRECTORY) {
+      stormDirectorySet.clear();
+      stormDirectorySet.add("");
+    }
+  }
+
+  /**
+   * @return the part of the name before the last file separator, "" if there
+   * is no file separator
+   */
+  protected static String getDirectoryName(String name) {
+    for (int i = name.length() - 1; i >= 0; i--) {
+      if (PathSegment.isSeparator(name.charAt(i))) {
+        return name.substring(0, i);
+      }
+    }
+    return "";
+  }
+
+  /**
+   * Run every second during a storm, end the storm if the rate dropped below
+   * the threshold.
+   */
+  protected void checkStorm() {
+    String rootPath;
+    Set<String> directorySet;
+    synchronized (coalescerLock) {
+      if (closed || !inStorm) {
+        return;
+      }
+      if (stormCheckCount >= stormThreshold) {
+        stormCheckCount = 0;
+        deliveryExecutor.schedule(new Runnable() {
+
+          @Override
+          public void run() {
+            checkStorm();
+          }
+        }, 1000, TimeUnit.MILLISECONDS);
+        return;
+      }
+
+      rootPath = stormRootPath;
+      directorySet = stormDirectorySet;
+      inStorm = false;
+      stormRootPath = null;
+      stormDirectorySet = new LinkedHashSet<String>();
+      rateWindowCount = 0;
+    }
+
+    if (rootPath == null) {
+      return;
+    }
+    LOG.log(Level.INFO, "Event storm ended, resyncing {0} directories", directorySet.size());
+    final String _rootPath = rootPath;
+    final Set<String> _directorySet = directorySet;
+    stormExecutor.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          stormListener.stormEnded(_rootPath, _directorySet);
+        } catch (Exception ex) {
+          LOG.log(Level.SEVERE, null, ex);
+        }
+      }
+    });
+  }
+
+  /**
+   * Deliver all pending events now.
+   */
+  public void flush() {
+    List<Event> eventList;
+    synchronized (coalescerLock) {
+      eventList = pendingEventList;
+      pendingEventList = new ArrayList<Event>();
+      pendingEventMap.clear();
+      flushScheduled = false;
+    }
+
+    for (Event event : eventList) {
+      if (!event.cancelled) {
+        deliver(event);
+      }
+    }
+  }
+
+  /**
+   * Discard the pending events and stop accepting new events.
+   */
+  public void close() {
+    synchronized (coalescerLock) {
+      closed = true;
+      pendingEventList.clear();
+      pendingEventMap.clear();
+      inStorm = false;
+      stormDirectorySet.clear();
+    }
+  }
+
+  protected void deliver(Event event) {
+    deliveredEventCount.incrementAndGet();
+    try {
+      switch (event.type) {
+        case Event.CREATED:
+          target.fileCreated(event.watchId, event.rootPath, event.name);
+          break;
+        case Event.DELETED:
+          target.fileDeleted(event.watchId, event.rootPath, event.name);
+          break;
+        case Event.MODIFIED:
+          target.fileModified(event.watchId, event.rootPath, event.name);
+          break;
+        case Event.RENAMED:
+          target.fileRenamed(event.watchId, event.rootPath, event.name, event.newName);
+          break;
+      }
+    } catch (Exception ex) {
+      // keep delivering the rest
+      LOG.log(Level.SEVERE, null, ex);
+    }
+  }
+
+  /**
+   * Notified when an event storm ended.
+   */
+  public static interface StormListener {
+
+    /**
+     * The events of the storm were not delivered, the directories touched
+     * should be resynced. Called on the storm thread, not the delivery
+     * thread.
+     * @param rootPath the root path reported by the watcher
+     * @param directoryNames the directories touched, relative to the root
+     * path, "" means the root itself
+     */
+    void stormEnded(String rootPath, Set<String> directoryNames);
+  }
+
+  protected static class Event {
+
+    protected static final int CREATED = 1;
+    protected static final int DELETED = 2;
+    protected static final int MODIFIED = 3;
+    protected static final int RENAMED = 4;
+    protected final int type;
+    protected final int watchId;
+    protected final String rootPath;
+    protected final String name;
+    protected final String newName;
+    protected boolean cancelled;
+
+    protected Event(int type, int watchId, String rootPath, String name, String newName) {
+      this.type = type;
+      this.watchId = watchId;
+      this.rootPath = rootPath;
+      this.name = name;
+      this.newName = newName;
+      cancelled = false;
+    }
+
+    protected String getPath() {
+      return rootPath + '/' + name;
+    }
+  }
+}
@@ -0,0 +1,660 @@
+package langfiles.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * The compiled filter that decide which listed files have a {@link SyncFile},
+ * shared by all SyncFiles of a tree. It is immutable, the with* methods
+ * return a new one.
+ * <p>
+ * A file is filtered out if its extension is not in the allowed extensions
+ * (if any) or is in the disallowed extensions, if its absolute path is in the
+ * ignored paths, or if it is ignored by the ignore patterns. The extensions
+ * and paths are looked up in hash sets. The ignore patterns use the syntax of
+ * .gitignore and are relative to the root of the tree, they have the lowest
+ * precedence. The .gitignore and .ignore files found in the directories are
+ * compiled into {@link IgnoreRules} by SyncFile and applied the same way,
+ * the nearer to the file the higher precedence, .ignore over .gitignore.
+ * </p>
+ * <p>
+ * Directories are only checked against the ignored paths and the ignore
+ * patterns, so an ignored directory is never listed.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class SyncFileFilter {
+
+  private static final Logger LOG = Logger.getLogger(SyncFileFilter.class.getName());
+  /**
+   * The names of the ignore files, in the order of precedence from low to
+   * high.
+   */
+  public static final List<String> IGNORE_FILE_NAMES = Collections.unmodifiableList(Arrays.asList(".gitignore", ".ignore"));
+  /**
+   * No extension or path is filtered, only the ignore files are honored.
+   */
+  public static final SyncFileFilter DEFAULT = new SyncFileFilter(Collections.<String>emptyList(), Collections.<String>emptyList(),
+          Collections.<String>emptyList(), Collections.<String>emptyList());
+  protected final List<String> allowedExtensionList;
+  protected final List<String> disallowedExtensionList;
+  protected final List<String> ignoredPathList;
+  protected final List<String> ignorePatternList;
+  protected final Set<String> allowedExtensionSet;
+  protected final Set<String> disallowedExtensionSet;
+  protected final Set<String> ignoredPathSet;
+  /**
+   * The file names of the ignored paths, checked before building the path.
+   */
+  protected final Set<String> ignoredNameSet;
+  protected final IgnoreRules ignorePatternRules;
+
+  /**
+   * Constructor.
+   * @param allowedExtensions the allowed extensions without '.', empty to
+   * allow all
+   * @param disallowedExtensions the disallowed extensions without '.'
+   * @param ignoredPaths the absolute paths of the ignored files and
+   * directories
+   * @param ignorePatterns the ignore patterns in .gitignore syntax, relative
+   * to the root of the tree
+   */
+  public SyncFileFilter(Collection<String> allowedExtensions, Collection<String> disallowedExtensions,
+          Collection<String> ignoredPaths, Collection<String> ignorePatterns) {
+    allowedExtensionList = Collections.unmodifiableList(new ArrayList<String>(allowedExtensions));
+    disallowedExtensionList = Collections.unmodifiableList(new ArrayList<String>(disallowedExtensions));
+    ignoredPathList = Collections.unmodifiableList(new ArrayList<String>(ignoredPaths));
+    ignorePatternList = Collections.unmodifiableList(new ArrayList<String>(ignorePatterns));
+    allowedExtensionSet = new HashSet<String>(allowedExtensionList);
+    disallowedExtensionSet = new HashSet<String>(disallowedExtensionList);
+    ignoredPathSet = new HashSet<String>(ignoredPathList);
+    ignoredNameSet = new HashSet<String>();
+    for (String path : ignoredPathSet) {
+      ignoredNameSet.add(new File(path).getName());
+    }
+    ignorePatternRules = IgnoreRules.compile(ignorePatternList);
+  }
+
+  public SyncFileFilter withAllowedExtensions(Collection<String> allowedExtensions) {
+    return new SyncFileFilter(allowedExtensions, disallowedExtensionList, ignoredPathList, ignorePatternList);
+  }
+
+  public SyncFileFilter withDisallowedExtensions(Collection<String> disallowedExtensions) {
+    return new SyncFileFilter(allowedExtensionList, disallowedExtensions, ignoredPathList, ignorePatternList);
+  }
+
+  public SyncFileFilter withIgnoredPaths(Collection<String> ignoredPaths) {
+    return new SyncFileFilter(allowedExtensionList, disallowedExtensionList, ignoredPaths, ignorePatternList);
+  }
+
+  public SyncFileFilter withIgnorePatterns(Collection<String> ignorePatterns) {
+    return new SyncFileFilter(allowedExtensionList, disallowedExtensionList, ignoredPathList, ignorePatterns);
+  }
+
+  public List<String> getAllowedExtensions() {
+    return allowedExtensionList;
+  }
+
+  public List<String> getDisallowedExtensions() {
+    return disallowedExtensionList;
+  }
+
+  public List<String> getIgnoredPaths() {
+    return ignoredPathList;
+  }
+
+  public List<String> getIgnorePatterns() {
+    return ignorePatternList;
+  }
+
+  /**
+   * Check the file name against the extensions.
+   * @param name the file name
+   * @param isDirectory true if it is a directory, directories always pass
+   * @return true if accepted, false if not
+   */
+  public boolean acceptExtension(String name, boolean isDirectory) {
+    if (isDirectory || (allowedExtensionSet.isEmpty() && disallowedExtensionSet.isEmpty())) {
+      return true;
+    }
+    String extension = getExtension(name);
+    if (!allowedExtensionSet.isEmpty() && !allowedExtensionSet.contains(extension)) {
+      return false;
+    }
+    return !disallowedExtensionSet.contains(extension);
+  }
+
+  public boolean hasIgnoredPaths() {
+    return !ignoredPathSet.isEmpty();
+  }
+
+  /**
+   * @param name the file name
+   * @return false if no ignored path has this file name
+   */
+  public boolean mayBeIgnoredPath(String name) {
+    return ignoredNameSet.contains(name);
+  }
+
+  public boolean isIgnoredPath(String absolutePath) {
+    return ignoredPathSet.contains(absolutePath);
+  }
+
+  public IgnoreRules getIgnorePatternRules() {
+    return ignorePatternRules;
+  }
+
+  /**
+   * Get the extension the same way as
+   * {@link CommonUtil#getFileExtension(java.lang.String)}, the part after the
+   * first '.', or the whole name if there is no '.'.
+   */
+  protected static String getExtension(String name) {
+    int pos = name.indexOf('.');
+    return pos != -1 ? name.substring(pos + 1) : name;
+  }
+
+  /**
+   * Compare with the filter replaced, to tell which SyncFiles may be changed.
+   * @param oldFilter the filter replaced
+   * @return the change
+   */
+  public Change diff(SyncFileFilter oldFilter) {
+    boolean extensionMayReject = !oldFilter.disallowedExtensionSet.containsAll(disallowedExtensionSet)
+            || (!allowedExtensionSet.isEmpty()
+            && (oldFilter.allowedExtensionSet.isEmpty() || !allowedExtensionSet.containsAll(oldFilter.allowedExtensionSet)));
+    boolean extensionMayAccept = !disallowedExtensionSet.containsAll(oldFilter.disallowedExtensionSet)
+            || (!oldFilter.allowedExtensionSet.isEmpty()
+            && (allowedExtensionSet.isEmpty() || !oldFilter.allowedExtensionSet.containsAll(allowedExtensionSet)));
+
+    List<String> addedIgnoredPathList = new ArrayList<String>();
+    for (String path : ignoredPathSet) {
+      if (!oldFilter.ignoredPathSet.contains(path)) {
+        addedIgnoredPathList.add(path);
+      }
+    }
+    List<String> removedIgnoredPathList = new ArrayList<String>();
+    for (String path : oldFilter.ignoredPathSet) {
+      if (!ignoredPathSet.contains(path)) {
+        removedIgnoredPathList.add(path);
+      }
+    }
+
+    // adding a pattern that is not negated can only ignore more files, and removing one can only ignore less
+    boolean patternMayReject = false;
+    boolean patternMayAccept = false;
+    if (!ignorePatternList.equals(oldFilter.ignorePatternList)) {
+      List<String> addedPatternList = new ArrayList<String>(ignorePatternList);
+      addedPatternList.removeAll(oldFilter.ignorePatternList);
+      List<String> removedPatternList = new ArrayList<String>(oldFilter.ignorePatternList);
+      removedPatternList.removeAll(ignorePatternList);
+      boolean negated = false;
+      for (String pattern : addedPatternList) {
+        negated |= pattern.trim().startsWith("!");
+      }
+      for (String pattern : removedPatternList) {
+        negated |= pattern.trim().startsWith("!");
+      }
+      if (negated || (addedPatternList.isEmpty() && removedPatternList.isEmpty())) {
+        // negation or reordering
+        patternMayReject = true;
+        patternMayAccept = true;
+      } else {
+        patternMayReject = !addedPatternList.isEmpty();
+        patternMayAccept = !removedPatternList.isEmpty();
+      }
+    }
+
+    return new Change(extensionMayReject, extensionMayAccept, patternMayReject, patternMayAccept,
+            addedIgnoredPathList, removedIgnoredPathList);
+  }
+
+  public static boolean isIgnoreFileName(String name) {
+    return IGNORE_FILE_NAMES.contains(name);
+  }
+
+  /**
+   * The difference between two filters, see {@link #diff(langfiles.util.SyncFileFilter)}.
+   */
+  public static class Change {
+
+    protected final boolean extensionMayReject;
+    protected final boolean extensionMayAccept;
+    protected final boolean patternMayReject;
+    protected final boolean patternMayAccept;
+    protected final List<String> addedIgnoredPathList;
+    protected final List<String> removedIgnoredPathList;
+
+    protected Change(boolean extensionMayReject, boolean extensionMayAccept, boolean patternMayReject, boolean patternMayAccept,
+            List<String> addedIgnoredPathList, List<String> removedIgnoredPathList) {
+      this.extensionMayReject = extensionMayReject;
+      this.extensionMayAccept = extensionMayAccept;
+      this.patternMayReject = patternMayReject;
+      this.patternMayAccept = patternMayAccept;
+      this.addedIgnoredPathList = addedIgnoredPathList;
+      this.removedIgnoredPathList = removedIgnoredPathList;
+    }
+
+    /**
+     * @return true if some files accepted by the old filter may be rejected
+     */
+    public boolean mayReject() {
+      return extensionMayReject || patternMayReject || !addedIgnoredPathList.isEmpty();
+    }
+
+    /**
+     * @return true if some files rejected by the old filter may be accepted
+     */
+    public boolean mayAccept() {
+      return extensionMayAccept || patternMayAccept || !removedIgnoredPathList.isEmpty();
+    }
+
+    /**
+     * @return true if directories may be accepted or rejected, the extensions
+     * do not apply to directories
+     */
+    public boolean isDirectoryAffected() {
+      return patternMayReject || patternMayAccept || !addedIgnoredPathList.isEmpty() || !removedIgnoredPathList.isEmpty();
+    }
+
+    /**
+     * @return true if only the ignored paths changed, then only the files of
+     * those paths need to be checked
+     */
+    public boolean isIgnoredPathsOnly() {
+      return !extensionMayReject && !extensionMayAccept && !patternMayReject && !patternMayAccept;
+    }
+
+    public List<String> getAddedIgnoredPaths() {
+      return addedIgnoredPathList;
+    }
+
+    public List<String> getRemovedIgnoredPaths() {
+      return removedIgnoredPathList;
+    }
+  }
+
+  /**
+   * The compiled patterns of an ignore file, or of the ignore patterns of a
+   * filter.
+   * <p>
+   * When several patterns match, the last one decides, as in .gitignore. The
+   * patterns of a literal file name, of "*.extension" and of a literal path
+   * are put in hash maps of their index, the rest are compiled into regular
+   * expressions and tried from the last one, until the index is lower than
+   * the best found in the maps. So the usual patterns cost a few hash lookups
+   * on the name and the path.
+   * </p>
+   */
+  public static class IgnoreRules {
+
+    /**
+     * No pattern.
+     */
+    public static final IgnoreRules NONE = new IgnoreRules(new ArrayList<Rule>());
+    public static final int NOT_MATCHED = 0;
+    public static final int IGNORED = 1;
+    /**
+     * Matched by a negated pattern, the file is included even a pattern in a
+     * farther ignore file ignores it.
+     */
+    public static final int INCLUDED = 2;
+    protected final Rule[] rules;
+    protected final RuleIndex nameIndex;
+    protected final RuleIndex extensionIndex;
+    protected final RuleIndex pathIndex;
+    /**
+     * The rules matched by regular expression, in reverse order.
+     */
+    protected final Rule[] patternRules;
+
+    protected IgnoreRules(List<Rule> ruleList) {
+      rules = ruleList.toArray(new Rule[ruleList.size()]);
+      nameIndex = new RuleIndex();
+      extensionIndex = new RuleIndex();
+      pathIndex = new RuleIndex();
+      List<Rule> patternRuleList = new ArrayList<Rule>();
+      for (int i = rules.length - 1; i >= 0; i--) {
+        Rule rule = rules[i];
+        switch (rule.type) {
+          case Rule.TYPE_NAME:
+            nameIndex.put(rule);
+            break;
+          case Rule.TYPE_EXTENSION:
+            extensionIndex.put(rule);
+            break;
+          case Rule.TYPE_PATH:
+            pathIndex.put(rule);
+            break;
+          default:
+            patternRuleList.add(rule);
+        }
+      }
+      patternRules = patternRuleList.toArray(new Rule[patternRuleList.size()]);
+    }
+
+    /**
+     * Compile the patterns.
+     * @param patterns the lines in .gitignore syntax, blank lines and comments
+     * are allowed
+     * @return the rules
+     */
+    public static IgnoreRules compile(Collection<String> patterns) {
+      List<Rule> ruleList = new ArrayList<Rule>();
+      for (String pattern : patterns) {
+        Rule rule = Rule.compile(ruleList.size(), pattern);
+        if (rule != null) {
+          ruleList.add(rule);
+        }
+      }
+      return ruleList.isEmpty() ? NONE : new IgnoreRules(ruleList);
+    }
+
+    /**
+     * Read and compile the ignore files in the directory, {@link #NONE} if
+     * there is not any.
+     * @param directory the directory
+     * @param childFileNames the names of the files in the directory
+     * @return the rules
+     */
+    public static IgnoreRules read(File directory, Collection<String> childFileNames) {
+      List<String> lineList = null;
+      for (String ignoreFileName : IGNORE_FILE_NAMES) {
+        if (!childFileNames.contains(ignoreFileName)) {
+          continue;
+        }
+        try {
+          String content = new String(CommonUtil.readFile(new File(directory, ignoreFileName)), "UTF-8");
+          if (lineList == null) {
+            lineList = new ArrayList<String>();
+          }
+          lineList.addAll(Arrays.asList(content.split("\r?\n")));
+        } catch (IOException ex) {
+          LOG.log(Level.INFO, null, ex);
+        }
+      }
+      return lineList != null ? compile(lineList) : NONE;
+    }
+
+    public boolean isEmpty() {
+      return rules.length == 0;
+    }
+
+    /**
+     * Match the file against the rules.
+     * @param path the path relative to the directory of the rules, separated
+     * by '/'
+     * @param name the file name, the last part of the path
+     * @param isDirectory true if it is a directory
+     * @return {@link #NOT_MATCHED}, {@link #IGNORED} or {@link #INCLUDED}
+     */
+    public int match(String path, String name, boolean isDirectory) {
+      if (rules.length == 0) {
+        return NOT_MATCHED;
+      }
+      int best = nameIndex.get(name, isDirectory);
+      if (!extensionIndex.isEmpty()) {
+        int pos = name.lastIndexOf('.');
+        if (pos != -1) {
+          best = Math.max(best, extensionIndex.get(name.substring(pos + 1), isDirectory));
+        }
+      }
+      best = Math.max(best, pathIndex.get(path, isDirectory));
+      for (Rule rule : patternRules) {
+        if (rule.index < best) {
+          break;
+        }
+        if ((!rule.directoryOnly || isDirectory) && rule.pattern.matcher(rule.anchored ? path : name).matches()) {
+          best = rule.index;
+          break;
+        }
+      }
+      if (best == -1) {
+        return NOT_MATCHED;
+      }
+      return rules[best].negated ? INCLUDED : IGNORED;
+    }
+  }
+
+  /**
+   * The highest index of the rules of each key, the directory only rules are
+   * kept separately.
+   */
+  protected static class RuleIndex {
+
+    protected Map<String, Integer> anyMap;
+    protected Map<String, Integer> directoryOnlyMap;
+
+    /**
+     * Should be put from the last rule to the first.
+     */
+    protected void put(Rule rule) {
+      if (rule.directoryOnly) {
+        if (directoryOnlyMap == null) {
+          directoryOnlyMap = new HashMap<String, Integer>();
+        }
+        if (!directoryOnlyMap.containsKey(rule.literal)) {
+          directoryOnlyMap.put(rule.literal, rule.index);
+        }
+      } else {
+        if (anyMap == null) {
+          anyMap = new HashMap<String, Integer>();
+        }
+        if (!anyMap.containsKey(rule.literal)) {
+          anyMap.put(rule.literal, rule.index);
+        }
+      }
+    }
+
+    protected boolean isEmpty() {
+      return anyMap == null && directoryOnlyMap == null;
+    }
+
+    /**
+     * @return the highest index, -1 if not found
+     */
+    protected int get(String key, boolean isDirectory) {
+      int index = -1;
+      if (anyMap != null) {
+        Integer _index = anyMap.get(key);
+        if (_index != null) {
+          index = _index;
+        }
+      }
+      if (isDirectory && directoryOnlyMap != null) {
+        Integer _index = directoryOnlyMap.get(key);
+        if (_index != null && _index > index) {
+          index = _index;
+        }
+      }
+      return index;
+    }
+  }
+
+  /**
+   * One line of an ignore file.
+   */
+  protected static class Rule {
+
+    protected static final int TYPE_NAME = 0;
+    protected static final int TYPE_EXTENSION = 1;
+    protected static final int TYPE_PATH = 2;
+    protected static final int TYPE_PATTERN = 3;
+    protected final int index;
+    protected final int type;
+    protected final boolean negated;
+    protected final boolean directoryOnly;
+    /**
+     * True if matched against the relative path, false if against the name.
+     */
+    protected final boolean anchored;
+    /**
+     * The name, extension or path for the hashed types.
+     */
+    protected final String literal;
+    protected final Pattern pattern;
+
+    protected Rule(int index, int type, boolean negated, boolean directoryOnly, boolean anchored, String literal, Pattern pattern) {
+      this.index = index;
+      this.type = type;
+      this.negated = negated;
+      this.directoryOnly = directoryOnly;
+      this.anchored = anchored;
+      this.literal = literal;
+      this.pattern = pattern;
+    }
+
+    /**
+     * @return the rule, null if the line is blank or a comment
+     */
+    protected static Rule compile(int index, String line) {
+      String pattern = trimTrailingSpaces(line);
+      if (pattern.isEmpty() || pattern.charAt(0) == '#') {
+        return null;
+      }
+      boolean negated = false;
+      if (pattern.charAt(0) == '!') {
+        negated = true;
+        pattern = pattern.substring(1);
+      } else if (pattern.startsWith("\\!") || pattern.startsWith("\\#")) {
+        pattern = pattern.substring(1);
+      }
+      boolean directoryOnly = false;
+      if (pattern.endsWith("/")) {
+        directoryOnly = true;
+        pattern = pattern.substring(0, pattern.length() - 1);
+      }
+      boolean anchored = pattern.indexOf('/') != -1;
+      if (pattern.startsWith("/")) {
+        pattern = pattern.substring(1);
+      }
+      if (pattern.isEmpty()) {
+        return null;
+      }
+
+      if (!hasWildcard(pattern)) {
+        String literal = unescape(pattern);
+        return new Rule(index, anchored ? TYPE_PATH : TYPE_NAME, negated, directoryOnly, anchored, literal, null);
+      }
+      if (!anchored && pattern.startsWith("*.") && !hasWildcard(pattern.substring(2)) && pattern.indexOf('.', 2) == -1) {
+        return new Rule(index, TYPE_EXTENSION, negated, directoryOnly, false, unescape(pattern.substring(2)), null);
+      }
+      return new Rule(index, TYPE_PATTERN, negated, directoryOnly, anchored, null, Pattern.compile(toRegex(pattern)));
+    }
+
+    protected static String trimTrailingSpaces(String line) {
+      int end = line.length();
+      while (end > 0 && (line.charAt(end - 1) == ' ' || line.charAt(end - 1) == '\t')
+              && !(end > 1 && line.charAt(end - 2) == '\\')) {
+        end--;
+      }
+      return line.substring(0, end);
+    }
+
+    protected static boolean hasWildcard(String pattern) {
+      for (int i = 0, iEnd = pattern.length(); i < iEnd; i++) {
+        char c = pattern.charAt(i);
+        if (c == '*' || c == '?' || c == '[') {
+          return true;
+        }
+        if (c == '\\') {
+          i++;
+        }
+      }
+      return false;
+    }
+
+    protected static String unescape(String pattern) {
+      if (pattern.indexOf('\\') == -1) {
+        return pattern;
+      }
+      StringBuilder sb = new StringBuilder(pattern.length());
+      for (int i = 0, iEnd = pattern.length(); i < iEnd; i++) {
+        char c = pattern.charAt(i);
+        if (c == '\\' && i + 1 < iEnd) {
+          c = pattern.charAt(++i);
+        }
+        sb.append(c);
+      }
+      return sb.toString();
+    }
+
+    /**
+     * Convert the glob to a regular expression, "**" matches any number of
+     * directories, "*" and "?" do not match '/'.
+     */
+    protected static String toRegex(String glob) {
+      StringBuilder sb = new StringBuilder(glob.length() * 2);
+      int i = 0;
+      int iEnd = glob.length();
+      if (glob.startsWith("**/")) {
+        sb.append("(?:.*/)?");
+        i = 3;
+      }
+      while (i < iEnd) {
+        char c = glob.charAt(i);
+        if (c == '/' && glob.startsWith("/**/", i)) {
+          sb.append("/(?:.*/)?");
+          i += 4;
+          continue;
+        }
+        if (c == '/' && i + 3 == iEnd && glob.startsWith("/**", i)) {
+          sb.append("/.*");
+          break;
+        }
+        switch (c) {
+          case '*':
+            if (i + 1 < iEnd && glob.charAt(i + 1) == '*') {
+              sb.append(".*");
+              i++;
+            } else {
+              sb.append("[^/]*");
+            }
+            break;
+          case '?':
+            sb.append("[^/]");
+            break;
+          case '[':
+            int end = glob.indexOf(']', i + 2);
+            if (end == -1) {
+              sb.append("\\[");
+              break;
+            }
+            String characterClass = glob.substring(i + 1, end);
+            if (characterClass.startsWith("!")) {
+              characterClass = "^" + characterClass.substring(1);
+            }
+            sb.append('[').append(characterClass.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+            i = end;
+            break;
+          case '\\':
+            if (i + 1 < iEnd) {
+              c = glob.charAt(++i);
+            }
+            sb.append(Pattern.quote(String.valueOf(c)));
+            break;
+          default:
+            if (Character.isLetterOrDigit(c) || c == '/') {
+              sb.append(c);
+            } else {
+              sb.append('\\').append(c);
+            }
+        }
+        i++;
+      }
+      return sb.toString();
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package langfiles.util;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Report the heap used by a {@link SyncFile} tree per node, for development
+ * purpose.
+ * <p>
+ * Usage: SyncFileFootprint path [repeat]
+ * </p>
+ * The heap used is measured after full GC before and after the tree is
+ * created, with an inherited user object set on the root and a user object
+ * set on every node like the project panel does. The snapshots are included.
+ * The trees are kept until exit, so the repeats need repeat times the heap.
+ * Run with a fixed heap, e.g. -Xms1g -Xmx1g, for a stable result.
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class SyncFileFootprint {
+
+  protected SyncFileFootprint() {
+  }
+
+  /**
+   * Measure the footprint of the tree of the path.
+   * @param file the root of the tree
+   * @param treeList the tree created is added to it, so it is not collected
+   * while the next one is measured
+   * @return the result in one line
+   * @throws Exception error occurred when creating the tree
+   */
+  public static String run(File file, List<SyncFile> treeList) throws Exception {
+    long usedBefore = getUsedHeap();
+    SyncFile syncFile = new SyncFile(null, file);
+    syncFile.setInheritUserObject("project", new Object());
+    int nodeCount = setUserObject(syncFile, new Object());
+    treeList.add(syncFile);
+    long usedAfter = getUsedHeap();
+
+    return String.format("nodes: %1$d, listed files: %2$d, heap: %3$.1f MB, bytes per node: %4$.1f",
+            nodeCount, countListed(syncFile), (usedAfter - usedBefore) / 1048576D, (double) (usedAfter - usedBefore) / nodeCount);
+  }
+
+  protected static int setUserObject(SyncFile syncFile, Object object) {
+    int count = 1;
+    syncFile.setUserObject("treeNode", object);
+    for (SyncFile _syncFile : syncFile.getChildSyncFileList()) {
+      count += setUserObject(_syncFile, object);
+    }
+    return count;
+  }
+
+  protected static int countListed(SyncFile syncFile) {
+    int count = syncFile.getChildFileList().size();
+    for (SyncFile _syncFile : syncFile.getChildSyncFileList()) {
+      count += countListed(_syncFile);
+    }
+    return count;
+  }
+
+  protected static long getUsedHeap() throws InterruptedException {
+    MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return memoryMXBean.getHeapMemoryUsage().getUsed();
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.out.println("Usage: SyncFileFootprint path [repeat]");
+      return;
+    }
+    File file = new File(args[0]);
+    int repeat = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+    List<SyncFile> treeList = new ArrayList<SyncFile>();
+    for (int i = 0; i < repeat; i++) {
+      System.out.println(run(file, treeList));
+    }
+  }
+}
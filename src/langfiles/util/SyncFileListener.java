@@ -12,4 +12,10 @@ public interface SyncFileListener {
   void fileModified(SyncFile fileModified, String rootPath, String name);
 
   void fileRenamed(SyncFile fileRenamed, String rootPath, String oldName, String newName);
+
+  /**
+   * Fired once after a resync (e.g. after an event storm) instead of the
+   * events above, the batch contain all changes found.
+   */
+  void filesChanged(SyncFileChangeBatch batch);
 }
@@ -0,0 +1,172 @@
+package langfiles.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Build the SyncFile tree of a directory in parallel.
+ * <p>
+ * Sibling directories are listed and filtered concurrently on a
+ * {@link java.util.concurrent.ForkJoinPool}. The children of every directory
+ * are created first and then attached to their parent SyncFile in one step,
+ * so the resulting tree is exactly the one that
+ * {@link SyncFile#updateChildSyncFileList(boolean)} would have built. The
+ * snapshot of every directory is built once after all its children are
+ * scanned, instead of being copied up to the root for every child.
+ * </p>
+ * <p>
+ * The first block of every file is sampled in the same pass to mark the
+ * binary files, see {@link SyncFile#isBinary()}, so they are known before
+ * they reach the viewers.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class SyncFileScanner {
+
+  private static final Logger LOG = Logger.getLogger(SyncFileScanner.class.getName());
+  /**
+   * The pool shared by all scanners.
+   */
+  protected static final ForkJoinPool scanPool = new ForkJoinPool();
+  protected final boolean sampleContent;
+  /**
+   * Statistics of the last scan.
+   */
+  protected final AtomicInteger fileCount;
+  protected final AtomicInteger directoryCount;
+  protected final AtomicInteger binaryCount;
+  protected long elapsedTime;
+
+  /**
+   * Constructor.
+   */
+  public SyncFileScanner() {
+    this(true);
+  }
+
+  /**
+   * Constructor.
+   * @param sampleContent true to sample every file to check if it is binary
+   */
+  public SyncFileScanner(boolean sampleContent) {
+    this.sampleContent = sampleContent;
+    fileCount = new AtomicInteger();
+    directoryCount = new AtomicInteger();
+    binaryCount = new AtomicInteger();
+    elapsedTime = 0;
+  }
+
+  /**
+   * Create the whole SyncFile subtree of the directory. The directory should
+   * not have any child SyncFile yet.
+   * @param directory the directory to scan
+   */
+  public void scan(SyncFile directory) {
+    if (directory == null) {
+      throw new NullPointerException("argument 'directory' cannot be null");
+    }
+    if (!directory.isDirectory()) {
+      return;
+    }
+
+    fileCount.set(0);
+    directoryCount.set(0);
+    binaryCount.set(0);
+
+    long startTime = System.nanoTime();
+    ScanTask task = new ScanTask(directory);
+    if (ForkJoinTask.inForkJoinPool()) {
+      task.invoke();
+    } else {
+      scanPool.invoke(task);
+    }
+    elapsedTime = (System.nanoTime() - startTime) / 1000000L;
+
+    directory.publishSnapshot();
+
+    // only the root of a project is worth reporting
+    LOG.log(directory.getParent() == null ? Level.INFO : Level.FINE, String.format("Scanned %1$d files (%2$d directories, %3$d binaries) in %4$d ms, %5$.1f files/sec, path: %6$s",
+            getFileCount(), getDirectoryCount(), getBinaryCount(), elapsedTime, getFilesPerSecond(), directory.getAbsolutePath()));
+  }
+
+  /**
+   * Get the number of SyncFile created in the last scan, including directories.
+   * @return the number of files
+   */
+  public int getFileCount() {
+    return fileCount.get();
+  }
+
+  /**
+   * Get the number of directory SyncFile created in the last scan.
+   * @return the number of directories
+   */
+  public int getDirectoryCount() {
+    return directoryCount.get();
+  }
+
+  /**
+   * Get the number of binary files found in the last scan, 0 if not sampled.
+   * @return the number of binary files
+   */
+  public int getBinaryCount() {
+    return binaryCount.get();
+  }
+
+  /**
+   * Get the time used in the last scan.
+   * @return the time in milli second
+   */
+  public long getElapsedTime() {
+    return elapsedTime;
+  }
+
+  /**
+   * Get the scan rate of the last scan.
+   * @return the number of files per second
+   */
+  public double getFilesPerSecond() {
+    return elapsedTime == 0 ? fileCount.get() * 1000D : fileCount.get() * 1000D / elapsedTime;
+  }
+
+  /**
+   * List and filter one directory, then fork a task for every child
+   * directory.
+   */
+  protected class ScanTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+    protected final SyncFile directory;
+
+    protected ScanTask(SyncFile directory) {
+      this.directory = directory;
+    }
+
+    @Override
+    protected void compute() {
+      List<SyncFile> children = directory.scanChildSyncFileList();
+
+      List<ScanTask> subTasks = new ArrayList<ScanTask>();
+      for (SyncFile child : children) {
+        fileCount.incrementAndGet();
+        if (child.isDirectory()) {
+          directoryCount.incrementAndGet();
+          subTasks.add(new ScanTask(child));
+        } else if (sampleContent && child.isBinary()) {
+          binaryCount.incrementAndGet();
+        }
+      }
+
+      invokeAll(subTasks);
+
+      // the children are complete now, build the snapshot of this directory from theirs
+      directory.rebuildSnapshot(false);
+    }
+  }
+}
@@ -0,0 +1,222 @@
+package langfiles.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An immutable node of the metadata of a SyncFile tree.
+ * <p>
+ * Nodes are never modified after created. A change create a new node for the
+ * changed file and for every directory up to the root (path copying), all
+ * other nodes are shared with the previous version. So a root node is a
+ * consistent view of the whole tree that can be read without any lock while
+ * the next version is being built.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class SyncFileSnapshot {
+
+  protected static final SyncFileSnapshot[] EMPTY_CHILDREN = new SyncFileSnapshot[0];
+  protected static final Comparator<SyncFileSnapshot> NAME_COMPARATOR = new Comparator<SyncFileSnapshot>() {
+
+    @Override
+    public int compare(SyncFileSnapshot o1, SyncFileSnapshot o2) {
+      return o1.name.compareTo(o2.name);
+    }
+  };
+  /**
+   * Every node created get a new version number, so the version of a root
+   * increase whenever anything inside changed.
+   */
+  protected static final AtomicLong versionCounter = new AtomicLong();
+  protected final String name;
+  protected final boolean isDirectory;
+  protected final long lastModified;
+  protected final long size;
+  protected final long version;
+  /**
+   * Sorted by name.
+   */
+  protected final SyncFileSnapshot[] children;
+
+  /**
+   * @param children should be sorted by name and not be modified afterward
+   */
+  protected SyncFileSnapshot(String name, boolean isDirectory, long lastModified, long size, SyncFileSnapshot[] children) {
+    this.name = name;
+    this.isDirectory = isDirectory;
+    this.lastModified = lastModified;
+    this.size = size;
+    this.children = children;
+    version = versionCounter.incrementAndGet();
+  }
+
+  protected static SyncFileSnapshot create(DirectoryWalker.Entry entry) {
+    return new SyncFileSnapshot(entry.getName(), entry.isDirectory(), entry.getLastModified(), entry.getSize(), EMPTY_CHILDREN);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public boolean isDirectory() {
+    return isDirectory;
+  }
+
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  /**
+   * Get the version of this node. A node with a larger version is newer.
+   * @return the version
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  public int getChildCount() {
+    return children.length;
+  }
+
+  /**
+   * Get the children, sorted by name.
+   * @return the unmodifiable list of children
+   */
+  public List<SyncFileSnapshot> getChildren() {
+    return Collections.unmodifiableList(Arrays.asList(children));
+  }
+
+  /**
+   * Get the child by name.
+   * @param name the file name
+   * @return the child, null if not found
+   */
+  public SyncFileSnapshot getChild(String name) {
+    int index = indexOf(name);
+    return index >= 0 ? children[index] : null;
+  }
+
+  /**
+   * Find the node by relative path.
+   * @param path the path relative to this node, both '/' and the platform
+   * file separator are accepted
+   * @return the node, null if not found
+   */
+  public SyncFileSnapshot find(String path) {
+    SyncFileSnapshot target = this;
+
+    int segmentStart = 0;
+    int end = path.length();
+    while (segmentStart < end) {
+      int segmentEnd = segmentStart;
+      while (segmentEnd < end && !PathSegment.isSeparator(path.charAt(segmentEnd))) {
+        segmentEnd++;
+      }
+      if (segmentEnd != segmentStart) {
+        target = target.getChild(path.substring(segmentStart, segmentEnd));
+        if (target == null) {
+          return null;
+        }
+      }
+      segmentStart = segmentEnd + 1;
+    }
+
+    return target;
+  }
+
+  /**
+   * Count this node and all nodes inside.
+   * @return the number of nodes
+   */
+  public int countNodes() {
+    int count = 1;
+    for (SyncFileSnapshot child : children) {
+      count += child.countNodes();
+    }
+    return count;
+  }
+
+  /**
+   * @return the index of the child, (-(insertion point) - 1) if not found
+   */
+  protected int indexOf(String name) {
+    int low = 0;
+    int high = children.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int compareResult = children[mid].name.compareTo(name);
+      if (compareResult < 0) {
+        low = mid + 1;
+      } else if (compareResult > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * @return a new node with the attributes changed and the same children
+   */
+  protected SyncFileSnapshot withAttributes(String name, boolean isDirectory, long lastModified, long size) {
+    return new SyncFileSnapshot(name, isDirectory, lastModified, size, isDirectory ? children : EMPTY_CHILDREN);
+  }
+
+  /**
+   * @return a new node with the child added, or replaced the one with the
+   * same name
+   */
+  protected SyncFileSnapshot withChild(SyncFileSnapshot child) {
+    int index = indexOf(child.name);
+    SyncFileSnapshot[] newChildren;
+    if (index >= 0) {
+      newChildren = children.clone();
+      newChildren[index] = child;
+    } else {
+      int insertionPoint = -index - 1;
+      newChildren = new SyncFileSnapshot[children.length + 1];
+      System.arraycopy(children, 0, newChildren, 0, insertionPoint);
+      newChildren[insertionPoint] = child;
+      System.arraycopy(children, insertionPoint, newChildren, insertionPoint + 1, children.length - insertionPoint);
+    }
+    return new SyncFileSnapshot(name, isDirectory, lastModified, size, newChildren);
+  }
+
+  /**
+   * @return a new node without the child, this node if the child not exist
+   */
+  protected SyncFileSnapshot withoutChild(String childName) {
+    int index = indexOf(childName);
+    if (index < 0) {
+      return this;
+    }
+    SyncFileSnapshot[] newChildren = new SyncFileSnapshot[children.length - 1];
+    System.arraycopy(children, 0, newChildren, 0, index);
+    System.arraycopy(children, index + 1, newChildren, index, children.length - index - 1);
+    return new SyncFileSnapshot(name, isDirectory, lastModified, size, newChildren);
+  }
+
+  /**
+   * @param newChildren the children in any order, the array will be sorted
+   * and kept by the new node
+   * @return a new node with all children replaced
+   */
+  protected SyncFileSnapshot withChildren(SyncFileSnapshot[] newChildren) {
+    Arrays.sort(newChildren, NAME_COMPARATOR);
+    return new SyncFileSnapshot(name, isDirectory, lastModified, size, newChildren.length == 0 ? EMPTY_CHILDREN : newChildren);
+  }
+
+  @Override
+  public String toString() {
+    return name + (isDirectory ? "/" : "") + " v" + version;
+  }
+}
@@ -0,0 +1,418 @@
+package langfiles.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Save the SyncFile trees to a compact binary file and restore them on next
+ * start, so a project can be shown without scanning the disk first. A
+ * restored tree should be verified against the disk with
+ * {@link #verifyLater(langfiles.util.SyncFile)}.
+ * <p>
+ * The loaded file stays mapped and a mapped file cannot be replaced on some
+ * platforms, so the trees are saved to a pending file beside it, which
+ * replaces the file on next {@link #load()} before mapping.
+ * </p>
+ * <p>
+ * File format (big-endian):
+ * <pre>
+ * file:   int magic, int format version, int root count, root...
+ * root:   string absolute path, int byte length, filter, node
+ * filter: string list allowed extensions, string list disallowed extensions,
+ *         string list ignored paths, string list ignore patterns
+ * node:   string name, byte flags,
+ *         if has SyncFile: long last modified, long size,
+ *           if has content hash: long content hash,
+ *           if directory: int child count, node...
+ * string list: int count, string...
+ * string: int byte length, UTF-8 bytes
+ * </pre>
+ * The filter of the tree is kept so a restored tree is only filtered again
+ * by what changed since.
+ * Nodes without SyncFile are the listed files that did not fufil the filter,
+ * only their names are kept, and whether they are directories or hidden if
+ * known. Files with SyncFile keep whether they are binary if sampled, and the
+ * hash of the content if read.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class SyncFileSnapshotStore {
+
+  private static final Logger LOG = Logger.getLogger(SyncFileSnapshotStore.class.getName());
+  protected static final int MAGIC = 0x4C465353;
+  protected static final int FORMAT_VERSION = 4;
+  protected static final byte FLAG_DIRECTORY = 1;
+  protected static final byte FLAG_SYNC_FILE = 2;
+  protected static final byte FLAG_HIDDEN = 4;
+  /**
+   * Set on the nodes without SyncFile if FLAG_DIRECTORY and FLAG_HIDDEN are
+   * known.
+   */
+  protected static final byte FLAG_KIND_KNOWN = 8;
+  /**
+   * Set on the file nodes with SyncFile if sampled, see
+   * {@link SyncFile#isBinary()}.
+   */
+  protected static final byte FLAG_TEXT = 16;
+  protected static final byte FLAG_BINARY = 32;
+  protected static final byte FLAG_CONTENT_HASH = 64;
+  protected static final Charset UTF8 = Charset.forName("UTF-8");
+  /**
+   * The store used by {@link langfiles.project.Project}, set by
+   * {@link langfiles.Main}.
+   */
+  protected static volatile SyncFileSnapshotStore defaultStore;
+  /**
+   * The thread that verify the restored trees, shared by all stores.
+   */
+  protected static final ExecutorService verifyExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "SyncFileSnapshotStore");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+  protected final File file;
+  /**
+   * The mapped content of the file loaded and the offset of each root in it.
+   */
+  protected ByteBuffer buffer;
+  protected final Map<String, Integer> rootOffsetMap;
+  /**
+   * The trees to save.
+   */
+  protected final List<SyncFile> syncFileList;
+
+  /**
+   * Constructor.
+   * @param file the file to load from and save to
+   */
+  public SyncFileSnapshotStore(File file) {
+    if (file == null) {
+      throw new NullPointerException("argument 'file' cannot be null");
+    }
+    this.file = file;
+    buffer = null;
+    rootOffsetMap = new HashMap<String, Integer>();
+    syncFileList = new ArrayList<SyncFile>();
+  }
+
+  public static SyncFileSnapshotStore getDefault() {
+    return defaultStore;
+  }
+
+  public static void setDefault(SyncFileSnapshotStore store) {
+    defaultStore = store;
+  }
+
+  /**
+   * Map the file into memory and index the roots in it. The pending file
+   * saved last time replaces the file first. Nothing is loaded if the file not
+   * exist or is not valid.
+   */
+  public synchronized void load() {
+    buffer = null;
+    rootOffsetMap.clear();
+    File pendingFile = getPendingFile();
+    if (pendingFile.isFile()) {
+      try {
+        Files.move(pendingFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      } catch (IOException ex) {
+        LOG.log(Level.INFO, "Failed to replace the snapshot file with the one saved last time: " + file.getAbsolutePath(), ex);
+      }
+    }
+    if (!file.isFile()) {
+      return;
+    }
+
+    RandomAccessFile randomAccessFile = null;
+    try {
+      randomAccessFile = new RandomAccessFile(file, "r");
+      FileChannel channel = randomAccessFile.getChannel();
+      MappedByteBuffer mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+      if (mappedBuffer.getInt() != MAGIC || mappedBuffer.getInt() != FORMAT_VERSION) {
+        LOG.log(Level.INFO, "Snapshot file is not valid or of another version, ignored: {0}", file.getAbsolutePath());
+        return;
+      }
+      for (int i = 0, iEnd = mappedBuffer.getInt(); i < iEnd; i++) {
+        String path = readString(mappedBuffer);
+        int length = mappedBuffer.getInt();
+        rootOffsetMap.put(path, mappedBuffer.position());
+        mappedBuffer.position(mappedBuffer.position() + length);
+      }
+      buffer = mappedBuffer;
+    } catch (IOException ex) {
+      LOG.log(Level.INFO, null, ex);
+    } catch (RuntimeException ex) {
+      // BufferUnderflowException, IllegalArgumentException from corrupted file
+      LOG.log(Level.INFO, "Snapshot file is corrupted, ignored: " + file.getAbsolutePath(), ex);
+      rootOffsetMap.clear();
+    } finally {
+      // the mapping stays valid after the channel is closed
+      CommonUtil.closeQuietly(randomAccessFile);
+    }
+  }
+
+  /**
+   * Create the SyncFile tree from the loaded snapshot, no directory is
+   * listed. The tree has the filter it had when saved.
+   * @param rootFile the file/directory of the root SyncFile
+   * @return the SyncFile, null if the snapshot does not contain the root or
+   * failed to read
+   */
+  public synchronized SyncFile restore(File rootFile) {
+    String path = rootFile.getAbsolutePath();
+    Integer offset = rootOffsetMap.get(path);
+    if (buffer == null || offset == null) {
+      return null;
+    }
+
+    long startTime = System.nanoTime();
+    ByteBuffer _buffer = buffer.duplicate();
+    _buffer.position(offset);
+    try {
+      SyncFileFilter filter = new SyncFileFilter(readStringList(_buffer), readStringList(_buffer), readStringList(_buffer),
+              readStringList(_buffer));
+      String name = readString(_buffer);
+      byte flags = _buffer.get();
+      if ((flags & FLAG_SYNC_FILE) == 0) {
+        return null;
+      }
+      SyncFile syncFile = readSyncFile(_buffer, null, rootFile, name, flags, filter);
+      LOG.log(Level.INFO, String.format("Restored %1$d files in %2$d ms, path: %3$s",
+              syncFile.getSnapshot().countNodes(), (System.nanoTime() - startTime) / 1000000L, path));
+      return syncFile;
+    } catch (BufferUnderflowException ex) {
+      LOG.log(Level.INFO, "Snapshot is corrupted, ignored: " + path, ex);
+    } catch (IOException ex) {
+      LOG.log(Level.INFO, null, ex);
+    }
+    return null;
+  }
+
+  protected SyncFile readSyncFile(ByteBuffer _buffer, SyncFile parent, File file, String name, byte flags,
+          SyncFileFilter filter) throws IOException {
+    boolean isDirectory = (flags & FLAG_DIRECTORY) != 0;
+    long lastModified = _buffer.getLong();
+    long size = _buffer.getLong();
+    long contentHash = (flags & FLAG_CONTENT_HASH) != 0 ? _buffer.getLong() : 0;
+    DirectoryWalker.Entry entry = new DirectoryWalker.Entry(file, name, isDirectory, false, lastModified, size);
+    SyncFile syncFile = new SyncFile(parent, entry, filter, false);
+    if (!isDirectory) {
+      syncFile.contentType = (flags & FLAG_BINARY) != 0 ? SyncFile.CONTENT_BINARY
+              : (flags & FLAG_TEXT) != 0 ? SyncFile.CONTENT_TEXT : SyncFile.CONTENT_UNKNOWN;
+      syncFile.contentHash = contentHash;
+      return syncFile;
+    }
+
+    List<String> childNameList = new ArrayList<String>();
+    List<SyncFile> childSyncFileList = new ArrayList<SyncFile>();
+    Map<String, Byte> excludedChildMap = new HashMap<String, Byte>();
+    for (int i = 0, iEnd = _buffer.getInt(); i < iEnd; i++) {
+      String childName = readString(_buffer);
+      byte childFlags = _buffer.get();
+      childNameList.add(childName);
+      if ((childFlags & FLAG_SYNC_FILE) != 0) {
+        childSyncFileList.add(readSyncFile(_buffer, syncFile, new File(file, childName), childName, childFlags, filter));
+      } else if ((childFlags & FLAG_KIND_KNOWN) != 0) {
+        excludedChildMap.put(childName, (byte) (((childFlags & FLAG_DIRECTORY) != 0 ? SyncFile.EXCLUDED_DIRECTORY : 0)
+                | ((childFlags & FLAG_HIDDEN) != 0 ? SyncFile.EXCLUDED_HIDDEN : 0)));
+      }
+    }
+    syncFile.restoreChildren(childNameList, childSyncFileList, excludedChildMap);
+
+    return syncFile;
+  }
+
+  /**
+   * Verify the restored tree against the disk in background, the listeners
+   * get the changes found in one
+   * {@link SyncFileListener#filesChanged(langfiles.util.SyncFileChangeBatch)}.
+   * @param syncFile the restored SyncFile
+   */
+  public void verifyLater(final SyncFile syncFile) {
+    verifyExecutor.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        long startTime = System.nanoTime();
+        SyncFileChangeBatch batch = syncFile.verify();
+        LOG.log(Level.INFO, String.format("Verified in %1$d ms, created: %2$d, deleted: %3$d, modified: %4$d, path: %5$s",
+                (System.nanoTime() - startTime) / 1000000L, batch.getCreatedFiles().size(), batch.getDeletedFiles().size(),
+                batch.getModifiedFiles().size(), syncFile.getAbsolutePath()));
+        syncFile.fireChangeBatchEvent(batch);
+      }
+    });
+  }
+
+  /**
+   * Add the tree to save.
+   * @param syncFile the root SyncFile
+   */
+  public synchronized void add(SyncFile syncFile) {
+    if (syncFileList.indexOf(syncFile) == -1) {
+      syncFileList.add(syncFile);
+    }
+  }
+
+  /**
+   * Remove the tree to save.
+   * @param syncFile the root SyncFile
+   */
+  public synchronized void remove(SyncFile syncFile) {
+    syncFileList.remove(syncFile);
+  }
+
+  /**
+   * Get the file saved to, it replaces the file on next {@link #load()}.
+   * @return the file
+   */
+  protected File getPendingFile() {
+    return new File(file.getAbsolutePath() + ".new");
+  }
+
+  /**
+   * Save all added trees. The file is written to a temporary file first and
+   * then moved to replace the pending file, the file mapped by
+   * {@link #load()} is not touched.
+   * @throws IOException error occurred when writing the file
+   */
+  public synchronized void save() throws IOException {
+    long startTime = System.nanoTime();
+
+    File tempFile = new File(file.getAbsolutePath() + ".tmp");
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 65536));
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(syncFileList.size());
+
+      ByteArrayOutputStream rootBytes = new ByteArrayOutputStream(65536);
+      for (SyncFile syncFile : syncFileList) {
+        rootBytes.reset();
+        DataOutputStream rootOut = new DataOutputStream(rootBytes);
+        SyncFileFilter filter = syncFile.getFilter();
+        writeStringList(rootOut, filter.getAllowedExtensions());
+        writeStringList(rootOut, filter.getDisallowedExtensions());
+        writeStringList(rootOut, filter.getIgnoredPaths());
+        writeStringList(rootOut, filter.getIgnorePatterns());
+        writeSyncFile(rootOut, syncFile);
+
+        writeString(out, syncFile.getAbsolutePath());
+        out.writeInt(rootBytes.size());
+        rootBytes.writeTo(out);
+      }
+    } finally {
+      CommonUtil.closeQuietly(out);
+    }
+
+    File pendingFile = getPendingFile();
+    Files.move(tempFile.toPath(), pendingFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+    LOG.log(Level.INFO, String.format("Saved %1$d trees in %2$d ms, path: %3$s",
+            syncFileList.size(), (System.nanoTime() - startTime) / 1000000L, pendingFile.getAbsolutePath()));
+  }
+
+  protected void writeSyncFile(DataOutputStream out, SyncFile syncFile) throws IOException {
+    SyncFileSnapshot snapshot = syncFile.getSnapshot();
+
+    writeString(out, snapshot.getName());
+    byte contentType = syncFile.contentType;
+    long contentHash = syncFile.contentHash;
+    out.writeByte(FLAG_SYNC_FILE | (snapshot.isDirectory() ? FLAG_DIRECTORY : 0)
+            | (contentType == SyncFile.CONTENT_TEXT ? FLAG_TEXT : contentType == SyncFile.CONTENT_BINARY ? FLAG_BINARY : 0)
+            | (contentHash != 0 ? FLAG_CONTENT_HASH : 0));
+    out.writeLong(snapshot.getLastModified());
+    out.writeLong(snapshot.getSize());
+    if (contentHash != 0) {
+      out.writeLong(contentHash);
+    }
+    if (!snapshot.isDirectory()) {
+      return;
+    }
+
+    Map<String, SyncFile> childSyncFileMap = new LinkedHashMap<String, SyncFile>();
+    for (SyncFile _syncFile : syncFile.getChildSyncFileList()) {
+      childSyncFileMap.put(_syncFile.getFileName(), _syncFile);
+    }
+    List<String> childNameList = new ArrayList<String>();
+    for (String childName : syncFile.getChildFileNameList()) {
+      if (!childSyncFileMap.containsKey(childName)) {
+        childNameList.add(childName);
+      }
+    }
+
+    out.writeInt(childSyncFileMap.size() + childNameList.size());
+    for (SyncFile _syncFile : childSyncFileMap.values()) {
+      writeSyncFile(out, _syncFile);
+    }
+    for (String childName : childNameList) {
+      writeString(out, childName);
+      int excludedFlags = syncFile.getExcludedChildFlags(childName);
+      out.writeByte(excludedFlags == -1 ? 0 : FLAG_KIND_KNOWN
+              | ((excludedFlags & SyncFile.EXCLUDED_DIRECTORY) != 0 ? FLAG_DIRECTORY : 0)
+              | ((excludedFlags & SyncFile.EXCLUDED_HIDDEN) != 0 ? FLAG_HIDDEN : 0));
+    }
+  }
+
+  protected static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(UTF8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  protected static String readString(ByteBuffer _buffer) throws IOException {
+    int length = _buffer.getInt();
+    if (length < 0 || length > _buffer.remaining()) {
+      throw new IOException("invalid string length: " + length);
+    }
+    byte[] bytes = new byte[length];
+    _buffer.get(bytes);
+    return new String(bytes, UTF8);
+  }
+
+  protected static void writeStringList(DataOutputStream out, List<String> list) throws IOException {
+    out.writeInt(list.size());
+    for (String s : list) {
+      writeString(out, s);
+    }
+  }
+
+  protected static List<String> readStringList(ByteBuffer _buffer) throws IOException {
+    int count = _buffer.getInt();
+    if (count < 0 || count > _buffer.remaining() / 4) {
+      throw new IOException("invalid list size: " + count);
+    }
+    List<String> list = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      list.add(readString(_buffer));
+    }
+    return list;
+  }
+}
@@ -0,0 +1,841 @@
+package langfiles.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.NotDirectoryException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link FileWatcher} that spends a limited budget of watches of another
+ * backend, and polls the rest of the directories.
+ * <p>
+ * Every directory of a watch is registered on the backend separately, without
+ * subtree. The directories are registered shallow first and hidden ones last,
+ * until the budget is used up, the rest are polled by listing them. The poll
+ * interval of a directory doubles every time nothing changed in it, up to
+ * {@value #MAX_POLL_INTERVAL} ms, and resets on change.
+ * </p>
+ * <p>
+ * {@link #addWatch(java.lang.String, int, boolean, langfiles.util.FileWatcherListener)}
+ * returns without listing the tree, the directories are registered in
+ * background by the poll thread, and listed without holding the lock of the
+ * manager. The changes in a directory before it is registered are not
+ * reported, the caller should check the tree after adding the watch if it
+ * matters.
+ * </p>
+ * <p>
+ * A polled directory that changed, or is set visible by
+ * {@link #setVisible(java.lang.String, boolean)}, is promoted to a live watch.
+ * If the budget is used up, the watched directory that is not visible and
+ * has been quiet for the longest time is demoted to polling for it.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class WatchBudgetManager implements FileWatcher {
+
+  private static final Logger LOG = Logger.getLogger(WatchBudgetManager.class.getName());
+  /**
+   * The system property to set the default budget.
+   */
+  public static final String PROPERTY_NAME = "langfiles.watchBudget";
+  public static final long MIN_POLL_INTERVAL = 1000;
+  public static final long MAX_POLL_INTERVAL = 64000;
+  /**
+   * A watched directory is only demoted for a changed polled directory after
+   * it has been quiet for this long, in milli second.
+   */
+  protected static final long DEMOTE_QUIET_TIME = MAX_POLL_INTERVAL;
+  protected final FileWatcher fileWatcher;
+  protected int budget;
+  protected final AtomicInteger watchIdCounter;
+  protected final Map<Integer, Watch> watchMap;
+  protected final Set<Directory> watchedDirectorySet;
+  protected final Set<Directory> polledDirectorySet;
+  protected final ScheduledExecutorService pollExecutor;
+  protected final Object managerLock = new Object();
+  // metrics
+  protected final ThreadMXBean threadMXBean;
+  protected final boolean cpuTimeSupported;
+  protected final AtomicLong pollCount;
+  protected final AtomicLong pollCpuTime;
+  protected final AtomicLong promotionCount;
+  protected final AtomicLong demotionCount;
+
+  /**
+   * Constructor.
+   * @param fileWatcher the backend to add the watches on
+   * @param budget the maximum number of watches to add on the backend
+   */
+  public WatchBudgetManager(FileWatcher fileWatcher, int budget) {
+    if (fileWatcher == null) {
+      throw new NullPointerException("argument 'fileWatcher' cannot be null");
+    }
+    if (budget < 0) {
+      throw new IllegalArgumentException("argument 'budget' cannot be negative");
+    }
+    this.fileWatcher = fileWatcher;
+    this.budget = budget;
+    watchIdCounter = new AtomicInteger();
+    watchMap = new HashMap<Integer, Watch>();
+    watchedDirectorySet = new LinkedHashSet<Directory>();
+    polledDirectorySet = new LinkedHashSet<Directory>();
+
+    threadMXBean = ManagementFactory.getThreadMXBean();
+    cpuTimeSupported = threadMXBean.isCurrentThreadCpuTimeSupported() && threadMXBean.isThreadCpuTimeEnabled();
+    pollCount = new AtomicLong();
+    pollCpuTime = new AtomicLong();
+    promotionCount = new AtomicLong();
+    demotionCount = new AtomicLong();
+
+    pollExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "WatchBudgetManager");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    pollExecutor.scheduleWithFixedDelay(new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          pollDirectories();
+        } catch (Exception ex) {
+          // keep the scheduled task alive
+          LOG.log(Level.SEVERE, null, ex);
+        }
+      }
+    }, MIN_POLL_INTERVAL / 2, MIN_POLL_INTERVAL / 2, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Get the default budget. It is the system property {@value #PROPERTY_NAME}
+   * if set, otherwise half of the inotify max_user_watches, the other half is
+   * left for the other programs of the user.
+   * @return the budget
+   */
+  public static int getDefaultBudget() {
+    String property = System.getProperty(PROPERTY_NAME);
+    if (property != null) {
+      try {
+        return Integer.parseInt(property.trim());
+      } catch (NumberFormatException ex) {
+        LOG.log(Level.WARNING, "Invalid watch budget: {0}", property);
+      }
+    }
+
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new FileReader("/proc/sys/fs/inotify/max_user_watches"));
+      return Math.max(Integer.parseInt(reader.readLine().trim()) / 2, 1);
+    } catch (Exception ex) {
+      LOG.log(Level.FINE, null, ex);
+      return 8192;
+    } finally {
+      CommonUtil.closeQuietly(reader);
+    }
+  }
+
+  @Override
+  public int addWatch(String path, int mask, boolean watchSubtree, FileWatcherListener listener) throws IOException {
+    if (path == null) {
+      throw new NullPointerException("argument 'path' cannot be null");
+    }
+    if (listener == null) {
+      throw new NullPointerException("argument 'listener' cannot be null");
+    }
+    File root = new File(path).getAbsoluteFile();
+    if (!root.isDirectory()) {
+      throw new NotDirectoryException(path);
+    }
+
+    final Watch watch = new Watch(watchIdCounter.incrementAndGet(), path, root, mask, watchSubtree, listener);
+    synchronized (managerLock) {
+      watchMap.put(watch.watchId, watch);
+    }
+    pollExecutor.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          long startTime = System.nanoTime();
+          register(watch, "", null);
+          int directoryCount;
+          synchronized (managerLock) {
+            directoryCount = watch.directoryMap.size();
+          }
+          LOG.log(Level.FINE, String.format("Registered %1$d directories in %2$d ms, path: %3$s",
+                  directoryCount, (System.nanoTime() - startTime) / 1000000L, watch.rootPath));
+        } catch (Exception ex) {
+          LOG.log(Level.SEVERE, null, ex);
+        }
+      }
+    });
+    return watch.watchId;
+  }
+
+  @Override
+  public boolean removeWatch(int watchId) throws IOException {
+    synchronized (managerLock) {
+      Watch watch = watchMap.remove(watchId);
+      if (watch == null) {
+        return false;
+      }
+      for (Directory directory : watch.directoryMap.values()) {
+        stopWatch(directory);
+        stopPoll(directory);
+      }
+      watch.directoryMap.clear();
+      return true;
+    }
+  }
+
+  @Override
+  public String getName() {
+    return fileWatcher.getName() + "+poll";
+  }
+
+  /**
+   * Mark a directory as visible to the user, it is promoted to a live watch
+   * and never demoted until it is set invisible.
+   * @param path the absolute path of the directory
+   * @param visible true if visible, false if not
+   */
+  public void setVisible(String path, boolean visible) {
+    if (path == null) {
+      throw new NullPointerException("argument 'path' cannot be null");
+    }
+    List<Event> eventList = new ArrayList<Event>();
+    List<Event> registerList = new ArrayList<Event>();
+    synchronized (managerLock) {
+      for (Watch watch : watchMap.values()) {
+        String name = getRelativeName(watch, path);
+        Directory directory = name != null ? watch.directoryMap.get(name) : null;
+        if (directory == null) {
+          continue;
+        }
+        directory.visible = visible;
+        if (visible && directory.entryNames != null) {
+          promote(directory, true, eventList, registerList);
+        }
+      }
+    }
+    register(registerList, eventList);
+    dispatch(eventList);
+  }
+
+  /**
+   * Register the directory and, if the watch is on subtree, the directories
+   * inside, breadth first with the hidden directories after the others. The
+   * directories are listed without managerLock held, should be called without
+   * it held.
+   * @param eventList if not null, the create events of the files and
+   * directories found inside are added to it
+   */
+  protected void register(Watch watch, String name, List<Event> eventList) {
+    LinkedList<String> queue = new LinkedList<String>();
+    LinkedList<String> hiddenQueue = new LinkedList<String>();
+    queue.add(name);
+
+    while (!queue.isEmpty() || !hiddenQueue.isEmpty()) {
+      boolean isHidden = queue.isEmpty();
+      String directoryName = isHidden ? hiddenQueue.removeFirst() : queue.removeFirst();
+      Directory directory = new Directory(watch, directoryName, directoryName.isEmpty() ? watch.root : new File(watch.root, directoryName));
+      boolean watched;
+      synchronized (managerLock) {
+        if (watchMap.get(watch.watchId) != watch) {
+          // removed in between
+          return;
+        }
+        if (watch.directoryMap.containsKey(directoryName)) {
+          continue;
+        }
+        watch.directoryMap.put(directoryName, directory);
+        // start the watch before listing, so nothing is missed in between
+        watched = getWatchCount() < budget && startWatch(directory);
+      }
+
+      List<DirectoryWalker.Entry> entryList = DirectoryWalker.list(directory.file);
+      if (!watched) {
+        synchronized (managerLock) {
+          if (watch.directoryMap.get(directoryName) == directory && directory.delegateWatchId == -1 && directory.entryNames == null) {
+            startPoll(directory, entryList);
+          }
+        }
+      }
+
+      if (!watch.watchSubtree) {
+        continue;
+      }
+      for (DirectoryWalker.Entry entry : entryList) {
+        String entryName = getChildName(directoryName, entry.getName());
+        if (eventList != null) {
+          eventList.add(new Event(watch, FILE_CREATED, entryName, null));
+        }
+        if (entry.isDirectory()) {
+          if (isHidden || entry.isHidden()) {
+            hiddenQueue.add(entryName);
+          } else {
+            queue.add(entryName);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Register the directories created, found by
+   * {@link #compare(langfiles.util.WatchBudgetManager.Directory, java.util.List, java.util.List, java.util.List)}.
+   * Should be called without managerLock held.
+   * @param registerList the create events of the directories
+   * @param eventList the create events of the files and directories found
+   * inside are added to it
+   */
+  protected void register(List<Event> registerList, List<Event> eventList) {
+    for (Event event : registerList) {
+      register(event.watch, event.name, eventList);
+    }
+  }
+
+  /**
+   * Unregister the directory and the directories inside. Should be called
+   * with managerLock held.
+   */
+  protected void unregister(Watch watch, String name) {
+    String prefix = name + File.separator;
+    Iterator<Map.Entry<String, Directory>> iterator = watch.directoryMap.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, Directory> mapEntry = iterator.next();
+      String directoryName = mapEntry.getKey();
+      if (name.isEmpty() || directoryName.equals(name) || directoryName.startsWith(prefix)) {
+        stopWatch(mapEntry.getValue());
+        stopPoll(mapEntry.getValue());
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Add the watch of the directory on the backend. Should be called with
+   * managerLock held.
+   * @return true if succeed, false if not
+   */
+  protected boolean startWatch(Directory directory) {
+    try {
+      directory.delegateWatchId = fileWatcher.addWatch(directory.file.getPath(), directory.watch.mask | FILE_CREATED | FILE_DELETED | FILE_RENAMED, false, new DirectoryListener(directory));
+    } catch (IOException ex) {
+      if (directory.file.isDirectory() && budget > getWatchCount()) {
+        // most likely the limit of the system is reached, e.g. max_user_watches of inotify
+        LOG.log(Level.WARNING, "Failed to add watch on " + directory.file.getPath() + ", the watch budget is lowered from " + budget + " to " + getWatchCount(), ex);
+        budget = getWatchCount();
+      }
+      return false;
+    }
+    watchedDirectorySet.add(directory);
+    return true;
+  }
+
+  /**
+   * Should be called with managerLock held.
+   */
+  protected void stopWatch(Directory directory) {
+    if (directory.delegateWatchId == -1) {
+      return;
+    }
+    try {
+      fileWatcher.removeWatch(directory.delegateWatchId);
+    } catch (IOException ex) {
+      LOG.log(Level.FINE, null, ex);
+    }
+    directory.delegateWatchId = -1;
+    watchedDirectorySet.remove(directory);
+  }
+
+  /**
+   * Should be called with managerLock held.
+   * @param entryList the current entries of the directory, changes are
+   * compared to it on next poll
+   */
+  protected void startPoll(Directory directory, List<DirectoryWalker.Entry> entryList) {
+    setEntries(directory, sortEntries(entryList));
+    directory.pollInterval = MIN_POLL_INTERVAL;
+    directory.nextPollTime = System.currentTimeMillis() + MIN_POLL_INTERVAL;
+    polledDirectorySet.add(directory);
+  }
+
+  /**
+   * Should be called with managerLock held.
+   */
+  protected void stopPoll(Directory directory) {
+    if (directory.entryNames == null) {
+      return;
+    }
+    directory.entryNames = null;
+    directory.entryAttributes = null;
+    polledDirectorySet.remove(directory);
+  }
+
+  protected static DirectoryWalker.Entry[] sortEntries(List<DirectoryWalker.Entry> entryList) {
+    DirectoryWalker.Entry[] entries = entryList.toArray(new DirectoryWalker.Entry[entryList.size()]);
+    Arrays.sort(entries, new Comparator<DirectoryWalker.Entry>() {
+
+      @Override
+      public int compare(DirectoryWalker.Entry entry1, DirectoryWalker.Entry entry2) {
+        return entry1.getName().compareTo(entry2.getName());
+      }
+    });
+    return entries;
+  }
+
+  /**
+   * Keep the entries of the polled directory to compare with on next poll.
+   * @param entries the entries sorted by name
+   */
+  protected static void setEntries(Directory directory, DirectoryWalker.Entry[] entries) {
+    String[] entryNames = new String[entries.length];
+    long[] entryAttributes = new long[entries.length * 2];
+    for (int i = 0; i < entries.length; i++) {
+      entryNames[i] = entries[i].getName();
+      entryAttributes[i * 2] = entries[i].getLastModified();
+      entryAttributes[i * 2 + 1] = entries[i].isDirectory() ? -1 : entries[i].getSize();
+    }
+    directory.entryNames = entryNames;
+    directory.entryAttributes = entryAttributes;
+  }
+
+  /**
+   * Move a polled directory to a live watch, demote the coldest watched
+   * directory if the budget is used up. Should be called with managerLock
+   * held.
+   * @param force true to demote the coldest watched directory even it is not
+   * quiet for {@link #DEMOTE_QUIET_TIME}
+   * @param registerList the create events of the directories to register
+   * after the lock is released are added to it
+   * @return true if promoted, false if not
+   */
+  protected boolean promote(Directory directory, boolean force, List<Event> eventList, List<Event> registerList) {
+    if (getWatchCount() >= budget) {
+      Directory coldestDirectory = null;
+      for (Directory watchedDirectory : watchedDirectorySet) {
+        if (!watchedDirectory.visible && (coldestDirectory == null || watchedDirectory.lastActivity < coldestDirectory.lastActivity)) {
+          coldestDirectory = watchedDirectory;
+        }
+      }
+      if (coldestDirectory == null
+              || (!force && coldestDirectory.lastActivity > System.currentTimeMillis() - DEMOTE_QUIET_TIME)) {
+        return false;
+      }
+      demote(coldestDirectory);
+    }
+
+    if (!startWatch(directory)) {
+      return false;
+    }
+    // catch the changes made since the last poll
+    compare(directory, DirectoryWalker.list(directory.file), eventList, registerList);
+    stopPoll(directory);
+    promotionCount.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Move a watched directory to polling. Should be called with managerLock
+   * held.
+   */
+  protected void demote(Directory directory) {
+    // list before removing the watch, changes in between are reported twice
+    // rather than lost
+    List<DirectoryWalker.Entry> entryList = DirectoryWalker.list(directory.file);
+    stopWatch(directory);
+    startPoll(directory, entryList);
+    demotionCount.incrementAndGet();
+  }
+
+  /**
+   * Poll the directories that are due, run by pollExecutor.
+   */
+  protected void pollDirectories() {
+    List<Directory> dueDirectoryList = new ArrayList<Directory>();
+    synchronized (managerLock) {
+      long currentTime = System.currentTimeMillis();
+      for (Directory directory : polledDirectorySet) {
+        if (directory.nextPollTime <= currentTime) {
+          dueDirectoryList.add(directory);
+        }
+      }
+    }
+
+    for (Directory directory : dueDirectoryList) {
+      long cpuTime = getCpuTime();
+      List<Event> eventList = new ArrayList<Event>();
+      List<Event> registerList = new ArrayList<Event>();
+
+      if (directory.file.isDirectory()) {
+        List<DirectoryWalker.Entry> entryList = DirectoryWalker.list(directory.file);
+        synchronized (managerLock) {
+          if (directory.entryNames != null) {
+            long currentTime = System.currentTimeMillis();
+            if (compare(directory, entryList, eventList, registerList)) {
+              directory.lastActivity = currentTime;
+              directory.pollInterval = MIN_POLL_INTERVAL;
+            } else {
+              directory.pollInterval = Math.min(directory.pollInterval * 2, MAX_POLL_INTERVAL);
+            }
+            directory.nextPollTime = currentTime + directory.pollInterval;
+            if (!eventList.isEmpty() && directory.watch.directoryMap.get(directory.name) == directory) {
+              promote(directory, false, eventList, registerList);
+            }
+          }
+        }
+        register(registerList, eventList);
+      }
+      // else the directory is deleted, the watch or poll of its parent report it
+
+      pollCpuTime.addAndGet(getCpuTime() - cpuTime);
+      pollCount.incrementAndGet();
+      dispatch(eventList);
+    }
+  }
+
+  /**
+   * Compare the listed entries to the last listing of the polled directory
+   * and add the events of the changes to the event list. Should be called
+   * with managerLock held.
+   * @param registerList the create events of the directories created are
+   * added to it, to register after the lock is released
+   * @return true if anything changed, false if not
+   */
+  protected boolean compare(Directory directory, List<DirectoryWalker.Entry> entryList, List<Event> eventList, List<Event> registerList) {
+    Watch watch = directory.watch;
+    DirectoryWalker.Entry[] entries = sortEntries(entryList);
+    String[] oldNames = directory.entryNames;
+    long[] oldAttributes = directory.entryAttributes;
+    boolean changed = false;
+
+    // both sorted by name
+    int i = 0;
+    int j = 0;
+    while (i < oldNames.length || j < entries.length) {
+      int diff = i == oldNames.length ? 1 : j == entries.length ? -1 : oldNames[i].compareTo(entries[j].getName());
+      if (diff < 0) {
+        addDeleteEvent(watch, getChildName(directory.name, oldNames[i]), oldAttributes[i * 2 + 1] == -1, eventList);
+        changed = true;
+        i++;
+        continue;
+      }
+
+      DirectoryWalker.Entry entry = entries[j];
+      String name = getChildName(directory.name, entry.getName());
+      boolean created = diff > 0;
+      if (!created) {
+        boolean wasDirectory = oldAttributes[i * 2 + 1] == -1;
+        if (wasDirectory != entry.isDirectory()) {
+          addDeleteEvent(watch, name, wasDirectory, eventList);
+          created = true;
+        } else if (!entry.isDirectory() && (oldAttributes[i * 2] != entry.getLastModified() || oldAttributes[i * 2 + 1] != entry.getSize())) {
+          eventList.add(new Event(watch, FILE_MODIFIED, name, null));
+          changed = true;
+        }
+        i++;
+      }
+      if (created) {
+        Event event = new Event(watch, FILE_CREATED, name, null);
+        eventList.add(event);
+        if (watch.watchSubtree && entry.isDirectory()) {
+          registerList.add(event);
+        }
+        changed = true;
+      }
+      j++;
+    }
+
+    setEntries(directory, entries);
+    return changed;
+  }
+
+  protected void addDeleteEvent(Watch watch, String name, boolean isDirectory, List<Event> eventList) {
+    eventList.add(new Event(watch, FILE_DELETED, name, null));
+    if (watch.watchSubtree && isDirectory) {
+      unregister(watch, name);
+    }
+  }
+
+  /**
+   * Handle an event from the backend on a watched directory.
+   */
+  protected void handleEvent(Directory directory, int type, String name, String newName) {
+    Watch watch = directory.watch;
+    List<Event> eventList = new ArrayList<Event>();
+    String fullName = getChildName(directory.name, name);
+    String fullNewName = newName != null ? getChildName(directory.name, newName) : null;
+    synchronized (managerLock) {
+      if (watch.directoryMap.get(directory.name) != directory) {
+        // removed in between
+        return;
+      }
+      directory.lastActivity = System.currentTimeMillis();
+
+      eventList.add(new Event(watch, type, fullName, fullNewName));
+      if (watch.watchSubtree && (type == FILE_DELETED || type == FILE_RENAMED)) {
+        unregister(watch, fullName);
+      }
+    }
+    // registered without the lock, the directory is listed
+    if (watch.watchSubtree) {
+      if (type == FILE_CREATED && new File(watch.root, fullName).isDirectory()) {
+        register(watch, fullName, eventList);
+      } else if (type == FILE_RENAMED && new File(watch.root, fullNewName).isDirectory()) {
+        register(watch, fullNewName, null);
+      }
+    }
+    dispatch(eventList);
+  }
+
+  /**
+   * Deliver the events, should be called without managerLock held.
+   */
+  protected void dispatch(List<Event> eventList) {
+    for (Event event : eventList) {
+      Watch watch = event.watch;
+      if ((watch.mask & event.type) == 0) {
+        continue;
+      }
+      try {
+        switch (event.type) {
+          case FILE_CREATED:
+            watch.listener.fileCreated(watch.watchId, watch.rootPath, event.name);
+            break;
+          case FILE_DELETED:
+            watch.listener.fileDeleted(watch.watchId, watch.rootPath, event.name);
+            break;
+          case FILE_MODIFIED:
+            watch.listener.fileModified(watch.watchId, watch.rootPath, event.name);
+            break;
+          case FILE_RENAMED:
+            watch.listener.fileRenamed(watch.watchId, watch.rootPath, event.name, event.newName);
+            break;
+        }
+      } catch (Exception ex) {
+        // keep delivering the rest
+        LOG.log(Level.SEVERE, null, ex);
+      }
+    }
+  }
+
+  protected static String getChildName(String directoryName, String name) {
+    return directoryName.isEmpty() ? name : directoryName + File.separator + name;
+  }
+
+  /**
+   * @return the name relative to the root of the watch, null if the path is
+   * not inside the root
+   */
+  protected static String getRelativeName(Watch watch, String path) {
+    String rootPath = watch.root.getPath();
+    if (path.equals(rootPath)) {
+      return "";
+    }
+    if (path.startsWith(rootPath) && path.length() > rootPath.length() + 1 && path.charAt(rootPath.length()) == File.separatorChar) {
+      return path.substring(rootPath.length() + 1);
+    }
+    return null;
+  }
+
+  protected long getCpuTime() {
+    return cpuTimeSupported ? threadMXBean.getCurrentThreadCpuTime() : System.nanoTime();
+  }
+
+  /**
+   * Remove all watches from the backend and stop polling.
+   */
+  public void close() {
+    synchronized (managerLock) {
+      for (Watch watch : watchMap.values()) {
+        unregister(watch, "");
+      }
+      watchMap.clear();
+    }
+    pollExecutor.shutdownNow();
+  }
+
+  public FileWatcher getFileWatcher() {
+    return fileWatcher;
+  }
+
+  public int getBudget() {
+    synchronized (managerLock) {
+      return budget;
+    }
+  }
+
+  /**
+   * Get the number of watches added on the backend.
+   * @return the number of watches
+   */
+  public int getWatchCount() {
+    synchronized (managerLock) {
+      return watchedDirectorySet.size();
+    }
+  }
+
+  public int getPolledDirectoryCount() {
+    synchronized (managerLock) {
+      return polledDirectorySet.size();
+    }
+  }
+
+  public long getPollCount() {
+    return pollCount.get();
+  }
+
+  /**
+   * Get the CPU time spent on polling, the wall time is counted instead if
+   * the thread CPU time is not supported by the JVM.
+   * @return the time in nano second
+   */
+  public long getPollCpuTime() {
+    return pollCpuTime.get();
+  }
+
+  public long getPromotionCount() {
+    return promotionCount.get();
+  }
+
+  public long getDemotionCount() {
+    return demotionCount.get();
+  }
+
+  protected static class Watch {
+
+    protected final int watchId;
+    /**
+     * The path as given in addWatch, reported in events.
+     */
+    protected final String rootPath;
+    protected final File root;
+    protected final int mask;
+    protected final boolean watchSubtree;
+    protected final FileWatcherListener listener;
+    /**
+     * Name relative to the root - directory, the root is "".
+     */
+    protected final Map<String, Directory> directoryMap;
+
+    protected Watch(int watchId, String rootPath, File root, int mask, boolean watchSubtree, FileWatcherListener listener) {
+      this.watchId = watchId;
+      this.rootPath = rootPath;
+      this.root = root;
+      this.mask = mask;
+      this.watchSubtree = watchSubtree;
+      this.listener = listener;
+      directoryMap = new HashMap<String, Directory>();
+    }
+  }
+
+  protected static class Directory {
+
+    protected final Watch watch;
+    protected final String name;
+    protected final File file;
+    /**
+     * The watch id on the backend, -1 if not watched.
+     */
+    protected int delegateWatchId;
+    protected boolean visible;
+    protected long lastActivity;
+    /**
+     * The names of the entries found on last poll, sorted, null if not
+     * polled. Kept in arrays rather than as {@link DirectoryWalker.Entry},
+     * which holds a File for every entry.
+     */
+    protected String[] entryNames;
+    /**
+     * The last modified time and the size of each entry of entryNames, the
+     * size is -1 for a directory.
+     */
+    protected long[] entryAttributes;
+    protected long pollInterval;
+    protected long nextPollTime;
+
+    protected Directory(Watch watch, String name, File file) {
+      this.watch = watch;
+      this.name = name;
+      this.file = file;
+      delegateWatchId = -1;
+      visible = false;
+      lastActivity = 0;
+      entryNames = null;
+      entryAttributes = null;
+    }
+  }
+
+  protected static class Event {
+
+    protected final Watch watch;
+    protected final int type;
+    protected final String name;
+    protected final String newName;
+
+    protected Event(Watch watch, int type, String name, String newName) {
+      this.watch = watch;
+      this.type = type;
+      this.name = name;
+      this.newName = newName;
+    }
+  }
+
+  /**
+   * Listen to the backend watch of one directory.
+   */
+  protected class DirectoryListener implements FileWatcherListener {
+
+    protected final Directory directory;
+
+    protected DirectoryListener(Directory directory) {
+      this.directory = directory;
+    }
+
+    @Override
+    public void fileCreated(int watchId, String rootPath, String name) {
+      handleEvent(directory, FILE_CREATED, name, null);
+    }
+
+    @Override
+    public void fileDeleted(int watchId, String rootPath, String name) {
+      handleEvent(directory, FILE_DELETED, name, null);
+    }
+
+    @Override
+    public void fileModified(int watchId, String rootPath, String name) {
+      handleEvent(directory, FILE_MODIFIED, name, null);
+    }
+
+    @Override
+    public void fileRenamed(int watchId, String rootPath, String oldName, String newName) {
+      handleEvent(directory, FILE_RENAMED, oldName, newName);
+    }
+  }
+}
@@ -0,0 +1,400 @@
+package langfiles.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link FileWatcher} backed by {@link java.nio.file.WatchService}, no native
+ * library is needed.
+ * <p>
+ * A watch on subtree registers every directory inside, new directories are
+ * registered when their create event arrives and the files already inside
+ * them are reported as created, so nothing is missed between the creation
+ * and the registration. Renames are reported as delete and create, the
+ * WatchService does not pair them.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class WatchServiceFileWatcher implements FileWatcher {
+
+  private static final Logger LOG = Logger.getLogger(WatchServiceFileWatcher.class.getName());
+  protected final WatchService watchService;
+  protected final AtomicInteger watchIdCounter;
+  protected final Map<Integer, Watch> watchMap;
+  /**
+   * A directory registered by several watches share the same key.
+   */
+  protected final Map<WatchKey, List<WatchedDirectory>> keyMap;
+  protected Thread pollThread;
+  protected final Object watcherLock = new Object();
+
+  /**
+   * Constructor.
+   * @throws IOException failed to create the WatchService
+   */
+  public WatchServiceFileWatcher() throws IOException {
+    watchService = FileSystems.getDefault().newWatchService();
+    watchIdCounter = new AtomicInteger();
+    watchMap = new HashMap<Integer, Watch>();
+    keyMap = new HashMap<WatchKey, List<WatchedDirectory>>();
+    pollThread = null;
+  }
+
+  @Override
+  public int addWatch(String path, int mask, boolean watchSubtree, FileWatcherListener listener) throws IOException {
+    if (path == null) {
+      throw new NullPointerException("argument 'path' cannot be null");
+    }
+    if (listener == null) {
+      throw new NullPointerException("argument 'listener' cannot be null");
+    }
+    Path root = Paths.get(path).toAbsolutePath();
+    if (!Files.isDirectory(root)) {
+      throw new NotDirectoryException(path);
+    }
+
+    Watch watch = new Watch(watchIdCounter.incrementAndGet(), path, root, mask, watchSubtree, listener);
+    synchronized (watcherLock) {
+      watchMap.put(watch.watchId, watch);
+      try {
+        register(watch, root, null);
+      } catch (IOException ex) {
+        removeWatch(watch.watchId);
+        throw ex;
+      }
+
+      if (pollThread == null) {
+        pollThread = new Thread(new Runnable() {
+
+          @Override
+          public void run() {
+            poll();
+          }
+        }, "WatchServiceFileWatcher");
+        pollThread.setDaemon(true);
+        pollThread.start();
+      }
+    }
+
+    return watch.watchId;
+  }
+
+  @Override
+  public boolean removeWatch(int watchId) throws IOException {
+    synchronized (watcherLock) {
+      Watch watch = watchMap.remove(watchId);
+      if (watch == null) {
+        return false;
+      }
+      for (WatchKey key : watch.keySet) {
+        List<WatchedDirectory> directoryList = keyMap.get(key);
+        if (directoryList == null) {
+          continue;
+        }
+        for (int i = directoryList.size() - 1; i >= 0; i--) {
+          if (directoryList.get(i).watch == watch) {
+            directoryList.remove(i);
+          }
+        }
+        if (directoryList.isEmpty()) {
+          keyMap.remove(key);
+          key.cancel();
+        }
+      }
+      watch.keySet.clear();
+      watch.directoryMap.clear();
+      return true;
+    }
+  }
+
+  @Override
+  public String getName() {
+    return "watchservice";
+  }
+
+  /**
+   * Register the directory, and the directories inside if the watch is on
+   * subtree. Should be called with watcherLock held.
+   * @param createdNameList if not null, the names of the files and
+   * directories found inside are added to it
+   */
+  protected void register(final Watch watch, final Path directory, final List<String> createdNameList) throws IOException {
+    if (!watch.watchSubtree) {
+      registerDirectory(watch, directory);
+      return;
+    }
+    Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) throws IOException {
+        registerDirectory(watch, dir);
+        if (createdNameList != null && !dir.equals(directory)) {
+          createdNameList.add(watch.root.relativize(dir).toString());
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+        if (createdNameList != null) {
+          createdNameList.add(watch.root.relativize(file).toString());
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException ex) throws IOException {
+        // deleted in between
+        LOG.log(Level.FINE, null, ex);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  protected void registerDirectory(Watch watch, Path directory) throws IOException {
+    WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+    List<WatchedDirectory> directoryList = keyMap.get(key);
+    if (directoryList == null) {
+      directoryList = new ArrayList<WatchedDirectory>(1);
+      keyMap.put(key, directoryList);
+    }
+    for (WatchedDirectory watchedDirectory : directoryList) {
+      if (watchedDirectory.watch == watch) {
+        // a renamed directory keeps its key on some platforms, the events should be resolved against the new path
+        if (watch.directoryMap.get(watchedDirectory.directory.toString()) == key) {
+          watch.directoryMap.remove(watchedDirectory.directory.toString());
+        }
+        watchedDirectory.directory = directory;
+        watch.directoryMap.put(directory.toString(), key);
+        return;
+      }
+    }
+    directoryList.add(new WatchedDirectory(watch, directory));
+    watch.keySet.add(key);
+    watch.directoryMap.put(directory.toString(), key);
+  }
+
+  /**
+   * Remove the registrations of the watch on the directory and the directories
+   * inside, the keys not used by other watches are cancelled. Should be called
+   * with watcherLock held.
+   */
+  protected void unregister(Watch watch, Path directory) {
+    String path = directory.toString();
+    WatchKey key = watch.directoryMap.remove(path);
+    if (key != null) {
+      unregister(watch, key, directory);
+    }
+    // the paths inside the directory, they sort between the path followed by the separator and the next char
+    Map<String, WatchKey> subDirectoryMap = watch.directoryMap.subMap(path + File.separatorChar, path + (char) (File.separatorChar + 1));
+    for (WatchKey subDirectoryKey : subDirectoryMap.values()) {
+      unregister(watch, subDirectoryKey, directory);
+    }
+    subDirectoryMap.clear();
+  }
+
+  /**
+   * Remove the registration of the watch on the key if it is on the directory
+   * or inside, cancel the key if not used by other watches. Should be called
+   * with watcherLock held.
+   */
+  protected void unregister(Watch watch, WatchKey key, Path directory) {
+    List<WatchedDirectory> directoryList = keyMap.get(key);
+    if (directoryList == null) {
+      watch.keySet.remove(key);
+      return;
+    }
+    for (int i = directoryList.size() - 1; i >= 0; i--) {
+      WatchedDirectory watchedDirectory = directoryList.get(i);
+      // a key moved to a new path by a rename is kept
+      if (watchedDirectory.watch == watch && watchedDirectory.directory.startsWith(directory)) {
+        directoryList.remove(i);
+        watch.keySet.remove(key);
+      }
+    }
+    if (directoryList.isEmpty()) {
+      keyMap.remove(key);
+      key.cancel();
+    }
+  }
+
+  /**
+   * The loop run by pollThread.
+   */
+  protected void poll() {
+    while (true) {
+      WatchKey key;
+      try {
+        key = watchService.take();
+      } catch (InterruptedException ex) {
+        return;
+      } catch (ClosedWatchServiceException ex) {
+        return;
+      }
+
+      List<WatchedDirectory> directoryList;
+      synchronized (watcherLock) {
+        List<WatchedDirectory> _directoryList = keyMap.get(key);
+        directoryList = _directoryList != null ? new ArrayList<WatchedDirectory>(_directoryList) : new ArrayList<WatchedDirectory>();
+      }
+
+      for (WatchEvent<?> event : key.pollEvents()) {
+        WatchEvent.Kind<?> kind = event.kind();
+        if (kind == StandardWatchEventKinds.OVERFLOW) {
+          LOG.log(Level.WARNING, "WatchService event overflow, events are lost");
+          continue;
+        }
+        for (WatchedDirectory watchedDirectory : directoryList) {
+          try {
+            dispatch(watchedDirectory, kind, watchedDirectory.directory.resolve((Path) event.context()));
+          } catch (Exception ex) {
+            // keep delivering the rest
+            LOG.log(Level.SEVERE, null, ex);
+          }
+        }
+      }
+
+      if (!key.reset()) {
+        // the directory is deleted or the watch is removed
+        synchronized (watcherLock) {
+          List<WatchedDirectory> _directoryList = keyMap.remove(key);
+          if (_directoryList != null) {
+            for (WatchedDirectory watchedDirectory : _directoryList) {
+              Watch watch = watchedDirectory.watch;
+              watch.keySet.remove(key);
+              if (watch.directoryMap.get(watchedDirectory.directory.toString()) == key) {
+                watch.directoryMap.remove(watchedDirectory.directory.toString());
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  protected void dispatch(WatchedDirectory watchedDirectory, WatchEvent.Kind<?> kind, Path path) {
+    Watch watch = watchedDirectory.watch;
+    String name = watch.root.relativize(path).toString();
+
+    if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+      List<String> createdNameList = null;
+      if (watch.watchSubtree && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+        createdNameList = new ArrayList<String>();
+        synchronized (watcherLock) {
+          if (watchMap.get(watch.watchId) != watch) {
+            return;
+          }
+          try {
+            register(watch, path, createdNameList);
+          } catch (IOException ex) {
+            LOG.log(Level.FINE, null, ex);
+          }
+        }
+      }
+      if ((watch.mask & FILE_CREATED) != 0) {
+        watch.listener.fileCreated(watch.watchId, watch.rootPath, name);
+        if (createdNameList != null) {
+          for (String createdName : createdNameList) {
+            watch.listener.fileCreated(watch.watchId, watch.rootPath, createdName);
+          }
+        }
+      }
+    } else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+      if (watch.watchSubtree) {
+        // not known whether it was a directory, nothing is registered under a file
+        synchronized (watcherLock) {
+          unregister(watch, path);
+        }
+      }
+      if ((watch.mask & FILE_DELETED) != 0) {
+        watch.listener.fileDeleted(watch.watchId, watch.rootPath, name);
+      }
+    } else if (kind == StandardWatchEventKinds.ENTRY_MODIFY) {
+      if ((watch.mask & FILE_MODIFIED) != 0) {
+        watch.listener.fileModified(watch.watchId, watch.rootPath, name);
+      }
+    }
+  }
+
+  /**
+   * Stop the polling thread and release the WatchService.
+   * @throws IOException error occurred when closing the WatchService
+   */
+  public void close() throws IOException {
+    synchronized (watcherLock) {
+      watchMap.clear();
+      keyMap.clear();
+    }
+    watchService.close();
+  }
+
+  protected static class Watch {
+
+    protected final int watchId;
+    /**
+     * The path as given in addWatch, reported in events.
+     */
+    protected final String rootPath;
+    protected final Path root;
+    protected final int mask;
+    protected final boolean watchSubtree;
+    protected final FileWatcherListener listener;
+    protected final Set<WatchKey> keySet;
+    /**
+     * The key of each directory registered by path, sorted so the directories
+     * inside a directory are found by range.
+     */
+    protected final NavigableMap<String, WatchKey> directoryMap;
+
+    protected Watch(int watchId, String rootPath, Path root, int mask, boolean watchSubtree, FileWatcherListener listener) {
+      this.watchId = watchId;
+      this.rootPath = rootPath;
+      this.root = root;
+      this.mask = mask;
+      this.watchSubtree = watchSubtree;
+      this.listener = listener;
+      keySet = new HashSet<WatchKey>();
+      directoryMap = new TreeMap<String, WatchKey>();
+    }
+  }
+
+  protected static class WatchedDirectory {
+
+    protected final Watch watch;
+    /**
+     * The path of the directory, updated when it is registered again after
+     * renamed.
+     */
+    protected volatile Path directory;
+
+    protected WatchedDirectory(Watch watch, Path directory) {
+      this.watch = watch;
+      this.directory = directory;
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package langfiles.util;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Forward the events to a listener that is only weakly referenced, so a
+ * {@link FileWatcher} does not keep the owner of the listener reachable. The
+ * owner should keep the listener strongly, and remove the watch when closed
+ * or, as a safety net, by {@link ResourceCleaner} when collected. The events
+ * after the listener is collected are dropped.
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class WeakFileWatcherListener implements FileWatcherListener {
+
+  private static final Logger LOG = Logger.getLogger(WeakFileWatcherListener.class.getName());
+  protected final WeakReference<FileWatcherListener> listenerReference;
+
+  /**
+   * Constructor.
+   * @param listener the listener to forward the events to
+   */
+  public WeakFileWatcherListener(FileWatcherListener listener) {
+    if (listener == null) {
+      throw new NullPointerException("argument 'listener' cannot be null");
+    }
+    listenerReference = new WeakReference<FileWatcherListener>(listener);
+  }
+
+  /**
+   * Create the action for {@link ResourceCleaner} that remove the watch of an
+   * owner collected without removing it.
+   * @param fileWatcher the watcher the watch added to
+   * @param watchId the watch id
+   * @param path the path watched, for the log
+   * @return the action
+   */
+  public static Runnable newRemoveWatchAction(final FileWatcher fileWatcher, final int watchId, final String path) {
+    return new Runnable() {
+
+      @Override
+      public void run() {
+        LOG.log(Level.WARNING, "Watch not removed (invoke close()) properly, path: {0}", path);
+        try {
+          fileWatcher.removeWatch(watchId);
+        } catch (IOException ex) {
+          LOG.log(Level.WARNING, null, ex);
+        }
+      }
+    };
+  }
+
+  @Override
+  public void fileCreated(int watchId, String rootPath, String name) {
+    FileWatcherListener listener = listenerReference.get();
+    if (listener != null) {
+      listener.fileCreated(watchId, rootPath, name);
+    }
+  }
+
+  @Override
+  public void fileDeleted(int watchId, String rootPath, String name) {
+    FileWatcherListener listener = listenerReference.get();
+    if (listener != null) {
+      listener.fileDeleted(watchId, rootPath, name);
+    }
+  }
+
+  @Override
+  public void fileModified(int watchId, String rootPath, String name) {
+    FileWatcherListener listener = listenerReference.get();
+    if (listener != null) {
+      listener.fileModified(watchId, rootPath, name);
+    }
+  }
+
+  @Override
+  public void fileRenamed(int watchId, String rootPath, String oldName, String newName) {
+    FileWatcherListener listener = listenerReference.get();
+    if (listener != null) {
+      listener.fileRenamed(watchId, rootPath, oldName, newName);
+    }
+  }
+}
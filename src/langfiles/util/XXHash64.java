@@ -0,0 +1,149 @@
+package langfiles.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The 64-bit xxHash, a fast non-cryptographic hash, fed incrementally.
+ * <p>
+ * It is used to tell whether the content of a file is actually changed, not
+ * for security. Not thread safe.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class XXHash64 {
+
+  protected static final long PRIME1 = 0x9E3779B185EBCA87L;
+  protected static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+  protected static final long PRIME3 = 0x165667B19E3779F9L;
+  protected static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+  protected static final long PRIME5 = 0x27D4EB2F165667C5L;
+  protected final long seed;
+  protected long v1;
+  protected long v2;
+  protected long v3;
+  protected long v4;
+  protected long totalLength;
+  /**
+   * The input not processed yet, less than one stripe of 32 bytes.
+   */
+  protected final ByteBuffer pending;
+
+  /**
+   * Constructor.
+   * @param seed the seed
+   */
+  public XXHash64(long seed) {
+    this.seed = seed;
+    pending = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+    reset();
+  }
+
+  /**
+   * Get the hash of the bytes.
+   * @param b the bytes
+   * @param offset the offset
+   * @param length the length
+   * @param seed the seed
+   * @return the hash
+   */
+  public static long hash(byte[] b, int offset, int length, long seed) {
+    XXHash64 hash = new XXHash64(seed);
+    hash.update(ByteBuffer.wrap(b, offset, length));
+    return hash.getValue();
+  }
+
+  public final void reset() {
+    v1 = seed + PRIME1 + PRIME2;
+    v2 = seed + PRIME2;
+    v3 = seed;
+    v4 = seed - PRIME1;
+    totalLength = 0;
+    pending.clear();
+  }
+
+  /**
+   * Feed the remaining bytes of the buffer, the position of the buffer is not
+   * changed.
+   * @param buffer the bytes
+   */
+  public void update(ByteBuffer buffer) {
+    ByteBuffer in = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    totalLength += in.remaining();
+
+    if (pending.position() > 0) {
+      while (pending.hasRemaining() && in.hasRemaining()) {
+        pending.put(in.get());
+      }
+      if (pending.hasRemaining()) {
+        return;
+      }
+      pending.flip();
+      processStripe(pending);
+      pending.clear();
+    }
+
+    while (in.remaining() >= 32) {
+      processStripe(in);
+    }
+    pending.put(in);
+  }
+
+  protected void processStripe(ByteBuffer in) {
+    v1 = round(v1, in.getLong());
+    v2 = round(v2, in.getLong());
+    v3 = round(v3, in.getLong());
+    v4 = round(v4, in.getLong());
+  }
+
+  /**
+   * Get the hash of the bytes fed so far, more bytes can be fed afterward.
+   * @return the hash
+   */
+  public long getValue() {
+    long h;
+    if (totalLength >= 32) {
+      h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+      h = mergeRound(h, v1);
+      h = mergeRound(h, v2);
+      h = mergeRound(h, v3);
+      h = mergeRound(h, v4);
+    } else {
+      h = seed + PRIME5;
+    }
+    h += totalLength;
+
+    ByteBuffer in = pending.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    in.flip();
+    while (in.remaining() >= 8) {
+      h ^= round(0, in.getLong());
+      h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+    }
+    if (in.remaining() >= 4) {
+      h ^= (in.getInt() & 0xFFFFFFFFL) * PRIME1;
+      h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+    }
+    while (in.hasRemaining()) {
+      h ^= (in.get() & 0xFF) * PRIME5;
+      h = Long.rotateLeft(h, 11) * PRIME1;
+    }
+
+    h ^= h >>> 33;
+    h *= PRIME2;
+    h ^= h >>> 29;
+    h *= PRIME3;
+    h ^= h >>> 32;
+    return h;
+  }
+
+  protected static long round(long acc, long input) {
+    acc += input * PRIME2;
+    acc = Long.rotateLeft(acc, 31);
+    return acc * PRIME1;
+  }
+
+  protected static long mergeRound(long acc, long value) {
+    acc ^= round(0, value);
+    return acc * PRIME1 + PRIME4;
+  }
+}